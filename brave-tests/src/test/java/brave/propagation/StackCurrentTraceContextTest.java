@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.test.propagation.CurrentTraceContextTest;
+import brave.test.util.ClassLoaders;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static brave.test.util.ClassLoaders.assertRunIsUnloadableWithSupplier;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StackCurrentTraceContextTest extends CurrentTraceContextTest {
+
+  @Override protected Class<? extends Supplier<CurrentTraceContext>> currentSupplier() {
+    return CurrentSupplier.class;
+  }
+
+  @Test public void newScope_reusesScopeAtSameDepth() {
+    try (Scope outer = currentTraceContext.newScope(context)) {
+      Scope first = currentTraceContext.newScope(unsampledContext);
+      first.close();
+
+      try (Scope second = currentTraceContext.newScope(unsampledContext)) {
+        assertThat(second).isSameAs(first);
+        try (Scope nested = currentTraceContext.newScope(context)) {
+          assertThat(nested).isNotSameAs(first);
+        }
+      }
+    }
+  }
+
+  @Test public void close_twiceIsIgnored() {
+    try (Scope outer = currentTraceContext.newScope(context)) {
+      Scope inner = currentTraceContext.newScope(unsampledContext);
+      inner.close();
+      inner.close();
+
+      assertThat(currentTraceContext.get()).isSameAs(context);
+    }
+    assertThat(currentTraceContext.get()).isNull();
+  }
+
+  @Test public void close_keepsStackWithoutContext() {
+    Scope outer = currentTraceContext.newScope(context);
+    outer.close();
+
+    assertThat(StackCurrentTraceContext.STACK.get().current).isNull();
+    try (Scope second = currentTraceContext.newScope(context)) {
+      assertThat(second).isSameAs(outer);
+    }
+  }
+
+  @Test public void removeStack() {
+    try (Scope outer = currentTraceContext.newScope(context)) {
+    }
+    StackCurrentTraceContext.removeStack();
+
+    assertThat(StackCurrentTraceContext.STACK.get()).isNull();
+  }
+
+  @Test public void close_outOfOrder() {
+    try (Scope outer = currentTraceContext.newScope(context)) {
+      Scope inner = currentTraceContext.newScope(unsampledContext);
+
+      assertThatThrownBy(outer::close)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("scope at depth 1 closed out of order: current depth is 2");
+      assertThat(currentTraceContext.get()).isSameAs(unsampledContext);
+
+      inner.close();
+      assertThat(currentTraceContext.get()).isSameAs(context);
+    }
+  }
+
+  /** The stack of reusable scopes remains in the thread local after they close. */
+  @Override @Test public void unloadable_afterScopeClose() {
+    assertThatThrownBy(super::unloadable_afterScopeClose).isInstanceOf(AssertionError.class);
+  }
+
+  @Test public void unloadable_afterRemoveStack() {
+    assertRunIsUnloadableWithSupplier(RemovedStack.class, currentSupplier());
+  }
+
+  static class RemovedStack extends ClassLoaders.ConsumerRunnable<CurrentTraceContext> {
+    @Override public void accept(CurrentTraceContext current) {
+      try (Scope ws = current.newScope(TraceContext.newBuilder().traceId(1L).spanId(2L).build())) {
+      }
+      StackCurrentTraceContext.removeStack();
+    }
+  }
+
+  static class CurrentSupplier implements Supplier<CurrentTraceContext> {
+    @Override public CurrentTraceContext get() {
+      return StackCurrentTraceContext.newBuilder().build();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Platform;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.test.propagation.CurrentTraceContextTest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+public class VirtualThreadCurrentTraceContextTest extends CurrentTraceContextTest {
+
+  @Override protected Class<? extends Supplier<CurrentTraceContext>> currentSupplier() {
+    return CurrentSupplier.class;
+  }
+
+  static class CurrentSupplier implements Supplier<CurrentTraceContext> {
+    @Override public CurrentTraceContext get() {
+      return VirtualThreadCurrentTraceContext.newBuilder().build();
+    }
+  }
+
+  /** Outside a scoped value binding, the stack of reusable scopes remains in a thread local. */
+  @Override @Test public void unloadable_afterScopeClose() {
+    assertThatThrownBy(super::unloadable_afterScopeClose).isInstanceOf(AssertionError.class);
+  }
+
+  @Test public void wrap_platformThread() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      assertThat(executor.submit(currentTraceContext.wrap(() -> currentTraceContext.get())).get())
+        .isSameAs(context);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test public void unwrappedVirtualThread_usesOwnStack() throws Exception {
+    ExecutorService executor = Platform.get().newVirtualThreadPerTaskExecutor();
+    assumeThat(executor).isNotNull();
+
+    try {
+      assertThat(executor.submit(() -> {
+        assertThat(currentTraceContext.get()).isNull();
+        try (Scope scope = currentTraceContext.newScope(context)) {
+          assertThat(VirtualThreadCurrentTraceContext.VIRTUAL_STACK.get().current)
+            .isSameAs(context);
+          return currentTraceContext.get();
+        }
+      }).get()).isSameAs(context);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Simulates a thread forked in a structured task scope, which sees the parent's binding. */
+  @Test public void forkedVirtualThread_doesntShareParentStack() throws Exception {
+    ExecutorService executor = Platform.get().newVirtualThreadPerTaskExecutor();
+    assumeThat(executor).isNotNull();
+
+    VirtualThreadCurrentTraceContext.Binding parent =
+      new VirtualThreadCurrentTraceContext.Binding(context, new Thread());
+    try {
+      executor.submit(() -> VirtualThreadCurrentTraceContext.SCOPED.run(parent, () -> {
+        assertThat(currentTraceContext.get()).isSameAs(context);
+        try (Scope scope = currentTraceContext.newScope(unsampledContext)) {
+          assertThat(currentTraceContext.get()).isSameAs(unsampledContext);
+          assertThat(parent.stack.current).isSameAs(context);
+        }
+        assertThat(currentTraceContext.get()).isSameAs(context);
+      })).get();
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
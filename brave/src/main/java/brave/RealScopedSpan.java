@@ -15,6 +15,7 @@ package brave;
 
 import brave.handler.FinishedSpanHandler;
 import brave.handler.MutableSpan;
+import brave.internal.InternalMutableSpan;
 import brave.internal.recorder.PendingSpans;
 import brave.propagation.CurrentTraceContext.Scope;
 import brave.propagation.TraceContext;
@@ -28,6 +29,8 @@ final class RealScopedSpan extends ScopedSpan {
   final Clock clock;
   final PendingSpans pendingSpans;
   final FinishedSpanHandler finishedSpanHandler;
+  /** Detects when this handle outlived a span whose storage was recycled. */
+  final int generation;
 
   RealScopedSpan(
     TraceContext context,
@@ -43,6 +46,7 @@ final class RealScopedSpan extends ScopedSpan {
     this.state = state;
     this.clock = clock;
     this.finishedSpanHandler = finishedSpanHandler;
+    this.generation = InternalMutableSpan.instance.generation(state);
   }
 
   @Override public boolean isNoop() {
@@ -54,25 +58,32 @@ final class RealScopedSpan extends ScopedSpan {
   }
 
   @Override public ScopedSpan annotate(String value) {
-    state.annotate(clock.currentTimeMicroseconds(), value);
+    if (!recycled()) state.annotate(clock.currentTimeMicroseconds(), value);
     return this;
   }
 
   @Override public ScopedSpan tag(String key, String value) {
-    state.tag(key, value);
+    if (!recycled()) state.tag(key, value);
     return this;
   }
 
   @Override public ScopedSpan error(Throwable throwable) {
-    state.error(throwable);
+    if (!recycled()) state.error(throwable);
     return this;
   }
 
   @Override public void finish() {
     scope.close();
+    if (recycled()) return; // finished by another handle, so the context may now be in use
     if (!pendingSpans.remove(context)) return; // don't double-report
     state.finishTimestamp(clock.currentTimeMicroseconds());
     finishedSpanHandler.handle(context, state);
+    pendingSpans.recycle(state);
+  }
+
+  /** Returns true if the span finished and its storage was reused, so this must not touch it. */
+  boolean recycled() {
+    return InternalMutableSpan.instance.generation(state) != generation;
   }
 
   @Override public boolean equals(Object o) {
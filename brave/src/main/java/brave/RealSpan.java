@@ -15,6 +15,7 @@ package brave;
 
 import brave.handler.FinishedSpanHandler;
 import brave.handler.MutableSpan;
+import brave.internal.InternalMutableSpan;
 import brave.internal.recorder.PendingSpans;
 import brave.propagation.TraceContext;
 
@@ -26,6 +27,8 @@ final class RealSpan extends Span {
   final MutableSpan state;
   final Clock clock;
   final FinishedSpanHandler finishedSpanHandler;
+  /** Detects when this handle outlived a span whose storage was recycled. */
+  final int generation;
 
   RealSpan(TraceContext context,
     PendingSpans pendingSpans,
@@ -38,6 +41,7 @@ final class RealSpan extends Span {
     this.state = state;
     this.clock = clock;
     this.finishedSpanHandler = finishedSpanHandler;
+    this.generation = InternalMutableSpan.instance.generation(state);
   }
 
   @Override public boolean isNoop() {
@@ -58,6 +62,7 @@ final class RealSpan extends Span {
 
   @Override public Span start(long timestamp) {
     synchronized (state) {
+      if (recycled()) return this;
       state.startTimestamp(timestamp);
     }
     return this;
@@ -65,6 +70,7 @@ final class RealSpan extends Span {
 
   @Override public Span name(String name) {
     synchronized (state) {
+      if (recycled()) return this;
       state.name(name);
     }
     return this;
@@ -72,6 +78,7 @@ final class RealSpan extends Span {
 
   @Override public Span kind(Kind kind) {
     synchronized (state) {
+      if (recycled()) return this;
       state.kind(kind);
     }
     return this;
@@ -86,26 +93,31 @@ final class RealSpan extends Span {
     // accept them rather than fail. This for example allows old bridges like to Brave v3 to work
     if ("cs".equals(value)) {
       synchronized (state) {
+        if (recycled()) return this;
         state.kind(Span.Kind.CLIENT);
         state.startTimestamp(timestamp);
       }
     } else if ("sr".equals(value)) {
       synchronized (state) {
+        if (recycled()) return this;
         state.kind(Span.Kind.SERVER);
         state.startTimestamp(timestamp);
       }
     } else if ("cr".equals(value)) {
       synchronized (state) {
+        if (recycled()) return this;
         state.kind(Span.Kind.CLIENT);
       }
       finish(timestamp);
     } else if ("ss".equals(value)) {
       synchronized (state) {
+        if (recycled()) return this;
         state.kind(Span.Kind.SERVER);
       }
       finish(timestamp);
     } else {
       synchronized (state) {
+        if (recycled()) return this;
         state.annotate(timestamp, value);
       }
     }
@@ -114,6 +126,7 @@ final class RealSpan extends Span {
 
   @Override public Span tag(String key, String value) {
     synchronized (state) {
+      if (recycled()) return this;
       state.tag(key, value);
     }
     return this;
@@ -121,6 +134,7 @@ final class RealSpan extends Span {
 
   @Override public Span error(Throwable throwable) {
     synchronized (state) {
+      if (recycled()) return this;
       state.error(throwable);
     }
     return this;
@@ -128,6 +142,7 @@ final class RealSpan extends Span {
 
   @Override public Span remoteServiceName(String remoteServiceName) {
     synchronized (state) {
+      if (recycled()) return this;
       state.remoteServiceName(remoteServiceName);
     }
     return this;
@@ -135,6 +150,7 @@ final class RealSpan extends Span {
 
   @Override public boolean remoteIpAndPort(String remoteIp, int remotePort) {
     synchronized (state) {
+      if (recycled()) return false;
       return state.remoteIpAndPort(remoteIp, remotePort);
     }
   }
@@ -144,22 +160,40 @@ final class RealSpan extends Span {
   }
 
   @Override public void finish(long timestamp) {
+    synchronized (state) {
+      if (recycled()) return; // don't finish a different span which reused the same context
+    }
     if (!pendingSpans.remove(context)) return;
     synchronized (state) {
       state.finishTimestamp(timestamp);
     }
     finishedSpanHandler.handle(context, state);
+    pendingSpans.recycle(state);
   }
 
   @Override public void abandon() {
+    synchronized (state) {
+      if (recycled()) return;
+    }
     pendingSpans.remove(context);
   }
 
   @Override public void flush() {
-    abandon();
+    synchronized (state) {
+      if (recycled()) return;
+    }
+    pendingSpans.remove(context);
     finishedSpanHandler.handle(context, state);
   }
 
+  /**
+   * Returns true if the span finished and its storage was reused, so this handle must not touch it.
+   * Call this while holding the lock on {@link #state}.
+   */
+  boolean recycled() {
+    return InternalMutableSpan.instance.generation(state) != generation;
+  }
+
   @Override public String toString() {
     return "RealSpan(" + context + ")";
   }
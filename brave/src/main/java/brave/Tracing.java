@@ -13,11 +13,17 @@
  */
 package brave;
 
+import brave.handler.AsyncFinishedSpanHandling;
 import brave.handler.FinishedSpanHandler;
+import brave.handler.SpanCompaction;
+import brave.handler.TailSampling;
 import brave.internal.IpLiteral;
 import brave.internal.Nullable;
 import brave.internal.Platform;
+import brave.internal.handler.FinishedSpanRingBuffer;
 import brave.internal.handler.NoopAwareFinishedSpanHandler;
+import brave.internal.handler.SpanCompactionHandler;
+import brave.internal.handler.TailSamplingHandler;
 import brave.internal.handler.ZipkinFinishedSpanHandler;
 import brave.internal.recorder.PendingSpans;
 import brave.propagation.B3Propagation;
@@ -145,10 +151,13 @@ public abstract class Tracing implements Closeable {
     Sampler sampler = Sampler.ALWAYS_SAMPLE;
     CurrentTraceContext currentTraceContext = CurrentTraceContext.Default.inheritable();
     boolean traceId128Bit = false, supportsJoin = true, alwaysReportSpans = false;
-    boolean trackOrphans = false;
+    boolean trackOrphans = false, recycleSpans = false;
     Propagation.Factory propagationFactory = B3Propagation.FACTORY;
     ErrorParser errorParser = new ErrorParser();
     Set<FinishedSpanHandler> finishedSpanHandlers = new LinkedHashSet<>(); // dupes not ok
+    AsyncFinishedSpanHandling asyncFinishedSpanHandling; // null means synchronous
+    TailSampling tailSampling; // null means spans are reported as sampled
+    SpanCompaction spanCompaction; // null means spans are reported individually
 
     /**
      * Label of the remote node in the service graph, such as "favstar". Avoid names with variables
@@ -390,6 +399,84 @@ public abstract class Tracing implements Closeable {
       return this;
     }
 
+    /**
+     * When set, the storage of a span is reused for another span once {@link
+     * #addFinishedSpanHandler(FinishedSpanHandler) finished span handlers} return. Defaults to
+     * off.
+     *
+     * <p>This reduces garbage collection at high span rates. However, handlers must not retain the
+     * {@link MutableSpan} they are passed, or read it after returning. Changes made through a span
+     * handle after its storage was reused, such as a late tag, are ignored.
+     *
+     * <p>This is ignored when {@linkplain #asyncFinishedSpanHandling(AsyncFinishedSpanHandling)
+     * handling spans asynchronously}, with {@linkplain #tailSampling(TailSampling) tail sampling}
+     * or with {@linkplain #spanCompaction(SpanCompaction) span compaction}, as these hold spans
+     * after handlers return.
+     *
+     * @since 5.11
+     */
+    public Builder recycleSpans() {
+      this.recycleSpans = true;
+      return this;
+    }
+
+    /**
+     * When set, {@link #addFinishedSpanHandler(FinishedSpanHandler) finished span handlers} and
+     * {@link #spanReporter(Reporter) Zipkin conversion} run on dedicated threads instead of the
+     * thread that finished the span. Defaults to unset, which means they run synchronously.
+     *
+     * <p>This reduces overhead on application threads, notably when the span reporter stalls. The
+     * consumer threads are stopped when this component is {@link Tracing#close() closed}.
+     *
+     * @see AsyncFinishedSpanHandling#droppedSpans()
+     * @since 5.11
+     */
+    public Builder asyncFinishedSpanHandling(AsyncFinishedSpanHandling asyncFinishedSpanHandling) {
+      if (asyncFinishedSpanHandling == null) {
+        throw new NullPointerException("asyncFinishedSpanHandling == null");
+      }
+      this.asyncFinishedSpanHandling = asyncFinishedSpanHandling;
+      return this;
+    }
+
+    /**
+     * When set, spans not {@link TraceContext#sampled() sampled} are recorded anyway, and {@link
+     * #spanReporter(Reporter) reported} only if the {@link TailSampling#decision() decision} keeps
+     * their local trace once its local root span finishes. Defaults to unset, which means only
+     * sampled spans are reported.
+     *
+     * <p>This allows reporting traces that failed or were slow, without sampling all traces.
+     * {@link #addFinishedSpanHandler(FinishedSpanHandler) Finished span handlers} are not affected:
+     * they see all spans as soon as they finish. Local traces still waiting for a decision are
+     * decided when this component is {@link Tracing#close() closed}.
+     *
+     * @see TailSampling#keptTraces()
+     * @since 5.11
+     */
+    public Builder tailSampling(TailSampling tailSampling) {
+      if (tailSampling == null) throw new NullPointerException("tailSampling == null");
+      this.tailSampling = tailSampling;
+      return this;
+    }
+
+    /**
+     * When set, short sibling spans matching the configuration are merged into one span before
+     * they are {@link #spanReporter(Reporter) reported}. Defaults to unset, which means each span
+     * is reported individually.
+     *
+     * <p>This reduces the count and size of spans sent to Zipkin when a request issues many fast
+     * calls, such as database queries. {@link #addFinishedSpanHandler(FinishedSpanHandler) Finished
+     * span handlers} are not affected: they see all spans as soon as they finish.
+     *
+     * @see SpanCompaction#compactedSpans()
+     * @since 5.11
+     */
+    public Builder spanCompaction(SpanCompaction spanCompaction) {
+      if (spanCompaction == null) throw new NullPointerException("spanCompaction == null");
+      this.spanCompaction = spanCompaction;
+      return this;
+    }
+
     public Tracing build() {
       if (clock == null) clock = Platform.get().clock();
       if (localIp == null) localIp = Platform.get().linkLocalIp();
@@ -424,6 +511,9 @@ public abstract class Tracing implements Closeable {
     final Clock clock;
     final ErrorParser errorParser;
     final AtomicBoolean noop;
+    @Nullable final FinishedSpanRingBuffer ringBuffer;
+    @Nullable final TailSamplingHandler tailSamplingHandler;
+    @Nullable final SpanCompactionHandler spanCompactionHandler;
 
     Default(Builder builder) {
       this.clock = builder.clock;
@@ -439,6 +529,21 @@ public abstract class Tracing implements Closeable {
         builder.localServiceName, builder.localIp, builder.localPort, builder.alwaysReportSpans)
         : FinishedSpanHandler.NOOP;
 
+      // Only Zipkin reporting is delayed by these: other handlers see spans as they finish
+      if (builder.spanCompaction != null && zipkinHandler != FinishedSpanHandler.NOOP) {
+        zipkinHandler = SpanCompactionHandler.wrap(builder.spanCompaction, zipkinHandler);
+        spanCompactionHandler = (SpanCompactionHandler) zipkinHandler;
+      } else {
+        spanCompactionHandler = null;
+      }
+      // Tail sampling runs first, so that its decision sees spans before they are compacted
+      if (builder.tailSampling != null && zipkinHandler != FinishedSpanHandler.NOOP) {
+        zipkinHandler = TailSamplingHandler.wrap(builder.tailSampling, zipkinHandler);
+        tailSamplingHandler = (TailSamplingHandler) zipkinHandler;
+      } else {
+        tailSamplingHandler = null;
+      }
+
       FinishedSpanHandler finishedSpanHandler =
         zipkinReportingFinishedSpanHandler(builder.finishedSpanHandlers, zipkinHandler, noop);
 
@@ -454,11 +559,25 @@ public abstract class Tracing implements Closeable {
           zipkinReportingFinishedSpanHandler(orphanedSpanHandlers, zipkinHandler, noop);
       }
 
+      // Both normal and orphaned spans share the same ring buffer and consumer threads
+      boolean hasHandlers = finishedSpanHandler != FinishedSpanHandler.NOOP
+        || orphanedSpanHandler != FinishedSpanHandler.NOOP;
+      if (builder.asyncFinishedSpanHandling != null && hasHandlers) {
+        ringBuffer = new FinishedSpanRingBuffer(builder.asyncFinishedSpanHandling);
+        finishedSpanHandler = ringBuffer.wrap(finishedSpanHandler);
+        orphanedSpanHandler = ringBuffer.wrap(orphanedSpanHandler);
+      } else {
+        ringBuffer = null;
+      }
+
+      boolean recycleSpans = builder.recycleSpans && ringBuffer == null
+        && tailSamplingHandler == null && spanCompactionHandler == null;
+
       this.tracer = new Tracer(
         builder.clock,
         builder.propagationFactory,
         finishedSpanHandler,
-        new PendingSpans(clock, orphanedSpanHandler, builder.trackOrphans, noop),
+        new PendingSpans(clock, orphanedSpanHandler, builder.trackOrphans, recycleSpans, noop),
         builder.sampler,
         builder.currentTraceContext,
         builder.traceId128Bit || propagationFactory.requires128BitTraceId(),
@@ -509,6 +628,10 @@ public abstract class Tracing implements Closeable {
     @Override public void close() {
       // only set null if we are the outer-most instance
       CURRENT.compareAndSet(this, null);
+      if (ringBuffer != null) ringBuffer.close();
+      // after the ring buffer, as closing it drains spans into these buffers
+      if (tailSamplingHandler != null) tailSamplingHandler.close();
+      if (spanCompactionHandler != null) spanCompactionHandler.close();
     }
   }
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Span;
+import brave.Tracing;
+import brave.internal.handler.InternalHandlerConfig;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures {@link Tracing.Builder#asyncFinishedSpanHandling(AsyncFinishedSpanHandling)}, which
+ * moves {@link FinishedSpanHandler finished span handlers}, including Zipkin conversion, off the
+ * thread that calls {@link Span#finish()}.
+ *
+ * <p>Finished spans are placed on a bounded ring buffer, drained by {@link Builder#threads(int)
+ * dedicated daemon threads}. When the buffer is full, the {@link OverflowPolicy} decides what to
+ * drop. Dropped spans are counted in {@link #droppedSpans()}.
+ *
+ * <p>Note: Handlers run later and on a different thread than the application. Handlers that read
+ * thread-local state, such as the {@link brave.propagation.CurrentTraceContext current span},
+ * should not be used in this mode.
+ *
+ * @since 5.11
+ */
+public final class AsyncFinishedSpanHandling {
+  /** Decides what happens when a span is finished and the ring buffer is full. */
+  public enum OverflowPolicy {
+    /** Drops the span that was just finished. This is the default. */
+    DROP_NEWEST,
+    /** Drops the oldest span in the ring buffer in order to accept the one just finished. */
+    DROP_OLDEST,
+    /**
+     * Blocks the finishing thread up to {@link Builder#blockTimeout(long, TimeUnit)}, after which
+     * the span just finished is dropped.
+     */
+    BLOCK
+  }
+
+  static {
+    InternalHandlerConfig.instance = new InternalHandlerConfig() {
+      @Override public void incrementDroppedSpans(AsyncFinishedSpanHandling config) {
+        config.droppedSpans.incrementAndGet();
+      }
+
+      @Override public void incrementDecided(TailSampling config, boolean kept, boolean evicted) {
+        config.incrementDecided(kept, evicted);
+      }
+
+      @Override public void incrementCompactedSpans(SpanCompaction config, int count) {
+        config.incrementCompactedSpans(count);
+      }
+    };
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    int queueSize = 1024, threads = 1;
+    OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    long blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Maximum count of finished spans waiting to be handled. This is rounded up to the next power
+     * of two. Defaults to 1024.
+     */
+    public Builder queueSize(int queueSize) {
+      if (queueSize <= 0) throw new IllegalArgumentException("queueSize <= 0");
+      if (queueSize > 1 << 30) throw new IllegalArgumentException("queueSize > 2^30");
+      this.queueSize = queueSize;
+      return this;
+    }
+
+    /** Count of daemon threads which run finished span handlers. Defaults to 1. */
+    public Builder threads(int threads) {
+      if (threads <= 0) throw new IllegalArgumentException("threads <= 0");
+      this.threads = threads;
+      return this;
+    }
+
+    /** Defaults to {@link OverflowPolicy#DROP_NEWEST}. */
+    public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+      if (overflowPolicy == null) throw new NullPointerException("overflowPolicy == null");
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /** Only used with {@link OverflowPolicy#BLOCK}. Defaults to 1 millisecond. */
+    public Builder blockTimeout(long timeout, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+      this.blockTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    public AsyncFinishedSpanHandling build() {
+      return new AsyncFinishedSpanHandling(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final int queueSize, threads;
+  final OverflowPolicy overflowPolicy;
+  final long blockTimeoutNanos;
+  final AtomicLong droppedSpans = new AtomicLong();
+
+  AsyncFinishedSpanHandling(Builder builder) {
+    queueSize = builder.queueSize;
+    threads = builder.threads;
+    overflowPolicy = builder.overflowPolicy;
+    blockTimeoutNanos = builder.blockTimeoutNanos;
+  }
+
+  public int queueSize() {
+    return queueSize;
+  }
+
+  public int threads() {
+    return threads;
+  }
+
+  public OverflowPolicy overflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public long blockTimeoutNanos() {
+    return blockTimeoutNanos;
+  }
+
+  /**
+   * Returns the count of finished spans dropped due to overflow, across all tracing components
+   * configured with this instance.
+   */
+  public long droppedSpans() {
+    return droppedSpans.get();
+  }
+
+  @Override public String toString() {
+    return "AsyncFinishedSpanHandling{queueSize=" + queueSize
+      + ", threads=" + threads
+      + ", overflowPolicy=" + overflowPolicy
+      + ", droppedSpans=" + droppedSpans.get()
+      + "}";
+  }
+}
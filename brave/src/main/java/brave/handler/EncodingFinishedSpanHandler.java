@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.ErrorParser;
+import brave.Tracing;
+import brave.internal.IpLiteral;
+import brave.internal.Nullable;
+import brave.internal.Platform;
+import brave.internal.handler.MutableSpanBytesEncoder;
+import brave.propagation.TraceContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import zipkin2.codec.Encoding;
+
+/**
+ * Writes sampled spans to a byte channel in Zipkin v2 format, without first converting them to
+ * {@link zipkin2.Span}. This is an alternative to {@link Tracing.Builder#spanReporter} for
+ * transports that accept bytes, such as a file, socket or pipe to a local agent.
+ *
+ * <p>Spans are encoded into a buffer reused by the finishing thread, so encoding doesn't allocate
+ * per span. The encoded bytes are appended to a bounded queue, which a daemon thread writes to the
+ * channel, so that the finishing thread never blocks on I/O. Spans are written whole, in the order
+ * they were queued:
+ * <ul>
+ *   <li>{@link Encoding#JSON} - each span is a line of JSON</li>
+ *   <li>{@link Encoding#PROTO3} - each span is a ListOfSpans message with one entry. As such, the
+ *   concatenation of spans written is itself a ListOfSpans message.</li>
+ * </ul>
+ *
+ * <p>For example, to write spans to a file:
+ * <pre>{@code
+ * channel = FileChannel.open(path, CREATE, WRITE, APPEND);
+ * tracingBuilder.addFinishedSpanHandler(EncodingFinishedSpanHandler.newBuilder(channel)
+ *   .localServiceName("frontend")
+ *   .build());
+ * }</pre>
+ *
+ * <p>Spans that don't fit in the {@link Builder#queuedMaxBytes(int) queue} are dropped, and counted
+ * by {@link #droppedSpans()}. Exceptions writing to the channel are logged, not raised. Call {@link
+ * #close()} to write any spans still queued and stop the thread. This does not close the channel.
+ *
+ * @since 5.11
+ */
+public final class EncodingFinishedSpanHandler extends FinishedSpanHandler implements Closeable {
+  public static Builder newBuilder(WritableByteChannel channel) {
+    if (channel == null) throw new NullPointerException("channel == null");
+    return new Builder(channel);
+  }
+
+  public static final class Builder {
+    final WritableByteChannel channel;
+    Encoding encoding = Encoding.JSON;
+    ErrorParser errorParser = new ErrorParser();
+    String localServiceName = "unknown";
+    @Nullable String localIp = Platform.get().linkLocalIp();
+    int localPort;
+    int queuedMaxBytes = 1024 * 1024;
+
+    /** {@link Encoding#JSON} (v2) or {@link Encoding#PROTO3}. Defaults to {@link Encoding#JSON}. */
+    public Builder encoding(Encoding encoding) {
+      if (encoding == null) throw new NullPointerException("encoding == null");
+      if (encoding == Encoding.THRIFT) {
+        throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+      }
+      this.encoding = encoding;
+      return this;
+    }
+
+    /** Used to add the "error" tag when only {@link MutableSpan#error()} is set. */
+    public Builder errorParser(ErrorParser errorParser) {
+      if (errorParser == null) throw new NullPointerException("errorParser == null");
+      this.errorParser = errorParser;
+      return this;
+    }
+
+    /** @see Tracing.Builder#localServiceName(String) */
+    public Builder localServiceName(String localServiceName) {
+      if (localServiceName == null || localServiceName.isEmpty()) {
+        throw new IllegalArgumentException(localServiceName + " is not a valid serviceName");
+      }
+      this.localServiceName = localServiceName;
+      return this;
+    }
+
+    /** @see Tracing.Builder#localIp(String) */
+    public Builder localIp(String localIp) {
+      String maybeIp = IpLiteral.ipOrNull(localIp);
+      if (maybeIp == null) throw new IllegalArgumentException(localIp + " is not a valid IP");
+      this.localIp = maybeIp;
+      return this;
+    }
+
+    /** @see Tracing.Builder#localPort(int) */
+    public Builder localPort(int localPort) {
+      if (localPort > 0xffff) throw new IllegalArgumentException("invalid localPort " + localPort);
+      if (localPort < 0) localPort = 0;
+      this.localPort = localPort;
+      return this;
+    }
+
+    /**
+     * Maximum bytes of encoded spans waiting to be written to the channel. Defaults to 1 MiB.
+     *
+     * <p>Twice this amount is allocated, as the queue is swapped with a second buffer while the
+     * channel is written.
+     */
+    public Builder queuedMaxBytes(int queuedMaxBytes) {
+      if (queuedMaxBytes <= 0) throw new IllegalArgumentException("queuedMaxBytes <= 0");
+      this.queuedMaxBytes = queuedMaxBytes;
+      return this;
+    }
+
+    public EncodingFinishedSpanHandler build() {
+      return new EncodingFinishedSpanHandler(this);
+    }
+
+    Builder(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /** How long the writer thread waits for spans before checking if it was closed. */
+  static final long WRITER_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  final WritableByteChannel channel;
+  final MutableSpanBytesEncoder encoder;
+  final boolean newlineDelimited;
+  final Thread writer;
+  final AtomicLong droppedSpans = new AtomicLong();
+  /** Guarded by the instance lock. Swapped with an empty buffer each time the writer runs. */
+  ByteBuffer queue;
+  volatile boolean closed;
+
+  EncodingFinishedSpanHandler(Builder builder) {
+    channel = builder.channel;
+    encoder = MutableSpanBytesEncoder.create(builder.encoding, builder.errorParser,
+      builder.localServiceName, builder.localIp, builder.localPort);
+    newlineDelimited = builder.encoding == Encoding.JSON;
+    queue = ByteBuffer.allocate(builder.queuedMaxBytes);
+    writer = new Thread(new Writer(ByteBuffer.allocate(builder.queuedMaxBytes)),
+      "brave-encoding-finished-span-handler");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public Encoding encoding() {
+    return encoder.encoding();
+  }
+
+  /** Returns the count of spans dropped because the queue was full or the handler closed. */
+  public long droppedSpans() {
+    return droppedSpans.get();
+  }
+
+  /** Like the Zipkin reporter, this only writes spans sampled remotely. */
+  @Override public boolean handle(TraceContext context, MutableSpan span) {
+    if (!Boolean.TRUE.equals(context.sampled())) return true;
+
+    ByteBuffer encoded = encoder.encode(context, span);
+    int sizeInBytes = encoded.remaining() + (newlineDelimited ? 1 : 0);
+    boolean wasEmpty;
+    synchronized (this) {
+      if (closed || queue.remaining() < sizeInBytes) {
+        droppedSpans.incrementAndGet();
+        return true;
+      }
+      wasEmpty = queue.position() == 0;
+      queue.put(encoded);
+      if (newlineDelimited) queue.put((byte) '\n');
+    }
+    if (wasEmpty) LockSupport.unpark(writer);
+    return true;
+  }
+
+  /** Writes any spans still queued, then stops the writer thread. */
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    LockSupport.unpark(writer);
+    if (writer == Thread.currentThread()) return;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Returns the queued spans, leaving the input empty buffer in their place. */
+  synchronized ByteBuffer swapQueue(ByteBuffer empty) {
+    ByteBuffer result = queue;
+    queue = empty;
+    return result;
+  }
+
+  synchronized boolean isQueueEmpty() {
+    return queue.position() == 0;
+  }
+
+  final class Writer implements Runnable {
+    ByteBuffer spare;
+
+    Writer(ByteBuffer spare) {
+      this.spare = spare;
+    }
+
+    @Override public void run() {
+      while (true) {
+        if (isQueueEmpty()) {
+          if (closed) return; // only exit once drained
+          LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+          continue;
+        }
+        ByteBuffer toWrite = swapQueue(spare);
+        toWrite.flip();
+        try {
+          while (toWrite.hasRemaining()) channel.write(toWrite);
+        } catch (IOException e) {
+          Platform.get().log("error writing spans to {0}", channel, e);
+        }
+        toWrite.clear();
+        spare = toWrite;
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return "EncodingFinishedSpanHandler{encoding=" + encoder.encoding() + ", channel=" + channel
+      + "}";
+  }
+}
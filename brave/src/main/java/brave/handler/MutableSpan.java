@@ -15,10 +15,11 @@ package brave.handler;
 
 import brave.Span.Kind;
 import brave.Tracer;
+import brave.internal.InternalMutableSpan;
 import brave.internal.IpLiteral;
 import brave.internal.Nullable;
 import brave.propagation.TraceContext;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This represents a span except for its {@link TraceContext}. It is mutable, for late adjustments.
@@ -66,16 +67,31 @@ public final class MutableSpan implements Cloneable {
   String name, localServiceName, localIp, remoteServiceName, remoteIp;
   int localPort, remotePort;
 
-  /** To reduce the amount of allocation use a pair-indexed list for tag (key, value). */
-  ArrayList<String> tags;
-  /** Also use pair indexing for annotations, but type object to store (startTimestamp, value). */
-  ArrayList<Object> annotations;
+  /** Pair-indexed array of tag (key, value), lazily allocated and reused when recycled. */
+  String[] tags;
+  int tagCount; // count of array elements in use, so twice the count of tags
+  /** Parallel arrays of annotations, so that timestamps aren't boxed. */
+  long[] annotationTimestamps;
+  String[] annotationValues;
+  int annotationCount;
   Throwable error;
+  /** Incremented each time the span is cleared for reuse, so stale handles can detect it. */
+  int generation;
+
+  static {
+    InternalMutableSpan.instance = new InternalMutableSpan() {
+      @Override public void clear(MutableSpan span) {
+        span.clear();
+      }
+
+      @Override public int generation(MutableSpan span) {
+        return span.generation;
+      }
+    };
+  }
 
   public MutableSpan() {
-    // this cheats because it will not need to grow unless there are more than 5 tags
-    tags = new ArrayList<>();
-    // lazy initialize annotations
+    // lazy initialize tags and annotations
   }
 
   /** Returns true if there was no data added. Usually this indicates an instrumentation bug. */
@@ -91,8 +107,8 @@ public final class MutableSpan implements Cloneable {
       && remoteIp == null
       && localPort == 0
       && remotePort == 0
-      && tags.isEmpty()
-      && annotations == null
+      && tagCount == 0
+      && annotationCount == 0
       && error == null;
   }
 
@@ -220,10 +236,8 @@ public final class MutableSpan implements Cloneable {
   /** Returns true if an annotation with the given value exists in this span. */
   public boolean containsAnnotation(String value) {
     if (value == null) throw new NullPointerException("value == null");
-    if (annotations == null) return false;
-
-    for (int i = 0, length = annotations.size(); i < length; i += 2) {
-      if (value.equals(annotations.get(i + 1))) return true;
+    for (int i = 0; i < annotationCount; i++) {
+      if (value.equals(annotationValues[i])) return true;
     }
     return false;
   }
@@ -232,9 +246,15 @@ public final class MutableSpan implements Cloneable {
   public void annotate(long timestamp, String value) {
     if (value == null) throw new NullPointerException("value == null");
     if (timestamp == 0L) return;
-    if (annotations == null) annotations = new ArrayList<>();
-    annotations.add(timestamp);
-    annotations.add(value);
+    if (annotationTimestamps == null) {
+      annotationTimestamps = new long[2];
+      annotationValues = new String[2];
+    } else if (annotationCount == annotationTimestamps.length) {
+      annotationTimestamps = Arrays.copyOf(annotationTimestamps, annotationCount * 2);
+      annotationValues = Arrays.copyOf(annotationValues, annotationCount * 2);
+    }
+    annotationTimestamps[annotationCount] = timestamp;
+    annotationValues[annotationCount++] = value;
   }
 
   /** @see brave.Span#error(Throwable) */
@@ -252,8 +272,8 @@ public final class MutableSpan implements Cloneable {
     if (key == null) throw new NullPointerException("key == null");
     if (key.isEmpty()) throw new IllegalArgumentException("key is empty");
     String result = null;
-    for (int i = 0, length = tags.size(); i < length; i += 2) {
-      if (key.equals(tags.get(i))) result = tags.get(i + 1);
+    for (int i = 0; i < tagCount; i += 2) {
+      if (key.equals(tags[i])) result = tags[i + 1];
     }
     return result;
   }
@@ -263,29 +283,35 @@ public final class MutableSpan implements Cloneable {
     if (key == null) throw new NullPointerException("key == null");
     if (key.isEmpty()) throw new IllegalArgumentException("key is empty");
     if (value == null) throw new NullPointerException("value of " + key + " == null");
-    for (int i = 0, length = tags.size(); i < length; i += 2) {
-      if (key.equals(tags.get(i))) {
-        tags.set(i + 1, value);
+    for (int i = 0; i < tagCount; i += 2) {
+      if (key.equals(tags[i])) {
+        tags[i + 1] = value;
         return;
       }
     }
-    tags.add(key);
-    tags.add(value);
+    if (tags == null) {
+      tags = new String[10]; // doesn't need to grow unless there are more than 5 tags
+    } else if (tagCount == tags.length) {
+      tags = Arrays.copyOf(tags, tagCount * 2);
+    }
+    tags[tagCount++] = key;
+    tags[tagCount++] = value;
   }
 
   public <T> void forEachTag(TagConsumer<T> tagConsumer, T target) {
-    for (int i = 0, length = tags.size(); i < length; i += 2) {
-      tagConsumer.accept(target, tags.get(i), tags.get(i + 1));
+    for (int i = 0; i < tagCount; i += 2) {
+      tagConsumer.accept(target, tags[i], tags[i + 1]);
     }
   }
 
   /** Allows you to update values for redaction purposes */
   public void forEachTag(TagUpdater tagUpdater) {
-    for (int i = 0, length = tags.size(); i < length; i += 2) {
-      String value = tags.get(i + 1);
-      String newValue = tagUpdater.update(tags.get(i), value);
-      if (updateOrRemove(tags, i, value, newValue)) {
-        length -= 2;
+    for (int i = 0; i < tagCount; i += 2) {
+      String newValue = tagUpdater.update(tags[i], tags[i + 1]);
+      if (newValue != null) {
+        tags[i + 1] = newValue;
+      } else {
+        tagCount = remove(tags, tagCount, i, 2);
         i -= 2;
       }
     }
@@ -295,36 +321,49 @@ public final class MutableSpan implements Cloneable {
    * Allows you to copy all data into a different target, such as a different span model or logs.
    */
   public <T> void forEachAnnotation(AnnotationConsumer<T> annotationConsumer, T target) {
-    if (annotations == null) return;
-    for (int i = 0, length = annotations.size(); i < length; i += 2) {
-      long timestamp = (long) annotations.get(i);
-      annotationConsumer.accept(target, timestamp, annotations.get(i + 1).toString());
+    for (int i = 0; i < annotationCount; i++) {
+      annotationConsumer.accept(target, annotationTimestamps[i], annotationValues[i]);
     }
   }
 
   /** Allows you to update values for redaction purposes */
   public void forEachAnnotation(AnnotationUpdater annotationUpdater) {
-    if (annotations == null) return;
-    for (int i = 0, length = annotations.size(); i < length; i += 2) {
-      String value = annotations.get(i + 1).toString();
-      String newValue = annotationUpdater.update((long) annotations.get(i), value);
-      if (updateOrRemove(annotations, i, value, newValue)) {
-        length -= 2;
-        i -= 2;
+    for (int i = 0; i < annotationCount; i++) {
+      String newValue = annotationUpdater.update(annotationTimestamps[i], annotationValues[i]);
+      if (newValue != null) {
+        annotationValues[i] = newValue;
+      } else {
+        int length = annotationCount - i - 1;
+        System.arraycopy(annotationTimestamps, i + 1, annotationTimestamps, i, length);
+        annotationCount = remove(annotationValues, annotationCount, i, 1);
+        i--;
       }
     }
   }
 
-  /** Returns true if the key/value was removed from the pair-indexed list at index {@code i} */
-  static boolean updateOrRemove(ArrayList list, int i, Object value, @Nullable Object newValue) {
-    if (newValue == null) {
-      list.remove(i);
-      list.remove(i);
-      return true;
-    } else if (!value.equals(newValue)) {
-      list.set(i + 1, newValue);
-    }
-    return false;
+  /** Removes {@code width} elements at index {@code i}, returning the new count. */
+  static int remove(Object[] array, int count, int i, int width) {
+    System.arraycopy(array, i + width, array, i, count - i - width);
+    for (int j = count - width; j < count; j++) array[j] = null;
+    return count - width;
+  }
+
+  /**
+   * Clears all data, but retains the tag and annotation arrays, so that this instance can be reused
+   * without allocation.
+   */
+  void clear() {
+    kind = null;
+    shared = false;
+    startTimestamp = finishTimestamp = 0L;
+    name = localServiceName = localIp = remoteServiceName = remoteIp = null;
+    localPort = remotePort = 0;
+    if (tagCount > 0) Arrays.fill(tags, 0, tagCount, null);
+    tagCount = 0;
+    if (annotationCount > 0) Arrays.fill(annotationValues, 0, annotationCount, null);
+    annotationCount = 0;
+    error = null;
+    generation++;
   }
 
   /** Returns true if the span ID is {@link #setShared() shared} with a remote client. */
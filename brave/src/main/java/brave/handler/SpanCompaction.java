@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Span.Kind;
+import brave.Tracing;
+import brave.internal.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures {@link Tracing.Builder#spanCompaction(SpanCompaction)}, which merges many short
+ * sibling spans, such as database queries issued by one request, into a single span before they
+ * are reported to Zipkin.
+ *
+ * <p>Sampled spans are grouped by parent span ID, name and kind. When the parent finishes, or the {@link
+ * Builder#window(long, TimeUnit) window} elapses, each group of more than one span is reported as
+ * one span. This span has the context and remote endpoint of the first span in the group, starts
+ * with the earliest and finishes with the latest span. Its tags summarize the group:
+ * <ul>
+ *   <li>{@link #TAG_COUNT} - the count of spans</li>
+ *   <li>{@link #TAG_DURATION_TOTAL}, {@link #TAG_DURATION_MIN}, {@link #TAG_DURATION_MAX} -
+ *   durations in microseconds</li>
+ *   <li>{@link #TAG_EXEMPLARS} - comma-separated span IDs of the first few spans</li>
+ * </ul>
+ *
+ * <p>For example, to compact JDBC queries and Redis commands that take under a millisecond:
+ * <pre>{@code
+ * tracingBuilder.spanCompaction(SpanCompaction.newBuilder()
+ *   .addKind(Kind.CLIENT)
+ *   .maxDuration(1, TimeUnit.MILLISECONDS)
+ *   .build());
+ * }</pre>
+ *
+ * <p>Spans with an {@link MutableSpan#error() error} or "error" tag are never compacted. Like
+ * {@link TailSampling}, only reporting to Zipkin is affected: {@link
+ * Tracing.Builder#addFinishedSpanHandler(FinishedSpanHandler) finished span handlers} see each
+ * span as it finishes.
+ *
+ * @since 5.11
+ */
+public final class SpanCompaction {
+  public static final String TAG_COUNT = "compaction.count";
+  public static final String TAG_DURATION_TOTAL = "compaction.duration.total";
+  public static final String TAG_DURATION_MIN = "compaction.duration.min";
+  public static final String TAG_DURATION_MAX = "compaction.duration.max";
+  public static final String TAG_EXEMPLARS = "compaction.exemplars";
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    // null value means all names of that kind
+    final Map<Kind, Set<String>> namesByKind = new HashMap<>();
+    long maxDurationMicros = TimeUnit.MILLISECONDS.toMicros(1);
+    long windowNanos = TimeUnit.SECONDS.toNanos(1);
+    int exemplars = 3;
+
+    /**
+     * Compacts spans of this kind, regardless of name.
+     *
+     * @param kind null means local spans
+     */
+    public Builder addKind(@Nullable Kind kind) {
+      namesByKind.put(kind, null);
+      return this;
+    }
+
+    /**
+     * Compacts spans of this kind and name. Ignored if {@link #addKind(Kind)} was called for the
+     * same kind.
+     *
+     * @param kind null means local spans
+     */
+    public Builder addName(@Nullable Kind kind, String name) {
+      if (name == null) throw new NullPointerException("name == null");
+      if (namesByKind.containsKey(kind)) {
+        Set<String> names = namesByKind.get(kind);
+        if (names != null) names.add(name);
+      } else {
+        Set<String> names = new HashSet<>();
+        names.add(name);
+        namesByKind.put(kind, names);
+      }
+      return this;
+    }
+
+    /** Spans that take longer than this are reported as-is. Defaults to 1 millisecond. */
+    public Builder maxDuration(long maxDuration, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (maxDuration < 0) throw new IllegalArgumentException("maxDuration < 0");
+      this.maxDurationMicros = unit.toMicros(maxDuration);
+      return this;
+    }
+
+    /**
+     * Maximum time to group spans whose parent hasn't yet finished, measured from the first span
+     * in the group. Defaults to 1 second.
+     */
+    public Builder window(long window, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (window <= 0) throw new IllegalArgumentException("window <= 0");
+      this.windowNanos = unit.toNanos(window);
+      return this;
+    }
+
+    /** Maximum count of span IDs in the {@link #TAG_EXEMPLARS} tag. Defaults to 3. */
+    public Builder exemplars(int exemplars) {
+      if (exemplars < 0) throw new IllegalArgumentException("exemplars < 0");
+      this.exemplars = exemplars;
+      return this;
+    }
+
+    public SpanCompaction build() {
+      if (namesByKind.isEmpty()) {
+        throw new IllegalArgumentException("call addKind or addName to compact spans");
+      }
+      return new SpanCompaction(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final Map<Kind, Set<String>> namesByKind;
+  final long maxDurationMicros, windowNanos;
+  final int exemplars;
+  final AtomicLong compactedSpans = new AtomicLong();
+
+  SpanCompaction(Builder builder) {
+    namesByKind = new HashMap<>();
+    for (Map.Entry<Kind, Set<String>> entry : builder.namesByKind.entrySet()) {
+      Set<String> names = entry.getValue();
+      namesByKind.put(entry.getKey(),
+        names != null ? Collections.unmodifiableSet(new HashSet<>(names)) : null);
+    }
+    maxDurationMicros = builder.maxDurationMicros;
+    windowNanos = builder.windowNanos;
+    exemplars = builder.exemplars;
+  }
+
+  /**
+   * Returns true if the span is eligible to be compacted with its siblings, based on its kind,
+   * name, duration and error status.
+   */
+  public boolean isCompactable(MutableSpan span) {
+    if (!namesByKind.containsKey(span.kind())) return false;
+    Set<String> names = namesByKind.get(span.kind());
+    String name = span.name();
+    if (names != null && (name == null || !names.contains(name))) return false;
+
+    long start = span.startTimestamp(), finish = span.finishTimestamp();
+    if (start == 0L || finish == 0L || finish - start > maxDurationMicros) return false;
+    return span.error() == null && span.tag("error") == null;
+  }
+
+  public long maxDurationMicros() {
+    return maxDurationMicros;
+  }
+
+  public long windowNanos() {
+    return windowNanos;
+  }
+
+  public int exemplars() {
+    return exemplars;
+  }
+
+  /** Returns the count of spans which were merged into another, so not reported individually. */
+  public long compactedSpans() {
+    return compactedSpans.get();
+  }
+
+  void incrementCompactedSpans(int count) {
+    compactedSpans.addAndGet(count);
+  }
+
+  @Override public String toString() {
+    return "SpanCompaction{namesByKind=" + namesByKind
+      + ", maxDurationMicros=" + maxDurationMicros
+      + ", windowNanos=" + windowNanos
+      + ", exemplars=" + exemplars
+      + "}";
+  }
+}
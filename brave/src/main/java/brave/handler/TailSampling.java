@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.handler;
+
+import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures {@link Tracing.Builder#tailSampling(TailSampling)}, which decides whether to report
+ * unsampled spans to Zipkin after their local root span finishes.
+ *
+ * <p>Spans whose {@link TraceContext#sampled() sampling decision} is not true are held in memory,
+ * grouped by {@link TraceContext#localRootId() local root}. When the local root span finishes, the
+ * {@link Decision} is applied to all spans of that local trace. Kept spans are reported as if they
+ * were sampled. Spans that finish after the decision follow it.
+ *
+ * <p>For example, to report 10% of traces in addition to any that fail or take longer than a
+ * second:
+ * <pre>{@code
+ * tracingBuilder.sampler(Sampler.create(0.1f))
+ *               .tailSampling(TailSampling.newBuilder()
+ *                 .decision(TailSampling.anyOf(
+ *                   TailSampling.errors(),
+ *                   TailSampling.durationAtLeast(1, TimeUnit.SECONDS)
+ *                 )).build());
+ * }</pre>
+ *
+ * <h3>Memory</h3>
+ *
+ * <p>Local traces are bounded by {@link Builder#maxAge(long, TimeUnit) age} and {@link
+ * Builder#maxBytes(long) estimated size}. When either is exceeded, the oldest local trace is
+ * decided early, with whatever spans have finished so far. Counts of such traces are available via
+ * {@link #evictedTraces()}. Decisions are only remembered for a bounded count of recent local
+ * traces, so a span finishing long after its local root may be decided on its own.
+ *
+ * <p>Note: This makes all spans {@link TraceContext#sampledLocal() sampled locally}, so
+ * {@link Tracing.Builder#addFinishedSpanHandler(FinishedSpanHandler) finished span handlers} will
+ * also see unsampled spans. Only the {@link Tracing.Builder#spanReporter span reporter} is
+ * affected by the decision.
+ *
+ * @since 5.11
+ */
+public final class TailSampling {
+  /** Decides if the spans of a local trace should be reported. */
+  public interface Decision {
+    /**
+     * @param localRoot the local root span, or null if the local trace was evicted before it
+     * finished.
+     * @param spans all spans of the local trace, including the local root.
+     */
+    boolean keep(@Nullable MutableSpan localRoot, List<MutableSpan> spans);
+  }
+
+  /** Keeps local traces where any span has an {@link MutableSpan#error()} or "error" tag. */
+  public static Decision errors() {
+    return Errors.INSTANCE;
+  }
+
+  /** Keeps local traces where the local root span took at least the given duration. */
+  public static Decision durationAtLeast(long duration, TimeUnit unit) {
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (duration < 0) throw new IllegalArgumentException("duration < 0");
+    return new DurationAtLeast(unit.toMicros(duration));
+  }
+
+  /** Keeps local traces where any span has a tag with the given key. */
+  public static Decision tagPresent(String key) {
+    if (key == null) throw new NullPointerException("key == null");
+    return new TagPresent(key);
+  }
+
+  /** Keeps local traces which any of the input decisions keep. */
+  public static Decision anyOf(Decision... decisions) {
+    if (decisions == null) throw new NullPointerException("decisions == null");
+    for (int i = 0; i < decisions.length; i++) {
+      if (decisions[i] == null) throw new NullPointerException("decisions[" + i + "] == null");
+    }
+    return new AnyOf(decisions.clone());
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    Decision decision = errors();
+    long maxAgeNanos = TimeUnit.SECONDS.toNanos(30), maxBytes = 8 * 1024 * 1024;
+
+    /** Defaults to {@link #errors()}. */
+    public Builder decision(Decision decision) {
+      if (decision == null) throw new NullPointerException("decision == null");
+      this.decision = decision;
+      return this;
+    }
+
+    /**
+     * Maximum time to wait for the local root span to finish, measured from when the first span of
+     * the local trace finished. Defaults to 30 seconds.
+     */
+    public Builder maxAge(long maxAge, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (maxAge <= 0) throw new IllegalArgumentException("maxAge <= 0");
+      this.maxAgeNanos = unit.toNanos(maxAge);
+      return this;
+    }
+
+    /** Maximum estimated size of spans waiting for a decision. Defaults to 8 MiB. */
+    public Builder maxBytes(long maxBytes) {
+      if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    public TailSampling build() {
+      return new TailSampling(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final Decision decision;
+  final long maxAgeNanos, maxBytes;
+  final AtomicLong keptTraces = new AtomicLong(), droppedTraces = new AtomicLong(),
+    evictedTraces = new AtomicLong();
+
+  TailSampling(Builder builder) {
+    decision = builder.decision;
+    maxAgeNanos = builder.maxAgeNanos;
+    maxBytes = builder.maxBytes;
+  }
+
+  public Decision decision() {
+    return decision;
+  }
+
+  public long maxAgeNanos() {
+    return maxAgeNanos;
+  }
+
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  /** Returns the count of local traces reported due to the {@link #decision()}. */
+  public long keptTraces() {
+    return keptTraces.get();
+  }
+
+  /** Returns the count of local traces not reported due to the {@link #decision()}. */
+  public long droppedTraces() {
+    return droppedTraces.get();
+  }
+
+  /** Returns the count of local traces decided before their local root finished. */
+  public long evictedTraces() {
+    return evictedTraces.get();
+  }
+
+  void incrementDecided(boolean kept, boolean evicted) {
+    (kept ? keptTraces : droppedTraces).incrementAndGet();
+    if (evicted) evictedTraces.incrementAndGet();
+  }
+
+  @Override public String toString() {
+    return "TailSampling{decision=" + decision
+      + ", maxAgeNanos=" + maxAgeNanos
+      + ", maxBytes=" + maxBytes
+      + "}";
+  }
+
+  static boolean isError(MutableSpan span) {
+    return span.error() != null || span.tag("error") != null;
+  }
+
+  enum Errors implements Decision {
+    INSTANCE;
+
+    @Override public boolean keep(MutableSpan localRoot, List<MutableSpan> spans) {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        if (isError(spans.get(i))) return true;
+      }
+      return false;
+    }
+
+    @Override public String toString() {
+      return "Errors";
+    }
+  }
+
+  static final class DurationAtLeast implements Decision {
+    final long micros;
+
+    DurationAtLeast(long micros) {
+      this.micros = micros;
+    }
+
+    @Override public boolean keep(MutableSpan localRoot, List<MutableSpan> spans) {
+      if (localRoot == null) return true; // evicted, so it took at least as long as max age
+      return localRoot.finishTimestamp() - localRoot.startTimestamp() >= micros;
+    }
+
+    @Override public String toString() {
+      return "DurationAtLeast{micros=" + micros + "}";
+    }
+  }
+
+  static final class TagPresent implements Decision {
+    final String key;
+
+    TagPresent(String key) {
+      this.key = key;
+    }
+
+    @Override public boolean keep(MutableSpan localRoot, List<MutableSpan> spans) {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        if (spans.get(i).tag(key) != null) return true;
+      }
+      return false;
+    }
+
+    @Override public String toString() {
+      return "TagPresent{key=" + key + "}";
+    }
+  }
+
+  static final class AnyOf implements Decision {
+    final Decision[] decisions;
+
+    AnyOf(Decision[] decisions) {
+      this.decisions = decisions;
+    }
+
+    @Override public boolean keep(MutableSpan localRoot, List<MutableSpan> spans) {
+      for (Decision decision : decisions) {
+        if (decision.keep(localRoot, spans)) return true;
+      }
+      return false;
+    }
+
+    @Override public String toString() {
+      return "AnyOf" + Arrays.toString(decisions);
+    }
+  }
+}
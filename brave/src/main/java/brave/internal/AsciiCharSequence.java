@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+/**
+ * Views a range of a byte array as characters, without copying or decoding. This allows parsers
+ * written against {@link CharSequence}, such as {@link HexCodec}, to read header values of byte
+ * carriers directly.
+ *
+ * <p>Bytes outside the ASCII range are returned as characters 128-255, which parsers of trace
+ * identifiers reject as invalid.
+ */
+public final class AsciiCharSequence implements CharSequence {
+  final byte[] bytes;
+  final int offset, length;
+
+  public AsciiCharSequence(byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  public AsciiCharSequence(byte[] bytes, int offset, int length) {
+    if (bytes == null) throw new NullPointerException("bytes == null");
+    if (offset < 0 || length < 0 || offset + length > bytes.length) {
+      throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length);
+    }
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override public int length() {
+    return length;
+  }
+
+  @Override public char charAt(int index) {
+    if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index=" + index);
+    return (char) (bytes[offset + index] & 0xff);
+  }
+
+  @Override public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("start=" + start + ", end=" + end);
+    }
+    return new AsciiCharSequence(bytes, offset + start, end - start);
+  }
+
+  /** Returns true if the content is the same as the input string. */
+  public boolean contentEquals(String string) {
+    if (string.length() != length) return false;
+    for (int i = 0; i < length; i++) {
+      if ((bytes[offset + i] & 0xff) != string.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  /** Decodes the content as ISO-8859-1, which is lossless for ASCII. */
+  @Override public String toString() {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) chars[i] = (char) (bytes[offset + i] & 0xff);
+    return new String(chars);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import java.util.Arrays;
+
+/**
+ * Maps predefined field names to their position with one hash lookup and at most one string
+ * comparison, regardless of the count of fields.
+ *
+ * <p>The table size and hash spreading are chosen when this is created, such that no two names
+ * share a slot. In other words, this is a perfect hash over the configured names. In the unlikely
+ * case no such table is found, lookups fall back to a linear scan.
+ */
+public final class FieldIndex {
+  static final int MAX_TABLE_SIZE = 1 << 12;
+
+  public static FieldIndex create(String... fieldNames) {
+    if (fieldNames == null) throw new NullPointerException("fieldNames == null");
+    if (fieldNames.length == 0) throw new NullPointerException("fieldNames is empty");
+    for (int i = 0; i < fieldNames.length; i++) {
+      if (fieldNames[i] == null) throw new NullPointerException("fieldNames[" + i + "] == null");
+      if (fieldNames[i].isEmpty()) throw new NullPointerException("fieldNames[" + i + "] is empty");
+    }
+    return new FieldIndex(fieldNames);
+  }
+
+  final String[] fieldNames;
+  @Nullable final String[] table; // null when there was no perfect hash
+  final int[] tableIndex;
+  final int shift, mask;
+
+  FieldIndex(String[] fieldNames) {
+    this.fieldNames = fieldNames;
+    for (int size = tableSize(fieldNames.length); size <= MAX_TABLE_SIZE; size <<= 1) {
+      for (int shift = 1; shift < 32; shift++) { // shift 0 would put every name in slot 0
+        String[] table = new String[size];
+        int[] tableIndex = new int[size];
+        if (fill(fieldNames, table, tableIndex, shift, size - 1)) {
+          this.table = table;
+          this.tableIndex = tableIndex;
+          this.shift = shift;
+          this.mask = size - 1;
+          return;
+        }
+      }
+    }
+    this.table = null;
+    this.tableIndex = null;
+    this.shift = this.mask = 0;
+  }
+
+  /** Returns the count of field names. */
+  public int size() {
+    return fieldNames.length;
+  }
+
+  /** Returns the field name at the given position. */
+  public String name(int index) {
+    return fieldNames[index];
+  }
+
+  /** Returns the position of the field name or -1 if it isn't a configured field. */
+  public int indexOf(String name) {
+    String[] table = this.table;
+    if (table == null) return linearIndexOf(name);
+    int slot = slot(name.hashCode(), shift, mask);
+    String candidate = table[slot];
+    if (candidate == null || !candidate.equals(name)) return -1; // equals checks identity first
+    return tableIndex[slot];
+  }
+
+  int linearIndexOf(String name) {
+    for (int i = 0, length = fieldNames.length; i < length; i++) {
+      if (fieldNames[i].equals(name)) return i;
+    }
+    return -1;
+  }
+
+  static int tableSize(int fieldCount) {
+    int size = 2;
+    while (size < fieldCount * 2) size <<= 1;
+    return size;
+  }
+
+  static boolean fill(String[] fieldNames, String[] table, int[] tableIndex, int shift, int mask) {
+    for (int i = 0; i < fieldNames.length; i++) {
+      int slot = slot(fieldNames[i].hashCode(), shift, mask);
+      if (table[slot] != null) {
+        if (table[slot].equals(fieldNames[i])) continue; // duplicate name: first position wins
+        return false;
+      }
+      table[slot] = fieldNames[i];
+      tableIndex[slot] = i;
+    }
+    return true;
+  }
+
+  static int slot(int hashCode, int shift, int mask) {
+    return (hashCode ^ (hashCode >>> shift)) & mask;
+  }
+
+  /** Indexes are equal when they have the same field names in the same order. */
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof FieldIndex)) return false;
+    return Arrays.equals(fieldNames, ((FieldIndex) o).fieldNames);
+  }
+
+  @Override public int hashCode() {
+    return Arrays.hashCode(fieldNames);
+  }
+
+  @Override public String toString() {
+    return "FieldIndex" + Arrays.toString(fieldNames);
+  }
+}
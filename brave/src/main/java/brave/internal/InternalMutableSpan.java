@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import brave.handler.MutableSpan;
+
+/**
+ * Escalate internal APIs in {@code brave.handler} so they can be used from outside packages. The
+ * only implementation is in {@link MutableSpan}.
+ *
+ * <p>Inspired by {@code okhttp3.internal.Internal}.
+ */
+public abstract class InternalMutableSpan {
+  public static InternalMutableSpan instance;
+
+  static {
+    new MutableSpan(); // initializes the instance
+  }
+
+  /** Resets the span to its initial state, retaining storage already allocated. */
+  public abstract void clear(MutableSpan span);
+
+  /** Returns a number which changes each time the span is {@link #clear(MutableSpan) cleared}. */
+  public abstract int generation(MutableSpan span);
+}
@@ -14,17 +14,25 @@
 package brave.internal;
 
 import brave.Clock;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.security.SecureRandom;
 import java.util.Enumeration;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import org.jvnet.animal_sniffer.IgnoreJRERequirement;
 
+import static brave.internal.Throwables.propagateIfFatal;
+
 /**
  * Access to platform-specific features.
  *
@@ -96,8 +104,43 @@ public abstract class Platform {
     logger.log(lr);
   }
 
+  /**
+   * Returns a new scoped value, or null when the runtime doesn't support them (prior to JRE 21).
+   */
+  @Nullable public <T> ScopedValueAdapter<T> newScopedValue() {
+    return null;
+  }
+
+  /**
+   * Returns an executor that starts a new virtual thread for each task, or null when the runtime
+   * doesn't support them (prior to JRE 21).
+   */
+  @Nullable public ExecutorService newVirtualThreadPerTaskExecutor() {
+    return null;
+  }
+
+  /** Returns true if the thread is virtual, which is never the case prior to JRE 21. */
+  public boolean isVirtual(Thread thread) {
+    return false;
+  }
+
   /** Attempt to match the host runtime to a capable Platform implementation. */
   static Platform findPlatform() {
+    // Find JRE 21 new types
+    try {
+      Class.forName("java.lang.ScopedValue");
+      Thread.class.getMethod("isVirtual");
+      return new Jre21(); // intentionally doesn't not access the type prior to the above guard
+    } catch (ClassNotFoundException e) {
+      // pre JRE 21
+    } catch (NoSuchMethodException e) {
+      // pre JRE 21
+    } catch (IllegalAccessException e) {
+      // unexpected as the methods are public
+    } catch (LinkageError e) {
+      // unexpected, but possible when a preview API is not usable
+    }
+
     // Find JRE 9 new methods
     try {
       Class zoneId = Class.forName("java.time.ZoneId");
@@ -152,6 +195,102 @@ public abstract class Platform {
     };
   }
 
+  @IgnoreJRERequirement static class Jre21 extends Jre9 {
+    final MethodHandle newInstance, where, isBound, get, run, isVirtual;
+    final MethodHandle newVirtualThreadPerTaskExecutor;
+
+    Jre21() throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+      Class<?> scopedValue = Class.forName("java.lang.ScopedValue");
+      Class<?> carrier = Class.forName("java.lang.ScopedValue$Carrier");
+      Lookup lookup = MethodHandles.publicLookup();
+      // Erase types so that invokeExact can be used from JRE 6 bytecode
+      newInstance = lookup.unreflect(scopedValue.getMethod("newInstance"))
+        .asType(MethodType.methodType(Object.class));
+      where = lookup.unreflect(scopedValue.getMethod("where", scopedValue, Object.class))
+        .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+      isBound = lookup.unreflect(scopedValue.getMethod("isBound"))
+        .asType(MethodType.methodType(boolean.class, Object.class));
+      get = lookup.unreflect(scopedValue.getMethod("get"))
+        .asType(MethodType.methodType(Object.class, Object.class));
+      run = lookup.unreflect(carrier.getMethod("run", Runnable.class))
+        .asType(MethodType.methodType(void.class, Object.class, Runnable.class));
+      isVirtual = lookup.unreflect(Thread.class.getMethod("isVirtual"));
+      newVirtualThreadPerTaskExecutor =
+        lookup.unreflect(Executors.class.getMethod("newVirtualThreadPerTaskExecutor"));
+    }
+
+    @Override public <T> ScopedValueAdapter<T> newScopedValue() {
+      try {
+        return new MethodHandleScopedValue<>(this, (Object) newInstance.invokeExact());
+      } catch (Throwable e) {
+        propagateIfFatal(e);
+        log("error creating a scoped value", e);
+        return null;
+      }
+    }
+
+    @Override public boolean isVirtual(Thread thread) {
+      try {
+        return (boolean) isVirtual.invokeExact(thread);
+      } catch (Throwable e) {
+        throw rethrow(e); // unexpected as the method doesn't throw
+      }
+    }
+
+    @Override public ExecutorService newVirtualThreadPerTaskExecutor() {
+      try {
+        return (ExecutorService) newVirtualThreadPerTaskExecutor.invokeExact();
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    @Override public String toString() {
+      return "Jre21{}";
+    }
+  }
+
+  /**
+   * Uses method handles, as brave compiles against JRE 6 and the type is a preview in JRE 21.
+   * Unlike reflection, these are cheap enough to call each time a trace context is read.
+   */
+  @IgnoreJRERequirement static final class MethodHandleScopedValue<T>
+    extends ScopedValueAdapter<T> {
+    final Jre21 platform;
+    final Object delegate;
+
+    MethodHandleScopedValue(Jre21 platform, Object delegate) {
+      this.platform = platform;
+      this.delegate = delegate;
+    }
+
+    @SuppressWarnings("unchecked") @Override public T get() {
+      try {
+        // ScopedValue.get() throws when unbound, and orElse(null) rejects null
+        if (!(boolean) platform.isBound.invokeExact(delegate)) return null;
+        return (T) (Object) platform.get.invokeExact(delegate);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    @Override public void run(T value, Runnable task) {
+      try {
+        Object carrier = (Object) platform.where.invokeExact(delegate, (Object) value);
+        platform.run.invokeExact(carrier, task);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+  }
+
+  /** Rethrows unchecked exceptions, wrapping checked ones, which are unexpected here. */
+  static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) throw (RuntimeException) e;
+    if (e instanceof Error) throw (Error) e;
+    throw new IllegalStateException(e); // unexpected as scoped values run a Runnable
+  }
+
   static class Jre9 extends Jre7 {
     @IgnoreJRERequirement @Override public Clock clock() {
       return new Clock() {
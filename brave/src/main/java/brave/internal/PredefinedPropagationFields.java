@@ -13,32 +13,57 @@
  */
 package brave.internal;
 
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
-/** Copy-on-write keeps propagation changes in a child context from affecting its parent */
+/**
+ * Copy-on-write keeps propagation changes in a child context from affecting its parent. Writes
+ * compare-and-set the values array instead of locking.
+ *
+ * <p>Values extracted as bytes are held as-is, and only decoded when first read. This means fields
+ * passed through without being read are never decoded, and can be injected as the same bytes.
+ */
 public class PredefinedPropagationFields extends PropagationFields<String, String> {
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final AtomicReferenceFieldUpdater<PredefinedPropagationFields, Object[]> VALUES =
+    AtomicReferenceFieldUpdater.newUpdater(PredefinedPropagationFields.class, Object[].class,
+      "values");
+
+  final FieldIndex fieldIndex;
   final String[] fieldNames;
-  volatile String[] values; // guarded by this, copy on write
+  // copy on write. Elements are a String or UTF-8 bytes not yet decoded
+  volatile Object[] values;
 
   protected PredefinedPropagationFields(String... fieldNames) {
-    if (fieldNames == null) throw new NullPointerException("fieldNames == null");
-    if (fieldNames.length == 0) throw new NullPointerException("fieldNames is empty");
-    for (int i = 0; i < fieldNames.length; i++) {
-      if (fieldNames[i] == null) throw new NullPointerException("fieldNames[" + i + "] == null");
-      if (fieldNames[i].isEmpty()) throw new NullPointerException("fieldNames[" + i + "] is empty");
-    }
-    this.fieldNames = fieldNames;
+    this(FieldIndex.create(fieldNames));
   }
 
   protected PredefinedPropagationFields(PredefinedPropagationFields parent, String... fieldNames) {
-    this(fieldNames);
+    this(parent, FieldIndex.create(fieldNames));
+  }
+
+  /** Use this when creating many instances, as the field index is only computed once. */
+  protected PredefinedPropagationFields(FieldIndex fieldIndex) {
+    if (fieldIndex == null) throw new NullPointerException("fieldIndex == null");
+    this.fieldIndex = fieldIndex;
+    this.fieldNames = fieldIndex.fieldNames;
+  }
+
+  protected PredefinedPropagationFields(PredefinedPropagationFields parent, FieldIndex fieldIndex) {
+    this(fieldIndex);
     checkSameFields(parent);
     this.values = parent.values;
   }
 
+  /** Returns the index used to look up field positions by name. */
+  public final FieldIndex fieldIndex() {
+    return fieldIndex;
+  }
+
   @Override public String get(String name) {
     int index = indexOf(name);
     return index != -1 ? get(index) : null;
@@ -47,16 +72,42 @@ public class PredefinedPropagationFields extends PropagationFields<String, Strin
   public String get(int index) {
     if (index >= fieldNames.length) return null;
 
-    String[] elements = values;
-    return elements != null ? elements[index] : null;
+    Object[] elements = values;
+    return elements != null ? decode(elements, index) : null;
+  }
+
+  /**
+   * Returns the UTF-8 encoded value of the field at the given index, or null if there is none.
+   * When the value was {@link #putUtf8(int, byte[]) extracted as bytes}, it is returned as-is.
+   */
+  @Nullable public byte[] getUtf8(int index) {
+    if (index >= fieldNames.length) return null;
+
+    Object[] elements = values;
+    if (elements == null) return null;
+    Object value = elements[index];
+    if (value instanceof byte[]) return (byte[]) value;
+    return value != null ? ((String) value).getBytes(UTF_8) : null;
+  }
+
+  /**
+   * Decodes the value at the index, caching the result. Writing the decoded value into a shared
+   * array is safe, as both forms represent the same value.
+   */
+  @Nullable static String decode(Object[] elements, int index) {
+    Object value = elements[index];
+    if (!(value instanceof byte[])) return (String) value;
+    String decoded = new String((byte[]) value, UTF_8);
+    elements[index] = decoded;
+    return decoded;
   }
 
   @Override public void forEach(FieldConsumer<String, String> fieldConsumer) {
-    String[] elements = values;
+    Object[] elements = values;
     if (elements == null) return;
 
     for (int i = 0, length = fieldNames.length; i < length; i++) {
-      String value = elements[i];
+      String value = decode(elements, i);
       if (value == null) continue;
       fieldConsumer.accept(fieldNames[i], value);
     }
@@ -69,29 +120,37 @@ public class PredefinedPropagationFields extends PropagationFields<String, Strin
   }
 
   @Override public boolean isEmpty() {
-    String[] elements = values;
+    Object[] elements = values;
     if (elements == null) return true;
-    for (String value : elements) {
+    for (Object value : elements) {
       if (value != null) return false;
     }
     return true;
   }
 
   public final void put(int index, String value) {
+    putValue(index, value);
+  }
+
+  /** Like {@link #put(int, String)}, except the value is decoded only when first read. */
+  public final void putUtf8(int index, byte[] value) {
+    putValue(index, value);
+  }
+
+  final void putValue(int index, Object value) {
     if (index >= fieldNames.length) return;
 
-    synchronized (this) {
-      String[] elements = values;
+    while (true) {
+      Object[] elements = values, update;
       if (elements == null) {
-        elements = new String[fieldNames.length];
-        elements[index] = value;
+        update = new Object[fieldNames.length];
       } else if (value.equals(elements[index])) {
         return;
       } else { // this is the copy-on-write part
-        elements = Arrays.copyOf(elements, elements.length);
-        elements[index] = value;
+        update = Arrays.copyOf(elements, elements.length);
       }
-      values = elements;
+      update[index] = value;
+      if (VALUES.compareAndSet(this, elements, update)) return;
     }
   }
 
@@ -99,17 +158,20 @@ public class PredefinedPropagationFields extends PropagationFields<String, Strin
     if (!(parent instanceof PredefinedPropagationFields)) return;
     PredefinedPropagationFields predefinedParent = (PredefinedPropagationFields) parent;
     checkSameFields(predefinedParent);
-    String[] parentValues = predefinedParent.values;
+    Object[] parentValues = predefinedParent.values;
     if (parentValues == null) return;
     for (int i = 0; i < parentValues.length; i++) {
-      if (parentValues[i] != null && get(i) == null) { // extracted wins vs parent
-        put(i, parentValues[i]);
+      Object parentValue = parentValues[i];
+      if (parentValue == null) continue;
+      Object[] elements = values;
+      if (elements == null || elements[i] == null) { // extracted wins vs parent
+        putValue(i, parentValue); // without decoding
       }
     }
   }
 
   void checkSameFields(PredefinedPropagationFields predefinedParent) {
-    if (!Arrays.equals(fieldNames, predefinedParent.fieldNames)) {
+    if (!fieldIndex.equals(predefinedParent.fieldIndex)) {
       throw new IllegalStateException(
         String.format("Mixed name configuration unsupported: found %s, expected %s",
           Arrays.toString(fieldNames), Arrays.toString(predefinedParent.fieldNames))
@@ -118,12 +180,12 @@ public class PredefinedPropagationFields extends PropagationFields<String, Strin
   }
 
   @Override public final Map<String, String> toMap() {
-    String[] elements = values;
+    Object[] elements = values;
     if (elements == null) return Collections.emptyMap();
 
     MapFieldConsumer result = new MapFieldConsumer();
     forEach(result);
-    return result;
+    return Collections.unmodifiableMap(result);
   }
 
   static final class MapFieldConsumer extends LinkedHashMap<String, String>
@@ -134,10 +196,7 @@ public class PredefinedPropagationFields extends PropagationFields<String, Strin
   }
 
   int indexOf(String name) {
-    for (int i = 0, length = fieldNames.length; i < length; i++) {
-      if (fieldNames[i].equals(name)) return i;
-    }
-    return -1;
+    return fieldIndex.indexOf(name);
   }
 
   @Override public String toString() {
@@ -145,15 +204,27 @@ public class PredefinedPropagationFields extends PropagationFields<String, Strin
   }
 
   @Override public int hashCode() { // for unit tests
-    String[] values = this.values;
-    return values == null ? 0 : Arrays.hashCode(values);
+    Object[] values = this.values;
+    if (values == null) return 0;
+    int result = 1;
+    for (int i = 0; i < values.length; i++) {
+      String value = decode(values, i);
+      result = 31 * result + (value == null ? 0 : value.hashCode());
+    }
+    return result;
   }
 
   @Override public boolean equals(Object o) { // for unit tests
     if (o == this) return true;
     if (!(o instanceof PredefinedPropagationFields)) return false;
     PredefinedPropagationFields that = (PredefinedPropagationFields) o;
-    String[] values = this.values, thatValues = that.values;
-    return values == null ? thatValues == null : Arrays.equals(values, thatValues);
+    Object[] values = this.values, thatValues = that.values;
+    if (values == null) return thatValues == null;
+    if (thatValues == null || values.length != thatValues.length) return false;
+    for (int i = 0; i < values.length; i++) {
+      String value = decode(values, i), thatValue = decode(thatValues, i);
+      if (value == null ? thatValue != null : !value.equals(thatValue)) return false;
+    }
+    return true;
   }
 }
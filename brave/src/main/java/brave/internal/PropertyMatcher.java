@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import brave.sampler.Matcher;
+import brave.sampler.ParameterizedSampler;
+
+/**
+ * Base type of built-in matchers which compare one string property of the input to a constant,
+ * such as an HTTP method or path prefix.
+ *
+ * <p>{@link ParameterizedSampler} uses these to index rules, so it can find the first matching
+ * rule without evaluating each in turn. This only works because {@link #matches(Object)} is defined
+ * here in terms of {@link #property(Object)}: subtypes must not change it.
+ *
+ * @param <P> The type that encloses the property
+ */
+public abstract class PropertyMatcher<P> implements Matcher<P> {
+  final String propertyName, value;
+  final boolean prefix;
+
+  /**
+   * @param propertyName the same for all matchers whose {@link #property(Object)} reads the same
+   * thing. Ex. "http.path"
+   * @param value compared against the property
+   * @param prefix true if the property must start with the value, false if it must equal it.
+   */
+  protected PropertyMatcher(String propertyName, String value, boolean prefix) {
+    if (propertyName == null) throw new NullPointerException("propertyName == null");
+    if (value == null) throw new NullPointerException("value == null");
+    this.propertyName = propertyName;
+    this.value = value;
+    this.prefix = prefix;
+  }
+
+  /** Returns the property to compare against, or null if there is none. */
+  @Nullable public abstract String property(P parameters);
+
+  public final String propertyName() {
+    return propertyName;
+  }
+
+  public final String value() {
+    return value;
+  }
+
+  public final boolean isPrefix() {
+    return prefix;
+  }
+
+  @Override public final boolean matches(P parameters) {
+    String property = property(parameters);
+    if (property == null) return false;
+    return prefix ? property.startsWith(value) : value.equals(property);
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+/**
+ * Adapts {@code java.lang.ScopedValue}, which is available starting in JRE 21. Values bound in a
+ * scope are visible to threads forked in a structured task scope without being copied, unlike
+ * {@link InheritableThreadLocal}.
+ *
+ * @see Platform#newScopedValue()
+ */
+public abstract class ScopedValueAdapter<T> {
+  /** Returns the value bound to the current thread or null if there is none. */
+  @Nullable public abstract T get();
+
+  /** Runs the task with the value bound to the current thread until it completes. */
+  public abstract void run(T value, Runnable task);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+/** Shared by JDBC instrumentation, such as MySQL and P6Spy, which have no common module. */
+public final class SqlStatements {
+  /** Common SQL verbs, in the case they are usually written, so span names needn't allocate. */
+  static final String[] SQL_VERBS = {
+    "SELECT", "select", "INSERT", "insert", "UPDATE", "update", "DELETE", "delete",
+    "REPLACE", "replace", "MERGE", "merge", "CALL", "call", "SET", "set", "SHOW", "show",
+    "USE", "use", "BEGIN", "begin", "START", "start", "COMMIT", "commit",
+    "ROLLBACK", "rollback", "WITH", "with"
+  };
+
+  /** Returns the first word of the SQL. This allows names of single-word statements like COMMIT */
+  public static String spanName(String sql) {
+    int spaceIndex = sql.indexOf(' ');
+    int length = spaceIndex == -1 ? sql.length() : spaceIndex;
+    for (String verb : SQL_VERBS) {
+      if (verb.length() == length && sql.startsWith(verb)) return verb;
+    }
+    return spaceIndex == -1 ? sql : sql.substring(0, spaceIndex);
+  }
+
+  /**
+   * Returns true if the statement, named by {@link #spanName(String)}, changes the catalog of its
+   * connection. For example, "USE mydatabase".
+   */
+  public static boolean changesCatalog(String spanName) {
+    return "USE".equalsIgnoreCase(spanName);
+  }
+
+  SqlStatements() {
+  }
+}
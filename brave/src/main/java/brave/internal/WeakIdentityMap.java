@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Associates values with objects, without preventing the objects from being garbage collected.
+ *
+ * <p>Unlike {@link java.util.WeakHashMap}, keys are compared by identity. This matters for
+ * instrumented objects which override {@link Object#equals(Object)}, such as JMS messages which
+ * compare message IDs, or pooled JDBC connections which compare their delegate. Also, each key
+ * hashes to one of several stripes, each with its own lock, so concurrent callers rarely contend.
+ */
+public final class WeakIdentityMap<K, V> {
+  static final int STRIPE_COUNT = 16; // must be a power of two
+
+  @SuppressWarnings("unchecked")
+  final Stripe<K, V>[] stripes = new Stripe[STRIPE_COUNT];
+
+  public WeakIdentityMap() {
+    for (int i = 0; i < STRIPE_COUNT; i++) stripes[i] = new Stripe<>();
+  }
+
+  @Nullable public V get(K key) {
+    int hashCode = System.identityHashCode(key);
+    return stripe(hashCode).get(key, hashCode);
+  }
+
+  public void put(K key, V value) {
+    int hashCode = System.identityHashCode(key);
+    stripe(hashCode).put(key, value, hashCode);
+  }
+
+  public void remove(K key) {
+    int hashCode = System.identityHashCode(key);
+    stripe(hashCode).remove(key, hashCode);
+  }
+
+  /** Returns the count of entries, after removing any whose key was collected. */
+  int size() {
+    int result = 0;
+    for (Stripe<K, V> stripe : stripes) result += stripe.size();
+    return result;
+  }
+
+  Stripe<K, V> stripe(int hashCode) {
+    // mix the high bits, as the low bits of identity hash codes are used for buckets
+    return stripes[(hashCode ^ (hashCode >>> 16)) >>> 12 & (STRIPE_COUNT - 1)];
+  }
+
+  /** A chained hash table, which removes entries whose key was collected on write. */
+  static final class Stripe<K, V> extends ReferenceQueue<K> {
+    static final int INITIAL_CAPACITY = 16; // must be a power of two
+
+    Entry<K, V>[] table = newTable(INITIAL_CAPACITY); // guarded by this
+    int size; // guarded by this
+
+    @Nullable synchronized V get(K key, int hashCode) {
+      for (Entry<K, V> e = table[hashCode & (table.length - 1)]; e != null; e = e.next) {
+        if (e.get() == key) return e.value;
+      }
+      return null;
+    }
+
+    synchronized void put(K key, V value, int hashCode) {
+      expungeStaleEntries();
+      int i = hashCode & (table.length - 1);
+      for (Entry<K, V> e = table[i]; e != null; e = e.next) {
+        if (e.get() == key) {
+          e.value = value;
+          return;
+        }
+      }
+      table[i] = new Entry<>(key, value, hashCode, this, table[i]);
+      if (++size > table.length * 3 / 4) resize();
+    }
+
+    synchronized void remove(K key, int hashCode) {
+      expungeStaleEntries();
+      int i = hashCode & (table.length - 1);
+      for (Entry<K, V> e = table[i], previous = null; e != null; previous = e, e = e.next) {
+        if (e.get() != key) continue;
+        unlink(i, previous, e);
+        e.clear(); // don't enqueue the entry, as it is no longer in the table
+        return;
+      }
+    }
+
+    synchronized int size() {
+      expungeStaleEntries();
+      return size;
+    }
+
+    void expungeStaleEntries() {
+      Object stale;
+      while ((stale = poll()) != null) {
+        @SuppressWarnings("unchecked") Entry<K, V> entry = (Entry<K, V>) stale;
+        int i = entry.hashCode & (table.length - 1);
+        for (Entry<K, V> e = table[i], previous = null; e != null; previous = e, e = e.next) {
+          if (e != entry) continue;
+          unlink(i, previous, e);
+          break;
+        }
+      }
+    }
+
+    void unlink(int i, @Nullable Entry<K, V> previous, Entry<K, V> entry) {
+      if (previous == null) {
+        table[i] = entry.next;
+      } else {
+        previous.next = entry.next;
+      }
+      size--;
+    }
+
+    void resize() {
+      Entry<K, V>[] newTable = newTable(table.length * 2);
+      for (Entry<K, V> e : table) {
+        while (e != null) {
+          Entry<K, V> next = e.next;
+          int i = e.hashCode & (newTable.length - 1);
+          e.next = newTable[i];
+          newTable[i] = e;
+          e = next;
+        }
+      }
+      table = newTable;
+    }
+
+    @SuppressWarnings("unchecked") static <K, V> Entry<K, V>[] newTable(int capacity) {
+      return new Entry[capacity];
+    }
+  }
+
+  static final class Entry<K, V> extends WeakReference<K> {
+    final int hashCode;
+    V value;
+    @Nullable Entry<K, V> next;
+
+    Entry(K key, V value, int hashCode, ReferenceQueue<K> queue, @Nullable Entry<K, V> next) {
+      super(key, queue);
+      this.value = value;
+      this.hashCode = hashCode;
+      this.next = next;
+    }
+  }
+}
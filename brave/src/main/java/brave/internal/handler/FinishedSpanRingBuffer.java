@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.handler.AsyncFinishedSpanHandling;
+import brave.handler.AsyncFinishedSpanHandling.OverflowPolicy;
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.internal.Platform;
+import brave.propagation.TraceContext;
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Bounded, lock-free ring buffer of finished spans, drained by dedicated daemon threads that invoke
+ * the real handler chain. Application threads only pay for a couple CAS operations on finish.
+ *
+ * <p>The algorithm is Dmitry Vyukov's bounded MPMC queue: each slot has a sequence number which
+ * tells producers and consumers whether it is writable or readable for a given position. Producers
+ * never signal consumers. Instead, idle consumers park for exponentially longer, up to a short
+ * ceiling.
+ *
+ * <p>See http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ */
+public final class FinishedSpanRingBuffer implements Closeable {
+  static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  final AsyncFinishedSpanHandling config;
+  final int mask;
+  final AtomicLongArray sequences;
+  // Slots are published and consumed via volatile writes and reads of the sequence array
+  final FinishedSpanHandler[] handlers;
+  final TraceContext[] contexts;
+  final MutableSpan[] spans;
+  final AtomicLong producerIndex = new AtomicLong(), consumerIndex = new AtomicLong();
+  final Thread[] consumers;
+  volatile boolean closed;
+
+  public FinishedSpanRingBuffer(AsyncFinishedSpanHandling config) {
+    if (config == null) throw new NullPointerException("config == null");
+    this.config = config;
+    int capacity = Integer.highestOneBit(config.queueSize());
+    if (capacity < config.queueSize()) capacity <<= 1;
+    this.mask = capacity - 1;
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    this.handlers = new FinishedSpanHandler[capacity];
+    this.contexts = new TraceContext[capacity];
+    this.spans = new MutableSpan[capacity];
+    this.consumers = new Thread[config.threads()];
+    for (int i = 0; i < consumers.length; i++) {
+      Thread consumer = new Thread(new Consumer(), "brave-finished-span-handler-" + i);
+      consumer.setDaemon(true);
+      consumers[i] = consumer;
+      consumer.start();
+    }
+  }
+
+  /**
+   * Returns a handler that places spans on this ring buffer, to be later passed to the delegate on
+   * a consumer thread.
+   */
+  public FinishedSpanHandler wrap(FinishedSpanHandler delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    if (delegate == FinishedSpanHandler.NOOP) return delegate;
+    return new Enqueuing(this, delegate);
+  }
+
+  /** Returns the count of spans waiting to be handled. */
+  public int size() {
+    long size = producerIndex.get() - consumerIndex.get();
+    return size < 0 ? 0 : (int) Math.min(size, mask + 1);
+  }
+
+  /** Returns false if the span was dropped. */
+  boolean offer(FinishedSpanHandler handler, TraceContext context, MutableSpan span) {
+    if (closed) return runInline(handler, context, span);
+    if (tryOffer(handler, context, span)) {
+      if (closed) drain(); // lost race with close: don't leave the span behind
+      return true;
+    }
+
+    OverflowPolicy policy = config.overflowPolicy();
+    if (policy == OverflowPolicy.DROP_OLDEST) {
+      // Make room by acting as a consumer. Under contention, another producer can fill the slot we
+      // freed, so the newest span is dropped once we've evicted something on its behalf.
+      if (tryPoll(false)) InternalHandlerConfig.instance.incrementDroppedSpans(config);
+      if (tryOffer(handler, context, span)) return true;
+    } else if (policy == OverflowPolicy.BLOCK) {
+      long deadline = System.nanoTime() + config.blockTimeoutNanos();
+      do {
+        LockSupport.parkNanos(1000L);
+        if (tryOffer(handler, context, span)) return true;
+      } while (!closed && deadline - System.nanoTime() > 0);
+    }
+    InternalHandlerConfig.instance.incrementDroppedSpans(config);
+    return false;
+  }
+
+  boolean tryOffer(FinishedSpanHandler handler, TraceContext context, MutableSpan span) {
+    while (true) {
+      long position = producerIndex.get();
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (!producerIndex.compareAndSet(position, position + 1)) continue;
+        handlers[index] = handler;
+        contexts[index] = context;
+        spans[index] = span;
+        sequences.set(index, position + 1); // publish
+        return true;
+      } else if (difference < 0) {
+        return false; // full
+      }
+      // otherwise another producer claimed this position: retry
+    }
+  }
+
+  /**
+   * Removes the oldest span, invoking its handler when {@code handle} is true.
+   *
+   * @return false if the ring buffer was empty
+   */
+  boolean tryPoll(boolean handle) {
+    while (true) {
+      long position = consumerIndex.get();
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (!consumerIndex.compareAndSet(position, position + 1)) continue;
+        FinishedSpanHandler handler = handlers[index];
+        TraceContext context = contexts[index];
+        MutableSpan span = spans[index];
+        handlers[index] = null;
+        contexts[index] = null;
+        spans[index] = null;
+        sequences.set(index, position + mask + 1); // release the slot for the next lap
+        if (handle) runInline(handler, context, span);
+        return true;
+      } else if (difference < 0) {
+        return false; // empty
+      }
+      // otherwise another consumer claimed this position: retry
+    }
+  }
+
+  void drain() {
+    while (tryPoll(true)) {
+    }
+  }
+
+  static boolean runInline(FinishedSpanHandler handler, TraceContext context, MutableSpan span) {
+    try {
+      return handler.handle(context, span);
+    } catch (Throwable t) {
+      propagateIfFatal(t);
+      Platform.get().log("error handling {0}", context, t);
+      return false;
+    }
+  }
+
+  /** Stops accepting spans, drains what remains, then stops the consumer threads. */
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    for (Thread consumer : consumers) LockSupport.unpark(consumer);
+    for (Thread consumer : consumers) {
+      if (consumer == Thread.currentThread()) continue;
+      try {
+        consumer.join(TimeUnit.SECONDS.toMillis(1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return "FinishedSpanRingBuffer{capacity=" + (mask + 1) + ", config=" + config + "}";
+  }
+
+  final class Consumer implements Runnable {
+    @Override public void run() {
+      int idleCount = 0;
+      while (true) {
+        if (tryPoll(true)) {
+          idleCount = 0;
+          continue;
+        }
+        if (closed) return; // only exit once drained
+        if (idleCount < 11) idleCount++;
+        // back off exponentially from 1us up to a small ceiling so that idle cost stays bounded
+        LockSupport.parkNanos(this, Math.min(MAX_IDLE_PARK_NANOS, 1000L << (idleCount - 1)));
+      }
+    }
+  }
+
+  static final class Enqueuing extends FinishedSpanHandler {
+    final FinishedSpanRingBuffer ringBuffer;
+    final FinishedSpanHandler delegate;
+
+    Enqueuing(FinishedSpanRingBuffer ringBuffer, FinishedSpanHandler delegate) {
+      this.ringBuffer = ringBuffer;
+      this.delegate = delegate;
+    }
+
+    /**
+     * The result of the delegate isn't known yet, so this returns true unless the span was dropped
+     * due to overflow.
+     */
+    @Override public boolean handle(TraceContext context, MutableSpan span) {
+      return ringBuffer.offer(delegate, context, span);
+    }
+
+    @Override public boolean alwaysSampleLocal() {
+      return delegate.alwaysSampleLocal();
+    }
+
+    @Override public boolean supportsOrphans() {
+      return delegate.supportsOrphans();
+    }
+
+    @Override public String toString() {
+      return "Async(" + delegate + ")";
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.handler.AsyncFinishedSpanHandling;
+import brave.handler.SpanCompaction;
+import brave.handler.TailSampling;
+
+/**
+ * Escalate internal APIs in {@code brave.handler} so they can be used from outside packages. The
+ * only implementation is in {@link AsyncFinishedSpanHandling}, and also covers the counters of
+ * {@link TailSampling} and {@link SpanCompaction}.
+ *
+ * <p>Inspired by {@code okhttp3.internal.Internal}.
+ */
+public abstract class InternalHandlerConfig {
+  public static InternalHandlerConfig instance;
+
+  static {
+    AsyncFinishedSpanHandling.newBuilder(); // initializes the instance
+  }
+
+  /** Increments {@link AsyncFinishedSpanHandling#droppedSpans()}. */
+  public abstract void incrementDroppedSpans(AsyncFinishedSpanHandling config);
+
+  /** Increments {@link TailSampling#keptTraces()} or {@link TailSampling#droppedTraces()}. */
+  public abstract void incrementDecided(TailSampling config, boolean kept, boolean evicted);
+
+  /** Adds to {@link SpanCompaction#compactedSpans()}. */
+  public abstract void incrementCompactedSpans(SpanCompaction config, int count);
+}
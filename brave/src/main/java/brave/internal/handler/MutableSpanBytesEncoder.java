@@ -0,0 +1,791 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.ErrorParser;
+import brave.handler.MutableSpan;
+import brave.handler.MutableSpan.AnnotationConsumer;
+import brave.handler.MutableSpan.TagConsumer;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import zipkin2.Endpoint;
+import zipkin2.codec.Encoding;
+
+/**
+ * Encodes a {@link MutableSpan} and its {@link TraceContext} directly into Zipkin v2 bytes, without
+ * an intermediate {@link zipkin2.Span}. The output is the same data as {@link MutableSpanConverter}
+ * followed by {@link zipkin2.codec.SpanBytesEncoder}, except that tags and annotations are in the
+ * order they were added.
+ *
+ * <p>Sizes are computed before writing, so that the span is written in one pass into a buffer
+ * reused by the calling thread.
+ */
+// internal until we figure out how the api should sit.
+public abstract class MutableSpanBytesEncoder {
+  static final int INITIAL_BUFFER_SIZE = 1024, MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+  static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+    @Override protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+  };
+
+  /** Only {@link Encoding#JSON} (v2) and {@link Encoding#PROTO3} are supported. */
+  public static MutableSpanBytesEncoder create(Encoding encoding, ErrorParser errorParser,
+    String localServiceName, @Nullable String localIp, int localPort) {
+    if (encoding == null) throw new NullPointerException("encoding == null");
+    if (errorParser == null) throw new NullPointerException("errorParser == null");
+    if (localServiceName == null) throw new NullPointerException("localServiceName == null");
+    switch (encoding) {
+      case JSON:
+        return new JsonV2(errorParser, localServiceName, localIp, localPort);
+      case PROTO3:
+        return new Proto3(errorParser, localServiceName, localIp, localPort);
+      default:
+        throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+    }
+  }
+
+  final ErrorParser errorParser;
+  @Nullable final String localServiceName, localIp;
+  final int localPort;
+  /** Encoded once, as most spans use the default local endpoint */
+  final byte[] defaultLocalEndpoint;
+
+  MutableSpanBytesEncoder(ErrorParser errorParser, String localServiceName,
+    @Nullable String localIp, int localPort) {
+    this.errorParser = errorParser;
+    this.localServiceName = lowercase(localServiceName);
+    this.localIp = localIp;
+    this.localPort = localPort;
+    this.defaultLocalEndpoint =
+      new byte[endpointSizeInBytes(this.localServiceName, localIp, localPort)];
+    writeEndpoint(this.localServiceName, localIp, localPort, ByteBuffer.wrap(defaultLocalEndpoint));
+  }
+
+  public abstract Encoding encoding();
+
+  /**
+   * Returns a buffer positioned at the encoded span. The buffer is reused by the calling thread, so
+   * it must be consumed before encoding another span.
+   */
+  public ByteBuffer encode(TraceContext context, MutableSpan span) {
+    if (span.tag("error") == null && span.error() != null) {
+      errorParser.error(span.error(), span);
+    }
+    // Lower-case names once, as both passes need them
+    String name = lowercase(span.name()), localServiceName = localServiceName(span);
+    String remoteServiceName = lowercase(span.remoteServiceName());
+    int sizeInBytes = sizeInBytes(context, span, name, localServiceName, remoteServiceName);
+    ByteBuffer buffer = BUFFER.get();
+    if (buffer.capacity() < sizeInBytes) {
+      buffer = ByteBuffer.allocate(Math.max(sizeInBytes, buffer.capacity() * 2));
+      if (buffer.capacity() <= MAX_POOLED_BUFFER_SIZE) BUFFER.set(buffer);
+    }
+    buffer.clear();
+    write(context, span, sizeInBytes, name, localServiceName, remoteServiceName, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * @param name the {@link #lowercase(String) lower-case} span name
+   * @param localServiceName the result of {@link #localServiceName(MutableSpan)}
+   * @param remoteServiceName the {@link #lowercase(String) lower-case} remote service name
+   */
+  abstract int sizeInBytes(TraceContext context, MutableSpan span, @Nullable String name,
+    String localServiceName, @Nullable String remoteServiceName);
+
+  /** Writes exactly the count of bytes returned by {@link #sizeInBytes} with the same inputs. */
+  abstract void write(TraceContext context, MutableSpan span, int sizeInBytes,
+    @Nullable String name, String localServiceName, @Nullable String remoteServiceName,
+    ByteBuffer b);
+
+  abstract int endpointSizeInBytes(@Nullable String serviceName, @Nullable String ip, int port);
+
+  abstract void writeEndpoint(@Nullable String serviceName, @Nullable String ip, int port,
+    ByteBuffer b);
+
+  boolean isDefaultLocalEndpoint(String serviceName, @Nullable String ip, int port) {
+    return equal(localServiceName, serviceName) && equal(localIp, ip)
+      && localPort == port;
+  }
+
+  /** Writes the span's local endpoint, defaulting fields from those of the tracing component. */
+  int localEndpointSizeInBytes(String serviceName, MutableSpan span) {
+    String ip = localIp(span);
+    int port = localPort(span);
+    if (isDefaultLocalEndpoint(serviceName, ip, port)) return defaultLocalEndpoint.length;
+    return endpointSizeInBytes(serviceName, ip, port);
+  }
+
+  void writeLocalEndpoint(String serviceName, MutableSpan span, ByteBuffer b) {
+    String ip = localIp(span);
+    int port = localPort(span);
+    if (isDefaultLocalEndpoint(serviceName, ip, port)) {
+      b.put(defaultLocalEndpoint);
+    } else {
+      writeEndpoint(serviceName, ip, port, b);
+    }
+  }
+
+  String localServiceName(MutableSpan span) {
+    String serviceName = span.localServiceName();
+    return serviceName != null ? lowercase(serviceName) : localServiceName;
+  }
+
+  @Nullable String localIp(MutableSpan span) {
+    String ip = span.localIp();
+    return ip != null ? ip : localIp;
+  }
+
+  int localPort(MutableSpan span) {
+    int port = span.localPort();
+    return port > 0 ? port : localPort;
+  }
+
+  static boolean equal(@Nullable String a, @Nullable String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /** Use ordinal comparison to defend against version skew */
+  @Nullable static zipkin2.Span.Kind kind(MutableSpan span) {
+    brave.Span.Kind kind = span.kind();
+    if (kind == null || kind.ordinal() >= zipkin2.Span.Kind.values().length) return null;
+    return zipkin2.Span.Kind.values()[kind.ordinal()];
+  }
+
+  static long duration(MutableSpan span) {
+    long start = span.startTimestamp(), finish = span.finishTimestamp();
+    if (start == 0L || finish == 0L) return 0L;
+    return Math.max(finish - start, 1L);
+  }
+
+  /**
+   * Zipkin lower-cases span and service names, and drops empty ones. This only allocates when
+   * there's an upper case.
+   */
+  @Nullable static String lowercase(@Nullable String string) {
+    if (string == null || string.isEmpty()) return null;
+    for (int i = 0, length = string.length(); i < length; i++) {
+      if (Character.isUpperCase(string.charAt(i))) return string.toLowerCase(Locale.ROOT);
+    }
+    return string;
+  }
+
+  static boolean isIpv6(String ip) {
+    return ip.indexOf(':') != -1; // embedded IPv4 addresses were already unwrapped
+  }
+
+  /** Parses and normalizes IPv6, which is rare enough that allocation is fine. */
+  static Endpoint ipv6(String ip) {
+    return Endpoint.newBuilder().ip(ip).build();
+  }
+
+  static int utf8SizeInBytes(String string) {
+    int sizeInBytes = 0;
+    for (int i = 0, length = string.length(); i < length; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        sizeInBytes++;
+      } else if (c < 0x800) {
+        sizeInBytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+        && Character.isLowSurrogate(string.charAt(i + 1))) {
+        sizeInBytes += 4;
+        i++;
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        sizeInBytes++; // malformed: replaced with '?'
+      } else {
+        sizeInBytes += 3;
+      }
+    }
+    return sizeInBytes;
+  }
+
+  static void writeUtf8(String string, ByteBuffer b) {
+    for (int i = 0, length = string.length(); i < length; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        b.put((byte) c);
+      } else if (c < 0x800) {
+        b.put((byte) (0xc0 | (c >> 6)));
+        b.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+        && Character.isLowSurrogate(string.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, string.charAt(++i));
+        b.put((byte) (0xf0 | (codePoint >> 18)));
+        b.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        b.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        b.put((byte) (0x80 | (codePoint & 0x3f)));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        b.put((byte) '?');
+      } else {
+        b.put((byte) (0xe0 | (c >> 12)));
+        b.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        b.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+  }
+
+  /** Writes the ASCII octets of an IPv4 address into 4 bytes, big-endian. */
+  static void writeIpv4Bytes(String ipv4, ByteBuffer b) {
+    int octet = 0;
+    for (int i = 0, length = ipv4.length(); i < length; i++) {
+      char c = ipv4.charAt(i);
+      if (c == '.') {
+        b.put((byte) octet);
+        octet = 0;
+      } else {
+        octet = octet * 10 + (c - '0');
+      }
+    }
+    b.put((byte) octet);
+  }
+
+  /** Encodes the format of {@link zipkin2.codec.SpanBytesEncoder#JSON_V2} */
+  static final class JsonV2 extends MutableSpanBytesEncoder {
+    static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+
+    JsonV2(ErrorParser errorParser, String localServiceName, @Nullable String localIp,
+      int localPort) {
+      super(errorParser, localServiceName, localIp, localPort);
+    }
+
+    @Override public Encoding encoding() {
+      return Encoding.JSON;
+    }
+
+    @Override int sizeInBytes(TraceContext context, MutableSpan span, @Nullable String name,
+      String localServiceName, @Nullable String remoteServiceName) {
+      int sizeInBytes = 13; // {"traceId":""
+      sizeInBytes += context.traceIdHigh() != 0L ? 32 : 16;
+      if (context.parentIdAsLong() != 0L) sizeInBytes += 30; // ,"parentId":"16hex"
+      sizeInBytes += 24; // ,"id":"16hex"
+      zipkin2.Span.Kind kind = kind(span);
+      if (kind != null) sizeInBytes += 10 + kind.name().length(); // ,"kind":""
+      if (name != null) sizeInBytes += 10 + jsonEscapedSizeInBytes(name); // ,"name":""
+      long timestamp = span.startTimestamp(), duration = duration(span);
+      if (timestamp != 0L) sizeInBytes += 13 + asciiSizeInBytes(timestamp); // ,"timestamp":
+      if (duration != 0L) sizeInBytes += 12 + asciiSizeInBytes(duration); // ,"duration":
+      sizeInBytes += 17 + localEndpointSizeInBytes(localServiceName, span); // ,"localEndpoint":
+      if (remoteServiceName != null || span.remoteIp() != null) {
+        sizeInBytes += 18 + endpointSizeInBytes( // ,"remoteEndpoint":
+          remoteServiceName, span.remoteIp(), span.remotePort());
+      }
+      int[] size = {0, 0};
+      span.forEachAnnotation(ANNOTATION_SIZE, size);
+      if (size[1] > 0) sizeInBytes += 17 + size[0] + size[1] - 1; // ,"annotations":[] and commas
+      size[0] = size[1] = 0;
+      span.forEachTag(TAG_SIZE, size);
+      if (size[1] > 0) sizeInBytes += 10 + size[0] + size[1] - 1; // ,"tags":{} and commas
+      if (context.debug()) sizeInBytes += 13; // ,"debug":true
+      if (span.shared()) sizeInBytes += 14; // ,"shared":true
+      return sizeInBytes + 1; // }
+    }
+
+    @Override void write(TraceContext context, MutableSpan span, int sizeInBytes,
+      @Nullable String name, String localServiceName, @Nullable String remoteServiceName,
+      ByteBuffer b) {
+      writeAscii("{\"traceId\":\"", b);
+      if (context.traceIdHigh() != 0L) writeHex(context.traceIdHigh(), b);
+      writeHex(context.traceId(), b);
+      b.put((byte) '"');
+      if (context.parentIdAsLong() != 0L) {
+        writeAscii(",\"parentId\":\"", b);
+        writeHex(context.parentIdAsLong(), b);
+        b.put((byte) '"');
+      }
+      writeAscii(",\"id\":\"", b);
+      writeHex(context.spanId(), b);
+      b.put((byte) '"');
+      zipkin2.Span.Kind kind = kind(span);
+      if (kind != null) {
+        writeAscii(",\"kind\":\"", b);
+        writeAscii(kind.name(), b);
+        b.put((byte) '"');
+      }
+      if (name != null) {
+        writeAscii(",\"name\":\"", b);
+        writeJsonEscaped(name, b);
+        b.put((byte) '"');
+      }
+      long timestamp = span.startTimestamp(), duration = duration(span);
+      if (timestamp != 0L) {
+        writeAscii(",\"timestamp\":", b);
+        writeAscii(timestamp, b);
+      }
+      if (duration != 0L) {
+        writeAscii(",\"duration\":", b);
+        writeAscii(duration, b);
+      }
+      writeAscii(",\"localEndpoint\":", b);
+      writeLocalEndpoint(localServiceName, span, b);
+      if (remoteServiceName != null || span.remoteIp() != null) {
+        writeAscii(",\"remoteEndpoint\":", b);
+        writeEndpoint(remoteServiceName, span.remoteIp(), span.remotePort(), b);
+      }
+      int position = b.position();
+      writeAscii(",\"annotations\":[", b);
+      int start = b.position();
+      span.forEachAnnotation(ANNOTATION_WRITER, b);
+      if (b.position() == start) {
+        b.position(position); // no annotations
+      } else {
+        b.put(b.position() - 1, (byte) ']'); // replace the trailing comma
+      }
+      position = b.position();
+      writeAscii(",\"tags\":{", b);
+      start = b.position();
+      span.forEachTag(TAG_WRITER, b);
+      if (b.position() == start) {
+        b.position(position); // no tags
+      } else {
+        b.put(b.position() - 1, (byte) '}'); // replace the trailing comma
+      }
+      if (context.debug()) writeAscii(",\"debug\":true", b);
+      if (span.shared()) writeAscii(",\"shared\":true", b);
+      b.put((byte) '}');
+    }
+
+    @Override
+    int endpointSizeInBytes(@Nullable String serviceName, @Nullable String ip, int port) {
+      int sizeInBytes = 0, fieldCount = 0;
+      if (serviceName != null) {
+        sizeInBytes += 16 + jsonEscapedSizeInBytes(serviceName); // "serviceName":""
+        fieldCount++;
+      }
+      if (ip != null) {
+        String text = isIpv6(ip) ? ipv6(ip).ipv6() : ip;
+        sizeInBytes += 9 + text.length(); // "ipv4":""
+        fieldCount++;
+      }
+      if (port > 0) {
+        sizeInBytes += 7 + asciiSizeInBytes(port); // "port":
+        fieldCount++;
+      }
+      return 2 + sizeInBytes + (fieldCount > 0 ? fieldCount - 1 : 0); // {} and commas
+    }
+
+    @Override
+    void writeEndpoint(@Nullable String serviceName, @Nullable String ip, int port, ByteBuffer b) {
+      b.put((byte) '{');
+      boolean wroteField = false;
+      if (serviceName != null) {
+        writeAscii("\"serviceName\":\"", b);
+        writeJsonEscaped(serviceName, b);
+        b.put((byte) '"');
+        wroteField = true;
+      }
+      if (ip != null) {
+        if (wroteField) b.put((byte) ',');
+        if (isIpv6(ip)) {
+          writeAscii("\"ipv6\":\"", b);
+          writeAscii(ipv6(ip).ipv6(), b);
+        } else {
+          writeAscii("\"ipv4\":\"", b);
+          writeAscii(ip, b);
+        }
+        b.put((byte) '"');
+        wroteField = true;
+      }
+      if (port > 0) {
+        if (wroteField) b.put((byte) ',');
+        writeAscii("\"port\":", b);
+        writeAscii(port, b);
+      }
+      b.put((byte) '}');
+    }
+
+    /** Accumulates size in index zero and count in index one. */
+    static final AnnotationConsumer<int[]> ANNOTATION_SIZE = new AnnotationConsumer<int[]>() {
+      @Override public void accept(int[] size, long timestamp, String value) {
+        // {"timestamp":,"value":""}
+        size[0] += 25 + asciiSizeInBytes(timestamp) + jsonEscapedSizeInBytes(value);
+        size[1]++;
+      }
+    };
+
+    static final TagConsumer<int[]> TAG_SIZE = new TagConsumer<int[]>() {
+      @Override public void accept(int[] size, String key, String value) {
+        size[0] += 5 + jsonEscapedSizeInBytes(key) + jsonEscapedSizeInBytes(value); // "":""
+        size[1]++;
+      }
+    };
+
+    /** Writes a trailing comma after each annotation, which the caller replaces. */
+    static final AnnotationConsumer<ByteBuffer> ANNOTATION_WRITER =
+      new AnnotationConsumer<ByteBuffer>() {
+        @Override public void accept(ByteBuffer b, long timestamp, String value) {
+          writeAscii("{\"timestamp\":", b);
+          writeAscii(timestamp, b);
+          writeAscii(",\"value\":\"", b);
+          writeJsonEscaped(value, b);
+          writeAscii("\"},", b);
+        }
+      };
+
+    /** Writes a trailing comma after each tag, which the caller replaces. */
+    static final TagConsumer<ByteBuffer> TAG_WRITER = new TagConsumer<ByteBuffer>() {
+      @Override public void accept(ByteBuffer b, String key, String value) {
+        b.put((byte) '"');
+        writeJsonEscaped(key, b);
+        writeAscii("\":\"", b);
+        writeJsonEscaped(value, b);
+        writeAscii("\",", b);
+      }
+    };
+
+    static void writeHex(long v, ByteBuffer b) {
+      for (int shift = 60; shift >= 0; shift -= 4) {
+        b.put(HEX_DIGITS[(int) (v >>> shift) & 0xf]);
+      }
+    }
+
+    static void writeAscii(String ascii, ByteBuffer b) {
+      for (int i = 0, length = ascii.length(); i < length; i++) {
+        b.put((byte) ascii.charAt(i));
+      }
+    }
+
+    static int asciiSizeInBytes(long v) {
+      if (v == 0) return 1;
+      if (v == Long.MIN_VALUE) return 20;
+      int sizeInBytes = 0;
+      if (v < 0) {
+        sizeInBytes++; // minus sign
+        v = -v;
+      }
+      for (; v > 0; v /= 10) sizeInBytes++;
+      return sizeInBytes;
+    }
+
+    /** Writes digits from the end, so that no intermediate string is allocated. */
+    static void writeAscii(long v, ByteBuffer b) {
+      if (v == Long.MIN_VALUE) {
+        writeAscii("-9223372036854775808", b);
+        return;
+      }
+      int sizeInBytes = asciiSizeInBytes(v), position = b.position();
+      if (v < 0) {
+        b.put(position, (byte) '-');
+        v = -v;
+      }
+      int i = position + sizeInBytes;
+      do {
+        b.put(--i, (byte) ('0' + (v % 10)));
+        v /= 10;
+      } while (v > 0);
+      b.position(position + sizeInBytes);
+    }
+
+    /** Escapes like {@code zipkin2.internal.JsonEscaper} */
+    static int jsonEscapedSizeInBytes(String string) {
+      int escapes = 0; // additional bytes beyond the UTF-8 size
+      for (int i = 0, length = string.length(); i < length; i++) {
+        char c = string.charAt(i);
+        if (c == '"' || c == '\\' || c == '\t' || c == '\b' || c == '\n' || c == '\r'
+          || c == '\f') {
+          escapes += 1; // two characters instead of one
+        } else if (c < 0x20) {
+          escapes += 5; // control characters are written in hex as six characters
+        } else if (c == '\u2028' || c == '\u2029') {
+          escapes += 3; // six characters instead of three UTF-8 bytes
+        }
+      }
+      return utf8SizeInBytes(string) + escapes;
+    }
+
+    static void writeJsonEscaped(String string, ByteBuffer b) {
+      int length = string.length(), last = 0;
+      for (int i = 0; i < length; i++) {
+        char c = string.charAt(i);
+        String replacement = null;
+        if (c < 0x80) {
+          if (c >= 0x20 && c != '"' && c != '\\') continue;
+          replacement = replacement(c);
+        } else if (c == '\u2028') {
+          replacement = "\\u2028";
+        } else if (c == '\u2029') {
+          replacement = "\\u2029";
+        } else {
+          continue;
+        }
+        if (last < i) writeUtf8(string.substring(last, i), b);
+        writeAscii(replacement, b);
+        last = i + 1;
+      }
+      if (last == 0) {
+        writeUtf8(string, b);
+      } else if (last < length) {
+        writeUtf8(string.substring(last, length), b);
+      }
+    }
+
+    static String replacement(char c) {
+      switch (c) {
+        case '"':
+          return "\\\"";
+        case '\\':
+          return "\\\\";
+        case '\t':
+          return "\\t";
+        case '\b':
+          return "\\b";
+        case '\n':
+          return "\\n";
+        case '\r':
+          return "\\r";
+        case '\f':
+          return "\\f";
+        default:
+          return String.format("\\u%04x", (int) c);
+      }
+    }
+
+    static byte[] ascii(String ascii) {
+      byte[] result = new byte[ascii.length()];
+      for (int i = 0; i < result.length; i++) result[i] = (byte) ascii.charAt(i);
+      return result;
+    }
+  }
+
+  /**
+   * Encodes the format of {@link zipkin2.codec.SpanBytesEncoder#PROTO3}: a span in a ListOfSpans
+   * message. This means spans written consecutively form a valid ListOfSpans.
+   */
+  static final class Proto3 extends MutableSpanBytesEncoder {
+    static final int WIRETYPE_VARINT = 0, WIRETYPE_FIXED64 = 1, WIRETYPE_LENGTH_DELIMITED = 2;
+
+    Proto3(ErrorParser errorParser, String localServiceName, @Nullable String localIp,
+      int localPort) {
+      super(errorParser, localServiceName, localIp, localPort);
+    }
+
+    @Override public Encoding encoding() {
+      return Encoding.PROTO3;
+    }
+
+    @Override int sizeInBytes(TraceContext context, MutableSpan span, @Nullable String name,
+      String localServiceName, @Nullable String remoteServiceName) {
+      int spanSizeInBytes =
+        spanSizeInBytes(context, span, name, localServiceName, remoteServiceName);
+      return 1 + varintSizeInBytes(spanSizeInBytes) + spanSizeInBytes; // ListOfSpans.spans
+    }
+
+    /** Inverts {@link #sizeInBytes}, so that the span isn't measured twice. */
+    static int spanSizeInBytes(int sizeInBytes) {
+      int spanSizeInBytes = sizeInBytes - 2; // the key and at least one byte of length
+      while (1 + varintSizeInBytes(spanSizeInBytes) + spanSizeInBytes > sizeInBytes) {
+        spanSizeInBytes--;
+      }
+      return spanSizeInBytes;
+    }
+
+    int spanSizeInBytes(TraceContext context, MutableSpan span, @Nullable String name,
+      String localServiceName, @Nullable String remoteServiceName) {
+      int sizeInBytes = 2 + (context.traceIdHigh() != 0L ? 16 : 8); // trace_id
+      if (context.parentIdAsLong() != 0L) sizeInBytes += 10; // parent_id
+      sizeInBytes += 10; // id
+      if (kind(span) != null) sizeInBytes += 2;
+      if (name != null) sizeInBytes += lengthDelimitedSizeInBytes(name);
+      if (span.startTimestamp() != 0L) sizeInBytes += 9;
+      long duration = duration(span);
+      if (duration != 0L) sizeInBytes += 1 + varintSizeInBytes(duration);
+      sizeInBytes += lengthDelimitedSizeInBytes(localEndpointSizeInBytes(localServiceName, span));
+      if (remoteServiceName != null || span.remoteIp() != null) {
+        sizeInBytes += lengthDelimitedSizeInBytes(endpointSizeInBytes(
+          remoteServiceName, span.remoteIp(), span.remotePort()));
+      }
+      int[] size = {0};
+      span.forEachAnnotation(ANNOTATION_SIZE, size);
+      span.forEachTag(TAG_SIZE, size);
+      sizeInBytes += size[0];
+      if (context.debug()) sizeInBytes += 2;
+      if (span.shared()) sizeInBytes += 2;
+      return sizeInBytes;
+    }
+
+    @Override void write(TraceContext context, MutableSpan span, int sizeInBytes,
+      @Nullable String name, String localServiceName, @Nullable String remoteServiceName,
+      ByteBuffer b) {
+      b.put((byte) key(1, WIRETYPE_LENGTH_DELIMITED)); // ListOfSpans.spans
+      writeVarint(spanSizeInBytes(sizeInBytes), b);
+
+      b.put((byte) key(1, WIRETYPE_LENGTH_DELIMITED));
+      if (context.traceIdHigh() != 0L) {
+        b.put((byte) 16);
+        b.putLong(context.traceIdHigh());
+      } else {
+        b.put((byte) 8);
+      }
+      b.putLong(context.traceId());
+      if (context.parentIdAsLong() != 0L) {
+        b.put((byte) key(2, WIRETYPE_LENGTH_DELIMITED));
+        b.put((byte) 8);
+        b.putLong(context.parentIdAsLong());
+      }
+      b.put((byte) key(3, WIRETYPE_LENGTH_DELIMITED));
+      b.put((byte) 8);
+      b.putLong(context.spanId());
+      zipkin2.Span.Kind kind = kind(span);
+      if (kind != null) {
+        b.put((byte) key(4, WIRETYPE_VARINT));
+        b.put((byte) (kind.ordinal() + 1));
+      }
+      if (name != null) writeUtf8Field(5, name, b);
+      if (span.startTimestamp() != 0L) {
+        b.put((byte) key(6, WIRETYPE_FIXED64));
+        writeFixed64(span.startTimestamp(), b);
+      }
+      long duration = duration(span);
+      if (duration != 0L) {
+        b.put((byte) key(7, WIRETYPE_VARINT));
+        writeVarint(duration, b);
+      }
+      b.put((byte) key(8, WIRETYPE_LENGTH_DELIMITED));
+      writeVarint(localEndpointSizeInBytes(localServiceName, span), b);
+      writeLocalEndpoint(localServiceName, span, b);
+      if (remoteServiceName != null || span.remoteIp() != null) {
+        String ip = span.remoteIp();
+        int port = span.remotePort();
+        b.put((byte) key(9, WIRETYPE_LENGTH_DELIMITED));
+        writeVarint(endpointSizeInBytes(remoteServiceName, ip, port), b);
+        writeEndpoint(remoteServiceName, ip, port, b);
+      }
+      span.forEachAnnotation(ANNOTATION_WRITER, b);
+      span.forEachTag(TAG_WRITER, b);
+      if (context.debug()) {
+        b.put((byte) key(12, WIRETYPE_VARINT));
+        b.put((byte) 1);
+      }
+      if (span.shared()) {
+        b.put((byte) key(13, WIRETYPE_VARINT));
+        b.put((byte) 1);
+      }
+    }
+
+    @Override
+    int endpointSizeInBytes(@Nullable String serviceName, @Nullable String ip, int port) {
+      int sizeInBytes = 0;
+      if (serviceName != null) {
+        sizeInBytes += lengthDelimitedSizeInBytes(serviceName);
+      }
+      if (ip != null) sizeInBytes += isIpv6(ip) ? 18 : 6;
+      if (port > 0) sizeInBytes += 1 + varintSizeInBytes(port);
+      return sizeInBytes;
+    }
+
+    @Override
+    void writeEndpoint(@Nullable String serviceName, @Nullable String ip, int port, ByteBuffer b) {
+      if (serviceName != null) writeUtf8Field(1, serviceName, b);
+      if (ip != null) {
+        if (isIpv6(ip)) {
+          b.put((byte) key(3, WIRETYPE_LENGTH_DELIMITED));
+          b.put((byte) 16);
+          b.put(ipv6(ip).ipv6Bytes());
+        } else {
+          b.put((byte) key(2, WIRETYPE_LENGTH_DELIMITED));
+          b.put((byte) 4);
+          writeIpv4Bytes(ip, b);
+        }
+      }
+      if (port > 0) {
+        b.put((byte) key(4, WIRETYPE_VARINT));
+        writeVarint(port, b);
+      }
+    }
+
+    static final AnnotationConsumer<int[]> ANNOTATION_SIZE = new AnnotationConsumer<int[]>() {
+      @Override public void accept(int[] size, long timestamp, String value) {
+        size[0] += lengthDelimitedSizeInBytes(annotationSizeInBytes(value));
+      }
+    };
+
+    static final TagConsumer<int[]> TAG_SIZE = new TagConsumer<int[]>() {
+      @Override public void accept(int[] size, String key, String value) {
+        size[0] += lengthDelimitedSizeInBytes(tagSizeInBytes(key, value));
+      }
+    };
+
+    static final AnnotationConsumer<ByteBuffer> ANNOTATION_WRITER =
+      new AnnotationConsumer<ByteBuffer>() {
+        @Override public void accept(ByteBuffer b, long timestamp, String value) {
+          b.put((byte) key(10, WIRETYPE_LENGTH_DELIMITED));
+          writeVarint(annotationSizeInBytes(value), b);
+          b.put((byte) key(1, WIRETYPE_FIXED64));
+          writeFixed64(timestamp, b);
+          writeUtf8Field(2, value, b);
+        }
+      };
+
+    static final TagConsumer<ByteBuffer> TAG_WRITER = new TagConsumer<ByteBuffer>() {
+      @Override public void accept(ByteBuffer b, String key, String value) {
+        b.put((byte) key(11, WIRETYPE_LENGTH_DELIMITED));
+        writeVarint(tagSizeInBytes(key, value), b);
+        writeUtf8Field(1, key, b);
+        writeUtf8Field(2, value, b);
+      }
+    };
+
+    static int annotationSizeInBytes(String value) {
+      return 9 + lengthDelimitedSizeInBytes(value);
+    }
+
+    static int tagSizeInBytes(String key, String value) {
+      return lengthDelimitedSizeInBytes(key) + lengthDelimitedSizeInBytes(value);
+    }
+
+    static int key(int fieldNumber, int wireType) {
+      return (fieldNumber << 3) | wireType;
+    }
+
+    static int lengthDelimitedSizeInBytes(String utf8) {
+      return lengthDelimitedSizeInBytes(utf8SizeInBytes(utf8));
+    }
+
+    static int lengthDelimitedSizeInBytes(int sizeInBytes) {
+      return 1 + varintSizeInBytes(sizeInBytes) + sizeInBytes;
+    }
+
+    static void writeUtf8Field(int fieldNumber, String utf8, ByteBuffer b) {
+      b.put((byte) key(fieldNumber, WIRETYPE_LENGTH_DELIMITED));
+      writeVarint(utf8SizeInBytes(utf8), b);
+      writeUtf8(utf8, b);
+    }
+
+    static int varintSizeInBytes(long v) {
+      int sizeInBytes = 1;
+      while ((v & ~0x7fL) != 0L) {
+        v >>>= 7;
+        sizeInBytes++;
+      }
+      return sizeInBytes;
+    }
+
+    static void writeVarint(long v, ByteBuffer b) {
+      while ((v & ~0x7fL) != 0L) {
+        b.put((byte) ((v & 0x7f) | 0x80));
+        v >>>= 7;
+      }
+      b.put((byte) v);
+    }
+
+    static void writeFixed64(long v, ByteBuffer b) {
+      for (int shift = 0; shift < 64; shift += 8) b.put((byte) (v >>> shift));
+    }
+  }
+}
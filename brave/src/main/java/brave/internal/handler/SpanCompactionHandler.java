@@ -0,0 +1,340 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.Span.Kind;
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.handler.SpanCompaction;
+import brave.internal.Platform;
+import brave.propagation.TraceContext;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static brave.internal.HexCodec.toLowerHex;
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Merges {@link SpanCompaction#isCompactable(MutableSpan) compactable} sibling spans before
+ * forwarding them to the delegate.
+ *
+ * <p>Groups are held by parent span ID, qualified by trace ID, in stripes, each with a lock and an
+ * insertion-ordered map, so that expired groups are found by scanning from the oldest entry. Each
+ * group holds only the first span and running statistics, so memory doesn't grow with the count of
+ * spans merged. The count of parents per stripe is capped, and a daemon thread flushes expired
+ * groups, so that spans don't wait on further traffic to the same stripe.
+ *
+ * <p>Unsampled spans pass through without locking, as they are not reported to Zipkin.
+ *
+ * <p>Children usually finish before their parent. So, when a span finishes, any group keyed by its
+ * span ID is flushed first, preserving the order the delegate would otherwise see.
+ */
+public final class SpanCompactionHandler extends FinishedSpanHandler implements Closeable {
+  static final int STRIPE_COUNT = 16; // power of two
+  /** When exceeded, the oldest parent in the stripe is flushed before its window elapses. */
+  static final int MAX_PARENTS_PER_STRIPE = 1024;
+
+  /** Returns a handler which compacts spans sent to the input, unless it is a no-op. */
+  public static FinishedSpanHandler wrap(SpanCompaction config, FinishedSpanHandler delegate) {
+    if (config == null) throw new NullPointerException("config == null");
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    if (delegate == FinishedSpanHandler.NOOP) return delegate;
+    return new SpanCompactionHandler(config, delegate);
+  }
+
+  final SpanCompaction config;
+  final FinishedSpanHandler delegate;
+  final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+  final Thread flusher;
+  volatile boolean closed;
+
+  SpanCompactionHandler(SpanCompaction config, FinishedSpanHandler delegate) {
+    this.config = config;
+    this.delegate = delegate;
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe();
+    }
+    flusher = new Thread(new Flusher(), "brave-span-compaction-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  @Override public boolean handle(TraceContext context, MutableSpan span) {
+    if (!Boolean.TRUE.equals(context.sampled())) return delegate.handle(context, span);
+
+    long now = System.nanoTime();
+    // Flush the children of this span, as it is likely they all finished by now.
+    Stripe stripe = stripes[stripeIndex(context.spanId())];
+    List<Group> ready = stripe.remove(context.traceIdHigh(), context.traceId(), context.spanId());
+    if (ready != null) forward(ready);
+
+    long parentId = context.parentIdAsLong();
+    if (parentId == 0L || !config.isCompactable(span)) return delegate.handle(context, span);
+
+    ready = stripes[stripeIndex(parentId)].add(
+      new ParentKey(context.traceIdHigh(), context.traceId(), parentId), context, span, now);
+    if (ready != null) forward(ready);
+    return true;
+  }
+
+  @Override public boolean alwaysSampleLocal() {
+    return delegate.alwaysSampleLocal();
+  }
+
+  @Override public boolean supportsOrphans() {
+    return delegate.supportsOrphans();
+  }
+
+  /** Stops the flusher thread and forwards any groups still waiting. */
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    LockSupport.unpark(flusher);
+    if (flusher != Thread.currentThread()) {
+      try {
+        flusher.join(TimeUnit.SECONDS.toMillis(1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt(); // still forward what's waiting below
+      }
+    }
+    for (Stripe stripe : stripes) {
+      List<Group> ready = stripe.removeAll();
+      if (ready != null) forward(ready);
+    }
+  }
+
+  void forward(List<Group> groups) {
+    for (int i = 0, length = groups.size(); i < length; i++) {
+      Group group = groups.get(i);
+      try {
+        if (group.count == 1) {
+          delegate.handle(group.context, group.first);
+        } else {
+          InternalHandlerConfig.instance.incrementCompactedSpans(config, group.count - 1);
+          delegate.handle(group.context, group.compact());
+        }
+      } catch (Throwable t) {
+        propagateIfFatal(t);
+        Platform.get().log("error handling {0}", group.context, t);
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return "SpanCompactionHandler{" + delegate + "}";
+  }
+
+  /** Flushes groups whose window elapsed, even if no more spans arrive in their stripe. */
+  final class Flusher implements Runnable {
+    @Override public void run() {
+      while (!closed) {
+        LockSupport.parkNanos(this, config.windowNanos());
+        if (closed) return;
+        long now = System.nanoTime();
+        for (Stripe stripe : stripes) {
+          List<Group> ready = stripe.removeExpired(now);
+          if (ready != null) forward(ready);
+        }
+      }
+    }
+  }
+
+  static int stripeIndex(long spanId) {
+    // span IDs are random, but mix in the high bits anyway in case they are not
+    return (int) (spanId ^ (spanId >>> 32)) & (STRIPE_COUNT - 1);
+  }
+
+  /** Guarded by the instance lock. */
+  final class Stripe {
+    final LinkedHashMap<ParentKey, Parent> parents = new LinkedHashMap<>();
+
+    /** Returns groups to forward to the delegate, or null if there are none. */
+    synchronized List<Group> add(ParentKey key, TraceContext context, MutableSpan span, long now) {
+      List<Group> ready = removeExpired(now, null);
+
+      Parent parent = parents.get(key);
+      if (parent == null) {
+        if (parents.size() >= MAX_PARENTS_PER_STRIPE) { // flush the oldest to make room
+          Iterator<Parent> oldestFirst = parents.values().iterator();
+          ready = addAll(ready, oldestFirst.next().groups);
+          oldestFirst.remove();
+        }
+        parent = new Parent(now);
+        parents.put(key, parent);
+      }
+      parent.add(context, span, config.exemplars());
+      return ready;
+    }
+
+    synchronized List<Group> removeExpired(long now) {
+      if (parents.isEmpty()) return null;
+      return removeExpired(now, null);
+    }
+
+    List<Group> removeExpired(long now, List<Group> ready) {
+      Iterator<Parent> oldestFirst = parents.values().iterator();
+      while (oldestFirst.hasNext()) {
+        Parent oldest = oldestFirst.next();
+        if (now - oldest.createdNanos < config.windowNanos()) break; // the rest are younger
+        oldestFirst.remove();
+        ready = addAll(ready, oldest.groups);
+      }
+      return ready;
+    }
+
+    synchronized List<Group> remove(long traceIdHigh, long traceId, long parentId) {
+      if (parents.isEmpty()) return null;
+      Parent parent = parents.remove(new ParentKey(traceIdHigh, traceId, parentId));
+      return parent != null ? parent.groups : null;
+    }
+
+    synchronized List<Group> removeAll() {
+      List<Group> ready = null;
+      for (Parent parent : parents.values()) {
+        ready = addAll(ready, parent.groups);
+      }
+      parents.clear();
+      return ready;
+    }
+  }
+
+  static List<Group> addAll(List<Group> ready, List<Group> groups) {
+    if (ready == null) return groups;
+    ready.addAll(groups);
+    return ready;
+  }
+
+  /** Identifies a parent span, as span IDs are only unique within a trace. */
+  static final class ParentKey {
+    final long traceIdHigh, traceId, spanId;
+
+    ParentKey(long traceIdHigh, long traceId, long spanId) {
+      this.traceIdHigh = traceIdHigh;
+      this.traceId = traceId;
+      this.spanId = spanId;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof ParentKey)) return false;
+      ParentKey that = (ParentKey) o;
+      return traceIdHigh == that.traceIdHigh && traceId == that.traceId && spanId == that.spanId;
+    }
+
+    @Override public int hashCode() {
+      int h = 1000003;
+      h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
+      h *= 1000003;
+      h ^= (int) ((traceId >>> 32) ^ traceId);
+      h *= 1000003;
+      h ^= (int) ((spanId >>> 32) ^ spanId);
+      return h;
+    }
+  }
+
+  /** Groups of children of the same parent span, usually one per distinct name. */
+  static final class Parent {
+    final long createdNanos;
+    final ArrayList<Group> groups = new ArrayList<>(2);
+
+    Parent(long createdNanos) {
+      this.createdNanos = createdNanos;
+    }
+
+    void add(TraceContext context, MutableSpan span, int maxExemplars) {
+      String name = span.name();
+      Kind kind = span.kind();
+      for (int i = 0, length = groups.size(); i < length; i++) {
+        Group group = groups.get(i);
+        if (group.kind == kind && equal(group.name, name)) {
+          group.add(context, span);
+          return;
+        }
+      }
+      groups.add(new Group(context, span, maxExemplars));
+    }
+  }
+
+  /** Running statistics of sibling spans with the same name and kind. */
+  static final class Group {
+    final TraceContext context;
+    final MutableSpan first;
+    final String name;
+    final Kind kind;
+    final long[] exemplars;
+    int count, exemplarCount;
+    long start, finish, totalDuration, minDuration, maxDuration;
+
+    Group(TraceContext context, MutableSpan first, int maxExemplars) {
+      this.context = context;
+      this.first = first;
+      this.name = first.name();
+      this.kind = first.kind();
+      this.exemplars = new long[maxExemplars];
+      this.start = first.startTimestamp();
+      this.finish = first.finishTimestamp();
+      this.minDuration = Long.MAX_VALUE;
+      add(context, first);
+    }
+
+    void add(TraceContext context, MutableSpan span) {
+      long duration = span.finishTimestamp() - span.startTimestamp();
+      count++;
+      totalDuration += duration;
+      if (duration < minDuration) minDuration = duration;
+      if (duration > maxDuration) maxDuration = duration;
+      if (span.startTimestamp() < start) start = span.startTimestamp();
+      if (span.finishTimestamp() > finish) finish = span.finishTimestamp();
+      if (exemplarCount < exemplars.length) exemplars[exemplarCount++] = context.spanId();
+    }
+
+    /** Returns a span summarizing this group, based on the first span's identity and endpoints. */
+    MutableSpan compact() {
+      MutableSpan result = new MutableSpan();
+      if (name != null) result.name(name);
+      result.kind(kind);
+      result.startTimestamp(start);
+      result.finishTimestamp(finish);
+      if (first.localServiceName() != null) result.localServiceName(first.localServiceName());
+      result.localIp(first.localIp());
+      result.localPort(first.localPort());
+      if (first.remoteServiceName() != null) result.remoteServiceName(first.remoteServiceName());
+      result.remoteIpAndPort(first.remoteIp(), first.remotePort());
+      if (first.shared()) result.setShared();
+
+      result.tag(SpanCompaction.TAG_COUNT, String.valueOf(count));
+      result.tag(SpanCompaction.TAG_DURATION_TOTAL, String.valueOf(totalDuration));
+      result.tag(SpanCompaction.TAG_DURATION_MIN, String.valueOf(minDuration));
+      result.tag(SpanCompaction.TAG_DURATION_MAX, String.valueOf(maxDuration));
+      if (exemplarCount > 0) {
+        StringBuilder ids = new StringBuilder(exemplarCount * 17);
+        for (int i = 0; i < exemplarCount; i++) {
+          if (i > 0) ids.append(',');
+          ids.append(toLowerHex(exemplars[i]));
+        }
+        result.tag(SpanCompaction.TAG_EXEMPLARS, ids.toString());
+      }
+      return result;
+    }
+  }
+
+  static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.handler.TailSampling;
+import brave.internal.Platform;
+import brave.propagation.TraceContext;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static brave.internal.Throwables.propagateIfFatal;
+
+/**
+ * Holds spans not yet sampled until their local root finishes, then forwards them to the delegate
+ * as sampled, or drops them, according to {@link TailSampling#decision()}.
+ *
+ * <p>Local traces are partitioned into stripes by local root ID, each with a lock, an
+ * insertion-ordered map and an equal share of {@link TailSampling#maxBytes()}. Eviction scans from
+ * the oldest entry, so it stops at the first one which is young enough. Once decided, a local trace
+ * leaves the map and its decision is remembered in a small, fixed-size map, so that spans finishing
+ * after the local root follow the same decision without holding memory until they age out.
+ *
+ * <p>Spans are forwarded outside the stripe lock, as the delegate may block on I/O.
+ */
+public final class TailSamplingHandler extends FinishedSpanHandler implements Closeable {
+  static final int STRIPE_COUNT = 16; // power of two
+  /** Rough size of a span with no strings, including the context and list overhead. */
+  static final int SPAN_OVERHEAD = 256;
+  /** Count of decisions remembered per stripe for spans that finish after their local root. */
+  static final int DECIDED_PER_STRIPE = 256;
+
+  /** Returns a handler which applies tail sampling to the input, unless it is a no-op. */
+  public static FinishedSpanHandler wrap(TailSampling config, FinishedSpanHandler delegate) {
+    if (config == null) throw new NullPointerException("config == null");
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    if (delegate == FinishedSpanHandler.NOOP) return delegate;
+    return new TailSamplingHandler(config, delegate);
+  }
+
+  final TailSampling config;
+  final FinishedSpanHandler delegate;
+  final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+  TailSamplingHandler(TailSampling config, FinishedSpanHandler delegate) {
+    this.config = config;
+    this.delegate = delegate;
+    long maxBytesPerStripe = Math.max(1L, config.maxBytes() / STRIPE_COUNT);
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe(config, maxBytesPerStripe);
+    }
+  }
+
+  @Override public boolean handle(TraceContext context, MutableSpan span) {
+    if (Boolean.TRUE.equals(context.sampled())) return delegate.handle(context, span);
+
+    long localRootId = context.localRootId();
+    if (localRootId == 0L) localRootId = context.traceId(); // context created manually
+    Stripe stripe = stripes[stripeIndex(localRootId)];
+
+    List<LocalTrace> kept = stripe.add(localRootId, context, span, System.nanoTime());
+    if (kept != null) forward(kept);
+    return true;
+  }
+
+  /** Unsampled spans are recorded, as the decision to report them is made later. */
+  @Override public boolean alwaysSampleLocal() {
+    return true;
+  }
+
+  @Override public boolean supportsOrphans() {
+    return delegate.supportsOrphans();
+  }
+
+  /** Decides any local traces still waiting, as their local root is not going to finish. */
+  @Override public void close() {
+    for (Stripe stripe : stripes) {
+      List<LocalTrace> kept = stripe.evictAll();
+      if (kept != null) forward(kept);
+    }
+  }
+
+  void forward(List<LocalTrace> kept) {
+    for (int i = 0, length = kept.size(); i < length; i++) {
+      LocalTrace trace = kept.get(i);
+      for (int j = 0, spanCount = trace.spans.size(); j < spanCount; j++) {
+        TraceContext context = trace.contexts.get(j);
+        try {
+          delegate.handle(context.toBuilder().sampled(true).build(), trace.spans.get(j));
+        } catch (Throwable t) {
+          propagateIfFatal(t);
+          Platform.get().log("error handling {0}", context, t);
+        }
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return "TailSamplingHandler{" + delegate + "}";
+  }
+
+  static int stripeIndex(long localRootId) {
+    // span IDs are random, but mix in the high bits anyway in case they are not
+    return (int) (localRootId ^ (localRootId >>> 32)) & (STRIPE_COUNT - 1);
+  }
+
+  /** Guarded by the instance lock. */
+  static final class Stripe {
+    final TailSampling config;
+    final long maxBytes;
+    final LinkedHashMap<Long, LocalTrace> traces = new LinkedHashMap<>();
+    final DecidedTraces decided = new DecidedTraces();
+    long bytes;
+
+    Stripe(TailSampling config, long maxBytes) {
+      this.config = config;
+      this.maxBytes = maxBytes;
+    }
+
+    /** Returns local traces to forward to the delegate, or null if there are none. */
+    synchronized List<LocalTrace> add(long localRootId, TraceContext context, MutableSpan span,
+      long now) {
+      List<LocalTrace> kept = evictExpired(now, null);
+
+      Boolean keep = decided.get(localRootId);
+      if (keep != null) { // late span: follow the decision already made
+        if (!keep) return kept;
+        LocalTrace late = new LocalTrace(localRootId, now);
+        late.add(context, span, 0);
+        return add(kept, late);
+      }
+
+      LocalTrace trace = traces.get(localRootId);
+      if (trace == null) {
+        trace = new LocalTrace(localRootId, now);
+        traces.put(localRootId, trace);
+      }
+
+      int size = estimateSize(span);
+      trace.add(context, span, size);
+      bytes += size;
+
+      if (context.spanId() == localRootId) { // the local root finished
+        traces.remove(localRootId);
+        kept = decide(trace, span, false, kept);
+      }
+
+      // If still over budget, decide the oldest traces with the spans they have so far
+      Iterator<LocalTrace> oldestFirst = traces.values().iterator();
+      while (bytes > maxBytes && oldestFirst.hasNext()) {
+        LocalTrace oldest = oldestFirst.next();
+        oldestFirst.remove();
+        kept = decide(oldest, null, true, kept);
+      }
+      return kept;
+    }
+
+    /** Decides local traces older than the max age. */
+    List<LocalTrace> evictExpired(long now, List<LocalTrace> kept) {
+      Iterator<LocalTrace> oldestFirst = traces.values().iterator();
+      while (oldestFirst.hasNext()) {
+        LocalTrace oldest = oldestFirst.next();
+        if (now - oldest.createdNanos < config.maxAgeNanos()) break; // the rest are younger
+        oldestFirst.remove();
+        kept = decide(oldest, null, true, kept);
+      }
+      return kept;
+    }
+
+    synchronized List<LocalTrace> evictAll() {
+      List<LocalTrace> kept = null;
+      for (LocalTrace trace : traces.values()) {
+        kept = decide(trace, null, true, kept);
+      }
+      traces.clear();
+      decided.clear();
+      return kept;
+    }
+
+    /**
+     * Applies the decision to a trace already removed from {@link #traces}, remembering it for late
+     * spans, and releases the trace's share of the byte budget.
+     */
+    List<LocalTrace> decide(LocalTrace trace, MutableSpan localRoot, boolean evicted,
+      List<LocalTrace> kept) {
+      boolean keep;
+      try {
+        keep = config.decision().keep(localRoot, trace.spans);
+      } catch (Throwable t) {
+        propagateIfFatal(t);
+        Platform.get().log("error deciding {0}", config.decision(), t);
+        keep = false;
+      }
+      InternalHandlerConfig.instance.incrementDecided(config, keep, evicted);
+      decided.put(trace.localRootId, keep);
+      bytes -= trace.bytes;
+      return keep ? add(kept, trace) : kept;
+    }
+
+    static List<LocalTrace> add(List<LocalTrace> kept, LocalTrace trace) {
+      if (kept == null) kept = new ArrayList<>(2);
+      kept.add(trace);
+      return kept;
+    }
+  }
+
+  /** Decisions by local root ID, evicting the oldest past {@link #DECIDED_PER_STRIPE}. */
+  static final class DecidedTraces extends LinkedHashMap<Long, Boolean> {
+    @Override protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+      return size() > DECIDED_PER_STRIPE;
+    }
+  }
+
+  /** Spans of one local trace waiting for a decision. */
+  static final class LocalTrace {
+    final long localRootId, createdNanos;
+    final ArrayList<TraceContext> contexts = new ArrayList<>(4);
+    final ArrayList<MutableSpan> spans = new ArrayList<>(4);
+    long bytes;
+
+    LocalTrace(long localRootId, long createdNanos) {
+      this.localRootId = localRootId;
+      this.createdNanos = createdNanos;
+    }
+
+    void add(TraceContext context, MutableSpan span, int size) {
+      contexts.add(context);
+      spans.add(span);
+      bytes += size;
+    }
+  }
+
+  static int estimateSize(MutableSpan span) {
+    int[] size = {SPAN_OVERHEAD + length(span.name()) + length(span.remoteServiceName())};
+    span.forEachTag(TAG_SIZE, size);
+    span.forEachAnnotation(ANNOTATION_SIZE, size);
+    return size[0];
+  }
+
+  static final MutableSpan.TagConsumer<int[]> TAG_SIZE = new MutableSpan.TagConsumer<int[]>() {
+    @Override public void accept(int[] size, String key, String value) {
+      size[0] += 16 + key.length() + value.length();
+    }
+  };
+
+  static final MutableSpan.AnnotationConsumer<int[]> ANNOTATION_SIZE =
+    new MutableSpan.AnnotationConsumer<int[]>() {
+      @Override public void accept(int[] size, long timestamp, String value) {
+        size[0] += 16 + value.length();
+      }
+    };
+
+  static int length(String string) {
+    return string != null ? string.length() : 0;
+  }
+}
@@ -41,7 +41,8 @@ public final class ZipkinFinishedSpanHandler extends FinishedSpanHandler {
   @Override public boolean handle(TraceContext context, MutableSpan span) {
     if (!alwaysReportSpans && !Boolean.TRUE.equals(context.sampled())) return true;
 
-    Span.Builder builderWithContextData = Span.newBuilder()
+    // The builder is reused, as build() copies its tags and annotations into the immutable span
+    Span.Builder builderWithContextData = BUILDER.get().clear()
       .traceId(context.traceIdString())
       .parentId(context.parentIdString())
       .id(context.spanIdString());
@@ -52,6 +53,12 @@ public final class ZipkinFinishedSpanHandler extends FinishedSpanHandler {
     return true;
   }
 
+  static final ThreadLocal<Span.Builder> BUILDER = new ThreadLocal<Span.Builder>() {
+    @Override protected Span.Builder initialValue() {
+      return Span.newBuilder();
+    }
+  };
+
   @Override public boolean supportsOrphans() {
     return true;
   }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.recorder;
+
+import brave.handler.MutableSpan;
+import brave.internal.InternalMutableSpan;
+
+/**
+ * Bounded, thread-local free lists of cleared spans. A span is usually started and finished on the
+ * same request thread, so a thread-local list avoids contention without needing to balance spans
+ * between threads. Spans released to a full list are left to the garbage collector.
+ *
+ * <p>The lists are shared by all tracing components, as a cleared span has no state.
+ */
+final class MutableSpanPool {
+  static final int MAX_SPANS_PER_THREAD = 32;
+
+  static final ThreadLocal<FreeList> FREE_LISTS = new ThreadLocal<FreeList>() {
+    @Override protected FreeList initialValue() {
+      return new FreeList();
+    }
+  };
+
+  static MutableSpan acquire() {
+    FreeList freeList = FREE_LISTS.get();
+    if (freeList.size == 0) return new MutableSpan();
+    MutableSpan result = freeList.spans[--freeList.size];
+    freeList.spans[freeList.size] = null;
+    return result;
+  }
+
+  /** Only call this when no code can read or write the span anymore. */
+  static void release(MutableSpan span) {
+    FreeList freeList = FREE_LISTS.get();
+    if (freeList.size == MAX_SPANS_PER_THREAD) return;
+    synchronized (span) { // handles check the generation while holding the same lock
+      InternalMutableSpan.instance.clear(span);
+    }
+    freeList.spans[freeList.size++] = span;
+  }
+
+  static final class FreeList {
+    final MutableSpan[] spans = new MutableSpan[MAX_SPANS_PER_THREAD];
+    int size;
+  }
+
+  MutableSpanPool() {
+  }
+}
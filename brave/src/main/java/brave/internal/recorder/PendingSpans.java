@@ -23,10 +23,12 @@ import brave.internal.Platform;
 import brave.propagation.TraceContext;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Similar to Finagle's deadline span map, except this is GC pressure as opposed to timeout driven.
@@ -38,33 +40,57 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * transferred to a queue, waiting to be reported. A call to modify any span will implicitly flush
  * orphans to Zipkin. Spans in this state will have a "brave.flush" annotation added to them.
  *
- * <p>The internal implementation is derived from WeakConcurrentMap by Rafael Winterhalter. See
+ * <h3>Implementation notes</h3>
+ *
+ * <p>Pending spans are stored in an open-addressing table keyed directly on the identity fields
+ * of the context: trace ID high, trace ID, span ID and the shared flag. This means lookups, such as
+ * on {@link Tracer#toSpan(TraceContext)}, do not allocate. The table is split into {@link Stripe
+ * stripes} by hash code, so concurrent writers rarely contend on the same lock. Readers do not lock
+ * unless they race with a writer on the same stripe.
+ *
+ * <p>The weak reference used for orphan tracking is a side structure, {@link Entry}, which is only
+ * allocated when a span is created.
+ *
+ * <p>The orphan tracking approach was derived from WeakConcurrentMap by Rafael Winterhalter. See
  * https://github.com/raphw/weak-lock-free/blob/master/src/main/java/com/blogspot/mydailyjava/weaklockfree/WeakConcurrentMap.java
  */
 public final class PendingSpans extends ReferenceQueue<TraceContext> {
-  // Even though we only put by RealKey, we allow get and remove by LookupKey
-  final ConcurrentMap<Object, PendingSpan> delegate = new ConcurrentHashMap<>(64);
+  static final int STRIPE_COUNT = 16; // must be a power of two
+
+  final Stripe[] stripes = new Stripe[STRIPE_COUNT];
   final Clock clock;
   final FinishedSpanHandler orphanedSpanHandler;
-  final boolean trackOrphans;
+  final boolean trackOrphans, recycleSpans;
   final AtomicBoolean noop;
 
   public PendingSpans(Clock clock, FinishedSpanHandler orphanedSpanHandler, boolean trackOrphans,
     AtomicBoolean noop) {
+    this(clock, orphanedSpanHandler, trackOrphans, false, noop);
+  }
+
+  public PendingSpans(Clock clock, FinishedSpanHandler orphanedSpanHandler, boolean trackOrphans,
+    boolean recycleSpans, AtomicBoolean noop) {
     this.clock = clock;
     this.orphanedSpanHandler = orphanedSpanHandler;
     this.trackOrphans = trackOrphans;
+    this.recycleSpans = recycleSpans;
     this.noop = noop;
+    for (int i = 0; i < STRIPE_COUNT; i++) stripes[i] = new Stripe();
   }
 
   public PendingSpan getOrCreate(TraceContext context, boolean start) {
     if (context == null) throw new NullPointerException("context == null");
     reportOrphanedSpans();
-    PendingSpan result = delegate.get(context);
+    int hashCode = context.hashCode(); // cached, and the same as generateHashCode
+    Stripe stripe = stripe(hashCode);
+    long traceIdHigh = context.traceIdHigh(), traceId = context.traceId();
+    long spanId = context.spanId();
+    boolean shared = context.shared();
+    PendingSpan result = stripe.get(traceIdHigh, traceId, spanId, shared, hashCode);
     if (result != null) return result;
 
-    MutableSpan data = new MutableSpan();
-    if (context.shared()) data.setShared();
+    MutableSpan data = recycleSpans ? MutableSpanPool.acquire() : new MutableSpan();
+    if (shared) data.setShared();
 
     // save overhead calculating time if the parent is in-progress (usually is)
     TickClock clock = getClockFromParent(context);
@@ -75,8 +101,12 @@ public final class PendingSpans extends ReferenceQueue<TraceContext> {
       data.startTimestamp(clock.currentTimeMicroseconds());
     }
     PendingSpan newSpan = new PendingSpan(data, clock);
-    PendingSpan previousSpan = delegate.putIfAbsent(new RealKey(context, this), newSpan);
-    if (previousSpan != null) return previousSpan; // lost race
+    Entry entry = new Entry(context, this, hashCode, newSpan);
+    PendingSpan previousSpan = stripe.putIfAbsent(entry);
+    if (previousSpan != null) { // lost race
+      recycle(data);
+      return previousSpan;
+    }
 
     if (trackOrphans) {
       newSpan.caller =
@@ -85,56 +115,67 @@ public final class PendingSpans extends ReferenceQueue<TraceContext> {
     return newSpan;
   }
 
+  /**
+   * When span recycling is enabled, clears the span so that its storage can be reused by a later
+   * call to {@link #getOrCreate(TraceContext, boolean)}. Only call this after the span is finished
+   * and finished span handlers returned.
+   */
+  public void recycle(MutableSpan span) {
+    if (recycleSpans) MutableSpanPool.release(span);
+  }
+
   /** Trace contexts are equal only on trace ID and span ID. try to get the parent's clock */
   @Nullable TickClock getClockFromParent(TraceContext context) {
     long parentId = context.parentIdAsLong();
     // NOTE: we still look for lookup key even on root span, as a client span can be root, and a
     // server can share the same ID. Essentially, a shared span is similar to a child.
-    PendingSpan parent = null;
-    if (context.shared() || parentId != 0L) {
-      long spanId = parentId != 0L ? parentId : context.spanId();
-      parent = delegate.get(InternalPropagation.instance.newTraceContext(
-        0,
-        context.traceIdHigh(),
-        context.traceId(),
-        0,
-        0,
-        spanId,
-        Collections.emptyList()
-      ));
-    }
+    if (!context.shared() && parentId == 0L) return null;
+
+    long spanId = parentId != 0L ? parentId : context.spanId();
+    long traceIdHigh = context.traceIdHigh(), traceId = context.traceId();
+    int hashCode = generateHashCode(traceIdHigh, traceId, spanId, false);
+    PendingSpan parent = stripe(hashCode).get(traceIdHigh, traceId, spanId, false, hashCode);
     return parent != null ? parent.clock : null;
   }
 
   /** @see brave.Span#abandon() */
   public boolean remove(TraceContext context) {
     if (context == null) throw new NullPointerException("context == null");
-    PendingSpan last = delegate.remove(context);
-    reportOrphanedSpans(); // also clears the reference relating to the recent remove
+    int hashCode = context.hashCode();
+    Entry last = stripe(hashCode).remove(
+      context.traceIdHigh(), context.traceId(), context.spanId(), context.shared(), hashCode);
+    // As the span is no longer pending, we don't need to be notified when the context is collected
+    if (last != null) last.clear();
+    reportOrphanedSpans();
     return last != null;
   }
 
+  Stripe stripe(int hashCode) {
+    return stripes[spread(hashCode) >>> 28 & (STRIPE_COUNT - 1)];
+  }
+
   /** Reports spans orphaned by garbage collection. */
   void reportOrphanedSpans() {
-    RealKey contextKey;
+    Entry entry;
     // This is called on critical path of unrelated traced operations. If we have orphaned spans, be
     // careful to not penalize the performance of the caller. It is better to cache time when
     // flushing a span than hurt performance of unrelated operations by calling
     // currentTimeMicroseconds N times
     long flushTime = 0L;
     boolean noop = orphanedSpanHandler == FinishedSpanHandler.NOOP || this.noop.get();
-    while ((contextKey = (RealKey) poll()) != null) {
-      PendingSpan value = delegate.remove(contextKey);
-      if (noop || value == null) continue;
+    while ((entry = (Entry) poll()) != null) {
+      if (!stripe(entry.hashCode).remove(entry)) continue; // span was already finished
+      if (noop) continue;
       if (flushTime == 0L) flushTime = clock.currentTimeMicroseconds();
 
+      PendingSpan value = entry.span;
       boolean isEmpty = value.state.isEmpty();
       Throwable caller = value.caller;
 
       TraceContext context = InternalPropagation.instance.newTraceContext(
-        contextKey.flags,
-        contextKey.traceIdHigh, contextKey.traceId,
-        contextKey.localRootId, 0L, contextKey.spanId,
+        entry.flags,
+        entry.traceIdHigh, entry.traceId,
+        entry.localRootId, 0L, entry.spanId,
         Collections.emptyList()
       );
 
@@ -151,23 +192,33 @@ public final class PendingSpans extends ReferenceQueue<TraceContext> {
     }
   }
 
+  /** Returns a snapshot of the entries in this table, in no particular order. */
+  List<Entry> entries() {
+    List<Entry> result = new ArrayList<>();
+    for (Stripe stripe : stripes) stripe.addEntriesTo(result);
+    return result;
+  }
+
   /**
-   * Real keys contain a reference to the real context associated with a span. This is a weak
+   * Entries contain a reference to the real context associated with a span. This is a weak
    * reference, so that we get notified on GC pressure.
    *
-   * <p>Since {@linkplain TraceContext}'s hash code is final, it is used directly both here and in
-   * lookup keys.
+   * <p>Since {@linkplain TraceContext}'s hash code is final, it is copied here to locate the entry
+   * after the reference clears.
    */
-  static final class RealKey extends WeakReference<TraceContext> {
+  static final class Entry extends WeakReference<TraceContext> {
     final int hashCode;
+    final PendingSpan span;
 
     // Copy the identity fields from the trace context, so we can use them when the reference clears
     final long traceIdHigh, traceId, localRootId, spanId;
     final int flags;
 
-    RealKey(TraceContext context, ReferenceQueue<TraceContext> queue) {
+    Entry(TraceContext context, ReferenceQueue<TraceContext> queue, int hashCode,
+      PendingSpan span) {
       super(context, queue);
-      hashCode = context.hashCode();
+      this.hashCode = hashCode;
+      this.span = span;
       traceIdHigh = context.traceIdHigh();
       traceId = context.traceId();
       localRootId = context.localRootId();
@@ -175,78 +226,221 @@ public final class PendingSpans extends ReferenceQueue<TraceContext> {
       flags = InternalPropagation.instance.flags(context);
     }
 
+    boolean shared() {
+      return (flags & InternalPropagation.FLAG_SHARED) == InternalPropagation.FLAG_SHARED;
+    }
+
     @Override public String toString() {
       TraceContext context = get();
       return context != null ? "WeakReference(" + context + ")" : "ClearedReference()";
     }
+  }
+
+  /**
+   * A linear-probing hash table guarded by its own lock for writes. Reads are optimistic: a reader
+   * checks the {@link #version} before and after probing, retrying under the lock if a write
+   * occurred concurrently. Keys and values are held in atomic arrays so that the second version
+   * read cannot be reordered before the probe.
+   *
+   * <p>Entries whose context was collected remain until their reference is polled, but are never
+   * returned by lookups. This matches the behavior of comparing against a cleared weak reference.
+   */
+  static final class Stripe {
+    static final int KEY_STRIDE = 4; // traceIdHigh, traceId, spanId, shared
+    static final int INITIAL_CAPACITY = 16; // must be a power of two
+
+    /** Odd while a write is in progress. Only written under the lock, so increments don't race. */
+    volatile int version;
+    volatile Table table = new Table(INITIAL_CAPACITY);
+    int size; // guarded by this
+
+    @Nullable PendingSpan get(long traceIdHigh, long traceId, long spanId, boolean shared,
+      int hashCode) {
+      int version = this.version;
+      if ((version & 1) == 0) {
+        Entry entry = table.find(traceIdHigh, traceId, spanId, shared, hashCode);
+        if (this.version == version) return entry != null ? entry.span : null;
+      }
+      synchronized (this) {
+        Entry entry = table.find(traceIdHigh, traceId, spanId, shared, hashCode);
+        return entry != null ? entry.span : null;
+      }
+    }
+
+    /** Returns the existing span for the same context, or null if the entry was added. */
+    @Nullable synchronized PendingSpan putIfAbsent(Entry entry) {
+      Table table = this.table;
+      int index = table.indexOf(entry.traceIdHigh, entry.traceId, entry.spanId, entry.shared(),
+        entry.hashCode);
+      if (index != -1) return table.entry(index).span;
+
+      int version = this.version;
+      this.version = version + 1;
+      try {
+        if ((size + 1) * 2 > table.capacity()) this.table = table = table.doubleCapacity();
+        table.insert(entry);
+        size++;
+      } finally {
+        this.version = version + 2;
+      }
+      return null;
+    }
 
-    @Override public int hashCode() {
-      return this.hashCode;
+    /** Removes the first entry matching a live context. */
+    @Nullable synchronized Entry remove(long traceIdHigh, long traceId, long spanId,
+      boolean shared, int hashCode) {
+      Table table = this.table;
+      int index = table.indexOf(traceIdHigh, traceId, spanId, shared, hashCode);
+      if (index == -1) return null;
+      Entry result = table.entry(index);
+      removeAt(table, index);
+      return result;
     }
 
-    /** Resolves hash code collisions */
-    @Override public boolean equals(Object other) {
-      TraceContext thisContext = get(), thatContext = ((RealKey) other).get();
-      if (thisContext == null) {
-        return thatContext == null;
-      } else {
-        return thisContext.equals(thatContext);
+    /** Removes the entry by identity, regardless of whether its reference was cleared. */
+    synchronized boolean remove(Entry entry) {
+      Table table = this.table;
+      int index = table.indexOfEntry(entry);
+      if (index == -1) return false;
+      removeAt(table, index);
+      return true;
+    }
+
+    void removeAt(Table table, int index) { // guarded by this
+      int version = this.version;
+      this.version = version + 1;
+      try {
+        table.delete(index);
+        size--;
+      } finally {
+        this.version = version + 2;
+      }
+    }
+
+    synchronized void addEntriesTo(List<Entry> result) {
+      Table table = this.table;
+      for (int i = 0, length = table.capacity(); i < length; i++) {
+        Entry entry = table.entry(i);
+        if (entry != null) result.add(entry);
       }
     }
   }
 
-  /**
-   * Lookup keys are cheaper than real keys as reference tracking is not involved. We cannot use
-   * {@linkplain TraceContext} directly as a lookup key, as eventhough it has the same hash code as
-   * the real key, it would fail in equals comparison.
-   */
-  static final class LookupKey {
-    long traceIdHigh, traceId, spanId;
-    boolean shared;
-    int hashCode;
-
-    void set(TraceContext context) {
-      set(context.traceIdHigh(), context.traceId(), context.spanId(), context.shared());
-    }
-
-    void set(long traceIdHigh, long traceId, long spanId, boolean shared) {
-      this.traceIdHigh = traceIdHigh;
-      this.traceId = traceId;
-      this.spanId = spanId;
-      this.shared = shared;
-      hashCode = generateHashCode(traceIdHigh, traceId, spanId, shared);
-    }
-
-    @Override public int hashCode() {
-      return hashCode;
-    }
-
-    static int generateHashCode(long traceIdHigh, long traceId, long spanId, boolean shared) {
-      int h = 1;
-      h *= 1000003;
-      h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
-      h *= 1000003;
-      h ^= (int) ((traceId >>> 32) ^ traceId);
-      h *= 1000003;
-      h ^= (int) ((spanId >>> 32) ^ spanId);
-      h *= 1000003;
-      h ^= shared ? InternalPropagation.FLAG_SHARED : 0; // to match TraceContext.hashCode
-      return h;
-    }
-
-    /** Resolves hash code collisions */
-    @Override public boolean equals(Object other) {
-      RealKey that = (RealKey) other;
-      TraceContext thatContext = that.get();
-      if (thatContext == null) return false;
-      return traceIdHigh == thatContext.traceIdHigh()
-        && traceId == thatContext.traceId()
-        && spanId == thatContext.spanId()
-        && shared == thatContext.shared();
+  static final class Table {
+    final int mask;
+    final AtomicLongArray keys;
+    final AtomicReferenceArray<Entry> entries;
+
+    Table(int capacity) {
+      mask = capacity - 1;
+      keys = new AtomicLongArray(capacity * Stripe.KEY_STRIDE);
+      entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    Entry entry(int index) {
+      return entries.get(index);
+    }
+
+    @Nullable Entry find(long traceIdHigh, long traceId, long spanId, boolean shared,
+      int hashCode) {
+      int index = indexOf(traceIdHigh, traceId, spanId, shared, hashCode);
+      return index != -1 ? entries.get(index) : null;
+    }
+
+    /**
+     * Returns the index of the first live entry matching the input or -1. Probes are bounded by
+     * capacity as an unlocked reader can observe a concurrent write in an intermediate state.
+     */
+    int indexOf(long traceIdHigh, long traceId, long spanId, boolean shared, int hashCode) {
+      long sharedKey = shared ? 1L : 0L;
+      for (int i = spread(hashCode) & mask, probes = 0; probes <= mask; i = (i + 1) & mask) {
+        Entry entry = entries.get(i);
+        if (entry == null) return -1;
+        int k = i * Stripe.KEY_STRIDE;
+        if (keys.get(k + 2) == spanId && keys.get(k + 1) == traceId
+          && keys.get(k) == traceIdHigh && keys.get(k + 3) == sharedKey
+          && entry.get() != null) {
+          return i;
+        }
+        probes++;
+      }
+      return -1;
+    }
+
+    int indexOfEntry(Entry entry) {
+      for (int i = spread(entry.hashCode) & mask, probes = 0; probes <= mask; i = (i + 1) & mask) {
+        Entry candidate = entries.get(i);
+        if (candidate == null) return -1;
+        if (candidate == entry) return i;
+        probes++;
+      }
+      return -1;
     }
+
+    /** Adds to the first empty slot. Callers must ensure there is at least one. */
+    void insert(Entry entry) {
+      int i = spread(entry.hashCode) & mask;
+      while (entries.get(i) != null) i = (i + 1) & mask;
+      int k = i * Stripe.KEY_STRIDE;
+      keys.set(k, entry.traceIdHigh);
+      keys.set(k + 1, entry.traceId);
+      keys.set(k + 2, entry.spanId);
+      keys.set(k + 3, entry.shared() ? 1L : 0L);
+      entries.set(i, entry);
+    }
+
+    /** Backward-shift deletion, which avoids tombstones that would otherwise slow lookups. */
+    void delete(int index) {
+      int hole = index;
+      for (int i = (index + 1) & mask; ; i = (i + 1) & mask) {
+        Entry entry = entries.get(i);
+        if (entry == null) break;
+        int home = spread(entry.hashCode) & mask;
+        // move the entry into the hole unless its home slot is cyclically in (hole, i]
+        boolean homeInRange = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+        if (homeInRange) continue;
+        int from = i * Stripe.KEY_STRIDE, to = hole * Stripe.KEY_STRIDE;
+        for (int k = 0; k < Stripe.KEY_STRIDE; k++) keys.set(to + k, keys.get(from + k));
+        entries.set(hole, entry);
+        hole = i;
+      }
+      entries.set(hole, null);
+    }
+
+    Table doubleCapacity() {
+      Table result = new Table(capacity() * 2);
+      for (int i = 0, length = capacity(); i < length; i++) {
+        Entry entry = entries.get(i);
+        if (entry != null) result.insert(entry);
+      }
+      return result;
+    }
+  }
+
+  /** Matches {@link TraceContext#hashCode()} without needing an instance. */
+  static int generateHashCode(long traceIdHigh, long traceId, long spanId, boolean shared) {
+    int h = 1000003;
+    h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
+    h *= 1000003;
+    h ^= (int) ((traceId >>> 32) ^ traceId);
+    h *= 1000003;
+    h ^= (int) ((spanId >>> 32) ^ spanId);
+    h *= 1000003;
+    h ^= shared ? InternalPropagation.FLAG_SHARED : 0; // to match TraceContext.hashCode
+    return h;
+  }
+
+  /** Mixes high bits into low ones, as both stripe and slot selection use a mask. */
+  static int spread(int hashCode) {
+    int h = hashCode * 0x9E3779B9;
+    return h ^ (h >>> 16);
   }
 
   @Override public String toString() {
-    return "PendingSpans" + delegate.keySet();
+    return "PendingSpans" + entries();
   }
 }
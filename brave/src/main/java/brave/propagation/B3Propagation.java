@@ -15,6 +15,8 @@ package brave.propagation;
 
 import brave.Request;
 import brave.Span;
+import brave.internal.AsciiCharSequence;
+import brave.internal.Nullable;
 import brave.internal.Platform;
 import java.util.Collections;
 import java.util.EnumMap;
@@ -29,7 +31,7 @@ import static java.util.Arrays.asList;
 /**
  * Implements <a href="https://github.com/openzipkin/b3-propagation">B3 Propagation</a>
  */
-public final class B3Propagation<K> implements Propagation<K> {
+public final class B3Propagation<K> extends BytesPropagation<K> {
   /** Describes the formats used to inject headers. */
   public enum Format {
     /** The trace context is encoded with a several fields prefixed with "x-b3-". */
@@ -169,16 +171,19 @@ public final class B3Propagation<K> implements Propagation<K> {
 
   @Override public <C> TraceContext.Injector<C> injector(Setter<C, K> setter) {
     if (setter == null) throw new NullPointerException("setter == null");
-    return new B3Injector<>(this, setter);
+    return new StringInjector<>(this, setter);
   }
 
-  static final class B3Injector<C, K> implements TraceContext.Injector<C> {
+  @Override public <C> TraceContext.Injector<C> bytesInjector(BytesSetter<C, K> setter) {
+    if (setter == null) throw new NullPointerException("setter == null");
+    return new BytesInjector<>(this, setter);
+  }
+
+  static abstract class B3Injector<C, K> implements TraceContext.Injector<C> {
     final B3Propagation<K> propagation;
-    final Setter<C, K> setter;
 
-    B3Injector(B3Propagation<K> propagation, Setter<C, K> setter) {
+    B3Injector(B3Propagation<K> propagation) {
       this.propagation = propagation;
-      this.setter = setter;
     }
 
     @Override public void inject(TraceContext context, C carrier) {
@@ -191,10 +196,10 @@ public final class B3Propagation<K> implements Propagation<K> {
       for (Format format : formats) {
         switch (format) {
           case SINGLE:
-            setter.put(carrier, propagation.b3Key, writeB3SingleFormat(context));
+            injectSingle(context, carrier, true);
             break;
           case SINGLE_NO_PARENT:
-            setter.put(carrier, propagation.b3Key, writeB3SingleFormatWithoutParentId(context));
+            injectSingle(context, carrier, false);
             break;
           case MULTI:
             injectMulti(context, carrier);
@@ -203,7 +208,26 @@ public final class B3Propagation<K> implements Propagation<K> {
       }
     }
 
-    void injectMulti(TraceContext context, C carrier) {
+    abstract void injectSingle(TraceContext context, C carrier, boolean includeParentId);
+
+    abstract void injectMulti(TraceContext context, C carrier);
+  }
+
+  static final class StringInjector<C, K> extends B3Injector<C, K> {
+    final Setter<C, K> setter;
+
+    StringInjector(B3Propagation<K> propagation, Setter<C, K> setter) {
+      super(propagation);
+      this.setter = setter;
+    }
+
+    @Override void injectSingle(TraceContext context, C carrier, boolean includeParentId) {
+      setter.put(carrier, propagation.b3Key, includeParentId
+        ? writeB3SingleFormat(context)
+        : writeB3SingleFormatWithoutParentId(context));
+    }
+
+    @Override void injectMulti(TraceContext context, C carrier) {
       setter.put(carrier, propagation.traceIdKey, context.traceIdString());
       setter.put(carrier, propagation.spanIdKey, context.spanIdString());
       String parentId = context.parentIdString();
@@ -216,31 +240,67 @@ public final class B3Propagation<K> implements Propagation<K> {
     }
   }
 
+  static final class BytesInjector<C, K> extends B3Injector<C, K> {
+    static final byte[] ONE = {'1'}, ZERO = {'0'};
+
+    final BytesSetter<C, K> setter;
+
+    BytesInjector(B3Propagation<K> propagation, BytesSetter<C, K> setter) {
+      super(propagation);
+      this.setter = setter;
+    }
+
+    @Override void injectSingle(TraceContext context, C carrier, boolean includeParentId) {
+      setter.put(carrier, propagation.b3Key, includeParentId
+        ? context.b3SingleFormatBytes()
+        : context.b3SingleFormatWithoutParentIdBytes());
+    }
+
+    // Values are cached on the context, as it is often injected into many requests or messages
+    @Override void injectMulti(TraceContext context, C carrier) {
+      setter.put(carrier, propagation.traceIdKey, context.traceIdStringBytes());
+      setter.put(carrier, propagation.spanIdKey, context.spanIdStringBytes());
+      byte[] parentId = context.parentIdStringBytes();
+      if (parentId != null) setter.put(carrier, propagation.parentSpanIdKey, parentId);
+      if (context.debug()) {
+        setter.put(carrier, propagation.debugKey, ONE);
+      } else if (context.sampled() != null) {
+        setter.put(carrier, propagation.sampledKey, context.sampled() ? ONE : ZERO);
+      }
+    }
+  }
+
   @Override public <C> TraceContext.Extractor<C> extractor(Getter<C, K> getter) {
     if (getter == null) throw new NullPointerException("getter == null");
-    return new B3Extractor<>(this, getter);
+    return new StringExtractor<>(this, getter);
   }
 
-  static final class B3Extractor<C, K> implements TraceContext.Extractor<C> {
+  @Override public <C> TraceContext.Extractor<C> bytesExtractor(BytesGetter<C, K> getter) {
+    if (getter == null) throw new NullPointerException("getter == null");
+    return new BytesExtractor<>(this, getter);
+  }
+
+  static abstract class B3Extractor<C, K> implements TraceContext.Extractor<C> {
     final B3Propagation<K> propagation;
-    final Getter<C, K> getter;
 
-    B3Extractor(B3Propagation<K> propagation, Getter<C, K> getter) {
+    B3Extractor(B3Propagation<K> propagation) {
       this.propagation = propagation;
-      this.getter = getter;
     }
 
+    /** Returns the value of the key or null if absent. */
+    @Nullable abstract CharSequence get(C carrier, K key);
+
     @Override public TraceContextOrSamplingFlags extract(C carrier) {
       if (carrier == null) throw new NullPointerException("carrier == null");
 
       // try to extract single-header format
-      String b3 = getter.get(carrier, propagation.b3Key);
+      CharSequence b3 = get(carrier, propagation.b3Key);
       TraceContextOrSamplingFlags extracted = b3 != null ? parseB3SingleFormat(b3) : null;
       if (extracted != null) return extracted;
 
       // Start by looking at the sampled state as this is used regardless
       // Official sampled value is 1, though some old instrumentation send true
-      String sampled = getter.get(carrier, propagation.sampledKey);
+      CharSequence sampled = get(carrier, propagation.sampledKey);
       Boolean sampledV;
       if (sampled == null) {
         sampledV = null; // defer decision
@@ -252,31 +312,33 @@ public final class B3Propagation<K> implements Propagation<K> {
         } else if (sampledC == '0') {
           sampledV = false;
         } else {
-          Platform.get().log(SAMPLED_MALFORMED, sampled, null);
+          Platform.get().log(SAMPLED_MALFORMED, sampled.toString(), null);
           return TraceContextOrSamplingFlags.EMPTY; // trace context is malformed so return empty
         }
-      } else if (sampled.equalsIgnoreCase("true")) { // old clients
+      } else if (equalsIgnoreCase(sampled, "true")) { // old clients
         sampledV = true;
-      } else if (sampled.equalsIgnoreCase("false")) { // old clients
+      } else if (equalsIgnoreCase(sampled, "false")) { // old clients
         sampledV = false;
       } else {
-        Platform.get().log(SAMPLED_MALFORMED, sampled, null);
+        Platform.get().log(SAMPLED_MALFORMED, sampled.toString(), null);
         return TraceContextOrSamplingFlags.EMPTY; // Restart trace instead of propagating false
       }
 
       // The only flag we action is 1, but it could be that any integer is present.
       // Here, we leniently parse as debug is not a primary consideration of the trace context.
-      boolean debug = "1".equals(getter.get(carrier, propagation.debugKey));
+      CharSequence flags = get(carrier, propagation.debugKey);
+      boolean debug = flags != null && flags.length() == 1 && flags.charAt(0) == '1';
 
-      String traceIdString = getter.get(carrier, propagation.traceIdKey);
+      CharSequence traceIdString = get(carrier, propagation.traceIdKey);
       // It is ok to go without a trace ID, if sampling or debug is set
       if (traceIdString == null) return TraceContextOrSamplingFlags.create(sampledV, debug);
 
       // Try to parse the trace IDs into the context
       TraceContext.Builder result = TraceContext.newBuilder();
       if (result.parseTraceId(traceIdString, propagation.traceIdKey)
-        && result.parseSpanId(getter, carrier, propagation.spanIdKey)
-        && result.parseParentId(getter, carrier, propagation.parentSpanIdKey)) {
+        && result.parseSpanId(get(carrier, propagation.spanIdKey), propagation.spanIdKey)
+        && result.parseParentId(get(carrier, propagation.parentSpanIdKey),
+        propagation.parentSpanIdKey)) {
         if (sampledV != null) result.sampled(sampledV.booleanValue());
         if (debug) result.debug(true);
         return TraceContextOrSamplingFlags.create(result.build());
@@ -285,6 +347,43 @@ public final class B3Propagation<K> implements Propagation<K> {
     }
   }
 
+  static final class StringExtractor<C, K> extends B3Extractor<C, K> {
+    final Getter<C, K> getter;
+
+    StringExtractor(B3Propagation<K> propagation, Getter<C, K> getter) {
+      super(propagation);
+      this.getter = getter;
+    }
+
+    @Override String get(C carrier, K key) {
+      return getter.get(carrier, key);
+    }
+  }
+
+  static final class BytesExtractor<C, K> extends B3Extractor<C, K> {
+    final BytesGetter<C, K> getter;
+
+    BytesExtractor(B3Propagation<K> propagation, BytesGetter<C, K> getter) {
+      super(propagation);
+      this.getter = getter;
+    }
+
+    // Wraps instead of decoding, so that IDs are parsed directly from the carrier's bytes
+    @Override AsciiCharSequence get(C carrier, K key) {
+      byte[] value = getter.get(carrier, key);
+      return value != null ? new AsciiCharSequence(value) : null;
+    }
+  }
+
+  static boolean equalsIgnoreCase(CharSequence input, String lowerCase) {
+    int length = lowerCase.length();
+    if (input.length() != length) return false;
+    for (int i = 0; i < length; i++) {
+      if (Character.toLowerCase(input.charAt(i)) != lowerCase.charAt(i)) return false;
+    }
+    return true;
+  }
+
   static final class Factory extends Propagation.Factory {
     final Format injectFormat;
     final Map<Span.Kind, Format[]> kindToInjectFormats;
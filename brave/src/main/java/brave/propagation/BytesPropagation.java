@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import brave.propagation.TraceContext.Extractor;
+import brave.propagation.TraceContext.Injector;
+import java.nio.charset.Charset;
+
+/**
+ * Propagation implementations which can read and write byte-valued carriers, such as Kafka or JMS
+ * headers, without converting each value to and from a {@link String}.
+ *
+ * <p>Instrumentation should not depend on this type directly, as {@link
+ * brave.Tracing#propagation()} may be a custom implementation. Instead, use {@link
+ * #injector(Propagation, BytesSetter)} and {@link #extractor(Propagation, BytesGetter)}, which fall
+ * back to decoding strings when the propagation doesn't support bytes.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * extractor = BytesPropagation.extractor(tracing.propagation(), (headers, key) -> {
+ *   Header header = headers.lastHeader(key);
+ *   return header != null ? header.value() : null;
+ * });
+ * }</pre>
+ *
+ * @param <K> Usually, but not always a String
+ * @since 5.11
+ */
+public abstract class BytesPropagation<K> implements Propagation<K> {
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Returns an injector which writes bytes, falling back to encoding strings when unsupported. */
+  public static <C, K> Injector<C> injector(Propagation<K> propagation, BytesSetter<C, K> setter) {
+    if (propagation == null) throw new NullPointerException("propagation == null");
+    if (setter == null) throw new NullPointerException("setter == null");
+    if (propagation instanceof BytesPropagation) {
+      return ((BytesPropagation<K>) propagation).bytesInjector(setter);
+    }
+    return propagation.injector(new EncodingSetter<>(setter));
+  }
+
+  /** Returns an extractor which reads bytes, falling back to decoding strings when unsupported. */
+  public static <C, K> Extractor<C> extractor(Propagation<K> propagation, BytesGetter<C, K> getter) {
+    if (propagation == null) throw new NullPointerException("propagation == null");
+    if (getter == null) throw new NullPointerException("getter == null");
+    if (propagation instanceof BytesPropagation) {
+      return ((BytesPropagation<K>) propagation).bytesExtractor(getter);
+    }
+    return propagation.extractor(new DecodingGetter<>(getter));
+  }
+
+  /** Like {@link #injector(Setter)}, except the values written are bytes. */
+  public abstract <C> Injector<C> bytesInjector(BytesSetter<C, K> setter);
+
+  /** Like {@link #extractor(Getter)}, except the values read are bytes. */
+  public abstract <C> Extractor<C> bytesExtractor(BytesGetter<C, K> getter);
+
+  /** Adapts a byte carrier for propagation implementations that only understand strings. */
+  static final class EncodingSetter<C, K> implements Setter<C, K> {
+    final BytesSetter<C, K> delegate;
+
+    EncodingSetter(BytesSetter<C, K> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override public void put(C carrier, K key, String value) {
+      delegate.put(carrier, key, value.getBytes(UTF_8));
+    }
+
+    @Override public String toString() {
+      return "EncodingSetter(" + delegate + ")";
+    }
+  }
+
+  /** Adapts a byte carrier for propagation implementations that only understand strings. */
+  static final class DecodingGetter<C, K> implements Getter<C, K> {
+    final BytesGetter<C, K> delegate;
+
+    DecodingGetter(BytesGetter<C, K> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override @Nullable public String get(C carrier, K key) {
+      byte[] value = delegate.get(carrier, key);
+      return value != null ? new String(value, UTF_8) : null;
+    }
+
+    @Override public String toString() {
+      return "DecodingGetter(" + delegate + ")";
+    }
+  }
+
+  protected BytesPropagation() {
+  }
+}
@@ -263,6 +263,21 @@ public abstract class CurrentTraceContext {
     return new CurrentTraceContextExecutor();
   }
 
+  /**
+   * Like {@link #executor(Executor)}, except task wrappers are reused after they run, instead of
+   * allocated per task.
+   *
+   * <p>Only use this when the delegate runs each task at most once and doesn't reference it after
+   * it completes. For example, a {@link java.util.concurrent.ThreadPoolExecutor} is safe unless it
+   * overrides {@code afterExecute} to inspect the task. Tasks that are not run, such as those
+   * rejected, are not returned to the pool.
+   *
+   * @since 5.11
+   */
+  public Executor pooledExecutor(Executor delegate) {
+    return new PooledTaskExecutor(this, delegate);
+  }
+
   /**
    * Decorates the input such that the {@link #get() current trace context} at the time a task is
    * scheduled is made current when the task is executed.
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import java.util.Arrays;
+
+/**
+ * In-process trace context propagation optimized for event loop threads, such as those of Netty or
+ * Vert.x, which open and close scopes for every read and write.
+ *
+ * <p>Threads which implement {@link Carrier} hold the current context in a field, so no thread
+ * local is read or written. When there are no {@link ScopeDecorator scope decorators}, each carrier
+ * thread also reuses its scope objects, so placing a context in scope doesn't allocate. Other
+ * threads use the same thread local as {@link ThreadLocalCurrentTraceContext}.
+ *
+ * <p>For example, a thread factory for event loops could create threads like this:
+ * <pre>{@code
+ * class EventLoopThread extends Thread implements EventLoopCurrentTraceContext.Carrier {
+ *   final EventLoopCurrentTraceContext.Slot slot = new EventLoopCurrentTraceContext.Slot();
+ *
+ *   EventLoopThread(Runnable runnable, String name) {
+ *     super(runnable, name);
+ *   }
+ *
+ *   @Override public EventLoopCurrentTraceContext.Slot traceContextSlot() {
+ *     return slot;
+ *   }
+ * }
+ * }</pre>
+ *
+ * <h3>Scopes on carrier threads</h3>
+ * <p>On a carrier thread, scopes must be closed in the reverse order they were opened, on the same
+ * thread. This is already the case when using try-with-resources. Closing a scope out of order
+ * throws {@link IllegalStateException}. A closed scope must not be retained, as the scope object is
+ * reused by the next call to {@link #newScope(TraceContext)} at the same depth.
+ *
+ * <p>Contexts placed in scope on a carrier thread with another type of {@link CurrentTraceContext}
+ * are not visible to this one. Use this type for all tracers in the process.
+ *
+ * @since 5.11
+ */
+public final class EventLoopCurrentTraceContext extends CurrentTraceContext {
+  public static CurrentTraceContext create() {
+    return new Builder().build();
+  }
+
+  public static CurrentTraceContext.Builder newBuilder() {
+    return new Builder();
+  }
+
+  static final class Builder extends CurrentTraceContext.Builder {
+
+    @Override public CurrentTraceContext build() {
+      return new EventLoopCurrentTraceContext(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  /** Implemented by threads which hold the current trace context in a field. */
+  public interface Carrier {
+    /** Returns the same instance for the life of the thread. */
+    Slot traceContextSlot();
+  }
+
+  /**
+   * Holds the current trace context of a {@link Carrier} thread. Each nesting level has a
+   * preallocated scope which restores the context it replaced, so placing a context in scope
+   * doesn't allocate once the thread has reached its usual depth.
+   *
+   * <p>Scopes must be closed in the reverse order they were opened. Otherwise, an {@link
+   * IllegalStateException} is thrown and the current context is left unchanged. Closing a scope
+   * again is ignored, until the scope is reused by the next context placed in scope at its depth.
+   */
+  public static final class Slot {
+    @Nullable TraceContext current;
+    @Nullable Frame[] frames; // allocated on first push
+    int depth;
+
+    public Slot() {
+    }
+
+    Slot(@Nullable TraceContext current) {
+      this.current = current;
+    }
+
+    Scope push(@Nullable TraceContext context) {
+      if (frames == null) {
+        frames = new Frame[4];
+      } else if (depth == frames.length) {
+        frames = Arrays.copyOf(frames, depth * 2);
+      }
+      Frame frame = frames[depth];
+      if (frame == null) frame = frames[depth] = new Frame(this, depth);
+      frame.previous = current;
+      frame.open = true;
+      current = context;
+      depth++;
+      return frame;
+    }
+  }
+
+  static final class Frame implements Scope {
+    final Slot slot;
+    final int index;
+    @Nullable TraceContext previous;
+    boolean open;
+
+    Frame(Slot slot, int index) {
+      this.slot = slot;
+      this.index = index;
+    }
+
+    @Override public void close() {
+      if (!open) return; // already closed
+      if (slot.depth != index + 1) {
+        throw new IllegalStateException("scope at depth " + (index + 1)
+          + " closed out of order: current depth is " + slot.depth);
+      }
+      slot.current = previous;
+      previous = null; // don't pin the context while this frame is unused
+      open = false;
+      slot.depth = index;
+    }
+
+    @Override public String toString() {
+      return "ScopeFrame{depth=" + (index + 1) + "}";
+    }
+  }
+
+  final ThreadLocal<TraceContext> local = ThreadLocalCurrentTraceContext.DEFAULT;
+
+  EventLoopCurrentTraceContext(CurrentTraceContext.Builder builder) {
+    super(builder);
+  }
+
+  @Override public TraceContext get() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Carrier) return ((Carrier) thread).traceContextSlot().current;
+    return local.get();
+  }
+
+  @Override public Scope newScope(@Nullable TraceContext currentSpan) {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Carrier) {
+      return decorateScope(currentSpan, ((Carrier) thread).traceContextSlot().push(currentSpan));
+    }
+
+    final TraceContext previous = local.get();
+    local.set(currentSpan);
+    class ThreadLocalScope implements Scope {
+      @Override public void close() {
+        local.set(previous);
+      }
+    }
+    Scope result = new ThreadLocalScope();
+    return decorateScope(currentSpan, result);
+  }
+}
@@ -14,9 +14,9 @@
 package brave.propagation;
 
 import brave.Tracing;
+import brave.internal.FieldIndex;
 import brave.internal.Nullable;
 import brave.internal.PredefinedPropagationFields;
-import brave.internal.PropagationFields;
 import brave.internal.PropagationFieldsFactory;
 import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
@@ -97,7 +97,7 @@ import java.util.Set;
  * String countryCode = ExtraFieldPropagation.get(span.context(), "country-code");
  * }</pre>
  */
-public final class ExtraFieldPropagation<K> implements Propagation<K> {
+public final class ExtraFieldPropagation<K> extends BytesPropagation<K> {
   /** Wraps an underlying propagation implementation, pushing one or more fields */
   public static Factory newFactory(Propagation.Factory delegate, String... fieldNames) {
     if (delegate == null) throw new NullPointerException("delegate == null");
@@ -264,12 +264,98 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
 
   /** Returns the value of the field with the specified key or null if not available */
   @Nullable public static String get(TraceContext context, String name) {
-    return PropagationFields.get(context, lowercase(name), Extra.class);
+    if (name == null) throw new NullPointerException("name == null");
+    if (context == null) throw new NullPointerException("context == null");
+    Extra extra = context.findExtra(Extra.class);
+    if (extra == null) return null;
+    int index = indexOf(extra.fieldIndex(), name);
+    return index != -1 ? extra.get(index) : null;
   }
 
   /** Sets the value of the field with the specified key, or drops if not a configured field */
   public static void set(TraceContext context, String name, String value) {
-    PropagationFields.put(context, lowercase(name), value, Extra.class);
+    if (name == null) throw new NullPointerException("name == null");
+    if (context == null) throw new NullPointerException("context == null");
+    if (value == null) throw new NullPointerException("value == null");
+    Extra extra = context.findExtra(Extra.class);
+    if (extra == null) return;
+    int index = indexOf(extra.fieldIndex(), name);
+    if (index != -1) extra.put(index, value);
+  }
+
+  /** Configured names are lower-case, so only lower-case the input when it isn't found as-is. */
+  static int indexOf(FieldIndex fieldIndex, String name) {
+    int index = fieldIndex.indexOf(name);
+    return index != -1 ? index : fieldIndex.indexOf(lowercase(name));
+  }
+
+  /**
+   * A handle to a configured field, which reads and writes values by position instead of looking
+   * up the field name each time. Get this once via {@link Factory#field(String)} and reuse it.
+   *
+   * @since 5.11
+   */
+  public static final class Field {
+    final FieldIndex fieldIndex;
+    final int index;
+
+    Field(FieldIndex fieldIndex, int index) {
+      this.fieldIndex = fieldIndex;
+      this.index = index;
+    }
+
+    /** The lower-case name of this field. */
+    public String name() {
+      return fieldIndex.name(index);
+    }
+
+    /** Like {@link ExtraFieldPropagation#get(String)}, except without looking up the name. */
+    @Nullable public String getValue() {
+      TraceContext context = currentTraceContext();
+      return context != null ? getValue(context) : null;
+    }
+
+    /**
+     * Like {@link ExtraFieldPropagation#get(TraceContext, String)}, except without looking up the
+     * name.
+     */
+    @Nullable public String getValue(TraceContext context) {
+      if (context == null) throw new NullPointerException("context == null");
+      Extra extra = context.findExtra(Extra.class);
+      if (extra == null) return null;
+      int index = indexIn(extra);
+      return index != -1 ? extra.get(index) : null;
+    }
+
+    /** Like {@link ExtraFieldPropagation#set(String, String)}, except without looking up the name. */
+    public void setValue(String value) {
+      TraceContext context = currentTraceContext();
+      if (context != null) setValue(context, value);
+    }
+
+    /**
+     * Like {@link ExtraFieldPropagation#set(TraceContext, String, String)}, except without looking
+     * up the name.
+     */
+    public void setValue(TraceContext context, String value) {
+      if (context == null) throw new NullPointerException("context == null");
+      if (value == null) throw new NullPointerException("value == null");
+      Extra extra = context.findExtra(Extra.class);
+      if (extra == null) return;
+      int index = indexIn(extra);
+      if (index != -1) extra.put(index, value);
+    }
+
+    /** The context may have been created by another factory, with different fields. */
+    @SuppressWarnings("ReferenceEquality") // fast path: contexts of this factory share its index
+    int indexIn(Extra extra) {
+      FieldIndex extraIndex = extra.fieldIndex();
+      return extraIndex == fieldIndex ? index : extraIndex.indexOf(name());
+    }
+
+    @Override public String toString() {
+      return "Field{" + name() + "}";
+    }
   }
 
   public static final class Factory extends Propagation.Factory {
@@ -278,6 +364,7 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
     final String[] keyNames;
     final int[] keyToField;
     final BitSet redacted;
+    final FieldIndex fieldIndex;
     final ExtraFactory extraFactory;
 
     Factory(Propagation.Factory delegate, String[] fieldNames, String[] keyNames, BitSet redacted) {
@@ -301,7 +388,19 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
       this.fieldNames = fieldNames;
       this.keyNames = keyNames;
       this.redacted = redacted;
-      this.extraFactory = new ExtraFactory(fieldNames);
+      this.fieldIndex = FieldIndex.create(fieldNames);
+      this.extraFactory = new ExtraFactory(fieldIndex);
+    }
+
+    /**
+     * Returns a handle to the field with the specified name, or null if it isn't configured. The
+     * result is faster than name-based functions like {@link ExtraFieldPropagation#get(String)}.
+     *
+     * @since 5.11
+     */
+    @Nullable public Field field(String name) {
+      int index = indexOf(fieldIndex, name);
+      return index != -1 ? new Field(fieldIndex, index) : null;
     }
 
     @Override public boolean supportsJoin() {
@@ -361,11 +460,28 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
   }
 
   @Override public <C> Injector<C> injector(Setter<C, K> setter) {
-    return new ExtraFieldInjector<>(this, setter);
+    return new ExtraFieldInjector<>(this, delegate.injector(setter), setter);
   }
 
   @Override public <C> Extractor<C> extractor(Getter<C, K> getter) {
-    return new ExtraFieldExtractor<>(this, getter);
+    return new ExtraFieldExtractor<>(this, delegate.extractor(getter), getter);
+  }
+
+  /**
+   * Trace identifiers use the delegate's byte support, if any. Extra fields extracted as bytes are
+   * written as-is, so only fields set in-process are encoded.
+   */
+  @Override public <C> Injector<C> bytesInjector(BytesSetter<C, K> setter) {
+    return new ExtraFieldBytesInjector<>(this, BytesPropagation.injector(delegate, setter), setter);
+  }
+
+  /**
+   * Trace identifiers use the delegate's byte support, if any. Extra fields are kept as bytes
+   * until read, so fields passed through to another service are never decoded.
+   */
+  @Override public <C> Extractor<C> bytesExtractor(BytesGetter<C, K> getter) {
+    return new ExtraFieldBytesExtractor<>(this, BytesPropagation.extractor(delegate, getter),
+      getter);
   }
 
   static final class ExtraFieldInjector<C, K> implements Injector<C> {
@@ -373,9 +489,10 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
     final Injector<C> delegate;
     final Propagation.Setter<C, K> setter;
 
-    ExtraFieldInjector(ExtraFieldPropagation<K> propagation, Setter<C, K> setter) {
+    ExtraFieldInjector(ExtraFieldPropagation<K> propagation, Injector<C> delegate,
+      Setter<C, K> setter) {
       this.propagation = propagation;
-      this.delegate = propagation.delegate.injector(setter);
+      this.delegate = delegate;
       this.setter = setter;
     }
 
@@ -401,9 +518,10 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
     final Extractor<C> delegate;
     final Propagation.Getter<C, K> getter;
 
-    ExtraFieldExtractor(ExtraFieldPropagation<K> propagation, Getter<C, K> getter) {
+    ExtraFieldExtractor(ExtraFieldPropagation<K> propagation, Extractor<C> delegate,
+      Getter<C, K> getter) {
       this.propagation = propagation;
-      this.delegate = propagation.delegate.extractor(getter);
+      this.delegate = delegate;
       this.getter = getter;
     }
 
@@ -421,6 +539,57 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
     }
   }
 
+  static final class ExtraFieldBytesInjector<C, K> implements Injector<C> {
+    final ExtraFieldPropagation<K> propagation;
+    final Injector<C> delegate;
+    final BytesSetter<C, K> setter;
+
+    ExtraFieldBytesInjector(ExtraFieldPropagation<K> propagation, Injector<C> delegate,
+      BytesSetter<C, K> setter) {
+      this.propagation = propagation;
+      this.delegate = delegate;
+      this.setter = setter;
+    }
+
+    @Override public void inject(TraceContext traceContext, C carrier) {
+      delegate.inject(traceContext, carrier);
+      Extra extra = traceContext.findExtra(Extra.class);
+      if (extra == null) return;
+      for (int i = 0, length = propagation.keys.size(); i < length; i++) {
+        if (propagation.redacted.get(i)) continue; // don't propagate downstream
+        byte[] maybeValue = extra.getUtf8(propagation.factory.keyToField[i]);
+        if (maybeValue == null) continue;
+        setter.put(carrier, propagation.keys.get(i), maybeValue);
+      }
+    }
+  }
+
+  static final class ExtraFieldBytesExtractor<C, K> implements Extractor<C> {
+    final ExtraFieldPropagation<K> propagation;
+    final Extractor<C> delegate;
+    final BytesGetter<C, K> getter;
+
+    ExtraFieldBytesExtractor(ExtraFieldPropagation<K> propagation, Extractor<C> delegate,
+      BytesGetter<C, K> getter) {
+      this.propagation = propagation;
+      this.delegate = delegate;
+      this.getter = getter;
+    }
+
+    @Override public TraceContextOrSamplingFlags extract(C carrier) {
+      TraceContextOrSamplingFlags result = delegate.extract(carrier);
+
+      // always allocate in case fields are added late
+      Extra fields = propagation.factory.extraFactory.create();
+      for (int i = 0, length = propagation.keys.size(); i < length; i++) {
+        byte[] maybeValue = getter.get(carrier, propagation.keys.get(i));
+        if (maybeValue == null) continue;
+        fields.putUtf8(propagation.factory.keyToField[i], maybeValue); // decoded when read
+      }
+      return result.toBuilder().addExtra(fields).build();
+    }
+  }
+
   static String[] ensureLowerCase(Collection<String> names) {
     if (names.isEmpty()) throw new IllegalArgumentException("names is empty");
     Iterator<String> nextName = names.iterator();
@@ -436,10 +605,10 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
   }
 
   static final class ExtraFactory extends PropagationFieldsFactory<String, String, Extra> {
-    final String[] fieldNames;
+    final FieldIndex fieldIndex;
 
-    ExtraFactory(String[] fieldNames) {
-      this.fieldNames = fieldNames;
+    ExtraFactory(FieldIndex fieldIndex) {
+      this.fieldIndex = fieldIndex;
     }
 
     @Override public Class<Extra> type() {
@@ -447,11 +616,11 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
     }
 
     @Override protected Extra create() {
-      return new Extra(fieldNames);
+      return new Extra(fieldIndex);
     }
 
     @Override protected Extra create(Extra parent) {
-      return new Extra(parent, fieldNames);
+      return new Extra(parent, fieldIndex);
     }
 
     @Override protected TraceContext contextWithExtra(TraceContext context, List<Object> extra) {
@@ -467,6 +636,14 @@ public final class ExtraFieldPropagation<K> implements Propagation<K> {
     Extra(Extra parent, String... fieldNames) {
       super(parent, fieldNames);
     }
+
+    Extra(FieldIndex fieldIndex) {
+      super(fieldIndex);
+    }
+
+    Extra(Extra parent, FieldIndex fieldIndex) {
+      super(parent, fieldIndex);
+    }
   }
 
   static String lowercase(String name) {
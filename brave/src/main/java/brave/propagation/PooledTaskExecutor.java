@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import brave.propagation.CurrentTraceContext.Scope;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Like {@link CurrentTraceContext#executor(Executor)}, except task wrappers are returned to a small
+ * pool after they run.
+ *
+ * <p>The pool is an array of slots claimed by compare-and-set, as opposed to a linked stack, which
+ * would allocate nodes or be subject to ABA problems when tasks are released on another thread.
+ */
+final class PooledTaskExecutor implements Executor {
+  static final int POOL_SIZE = 32; // power of two
+
+  final CurrentTraceContext currentTraceContext;
+  final Executor delegate;
+  final AtomicReferenceArray<PooledTask> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+  PooledTaskExecutor(CurrentTraceContext currentTraceContext, Executor delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    this.currentTraceContext = currentTraceContext;
+    this.delegate = delegate;
+  }
+
+  @Override public void execute(Runnable task) {
+    if (task == null) throw new NullPointerException("task == null");
+    PooledTask pooled = acquire();
+    pooled.invocationContext = currentTraceContext.get();
+    pooled.task = task;
+    delegate.execute(pooled); // if rejected, the wrapper is not returned to the pool
+  }
+
+  PooledTask acquire() {
+    int start = startIndex();
+    for (int i = 0; i < POOL_SIZE; i++) {
+      int index = (start + i) & (POOL_SIZE - 1);
+      PooledTask pooled = pool.get(index);
+      if (pooled != null && pool.compareAndSet(index, pooled, null)) return pooled;
+    }
+    return new PooledTask(this);
+  }
+
+  void release(PooledTask pooled) {
+    int start = startIndex();
+    for (int i = 0; i < POOL_SIZE; i++) {
+      int index = (start + i) & (POOL_SIZE - 1);
+      if (pool.get(index) == null && pool.compareAndSet(index, null, pooled)) return;
+    }
+    // the pool is full, so drop the wrapper
+  }
+
+  /** Spreads threads across the pool to reduce contention on the same slot. */
+  static int startIndex() {
+    return (int) Thread.currentThread().getId() & (POOL_SIZE - 1);
+  }
+
+  @Override public String toString() {
+    return "PooledTaskExecutor{" + delegate + "}";
+  }
+
+  static final class PooledTask implements Runnable {
+    final PooledTaskExecutor executor;
+    @Nullable TraceContext invocationContext;
+    Runnable task;
+
+    PooledTask(PooledTaskExecutor executor) {
+      this.executor = executor;
+    }
+
+    @Override public void run() {
+      try (Scope scope = executor.currentTraceContext.maybeScope(invocationContext)) {
+        task.run();
+      } finally {
+        invocationContext = null;
+        task = null;
+        executor.release(this);
+      }
+    }
+  }
+}
@@ -141,4 +141,32 @@ public interface Propagation<K> {
    * @param getter invoked for each propagation key to get.
    */
   <C> TraceContext.Extractor<C> extractor(Getter<C, K> getter);
+
+  /**
+   * Like {@link Setter}, except for carriers whose values are bytes, such as Kafka headers. Trace
+   * identifiers are written as US-ASCII, other values as UTF-8.
+   *
+   * <p>Values may be shared between carriers, for example when the same context is injected into
+   * many messages. Implementations can retain them, but must not modify them.
+   *
+   * @see BytesPropagation#injector(Propagation, BytesSetter)
+   * @since 5.11
+   */
+  interface BytesSetter<C, K> {
+    void put(C carrier, K key, byte[] value);
+  }
+
+  /**
+   * Like {@link Getter}, except for carriers whose values are bytes, such as Kafka headers. This
+   * allows trace identifiers to be parsed without decoding a string first.
+   *
+   * <p>Values may be retained after extraction, for example extra fields are only decoded when
+   * read. Implementations must not modify values they returned.
+   *
+   * @see BytesPropagation#extractor(Propagation, BytesGetter)
+   * @since 5.11
+   */
+  interface BytesGetter<C, K> {
+    @Nullable byte[] get(C carrier, K key);
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import brave.propagation.EventLoopCurrentTraceContext.Carrier;
+import brave.propagation.EventLoopCurrentTraceContext.Slot;
+
+/**
+ * In-process trace context propagation backed by a static thread local stack of reusable scopes.
+ *
+ * <p>Unlike {@link ThreadLocalCurrentTraceContext}, which allocates a scope object each time a
+ * context is placed in scope, each thread keeps one preallocated scope per nesting level. When there
+ * are no {@link ScopeDecorator scope decorators}, {@link #newScope(TraceContext)} and {@link
+ * Scope#close()} don't allocate once a thread has reached its usual nesting depth. This helps
+ * services with deeply nested local spans.
+ *
+ * <h3>Strict scoping</h3>
+ * <p>Scopes must be closed in the reverse order they were opened, on the same thread, as is the
+ * case with try-with-resources. Closing a scope out of order throws {@link IllegalStateException}.
+ * A closed scope must not be retained, as the scope object is reused by the next call to {@link
+ * #newScope(TraceContext)} at the same depth. Closing a scope again is ignored until then.
+ *
+ * <p>Threads which implement {@link Carrier} use their own stack instead of the thread local, so
+ * this can be used with {@link EventLoopCurrentTraceContext}. Contexts placed in scope with other
+ * types, such as {@link ThreadLocalCurrentTraceContext}, are not visible to this one. Use this type
+ * for all tracers in the process.
+ *
+ * <p>The stack of a thread remains in the thread local after its scopes close, though it no longer
+ * references any context. As its classes may be loaded by an application's class loader, threads
+ * that outlive the application, such as in a servlet container which redeploys applications, should
+ * call {@link #removeStack()} when the application stops using them.
+ *
+ * @since 5.11
+ */
+public final class StackCurrentTraceContext extends CurrentTraceContext {
+  public static CurrentTraceContext create() {
+    return new Builder().build();
+  }
+
+  public static CurrentTraceContext.Builder newBuilder() {
+    return new Builder();
+  }
+
+  static final class Builder extends CurrentTraceContext.Builder {
+
+    @Override public CurrentTraceContext build() {
+      return new StackCurrentTraceContext(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  /** Set when the thread first places a context in scope. */
+  static final ThreadLocal<Slot> STACK = new ThreadLocal<Slot>();
+
+  StackCurrentTraceContext(CurrentTraceContext.Builder builder) {
+    super(builder);
+  }
+
+  @Override public TraceContext get() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Carrier) return ((Carrier) thread).traceContextSlot().current;
+    Slot stack = STACK.get();
+    return stack != null ? stack.current : null;
+  }
+
+  @Override public Scope newScope(@Nullable TraceContext currentSpan) {
+    return decorateScope(currentSpan, slot().push(currentSpan));
+  }
+
+  static Slot slot() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Carrier) return ((Carrier) thread).traceContextSlot();
+    return stack();
+  }
+
+  /** Returns the stack of the current thread, adding it to the thread local if absent. */
+  static Slot stack() {
+    Slot stack = STACK.get();
+    if (stack == null) STACK.set(stack = new Slot());
+    return stack;
+  }
+
+  /**
+   * Removes the stack of the current thread from the thread local, so that its classes can be
+   * unloaded. Scopes still open on this thread are unaffected, but won't be visible to {@link
+   * #get()}. The next call to {@link #newScope(TraceContext)} allocates a new stack.
+   */
+  public static void removeStack() {
+    STACK.remove();
+  }
+}
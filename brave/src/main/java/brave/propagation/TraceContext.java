@@ -18,7 +18,6 @@ import brave.internal.InternalPropagation;
 import brave.internal.Nullable;
 import brave.internal.Platform;
 import brave.internal.RecyclableBuffers;
-import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.List;
 
@@ -246,6 +245,93 @@ public final class TraceContext extends SamplingFlags {
     return r;
   }
 
+  // Lazily initialized and cached ASCII encodings, for carriers with byte values.
+  volatile byte[] traceIdStringBytes, spanIdStringBytes, parentIdStringBytes;
+  volatile byte[] b3SingleFormatBytes, b3SingleFormatWithoutParentIdBytes, traceParentBytes;
+
+  /**
+   * Returns {@link #traceIdString()} as US-ASCII bytes. The result is cached, so must not be
+   * modified.
+   *
+   * @since 5.11
+   */
+  public byte[] traceIdStringBytes() {
+    byte[] r = traceIdStringBytes;
+    if (r == null) r = traceIdStringBytes = asciiBytes(traceIdString());
+    return r;
+  }
+
+  /**
+   * Returns {@link #spanIdString()} as US-ASCII bytes. The result is cached, so must not be
+   * modified.
+   *
+   * @since 5.11
+   */
+  public byte[] spanIdStringBytes() {
+    byte[] r = spanIdStringBytes;
+    if (r == null) r = spanIdStringBytes = asciiBytes(spanIdString());
+    return r;
+  }
+
+  /**
+   * Returns {@link #parentIdString()} as US-ASCII bytes. The result is cached, so must not be
+   * modified.
+   *
+   * @since 5.11
+   */
+  @Nullable public byte[] parentIdStringBytes() {
+    byte[] r = parentIdStringBytes;
+    if (r == null && parentId != 0L) r = parentIdStringBytes = asciiBytes(parentIdString());
+    return r;
+  }
+
+  /**
+   * Returns the same value as {@link B3SingleFormat#writeB3SingleFormatAsBytes(TraceContext)},
+   * except the result is cached, so must not be modified. This avoids re-encoding a context
+   * injected into many requests or messages.
+   *
+   * @since 5.11
+   */
+  public byte[] b3SingleFormatBytes() {
+    byte[] r = b3SingleFormatBytes;
+    if (r == null) r = b3SingleFormatBytes = B3SingleFormat.writeB3SingleFormatAsBytes(this);
+    return r;
+  }
+
+  /**
+   * Returns the same value as {@link
+   * B3SingleFormat#writeB3SingleFormatWithoutParentIdAsBytes(TraceContext)}, except the result is
+   * cached, so must not be modified.
+   *
+   * @since 5.11
+   */
+  public byte[] b3SingleFormatWithoutParentIdBytes() {
+    byte[] r = b3SingleFormatWithoutParentIdBytes;
+    if (r == null) {
+      r = b3SingleFormatWithoutParentIdBytes =
+        B3SingleFormat.writeB3SingleFormatWithoutParentIdAsBytes(this);
+    }
+    return r;
+  }
+
+  /**
+   * Returns the same value as {@link W3CFormat#writeTraceParentAsBytes(TraceContext)}, except the
+   * result is cached, so must not be modified.
+   *
+   * @since 5.11
+   */
+  public byte[] traceParentBytes() {
+    byte[] r = traceParentBytes;
+    if (r == null) r = traceParentBytes = W3CFormat.writeTraceParentAsBytes(this);
+    return r;
+  }
+
+  static byte[] asciiBytes(String ascii) {
+    byte[] result = new byte[ascii.length()];
+    for (int i = 0; i < result.length; i++) result[i] = (byte) ascii.charAt(i);
+    return result;
+  }
+
   /** Returns {@code $traceId/$spanId} */
   @Override public String toString() {
     boolean traceHi = traceIdHigh != 0;
@@ -382,7 +468,7 @@ public final class TraceContext extends SamplingFlags {
      * @return false if the input is null or malformed
      */
     // temporarily package protected until we figure out if this is reusable enough to expose
-    final boolean parseTraceId(String traceIdString, Object key) {
+    final boolean parseTraceId(@Nullable CharSequence traceIdString, Object key) {
       if (isNull(key, traceIdString)) return false;
       int length = traceIdString.length();
       if (invalidIdLength(key, length, 32)) return false;
@@ -408,7 +494,11 @@ public final class TraceContext extends SamplingFlags {
 
     /** Parses the parent id from the input string. Returns true if the ID was missing or valid. */
     final <C, K> boolean parseParentId(Propagation.Getter<C, K> getter, C carrier, K key) {
-      String parentIdString = getter.get(carrier, key);
+      return parseParentId(getter.get(carrier, key), key);
+    }
+
+    /** Like {@link #parseParentId(Propagation.Getter, Object, Object)}, except already read. */
+    final boolean parseParentId(@Nullable CharSequence parentIdString, Object key) {
       if (parentIdString == null) return true; // absent parent is ok
       int length = parentIdString.length();
       if (invalidIdLength(key, length, 16)) return false;
@@ -421,7 +511,11 @@ public final class TraceContext extends SamplingFlags {
 
     /** Parses the span id from the input string. Returns true if the ID is valid. */
     final <C, K> boolean parseSpanId(Propagation.Getter<C, K> getter, C carrier, K key) {
-      String spanIdString = getter.get(carrier, key);
+      return parseSpanId(getter.get(carrier, key), key);
+    }
+
+    /** Like {@link #parseSpanId(Propagation.Getter, Object, Object)}, except already read. */
+    final boolean parseSpanId(@Nullable CharSequence spanIdString, Object key) {
       if (isNull(key, spanIdString)) return false;
       int length = spanIdString.length();
       if (invalidIdLength(key, length, 16)) return false;
@@ -445,14 +539,14 @@ public final class TraceContext extends SamplingFlags {
       return true;
     }
 
-    boolean isNull(Object key, String maybeNull) {
+    boolean isNull(Object key, @Nullable CharSequence maybeNull) {
       if (maybeNull != null) return false;
       Platform.get().log("{0} was null", key, null);
       return true;
     }
 
-    void maybeLogNotLowerHex(String notLowerHex) {
-      Platform.get().log("{0} is not a lower-hex string", notLowerHex, null);
+    void maybeLogNotLowerHex(CharSequence notLowerHex) {
+      Platform.get().log("{0} is not a lower-hex string", notLowerHex.toString(), null);
     }
 
     public final TraceContext build() {
@@ -506,8 +600,6 @@ public final class TraceContext extends SamplingFlags {
    */
   @Override public boolean equals(Object o) {
     if (o == this) return true;
-    // Hack that allows PendingSpans to lookup without allocating a new object.
-    if (o instanceof WeakReference) o = ((WeakReference) o).get();
     if (!(o instanceof TraceContext)) return false;
     TraceContext that = (TraceContext) o;
     return (traceIdHigh == that.traceIdHigh)
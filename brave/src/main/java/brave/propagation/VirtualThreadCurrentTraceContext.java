@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Nullable;
+import brave.internal.Platform;
+import brave.internal.ScopedValueAdapter;
+import brave.propagation.EventLoopCurrentTraceContext.Carrier;
+import brave.propagation.EventLoopCurrentTraceContext.Slot;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * In-process trace context propagation designed for virtual threads.
+ *
+ * <p>Virtual threads are usually created per task, so thread locals are a poor fit: the first
+ * access allocates a thread local map per thread, and an {@link InheritableThreadLocal} (as used by
+ * {@link CurrentTraceContext.Default#inheritable()}) is copied into every new thread.
+ *
+ * <p>On JRE 21+, tasks wrapped by this type, such as those submitted via {@link
+ * #executorService(ExecutorService)} or {@link #newVirtualThreadPerTaskExecutor()}, hold their
+ * context stack in a {@code java.lang.ScopedValue} binding instead of a thread local, when they run
+ * on a virtual thread. Threads forked in a structured task scope see the context the task started
+ * with, without any copying. To see a context placed in scope after that, wrap the forked task.
+ * Platform threads use the same thread local as {@link StackCurrentTraceContext}. Virtual threads
+ * placing a context in scope outside a wrapped task, including forked ones, use a separate thread
+ * local, only written when they do.
+ *
+ * <p>Like {@link StackCurrentTraceContext}, scopes are reused and must be closed in the reverse
+ * order they were opened, on the same thread. Contexts placed in scope with other types, such as
+ * {@link ThreadLocalCurrentTraceContext}, are not visible to this one. Use this type for all
+ * tracers in the process.
+ *
+ * @since 5.11
+ */
+public final class VirtualThreadCurrentTraceContext extends CurrentTraceContext {
+  public static CurrentTraceContext create() {
+    return new Builder().build();
+  }
+
+  public static CurrentTraceContext.Builder newBuilder() {
+    return new Builder();
+  }
+
+  static final class Builder extends CurrentTraceContext.Builder {
+
+    @Override public CurrentTraceContext build() {
+      return new VirtualThreadCurrentTraceContext(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  static final Platform PLATFORM = Platform.get();
+  /** Null prior to JRE 21. */
+  @Nullable static final ScopedValueAdapter<Binding> SCOPED = PLATFORM.newScopedValue();
+  /** Holds the stacks of virtual threads which place a context in scope outside a wrapped task. */
+  static final ThreadLocal<Slot> VIRTUAL_STACK = new ThreadLocal<Slot>();
+
+  /**
+   * Bound to a scoped value for the duration of a wrapped task. Only the thread running the task
+   * uses its stack: threads forked from it only read the context it started with, which is
+   * immutable.
+   */
+  static final class Binding {
+    @Nullable final TraceContext context;
+    final Thread owner;
+    final Slot stack;
+
+    Binding(@Nullable TraceContext context, Thread owner) {
+      this.context = context;
+      this.owner = owner;
+      this.stack = new Slot(context);
+    }
+  }
+
+  VirtualThreadCurrentTraceContext(CurrentTraceContext.Builder builder) {
+    super(builder);
+  }
+
+  @Override public TraceContext get() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Carrier) return ((Carrier) thread).traceContextSlot().current;
+    if (SCOPED == null || !PLATFORM.isVirtual(thread)) {
+      Slot local = StackCurrentTraceContext.STACK.get();
+      return local != null ? local.current : null;
+    }
+    Binding bound = SCOPED.get();
+    if (bound != null && bound.owner == thread) return bound.stack.current;
+    Slot local = VIRTUAL_STACK.get();
+    if (local != null) return local.current;
+    // A thread forked in a structured task scope sees the context the forking task started with
+    return bound != null ? bound.context : null;
+  }
+
+  @Override public Scope newScope(@Nullable TraceContext currentSpan) {
+    return decorateScope(currentSpan, slot().push(currentSpan));
+  }
+
+  static Slot slot() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Carrier) return ((Carrier) thread).traceContextSlot();
+    if (SCOPED == null || !PLATFORM.isVirtual(thread)) return StackCurrentTraceContext.stack();
+    Binding bound = SCOPED.get();
+    if (bound != null && bound.owner == thread) return bound.stack;
+    Slot stack = VIRTUAL_STACK.get();
+    if (stack == null) { // a forked thread starts from the context of the task that forked it
+      VIRTUAL_STACK.set(stack = new Slot(bound != null ? bound.context : null));
+    }
+    return stack;
+  }
+
+  /**
+   * Like {@code Executors.newVirtualThreadPerTaskExecutor()}, except tasks execute with the
+   * {@link #get() current trace context} at the time they were submitted.
+   *
+   * @throws UnsupportedOperationException prior to JRE 21
+   */
+  public ExecutorService newVirtualThreadPerTaskExecutor() {
+    ExecutorService delegate = PLATFORM.newVirtualThreadPerTaskExecutor();
+    if (delegate == null) {
+      throw new UnsupportedOperationException("virtual threads require JRE 21+");
+    }
+    return executorService(delegate);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>On JRE 21+, when the task runs on a virtual thread, its context is bound to a scoped value
+   * instead of a thread local.
+   */
+  @Override public Runnable wrap(Runnable task) {
+    if (SCOPED == null) return super.wrap(task);
+    final TraceContext invocationContext = get();
+    class DecoratedRunnable implements Runnable {
+      @Override public void run() {
+        try (Scope scope = decorateScope(invocationContext, Scope.NOOP)) {
+          task.run();
+        }
+      }
+    }
+    final Runnable decorated = new DecoratedRunnable();
+    class ScopedRunnable implements Runnable {
+      @Override public void run() {
+        Thread thread = Thread.currentThread();
+        if (!PLATFORM.isVirtual(thread)) { // use the same thread local as other scopes
+          try (Scope scope = maybeScope(invocationContext)) {
+            task.run();
+          }
+          return;
+        }
+        SCOPED.run(new Binding(invocationContext, thread), decorated);
+      }
+    }
+    return new ScopedRunnable();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>On JRE 21+, when the task runs on a virtual thread, its context is bound to a scoped value
+   * instead of a thread local.
+   */
+  @Override public <C> Callable<C> wrap(Callable<C> task) {
+    if (SCOPED == null) return super.wrap(task);
+    final TraceContext invocationContext = get();
+    class ScopedCallable implements Callable<C> {
+      @Override public C call() throws Exception {
+        Thread thread = Thread.currentThread();
+        if (!PLATFORM.isVirtual(thread)) { // use the same thread local as other scopes
+          try (Scope scope = maybeScope(invocationContext)) {
+            return task.call();
+          }
+        }
+        CallableRunnable<C> runnable = new CallableRunnable<>(task, invocationContext);
+        SCOPED.run(new Binding(invocationContext, thread), runnable);
+        if (runnable.error != null) throw runnable.error;
+        return runnable.result;
+      }
+    }
+    return new ScopedCallable();
+  }
+
+  /** Scoped values run a {@link Runnable}, so this holds the result of a callable. */
+  final class CallableRunnable<C> implements Runnable {
+    final Callable<C> task;
+    @Nullable final TraceContext invocationContext;
+    C result;
+    Exception error;
+
+    CallableRunnable(Callable<C> task, @Nullable TraceContext invocationContext) {
+      this.task = task;
+      this.invocationContext = invocationContext;
+    }
+
+    @Override public void run() {
+      try (Scope scope = decorateScope(invocationContext, Scope.NOOP)) {
+        result = task.call();
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
+}
@@ -13,11 +13,17 @@
  */
 package brave.propagation;
 
+import brave.internal.HexCodec;
 import brave.internal.Nullable;
+import brave.internal.Platform;
+import java.util.Collections;
+import java.util.List;
 
-import java.math.BigInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import static brave.internal.HexCodec.writeHexLong;
+import static brave.internal.InternalPropagation.FLAG_SAMPLED;
+import static brave.internal.InternalPropagation.FLAG_SAMPLED_SET;
+import static brave.propagation.B3SingleFormat.asciiToNewByteArray;
+import static brave.propagation.B3SingleFormat.getCharBuffer;
 
 /**
  * Format that encapsulates the W3C Trace Context: https://www.w3.org/TR/trace-context/
@@ -60,31 +66,7 @@ public final class W3CFormat {
    */
   public static final int W3C_FORMAT_VERSION = 0x00;
 
-  private final String traceId;
-  private final String parentId;
-  private final int traceFlags;
-
-  private W3CFormat(String traceId, String parentId, int traceFlags) {
-    this.traceId = traceId;
-    this.parentId = parentId;
-    this.traceFlags = traceFlags;
-  }
-
-  private long traceIdHigh() {
-    return new BigInteger(traceId.substring(0, 16), 16).longValue();
-  }
-
-  private long traceId() {
-    return new BigInteger(traceId.substring(16), 16).longValue();
-  }
-
-  private long spanId() {
-    return new BigInteger(parentId, 16).longValue();
-  }
-
-  private boolean sampled() {
-    return traceFlags == 1;
-  }
+  static final int FORMAT_LENGTH = 2 + 1 + 32 + 1 + 16 + 1 + 2; // version-traceid-parentid-flags
 
   /**
    * Writes a {@code traceparent} HTTP header value from the supplied {@link TraceContext}.
@@ -107,48 +89,151 @@ public final class W3CFormat {
    * @return header value in W3C Trace Context format
    */
   public static String writeTraceParent(TraceContext context) {
-    int sampled = context.sampled() != null && context.sampled() ? 0x01 : 0x00;
-    return String.format("%02x-%016x%016x-%016x-%02x",
-      W3C_FORMAT_VERSION, context.traceIdHigh(), context.traceId(), context.spanId(), sampled);
+    char[] buffer = getCharBuffer();
+    int length = writeTraceParent(context, buffer);
+    return new String(buffer, 0, length);
   }
 
-  private static final Pattern TRACE_PARENT_PATTERN = Pattern.compile("^00-([0-9a-f]{32})-([0-9a-f]{16})-(0[01])$");
+  /**
+   * Like {@link #writeTraceParent(TraceContext)}, but for carriers with byte array or byte buffer
+   * values. For example, {@link java.nio.ByteBuffer#wrap(byte[])} can wrap the result.
+   */
+  public static byte[] writeTraceParentAsBytes(TraceContext context) {
+    char[] buffer = getCharBuffer();
+    int length = writeTraceParent(context, buffer);
+    return asciiToNewByteArray(buffer, length);
+  }
 
-  private static W3CFormat buildFromTraceParent(String traceParent) {
-    if (traceParent == null) return null;
-    Matcher matcher = TRACE_PARENT_PATTERN.matcher(traceParent);
-    if (matcher.matches()) {
-      String traceId = matcher.group(1);
-      String parentId = matcher.group(2);
-      String traceFlags = matcher.group(3);
-      return new W3CFormat(traceId, parentId, Integer.parseInt(traceFlags));
-    }
-    return null;
+  static int writeTraceParent(TraceContext context, char[] result) {
+    int pos = 0;
+    result[pos++] = '0';
+    result[pos++] = '0';
+    result[pos++] = '-';
+    writeHexLong(result, pos, context.traceIdHigh());
+    pos += 16;
+    writeHexLong(result, pos, context.traceId());
+    pos += 16;
+    result[pos++] = '-';
+    writeHexLong(result, pos, context.spanId());
+    pos += 16;
+    result[pos++] = '-';
+    result[pos++] = '0';
+    result[pos++] = Boolean.TRUE.equals(context.sampled()) ? '1' : '0';
+    return pos;
   }
 
   /**
    * Parses a W3C Trace Context {@code traceparent} header value into a {@link TraceContext}.
    *
-   * <ul>
-   *   <li>The </li>
-   *   <li>If the string does not conform to the W3C format, it returns {@code null}.</li>
-   * </ul>
+   * <p>If the string does not conform to the W3C format, it returns {@code null}.
    *
    * @param traceParent W3C Trace Context header value
    * @return a new {@link TraceContext} instance built from the header, or {@code null} if
    * the string is not in the correct format.
    */
   @Nullable
-  public static TraceContext parseTraceParent(String traceParent) {
+  public static TraceContext parseTraceParent(@Nullable String traceParent) {
+    return parseTraceParent((CharSequence) traceParent);
+  }
+
+  /**
+   * Like {@link #parseTraceParent(String)}, but without requiring a string.
+   *
+   * @since 5.11
+   */
+  @Nullable
+  public static TraceContext parseTraceParent(@Nullable CharSequence traceParent) {
+    if (traceParent == null) return null;
+    return parseTraceParent(traceParent, 0, traceParent.length());
+  }
+
+  /**
+   * @param beginIndex the start index, inclusive
+   * @param endIndex the end index, exclusive
+   */
+  @Nullable
+  public static TraceContext parseTraceParent(CharSequence traceParent, int beginIndex,
+    int endIndex) {
+    return parseTraceParent(traceParent, beginIndex, endIndex, Collections.emptyList());
+  }
+
+  @Nullable
+  static TraceContext parseTraceParent(CharSequence traceParent, int beginIndex, int endIndex,
+    List<Object> extra) {
+    if (endIndex - beginIndex != FORMAT_LENGTH) {
+      Platform.get().log("Invalid input: expected {0} characters", FORMAT_LENGTH, null);
+      return null;
+    }
 
-    W3CFormat format = buildFromTraceParent(traceParent);
-    if (format == null) return null;
+    int pos = beginIndex;
+    if (traceParent.charAt(pos) != '0' || traceParent.charAt(pos + 1) != '0') {
+      Platform.get().log("Invalid input: only version 00 is supported", null);
+      return null;
+    }
+    pos += 2;
+
+    if (!checkHyphen(traceParent, pos++)) return null;
+
+    long traceIdHigh = HexCodec.lenientLowerHexToUnsignedLong(traceParent, pos, pos + 16);
+    pos += 16;
+    long traceId = HexCodec.lenientLowerHexToUnsignedLong(traceParent, pos, pos + 16);
+    pos += 16;
+    // lenient parsing returns zero on invalid characters, so this also rejects malformed IDs
+    if ((traceIdHigh == 0L && traceId == 0L)
+      || (traceId == 0L && !isAllZeros(traceParent, pos - 16, pos))
+      || (traceIdHigh == 0L && !isAllZeros(traceParent, pos - 32, pos - 16))) {
+      Platform.get().log("Invalid input: expected a 32 lower hex trace ID at offset {0}",
+        pos - 32, null);
+      return null;
+    }
+
+    if (!checkHyphen(traceParent, pos++)) return null;
+
+    long spanId = HexCodec.lenientLowerHexToUnsignedLong(traceParent, pos, pos + 16);
+    if (spanId == 0L) {
+      Platform.get().log("Invalid input: expected a 16 lower hex parent ID at offset {0}", pos,
+        null);
+      return null;
+    }
+    pos += 16;
+
+    if (!checkHyphen(traceParent, pos++)) return null;
+
+    int flags;
+    char flags1 = traceParent.charAt(pos), flags2 = traceParent.charAt(pos + 1);
+    if (flags1 == '0' && flags2 == '1') {
+      flags = FLAG_SAMPLED_SET | FLAG_SAMPLED;
+    } else if (flags1 == '0' && flags2 == '0') {
+      flags = FLAG_SAMPLED_SET;
+    } else {
+      Platform.get().log("Invalid input: expected 00 or 01 for flags at offset {0}", pos, null);
+      return null;
+    }
+
+    return new TraceContext(
+      flags,
+      traceIdHigh,
+      traceId,
+      0L, // localRootId is the first ID used in process, not necessarily the one extracted
+      0L,
+      spanId,
+      extra
+    );
+  }
+
+  static boolean checkHyphen(CharSequence traceParent, int pos) {
+    if (traceParent.charAt(pos) == '-') return true;
+    Platform.get().log("Invalid input: expected a hyphen(-) delimiter at offset {0}", pos, null);
+    return false;
+  }
+
+  static boolean isAllZeros(CharSequence traceParent, int beginIndex, int endIndex) {
+    for (int i = beginIndex; i < endIndex; i++) {
+      if (traceParent.charAt(i) != '0') return false;
+    }
+    return true;
+  }
 
-    return TraceContext.newBuilder()
-      .traceIdHigh(format.traceIdHigh())
-      .traceId(format.traceId())
-      .spanId(format.spanId())
-      .sampled(format.sampled())
-      .build();
+  W3CFormat() {
   }
 }
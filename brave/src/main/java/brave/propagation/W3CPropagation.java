@@ -13,6 +13,8 @@
  */
 package brave.propagation;
 
+import brave.internal.AsciiCharSequence;
+import brave.internal.Nullable;
 import java.util.Collections;
 import java.util.List;
 
@@ -20,7 +22,7 @@ import static brave.propagation.Propagation.KeyFactory.STRING;
 import static brave.propagation.W3CFormat.writeTraceParent;
 import static java.util.Arrays.asList;
 
-public final class W3CPropagation<K> implements Propagation<K> {
+public final class W3CPropagation<K> extends BytesPropagation<K> {
 
   public static final Propagation<String> W3C_STRING = W3CPropagation.newFactory().create(STRING);
 
@@ -51,6 +53,12 @@ public final class W3CPropagation<K> implements Propagation<K> {
     return new W3CInjector<>(this, setter);
   }
 
+  @Override
+  public <C> TraceContext.Injector<C> bytesInjector(BytesSetter<C, K> setter) {
+    if (setter == null) throw new NullPointerException("setter == null");
+    return new W3CBytesInjector<>(this, setter);
+  }
+
   static final class W3CInjector<C, K> implements TraceContext.Injector<C> {
     final W3CPropagation<K> propagation;
     final Setter<C, K> setter;
@@ -71,12 +79,38 @@ public final class W3CPropagation<K> implements Propagation<K> {
     }
   }
 
+  static final class W3CBytesInjector<C, K> implements TraceContext.Injector<C> {
+    final W3CPropagation<K> propagation;
+    final BytesSetter<C, K> setter;
+
+    W3CBytesInjector(W3CPropagation<K> propagation, BytesSetter<C, K> setter) {
+      this.propagation = propagation;
+      this.setter = setter;
+    }
+
+    @Override
+    public void inject(TraceContext traceContext, C carrier) {
+      if (carrier == null) throw new NullPointerException("carrier == null");
+      setter.put(carrier, propagation.traceParentKey, traceContext.traceParentBytes());
+      TraceState traceState = traceContext.findExtra(TraceState.class);
+      if (traceState != null) {
+        setter.put(carrier, propagation.traceStateKey, traceState.value.getBytes(UTF_8));
+      }
+    }
+  }
+
   @Override
   public <C> TraceContext.Extractor<C> extractor(Getter<C, K> getter) {
     if (getter == null) throw new NullPointerException("getter == null");
     return new W3CExtractor<>(this, getter);
   }
 
+  @Override
+  public <C> TraceContext.Extractor<C> bytesExtractor(BytesGetter<C, K> getter) {
+    if (getter == null) throw new NullPointerException("getter == null");
+    return new W3CBytesExtractor<>(this, getter);
+  }
+
   static final class W3CExtractor<C, K> implements TraceContext.Extractor<C> {
     final W3CPropagation<K> propagation;
     final Getter<C, K> getter;
@@ -91,20 +125,46 @@ public final class W3CPropagation<K> implements Propagation<K> {
       if (carrier == null) throw new NullPointerException("carrier == null");
 
       String traceParent = getter.get(carrier, propagation.traceParentKey);
-      TraceContext context = W3CFormat.parseTraceParent(traceParent);
-      if (context == null) return TraceContextOrSamplingFlags.EMPTY;
+      if (traceParent == null) return TraceContextOrSamplingFlags.EMPTY;
 
+      // Look up trace state first, so that the context is only built once
       String traceState = getter.get(carrier, propagation.traceStateKey);
-      if (traceState == null) {
-        return TraceContextOrSamplingFlags.create(context);
-      } else {
-        return TraceContextOrSamplingFlags.create(
-          context.toBuilder()
-            .extra(Collections.singletonList(new TraceState(traceState)))
-            .build()
-        );
-      }
+      return parse(traceParent, traceState);
+    }
+  }
+
+  static final class W3CBytesExtractor<C, K> implements TraceContext.Extractor<C> {
+    final W3CPropagation<K> propagation;
+    final BytesGetter<C, K> getter;
+
+    W3CBytesExtractor(W3CPropagation<K> propagation, BytesGetter<C, K> getter) {
+      this.propagation = propagation;
+      this.getter = getter;
     }
+
+    @Override
+    public TraceContextOrSamplingFlags extract(C carrier) {
+      if (carrier == null) throw new NullPointerException("carrier == null");
+
+      byte[] traceParent = getter.get(carrier, propagation.traceParentKey);
+      if (traceParent == null) return TraceContextOrSamplingFlags.EMPTY;
+
+      // Only trace state is decoded: the trace parent is parsed directly from bytes
+      byte[] traceState = getter.get(carrier, propagation.traceStateKey);
+      return parse(new AsciiCharSequence(traceParent),
+        traceState != null ? new String(traceState, UTF_8) : null);
+    }
+  }
+
+  static TraceContextOrSamplingFlags parse(CharSequence traceParent, @Nullable String traceState) {
+    List<Object> extra = traceState != null
+      ? Collections.<Object>singletonList(new TraceState(traceState))
+      : Collections.emptyList();
+
+    TraceContext context =
+      W3CFormat.parseTraceParent(traceParent, 0, traceParent.length(), extra);
+    if (context == null) return TraceContextOrSamplingFlags.EMPTY;
+    return TraceContextOrSamplingFlags.create(context);
   }
 
   static final class Factory extends Propagation.Factory {
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.sampler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The adaptive sampler targets an amount of traces per second by adjusting a sample probability to
+ * observed traffic. Unlike {@link RateLimitingSampler}, this doesn't hard-cap decisions: a burst
+ * is sampled at the probability learned from recent traffic until the next adjustment.
+ *
+ * <p>For example, to target 10 traces per second for each HTTP route, you'd initialize the
+ * following:
+ * <pre>{@code
+ * httpTracingBuilder.serverSampler(HttpRuleSampler.newBuilder()
+ *   .putRule(pathStartsWith("/api"), AdaptiveSampler.create(10))
+ *   .putRule(pathStartsWith("/admin"), AdaptiveSampler.create(1))
+ *   .build());
+ * }</pre>
+ *
+ * <h3>Appropriate Usage</h3>
+ *
+ * <p>This sampler is designed for hosts with many cores handling a lot of traffic. Decisions read
+ * thread-local state and a rarely changing probability, and increment a counter striped by thread,
+ * so request threads rarely contend with each other.
+ * The cost is that the sampled rate lags traffic changes by about 100 milliseconds, and is only an
+ * approximation of the target.
+ *
+ * <p>Like {@link RateLimitingSampler}, this sampler is insensitive to the trace ID.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>Each decision is counted in one of several padded stripes, chosen per thread, so that
+ * threads on different cores rarely write the same cache line. Periodically, one caller sums the
+ * stripes to estimate the rate of decisions per second, smoothed with an exponentially weighted
+ * moving average, and sets the probability to the target divided by that rate.
+ *
+ * <p>Decisions don't read the clock. Instead, each stripe counts down to its next clock read,
+ * spaced to about 10 milliseconds at the recent rate of that stripe. Busy stripes read the clock
+ * once per many decisions, while quiet stripes read it on each one, so that the probability is
+ * corrected soon after the interval elapses, even when traffic drops.
+ *
+ * @since 5.11
+ */
+public final class AdaptiveSampler extends Sampler {
+  public static Sampler create(int tracesPerSecond) {
+    if (tracesPerSecond < 0) throw new IllegalArgumentException("tracesPerSecond < 0");
+    if (tracesPerSecond == 0) return Sampler.NEVER_SAMPLE;
+    return new AdaptiveSampler(tracesPerSecond, System.nanoTime());
+  }
+
+  static final long RECONCILE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  /** Probability is represented as a threshold of a 53-bit random number. */
+  static final long ALWAYS = 1L << 53;
+  /** Target time between clock reads of a stripe. */
+  static final long CLOCK_READ_INTERVAL_NANOS = RECONCILE_INTERVAL_NANOS / 10;
+  /** Bounds how many decisions a stripe can miss a drop in traffic. */
+  static final long MAX_DECISIONS_PER_CLOCK_READ = 64;
+  /** Longs between stripes, so that they are on different cache lines, including prefetch. */
+  static final int PADDING = 16;
+  // Offsets from the count of a stripe, in its padding, and only written by its threads
+  static final int NEXT_CLOCK_READ = 1, LAST_CLOCK_READ_COUNT = 2, LAST_CLOCK_READ_NANOS = 3;
+  static final int STRIPE_COUNT = stripeCount(Runtime.getRuntime().availableProcessors());
+
+  final int tracesPerSecond;
+  final AtomicLongArray stripes = new AtomicLongArray(STRIPE_COUNT * PADDING);
+  final AtomicLong nextReconcile;
+  // Only written by the caller which won the CAS on nextReconcile
+  volatile long lastReconcile, lastCount;
+  volatile double ratePerSecond;
+  volatile long threshold = ALWAYS;
+
+  AdaptiveSampler(int tracesPerSecond, long now) {
+    this.tracesPerSecond = tracesPerSecond;
+    this.lastReconcile = now;
+    this.nextReconcile = new AtomicLong(now + RECONCILE_INTERVAL_NANOS);
+  }
+
+  @Override public boolean isSampled(long ignoredTraceId) {
+    ThreadState state = THREAD_STATE.get();
+    int stripe = (state.probe & (STRIPE_COUNT - 1)) * PADDING;
+    long count = stripes.incrementAndGet(stripe);
+    if (count - stripes.get(stripe + NEXT_CLOCK_READ) >= 0L) readClock(stripe, count);
+    long threshold = this.threshold;
+    return threshold == ALWAYS || (state.nextRandom() >>> 11) < threshold;
+  }
+
+  void readClock(int stripe, long count) {
+    long now = System.nanoTime();
+    long decisions = count - stripes.get(stripe + LAST_CLOCK_READ_COUNT);
+    long elapsed = now - stripes.get(stripe + LAST_CLOCK_READ_NANOS);
+    stripes.lazySet(stripe + LAST_CLOCK_READ_COUNT, count);
+    stripes.lazySet(stripe + LAST_CLOCK_READ_NANOS, now);
+    stripes.lazySet(stripe + NEXT_CLOCK_READ, count + decisionsUntilClockRead(decisions, elapsed));
+    if (now - nextReconcile.get() >= 0L) maybeReconcile(now);
+  }
+
+  /** Returns how many decisions, at the recent rate of a stripe, span the clock read interval. */
+  static long decisionsUntilClockRead(long decisions, long elapsedNanos) {
+    if (elapsedNanos <= 0L) return 1L; // first read, or the clock didn't move
+    long result = decisions * CLOCK_READ_INTERVAL_NANOS / elapsedNanos;
+    return Math.max(1L, Math.min(result, MAX_DECISIONS_PER_CLOCK_READ));
+  }
+
+  void maybeReconcile(long now) {
+    long updateAt = nextReconcile.get();
+    if (now - updateAt < 0) return; // because nanoTime can be negative
+    if (!nextReconcile.compareAndSet(updateAt, now + RECONCILE_INTERVAL_NANOS)) return;
+    reconcile(now);
+  }
+
+  void reconcile(long now) {
+    long count = 0L;
+    for (int i = 0; i < STRIPE_COUNT; i++) count += stripes.get(i * PADDING);
+    long elapsed = now - lastReconcile;
+    if (elapsed <= 0L) return;
+    double instantRate = (count - lastCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    lastCount = count;
+    lastReconcile = now;
+
+    // Weigh the latest interval equally with history, so that bursts are adapted to quickly
+    double rate = ratePerSecond;
+    rate = rate == 0.0 ? instantRate : (rate + instantRate) / 2;
+    ratePerSecond = rate;
+    threshold = rate <= tracesPerSecond ? ALWAYS : (long) (ALWAYS * (tracesPerSecond / rate));
+  }
+
+  /** Returns the current probability a trace is sampled. */
+  float probability() {
+    return threshold / (float) ALWAYS;
+  }
+
+  @Override public String toString() {
+    return "AdaptiveSampler{tracesPerSecond=" + tracesPerSecond + "}";
+  }
+
+  static int stripeCount(int availableProcessors) {
+    int count = Integer.highestOneBit(Math.max(1, Math.min(availableProcessors, 64)));
+    return count < availableProcessors && count < 64 ? count << 1 : count;
+  }
+
+  static final AtomicInteger NEXT_PROBE = new AtomicInteger();
+  /** Shared by all instances, as the stripe and random numbers don't relate to a sampler. */
+  static final ThreadLocal<ThreadState> THREAD_STATE = new ThreadLocal<ThreadState>() {
+    @Override protected ThreadState initialValue() {
+      return new ThreadState(NEXT_PROBE.getAndIncrement());
+    }
+  };
+
+  static final class ThreadState {
+    final int probe;
+    long seed;
+
+    ThreadState(int probe) {
+      this.probe = probe;
+      // Mixes so that threads started at the same time have unrelated sequences
+      long seed = System.nanoTime() ^ (probe * 0x9E3779B97F4A7C15L);
+      this.seed = seed != 0L ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    /** Xorshift: fast, and good enough to decide sampling. */
+    long nextRandom() {
+      long x = seed;
+      x ^= x << 13;
+      x ^= x >>> 7;
+      x ^= x << 17;
+      return seed = x;
+    }
+  }
+}
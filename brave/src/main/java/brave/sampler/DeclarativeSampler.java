@@ -70,6 +70,17 @@ public abstract class DeclarativeSampler<M> implements SamplerFunction<M> {
     return new DeclarativeRateLimitingSampler<>(rateOfMethod);
   }
 
+  /**
+   * Like {@link #createWithRate(RateOfMethod)}, except the rate is a target for an {@link
+   * AdaptiveSampler}, which scales better under contention than a rate limit.
+   *
+   * @since 5.11
+   */
+  public static <M> DeclarativeSampler<M> createWithAdaptiveRate(RateOfMethod<M> rateOfMethod) {
+    if (rateOfMethod == null) throw new NullPointerException("rateOfMethod == null");
+    return new DeclarativeAdaptiveSampler<>(rateOfMethod);
+  }
+
   // this assumes input are compared by identity as typically annotations do not override hashCode
   final ConcurrentMap<M, Sampler> methodToSamplers = new ConcurrentHashMap<>();
 
@@ -140,6 +151,24 @@ public abstract class DeclarativeSampler<M> implements SamplerFunction<M> {
     }
   }
 
+  static final class DeclarativeAdaptiveSampler<M> extends DeclarativeSampler<M> {
+    final RateOfMethod<M> rateOfMethod;
+
+    DeclarativeAdaptiveSampler(RateOfMethod<M> rateOfMethod) {
+      this.rateOfMethod = rateOfMethod;
+    }
+
+    @Override Sampler samplerOfMethod(M method) {
+      Integer rate = rateOfMethod.get(method);
+      if (rate == null) return null;
+      return AdaptiveSampler.create(rate);
+    }
+
+    @Override public String toString() {
+      return "DeclarativeAdaptiveSampler{" + rateOfMethod + "}";
+    }
+  }
+
   DeclarativeSampler() {
   }
 
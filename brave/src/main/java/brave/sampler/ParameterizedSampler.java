@@ -28,6 +28,10 @@ import java.util.Map;
  * If all calls to a java method should have the same sample rate, consider {@link
  * DeclarativeSampler} instead.
  *
+ * <p>When rules use built-in matchers, such as those in {@code HttpRequestMatchers}, they are
+ * indexed so that the cost of sampling doesn't grow with the count of rules. The result is the same
+ * as evaluating each rule in order. Custom matchers are evaluated in order as usual.
+ *
  * @param <P> The type that encloses parameters associated with a sample rate. For example, this
  * could be a pair of http and method.
  * @see Matcher
@@ -85,6 +89,7 @@ public final class ParameterizedSampler<P> implements SamplerFunction<P> {
   }
 
   final R<P>[] rules; // array avoids Map overhead at runtime
+  @Nullable final RuleIndex<P> index; // null when no rules use built-in matchers
 
   ParameterizedSampler(Builder<P> builder) {
     this.rules = new R[builder.rules.size()];
@@ -92,6 +97,7 @@ public final class ParameterizedSampler<P> implements SamplerFunction<P> {
     for (Map.Entry<Matcher<P>, Sampler> rule : builder.rules.entrySet()) {
       rules[i++] = new R<>(rule.getKey(), rule.getValue());
     }
+    this.index = RuleIndex.create(rules);
   }
 
   /**
@@ -101,6 +107,10 @@ public final class ParameterizedSampler<P> implements SamplerFunction<P> {
    */
   @Override public @Nullable Boolean trySample(P parameters) {
     if (parameters == null) return null;
+    if (index != null) {
+      R<P> rule = index.firstMatch(parameters);
+      return rule != null ? rule.sampler.isSampled(0L) : null;
+    }
     for (R<P> rule : rules) {
       if (rule.matcher.matches(parameters)) {
         return rule.sampler.isSampled(0L); // counting sampler ignores the input
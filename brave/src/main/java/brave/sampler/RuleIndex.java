@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.sampler;
+
+import brave.internal.Nullable;
+import brave.internal.PropertyMatcher;
+import brave.sampler.Matchers.And;
+import brave.sampler.ParameterizedSampler.R;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the first matching rule in time proportional to the length of the request's properties
+ * instead of the count of rules.
+ *
+ * <p>This works on rules whose matchers are {@link PropertyMatcher property matchers}, optionally
+ * combined with {@link Matchers#and(Matcher[])}. At most two properties are indexed: the one most
+ * often compared for equality, such as the HTTP method, selects a trie over the one most often
+ * compared otherwise, such as the HTTP path. Rules are placed in the trie by their first
+ * constraint on each property. Others, including those with custom matchers, are placed at the root
+ * of a trie used for all requests.
+ *
+ * <p>The index only narrows down candidates: each candidate's original matcher decides whether it
+ * matches. As candidates are visited in rule order, the result is the same as evaluating all rules
+ * in order.
+ */
+final class RuleIndex<P> {
+  /** Returns null when no rule has a {@link PropertyMatcher}, as there'd be nothing to index. */
+  @Nullable static <P> RuleIndex<P> create(R<P>[] rules) {
+    List<List<PropertyMatcher<P>>> constraints = new ArrayList<>(rules.length);
+    // first instance of each property name, in the order seen, to read the property at runtime
+    Map<String, PropertyMatcher<P>> properties = new LinkedHashMap<>();
+    // count of rules that constrain a property by name, and by equality
+    Map<String, Integer> counts = new HashMap<>(), equalsCounts = new HashMap<>();
+    for (R<P> rule : rules) {
+      List<PropertyMatcher<P>> ruleConstraints = new ArrayList<>();
+      addConstraints(rule.matcher, ruleConstraints);
+      constraints.add(ruleConstraints);
+      Set<String> names = new LinkedHashSet<>(), equalsNames = new LinkedHashSet<>();
+      for (PropertyMatcher<P> constraint : ruleConstraints) {
+        String name = constraint.propertyName();
+        if (!properties.containsKey(name)) properties.put(name, constraint);
+        names.add(name);
+        if (!constraint.isPrefix()) equalsNames.add(name);
+      }
+      increment(counts, names);
+      increment(equalsCounts, equalsNames);
+    }
+    if (properties.isEmpty()) return null;
+
+    String keyName = mostFrequent(properties.keySet(), equalsCounts, null);
+    String trieName = mostFrequent(properties.keySet(), counts, keyName);
+
+    RuleIndex<P> result = new RuleIndex<>(rules,
+      keyName != null ? properties.get(keyName) : null,
+      trieName != null ? properties.get(trieName) : null);
+    for (int i = 0; i < rules.length; i++) {
+      PropertyMatcher<P> keyConstraint = null, trieConstraint = null;
+      for (PropertyMatcher<P> constraint : constraints.get(i)) {
+        String name = constraint.propertyName();
+        if (keyConstraint == null && !constraint.isPrefix() && name.equals(keyName)) {
+          keyConstraint = constraint;
+        } else if (trieConstraint == null && name.equals(trieName)) {
+          trieConstraint = constraint;
+        }
+      }
+      result.add(i, keyConstraint, trieConstraint);
+    }
+    return result;
+  }
+
+  static void increment(Map<String, Integer> counts, Set<String> names) {
+    for (String name : names) {
+      Integer count = counts.get(name);
+      counts.put(name, count != null ? count + 1 : 1);
+    }
+  }
+
+  /** Returns the name with the highest count, preferring the first seen on a tie. */
+  @Nullable static String mostFrequent(Set<String> names, Map<String, Integer> counts,
+    @Nullable String exclude) {
+    String result = null;
+    int resultCount = 0;
+    for (String name : names) {
+      Integer count = counts.get(name);
+      if (count == null || name.equals(exclude)) continue;
+      if (count > resultCount) {
+        result = name;
+        resultCount = count;
+      }
+    }
+    return result;
+  }
+
+  /** Adds the property matchers that must all match for the input to match. */
+  static <P> void addConstraints(Matcher<P> matcher, List<PropertyMatcher<P>> constraints) {
+    if (matcher instanceof PropertyMatcher) {
+      constraints.add((PropertyMatcher<P>) matcher);
+    } else if (matcher instanceof And) {
+      for (Matcher<P> next : ((And<P>) matcher).matchers) addConstraints(next, constraints);
+    } // otherwise, we can't tell what the matcher does, so it doesn't narrow down where it goes
+  }
+
+  final R<P>[] rules;
+  @Nullable final PropertyMatcher<P> key, trie; // what reads the properties of the input
+  final Map<String, Node> byKey = new HashMap<>();
+  final Node anyKey = new Node();
+
+  RuleIndex(R<P>[] rules, @Nullable PropertyMatcher<P> key, @Nullable PropertyMatcher<P> trie) {
+    this.rules = rules;
+    this.key = key;
+    this.trie = trie;
+  }
+
+  void add(int rule, @Nullable PropertyMatcher<P> keyConstraint,
+    @Nullable PropertyMatcher<P> trieConstraint) {
+    Node node = anyKey;
+    if (keyConstraint != null) {
+      node = byKey.get(keyConstraint.value());
+      if (node == null) byKey.put(keyConstraint.value(), node = new Node());
+    }
+    if (trieConstraint == null) {
+      node.prefixRules = append(node.prefixRules, rule);
+      return;
+    }
+    String value = trieConstraint.value();
+    for (int i = 0, length = value.length(); i < length; i++) {
+      node = node.getOrCreateChild(value.charAt(i));
+    }
+    if (trieConstraint.isPrefix()) {
+      node.prefixRules = append(node.prefixRules, rule);
+    } else {
+      node.exactRules = append(node.exactRules, rule);
+    }
+  }
+
+  /** Returns the first rule that matches the input, or null if none do. */
+  @Nullable R<P> firstMatch(P parameters) {
+    String trieValue = trie != null ? trie.property(parameters) : null;
+    int result = Integer.MAX_VALUE;
+    if (key != null) {
+      String keyValue = key.property(parameters);
+      Node node = keyValue != null ? byKey.get(keyValue) : null;
+      if (node != null) result = firstMatch(node, trieValue, parameters, result);
+    }
+    result = firstMatch(anyKey, trieValue, parameters, result);
+    return result != Integer.MAX_VALUE ? rules[result] : null;
+  }
+
+  /** Returns the lowest matching rule under the trie, or {@code best} if there's no lower match */
+  int firstMatch(Node node, @Nullable String trieValue, P parameters, int best) {
+    best = firstMatch(node.prefixRules, parameters, best);
+    if (trieValue == null) return best;
+    for (int i = 0, length = trieValue.length(); i < length; i++) {
+      node = node.child(trieValue.charAt(i));
+      if (node == null) return best;
+      best = firstMatch(node.prefixRules, parameters, best);
+    }
+    return firstMatch(node.exactRules, parameters, best);
+  }
+
+  int firstMatch(int[] candidates, P parameters, int best) {
+    for (int candidate : candidates) { // candidates are in rule order
+      if (candidate >= best) return best;
+      if (rules[candidate].matcher.matches(parameters)) return candidate;
+    }
+    return best;
+  }
+
+  static int[] append(int[] array, int value) {
+    int[] result = Arrays.copyOf(array, array.length + 1);
+    result[array.length] = value;
+    return result;
+  }
+
+  static final int[] EMPTY = new int[0];
+
+  static final class Node {
+    char[] keys = new char[0]; // sorted, for binary search
+    Node[] children = new Node[0];
+    int[] prefixRules = EMPTY, exactRules = EMPTY;
+
+    @Nullable Node child(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      return i >= 0 ? children[i] : null;
+    }
+
+    Node getOrCreateChild(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      if (i >= 0) return children[i];
+      int insert = -i - 1;
+      char[] newKeys = new char[keys.length + 1];
+      Node[] newChildren = new Node[keys.length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insert);
+      System.arraycopy(children, 0, newChildren, 0, insert);
+      newKeys[insert] = c;
+      Node result = newChildren[insert] = new Node();
+      System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+      System.arraycopy(children, insert, newChildren, insert + 1, keys.length - insert);
+      keys = newKeys;
+      children = newChildren;
+      return result;
+    }
+  }
+}
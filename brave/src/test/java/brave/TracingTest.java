@@ -13,8 +13,11 @@
  */
 package brave;
 
+import brave.handler.AsyncFinishedSpanHandling;
 import brave.handler.FinishedSpanHandler;
 import brave.handler.MutableSpan;
+import brave.handler.SpanCompaction;
+import brave.handler.TailSampling;
 import brave.propagation.B3SinglePropagation;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
@@ -312,4 +315,125 @@ public class TracingTest {
         .startsWith(one, three);
     }
   }
+
+  @Test public void asyncFinishedSpanHandling_reportsOffCallerThread() {
+    List<Thread> reportingThreads = new ArrayList<>();
+    List<Span> zipkinSpans = new ArrayList<>();
+
+    try (Tracing tracing = Tracing.newBuilder()
+      .asyncFinishedSpanHandling(AsyncFinishedSpanHandling.newBuilder().build())
+      .spanReporter(span -> {
+        synchronized (zipkinSpans) {
+          reportingThreads.add(Thread.currentThread());
+          zipkinSpans.add(span);
+        }
+      })
+      .build()) {
+      tracing.tracer().newTrace().name("aloha").start().finish();
+    } // close drains the ring buffer
+
+    assertThat(zipkinSpans).extracting(Span::name).containsExactly("aloha");
+    assertThat(reportingThreads).doesNotContain(Thread.currentThread());
+  }
+
+  @Test public void asyncFinishedSpanHandling_ignoredWhenNothingToHandle() {
+    try (Tracing tracing = Tracing.newBuilder()
+      .asyncFinishedSpanHandling(AsyncFinishedSpanHandling.newBuilder().build())
+      .spanReporter(Reporter.NOOP)
+      .build()) {
+      assertThat(tracing.tracer().finishedSpanHandler).isSameAs(FinishedSpanHandler.NOOP);
+    }
+  }
+
+  @Test public void tailSampling_reportsUnsampledLocalTraceWithError() {
+    try (Tracing tracing = Tracing.newBuilder()
+      .sampler(Sampler.NEVER_SAMPLE)
+      .tailSampling(TailSampling.newBuilder().build())
+      .spanReporter(spans::add)
+      .build()) {
+      brave.Span root = tracing.tracer().newTrace().name("root").start();
+      tracing.tracer().newChild(root.context()).name("child").error(new RuntimeException()).finish();
+      assertThat(spans).isEmpty(); // waits for the local root
+
+      root.finish();
+      tracing.tracer().newTrace().name("ok").start().finish();
+    }
+
+    assertThat(spans).extracting(Span::name).containsExactly("child", "root");
+  }
+
+  @Test public void spanCompaction_mergesQueriesBeforeReporting() {
+    List<MutableSpan> handled = new ArrayList<>();
+    try (Tracing tracing = Tracing.newBuilder()
+      .spanCompaction(SpanCompaction.newBuilder().addKind(brave.Span.Kind.CLIENT).build())
+      .addFinishedSpanHandler(new FinishedSpanHandler() {
+        @Override public boolean handle(TraceContext context, MutableSpan span) {
+          return handled.add(span);
+        }
+      })
+      .spanReporter(spans::add)
+      .build()) {
+      brave.Span parent = tracing.tracer().newTrace().name("get").start(1L);
+      for (int i = 0; i < 3; i++) {
+        tracing.tracer().newChild(parent.context()).kind(brave.Span.Kind.CLIENT).name("query")
+          .start(10L + i).finish(11L + i);
+      }
+      parent.finish(100L);
+    }
+
+    assertThat(handled).hasSize(4); // not affected
+    assertThat(spans).extracting(Span::name).containsExactly("query", "get");
+    assertThat(spans.get(0).tags()).containsEntry(SpanCompaction.TAG_COUNT, "3");
+  }
+
+  @Test public void recycleSpans_ignoredWhenSpansHeldAfterHandling() {
+    try (Tracing tracing = Tracing.newBuilder()
+      .recycleSpans()
+      .asyncFinishedSpanHandling(AsyncFinishedSpanHandling.newBuilder().build())
+      .addFinishedSpanHandler(finishedSpanHandler)
+      .spanReporter(spans::add)
+      .build()) {
+      tracing.tracer().newTrace().name("aloha").start().finish();
+    } // close drains the ring buffer
+
+    // If the span were recycled on finish, the handler would have seen it cleared
+    assertThat(mutableSpans).extracting(MutableSpan::name).containsExactly("aloha");
+    assertThat(spans).extracting(Span::name).containsExactly("aloha");
+  }
+
+  @Test public void recycleSpans_reportsSpans() {
+    try (Tracing tracing = Tracing.newBuilder()
+      .recycleSpans()
+      .spanReporter(spans::add)
+      .build()) {
+      for (int i = 0; i < 3; i++) {
+        tracing.tracer().newTrace().name("span" + i).tag("i", "" + i).start().finish();
+      }
+    }
+
+    assertThat(spans).extracting(Span::name).containsExactly("span0", "span1", "span2");
+    assertThat(spans).extracting(s -> s.tags().get("i")).containsExactly("0", "1", "2");
+  }
+
+  @Test public void recycleSpans_staleHandlesDontAffectReusedSpan() {
+    try (Tracing tracing = Tracing.newBuilder()
+      .recycleSpans()
+      .spanReporter(spans::add)
+      .build()) {
+      brave.Span first = tracing.tracer().newTrace().name("first").start();
+      ScopedSpan scoped = tracing.tracer().startScopedSpanWithParent("scoped", first.context());
+      brave.Span firstAgain = tracing.tracer().toSpan(first.context());
+      first.finish();
+      scoped.finish();
+
+      brave.Span second = tracing.tracer().newTrace().name("second").start();
+      firstAgain.tag("late", "true");
+      scoped.tag("late", "true");
+      firstAgain.finish();
+      second.finish();
+    }
+
+    assertThat(spans).extracting(Span::name).containsExactly("first", "scoped", "second");
+    assertThat(spans.get(2).tags()).isEmpty();
+  }
 }
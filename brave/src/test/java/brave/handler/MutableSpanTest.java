@@ -285,6 +285,39 @@ public class MutableSpanTest {
     assertThat(span.tag("whoops")).isNull();
   }
 
+  @Test public void tagsAndAnnotationsGrow() {
+    MutableSpan span = new MutableSpan();
+    for (int i = 0; i < 20; i++) {
+      span.tag("key" + i, "value" + i);
+      span.annotate(i + 1L, "value" + i);
+    }
+
+    assertThat(tagsToMap(span)).hasSize(20).containsEntry("key19", "value19");
+    assertThat(annotationsToList(span)).hasSize(20).endsWith(entry(20L, "value19"));
+  }
+
+  @Test public void clear() {
+    MutableSpan span = new MutableSpan();
+    span.name("get");
+    span.kind(Span.Kind.SERVER);
+    span.startTimestamp(1L);
+    span.finishTimestamp(2L);
+    span.setShared();
+    span.remoteServiceName("db");
+    span.tag("error", "500");
+    span.annotate(1L, "retry");
+    span.error(new RuntimeException());
+    String[] tags = span.tags;
+    long[] annotationTimestamps = span.annotationTimestamps;
+
+    span.clear();
+
+    assertThat(span.isEmpty()).isTrue();
+    assertThat(span.tags).isSameAs(tags).containsOnlyNulls();
+    assertThat(span.annotationTimestamps).isSameAs(annotationTimestamps);
+    assertThat(span.annotationValues).containsOnlyNulls();
+  }
+
   static Map<String, String> tagsToMap(MutableSpan span) {
     Map<String, String> map = new LinkedHashMap<>();
     span.forEachTag(Map::put, map);
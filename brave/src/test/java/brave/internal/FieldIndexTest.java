@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FieldIndexTest {
+  @Test public void indexOf() {
+    FieldIndex index = FieldIndex.create("country-code", "user-id", "x-vcap-request-id");
+
+    assertThat(index.table).isNotNull(); // perfect hash
+    assertThat(index.indexOf("country-code")).isZero();
+    assertThat(index.indexOf("user-id")).isEqualTo(1);
+    assertThat(index.indexOf(new String("x-vcap-request-id"))).isEqualTo(2);
+    assertThat(index.indexOf("User-Id")).isEqualTo(-1);
+    assertThat(index.indexOf("")).isEqualTo(-1);
+  }
+
+  @Test public void indexOf_manyFields() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 64; i++) names.add("baggage-field-" + i);
+    FieldIndex index = FieldIndex.create(names.toArray(new String[0]));
+
+    assertThat(index.table).isNotNull();
+    for (int i = 0; i < 64; i++) {
+      assertThat(index.indexOf("baggage-field-" + i)).isEqualTo(i);
+    }
+    assertThat(index.indexOf("baggage-field-64")).isEqualTo(-1);
+  }
+
+  /** "Aa" and "BB" have the same hash code, so no table can separate them. */
+  @Test public void indexOf_sameHashCode_fallsBackToLinearScan() {
+    FieldIndex index = FieldIndex.create("Aa", "BB");
+
+    assertThat(index.table).isNull();
+    assertThat(index.indexOf("Aa")).isZero();
+    assertThat(index.indexOf("BB")).isEqualTo(1);
+    assertThat(index.indexOf("CC")).isEqualTo(-1);
+  }
+
+  @Test public void indexOf_duplicate_firstWins() {
+    FieldIndex index = FieldIndex.create("user-id", "user-id");
+
+    assertThat(index.indexOf("user-id")).isZero();
+  }
+
+  @Test public void equalsOnFieldNames() {
+    assertThat(FieldIndex.create("a", "b"))
+      .isEqualTo(FieldIndex.create("a", "b"))
+      .hasSameHashCodeAs(FieldIndex.create("a", "b"))
+      .isNotEqualTo(FieldIndex.create("b", "a"));
+  }
+
+  @Test public void create_rejectsEmptyName() {
+    assertThatThrownBy(() -> FieldIndex.create("a", ""))
+      .isInstanceOf(NullPointerException.class)
+      .hasMessage("fieldNames[1] is empty");
+  }
+}
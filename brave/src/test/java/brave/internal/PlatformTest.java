@@ -56,6 +56,14 @@ public class PlatformTest {
       .hasToString("Clock.systemUTC().instant()");
   }
 
+  @Test public void virtualThreads_unsupportedBeforeJre21() {
+    Platform platform = new Platform.Jre9();
+
+    assertThat(platform.newScopedValue()).isNull();
+    assertThat(platform.newVirtualThreadPerTaskExecutor()).isNull();
+    assertThat(platform.isVirtual(Thread.currentThread())).isFalse();
+  }
+
   // example from X-Amzn-Trace-Id: Root=1-5759e988-bd862e3fe1be46a994272793;Sampled=1
   @Test public void randomLong_epochSecondsPlusRandom() {
     mockStatic(System.class);
@@ -15,6 +15,7 @@ package brave.internal;
 
 import org.junit.Test;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class PredefinedPropagationFieldsTest
@@ -60,7 +61,7 @@ public class PredefinedPropagationFieldsTest
     PredefinedPropagationFields fields = factory.create();
 
     fields.put(keyOne, "red");
-    String[] fieldsArray = fields.values;
+    Object[] fieldsArray = fields.values;
 
     fields.put(keyOne, "red");
     assertThat(fields.values)
@@ -97,4 +98,35 @@ public class PredefinedPropagationFieldsTest
       .containsEntry(keyOne, "1")
       .containsEntry(keyTwo, "a");
   }
+
+  @Test public void putUtf8_decodedOnRead() {
+    PredefinedPropagationFields fields = factory.create();
+    byte[] utf8 = "ÉTATS".getBytes(UTF_8);
+    fields.putUtf8(0, utf8);
+
+    assertThat(fields.values[0]).isSameAs(utf8);
+    assertThat(fields.getUtf8(0)).isSameAs(utf8);
+
+    assertThat(fields.get(0)).isEqualTo("ÉTATS");
+    assertThat(fields.values[0]).isEqualTo("ÉTATS"); // cached
+  }
+
+  @Test public void getUtf8_encodesStrings() {
+    PredefinedPropagationFields fields = factory.create();
+    fields.put(1, "a");
+
+    assertThat(fields.getUtf8(0)).isNull();
+    assertThat(fields.getUtf8(1)).containsExactly('a');
+  }
+
+  @Test public void putAllIfAbsent_doesntDecode() {
+    PredefinedPropagationFields parent = factory.create();
+    byte[] utf8 = "a".getBytes(UTF_8);
+    parent.putUtf8(0, utf8);
+
+    PredefinedPropagationFields fields = factory.create();
+    fields.putAllIfAbsent(parent);
+
+    assertThat(fields.values[0]).isSameAs(utf8);
+  }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import org.junit.Test;
+
+import static brave.internal.SqlStatements.changesCatalog;
+import static brave.internal.SqlStatements.spanName;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlStatementsTest {
+  @Test public void spanName_verbIsConstant() {
+    assertThat(spanName("select * from foo"))
+      .isSameAs(spanName("select 1"))
+      .isEqualTo("select");
+    assertThat(spanName("COMMIT")).isEqualTo("COMMIT");
+  }
+
+  @Test public void spanName_otherFirstWord() {
+    assertThat(spanName("Optimize table foo")).isEqualTo("Optimize");
+    assertThat(spanName("Values 1")).isEqualTo("Values");
+    assertThat(spanName("selected")).isEqualTo("selected");
+  }
+
+  @Test public void changesCatalog_use() {
+    assertThat(changesCatalog(spanName("USE mydatabase"))).isTrue();
+    assertThat(changesCatalog(spanName("Use mydatabase"))).isTrue();
+    assertThat(changesCatalog(spanName("user"))).isFalse();
+    assertThat(changesCatalog(spanName("select 1"))).isFalse();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WeakIdentityMapTest {
+  WeakIdentityMap<Object, String> map = new WeakIdentityMap<>();
+
+  /** Like a JMS message comparing message IDs, or a pooled connection comparing its delegate. */
+  static final class EqualsById {
+    final String id;
+
+    EqualsById(String id) {
+      this.id = id;
+    }
+
+    @Override public boolean equals(Object o) {
+      return o instanceof EqualsById && id.equals(((EqualsById) o).id);
+    }
+
+    @Override public int hashCode() {
+      return id.hashCode();
+    }
+  }
+
+  @Test public void get_comparesIdentity() {
+    EqualsById key1 = new EqualsById("1"), key2 = new EqualsById("1");
+    assertThat(key1).isEqualTo(key2);
+
+    map.put(key1, "one");
+    assertThat(map.get(key2)).isNull();
+
+    map.put(key2, "two");
+    assertThat(map.get(key1)).isEqualTo("one");
+    assertThat(map.get(key2)).isEqualTo("two");
+  }
+
+  @Test public void put_replacesValue() {
+    Object key = new Object();
+    map.put(key, "one");
+    map.put(key, "two");
+
+    assertThat(map.get(key)).isEqualTo("two");
+    assertThat(map.size()).isOne();
+  }
+
+  @Test public void put_resizes() {
+    Object[] keys = new Object[1000];
+    for (int i = 0; i < keys.length; i++) map.put(keys[i] = new Object(), "value");
+
+    for (Object key : keys) assertThat(map.get(key)).isEqualTo("value");
+    assertThat(map.size()).isEqualTo(keys.length);
+  }
+
+  @Test public void remove() {
+    Object key = new Object(), other = new Object();
+    map.put(key, "one");
+    map.put(other, "two");
+
+    map.remove(key);
+    map.remove(new Object()); // absent
+
+    assertThat(map.get(key)).isNull();
+    assertThat(map.get(other)).isEqualTo("two");
+    assertThat(map.size()).isOne();
+  }
+
+  @Test public void removesCollectedKeys() throws Exception {
+    map.put(new Object(), "value");
+
+    for (int i = 0; i < 10 && map.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+
+    assertThat(map.size()).isZero();
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.handler.AsyncFinishedSpanHandling;
+import brave.handler.AsyncFinishedSpanHandling.OverflowPolicy;
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FinishedSpanRingBufferTest {
+  TraceContext context = TraceContext.newBuilder().traceId(1).spanId(2).sampled(true).build();
+  CountDownLatch unblock = new CountDownLatch(1);
+  FinishedSpanRingBuffer ringBuffer;
+
+  /** Blocks the consumer thread so that we can fill the ring buffer deterministically. */
+  RecordingFinishedSpanHandler blockingHandler = new RecordingFinishedSpanHandler() {
+    @Override public boolean handle(TraceContext context, MutableSpan span) {
+      try {
+        unblock.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return super.handle(context, span);
+    }
+  };
+  List<MutableSpan> handled = blockingHandler.spans;
+
+  @After public void close() {
+    unblock.countDown();
+    if (ringBuffer != null) ringBuffer.close();
+  }
+
+  @Test public void wrap_noopPassthrough() {
+    ringBuffer = new FinishedSpanRingBuffer(AsyncFinishedSpanHandling.newBuilder().build());
+
+    assertThat(ringBuffer.wrap(FinishedSpanHandler.NOOP)).isSameAs(FinishedSpanHandler.NOOP);
+  }
+
+  @Test public void wrap_delegatesOptions() {
+    ringBuffer = new FinishedSpanRingBuffer(AsyncFinishedSpanHandling.newBuilder().build());
+
+    FinishedSpanHandler handler = ringBuffer.wrap(new FinishedSpanHandler() {
+      @Override public boolean handle(TraceContext context, MutableSpan span) {
+        return true;
+      }
+
+      @Override public boolean alwaysSampleLocal() {
+        return true;
+      }
+
+      @Override public boolean supportsOrphans() {
+        return true;
+      }
+    });
+
+    assertThat(handler)
+      .extracting(FinishedSpanHandler::alwaysSampleLocal, FinishedSpanHandler::supportsOrphans)
+      .containsExactly(true, true);
+  }
+
+  @Test public void queueSize_roundedUpToPowerOfTwo() {
+    ringBuffer = new FinishedSpanRingBuffer(
+      AsyncFinishedSpanHandling.newBuilder().queueSize(3).build());
+
+    assertThat(ringBuffer.mask).isEqualTo(3);
+  }
+
+  @Test public void close_drains() {
+    ringBuffer = new FinishedSpanRingBuffer(AsyncFinishedSpanHandling.newBuilder().build());
+    FinishedSpanHandler handler = ringBuffer.wrap(blockingHandler);
+
+    for (int i = 0; i < 10; i++) handler.handle(context, new MutableSpan());
+    unblock.countDown();
+    ringBuffer.close();
+
+    assertThat(handled).hasSize(10);
+    assertThat(ringBuffer.size()).isZero();
+  }
+
+  @Test public void handlesInlineAfterClose() {
+    ringBuffer = new FinishedSpanRingBuffer(AsyncFinishedSpanHandling.newBuilder().build());
+    FinishedSpanHandler handler = ringBuffer.wrap(blockingHandler);
+    unblock.countDown();
+    ringBuffer.close();
+
+    MutableSpan span = new MutableSpan();
+    assertThat(handler.handle(context, span)).isTrue();
+    assertThat(handled).containsExactly(span);
+  }
+
+  @Test public void dropNewest() throws Exception {
+    AsyncFinishedSpanHandling config = AsyncFinishedSpanHandling.newBuilder()
+      .queueSize(2).overflowPolicy(OverflowPolicy.DROP_NEWEST).build();
+    List<MutableSpan> accepted = fill(config);
+    MutableSpan dropped = new MutableSpan();
+    dropped.name("dropped");
+
+    FinishedSpanHandler handler = ringBuffer.wrap(blockingHandler);
+    assertThat(handler.handle(context, dropped)).isFalse();
+    unblock.countDown();
+    ringBuffer.close();
+
+    assertThat(handled).containsExactlyElementsOf(accepted).doesNotContain(dropped);
+    assertThat(config.droppedSpans()).isEqualTo(1);
+  }
+
+  @Test public void dropOldest() throws Exception {
+    AsyncFinishedSpanHandling config = AsyncFinishedSpanHandling.newBuilder()
+      .queueSize(2).overflowPolicy(OverflowPolicy.DROP_OLDEST).build();
+    List<MutableSpan> accepted = fill(config);
+    MutableSpan newest = new MutableSpan();
+    newest.name("newest");
+
+    FinishedSpanHandler handler = ringBuffer.wrap(blockingHandler);
+    assertThat(handler.handle(context, newest)).isTrue();
+    unblock.countDown();
+    ringBuffer.close();
+
+    assertThat(handled).contains(newest);
+    assertThat(config.droppedSpans()).isEqualTo(1);
+    assertThat(handled).hasSize(accepted.size());
+  }
+
+  @Test public void block_dropsAfterTimeout() throws Exception {
+    AsyncFinishedSpanHandling config = AsyncFinishedSpanHandling.newBuilder()
+      .queueSize(2).overflowPolicy(OverflowPolicy.BLOCK).blockTimeout(10, TimeUnit.MILLISECONDS)
+      .build();
+    fill(config);
+
+    long start = System.nanoTime();
+    assertThat(ringBuffer.wrap(blockingHandler).handle(context, new MutableSpan())).isFalse();
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+    assertThat(config.droppedSpans()).isEqualTo(1);
+  }
+
+  @Test public void block_acceptsWhenSpaceFrees() throws Exception {
+    AsyncFinishedSpanHandling config = AsyncFinishedSpanHandling.newBuilder()
+      .queueSize(2).overflowPolicy(OverflowPolicy.BLOCK).blockTimeout(10, TimeUnit.SECONDS)
+      .build();
+    fill(config);
+
+    new Thread(() -> unblock.countDown()).start();
+    assertThat(ringBuffer.wrap(blockingHandler).handle(context, new MutableSpan())).isTrue();
+    assertThat(config.droppedSpans()).isZero();
+  }
+
+  /**
+   * Fills the ring buffer while the consumer is blocked. As the consumer holds one span while
+   * blocked, the accepted count is one more than the capacity of two.
+   */
+  List<MutableSpan> fill(AsyncFinishedSpanHandling config) throws Exception {
+    ringBuffer = new FinishedSpanRingBuffer(config);
+    FinishedSpanHandler handler = ringBuffer.wrap(blockingHandler);
+    List<MutableSpan> accepted = new ArrayList<>();
+
+    MutableSpan first = new MutableSpan();
+    handler.handle(context, first);
+    accepted.add(first);
+    while (ringBuffer.size() != 0) Thread.sleep(1); // wait for the consumer to block on first
+
+    for (int i = 0; i < 2; i++) {
+      MutableSpan span = new MutableSpan();
+      assertThat(ringBuffer.tryOffer(blockingHandler, context, span)).isTrue();
+      accepted.add(span);
+    }
+    assertThat(ringBuffer.size()).isEqualTo(2); // full
+    return accepted;
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.ErrorParser;
+import brave.Span.Kind;
+import brave.handler.EncodingFinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MutableSpanBytesEncoderTest {
+  TraceContext context = TraceContext.newBuilder()
+    .traceIdHigh(0x463ac35c9f6413adL).traceId(0x48485a3953bb6124L)
+    .parentId(2L).spanId(0xabcdef0123456789L).sampled(true).build();
+
+  List<Span> reported = new ArrayList<>();
+  ZipkinFinishedSpanHandler zipkinHandler = new ZipkinFinishedSpanHandler(reported::add,
+    new ErrorParser(), "Favstar", "10.0.0.1", 8080, false);
+
+  @Test public void create_unsupportedEncoding() {
+    assertThatThrownBy(() -> MutableSpanBytesEncoder.create(Encoding.THRIFT, new ErrorParser(),
+      "favstar", null, 0)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void minimalSpan() {
+    assertRoundTrips(TraceContext.newBuilder().traceId(1L).spanId(1L).sampled(true).build(),
+      new MutableSpan());
+  }
+
+  @Test public void serverSpan() {
+    MutableSpan span = new MutableSpan();
+    span.name("GET /");
+    span.kind(Kind.SERVER);
+    span.startTimestamp(1533660000000000L);
+    span.finishTimestamp(1533660000000207L);
+    span.remoteServiceName("Frontend");
+    span.remoteIpAndPort("::ffff:192.168.99.101", 63123);
+    span.tag("http.path", "/");
+    span.tag("http.status_code", "200");
+    span.annotate(1533660000000100L, "wr");
+    span.setShared();
+
+    assertRoundTrips(context.toBuilder().debug(true).build(), span);
+  }
+
+  @Test public void localEndpointOverridesAndIpv6() {
+    MutableSpan span = new MutableSpan();
+    span.name("encode");
+    span.startTimestamp(1L);
+    span.finishTimestamp(1L); // rounds up to 1 microsecond
+    span.localServiceName("Backend");
+    span.localIp("2001:db8::c001");
+    span.localPort(443);
+    span.remoteIpAndPort("::1", 0);
+
+    assertRoundTrips(context, span);
+  }
+
+  @Test public void escapesAndUnicode() {
+    MutableSpan span = new MutableSpan();
+    span.name("\u2028quote\"\\\u0001");
+    span.tag("error", "\t\b\n\r\f");
+    span.tag("unicode", "é中😀");
+    span.annotate(1L, "\u2029");
+
+    assertRoundTrips(context, span);
+  }
+
+  @Test public void errorParserAddsTag() {
+    MutableSpan span = new MutableSpan();
+    span.error(new IllegalStateException("boom"));
+
+    assertRoundTrips(context, span);
+    assertThat(span.tag("error")).isEqualTo("boom");
+  }
+
+  @Test public void encode_growsBuffer() {
+    MutableSpan span = new MutableSpan();
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 10000; i++) value.append('a');
+    span.tag("big", value.toString());
+
+    assertRoundTrips(context, span);
+  }
+
+  @Test public void handler_writesListOfSpans() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EncodingFinishedSpanHandler handler = EncodingFinishedSpanHandler
+      .newBuilder(Channels.newChannel(out))
+      .encoding(Encoding.PROTO3)
+      .localServiceName("favstar")
+      .build();
+
+    MutableSpan span = new MutableSpan();
+    span.name("get");
+    handler.handle(context, span);
+    handler.handle(context.toBuilder().sampled(false).build(), span); // not written
+    handler.handle(context.toBuilder().spanId(3L).build(), span);
+    handler.close(); // writes what's queued
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(out.toByteArray()))
+      .extracting(Span::id)
+      .containsExactly(context.spanIdString(), "0000000000000003");
+  }
+
+  @Test public void handler_writesLinesOfJson() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EncodingFinishedSpanHandler handler = EncodingFinishedSpanHandler
+      .newBuilder(Channels.newChannel(out))
+      .build();
+
+    handler.handle(context, new MutableSpan());
+    handler.handle(context.toBuilder().spanId(3L).build(), new MutableSpan());
+    handler.close(); // writes what's queued
+
+    String[] lines = new String(out.toByteArray(), UTF_8).split("\n");
+    assertThat(lines).hasSize(2);
+    assertThat(SpanBytesDecoder.JSON_V2.decodeOne(lines[1].getBytes(UTF_8)).id())
+      .isEqualTo("0000000000000003");
+  }
+
+  @Test public void handler_dropsWhenQueueFull() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EncodingFinishedSpanHandler handler = EncodingFinishedSpanHandler
+      .newBuilder(Channels.newChannel(out))
+      .queuedMaxBytes(10) // smaller than a span
+      .build();
+
+    handler.handle(context, new MutableSpan());
+    handler.close();
+
+    assertThat(out.toByteArray()).isEmpty();
+    assertThat(handler.droppedSpans()).isEqualTo(1L);
+  }
+
+  @Test public void handler_dropsAfterClose() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EncodingFinishedSpanHandler handler = EncodingFinishedSpanHandler
+      .newBuilder(Channels.newChannel(out))
+      .build();
+    handler.close();
+
+    handler.handle(context, new MutableSpan());
+
+    assertThat(handler.droppedSpans()).isEqualTo(1L);
+  }
+
+  void assertRoundTrips(TraceContext context, MutableSpan span) {
+    reported.clear();
+    zipkinHandler.handle(context, span);
+    Span expected = reported.get(0);
+
+    for (Encoding encoding : new Encoding[] {Encoding.JSON, Encoding.PROTO3}) {
+      MutableSpanBytesEncoder encoder = MutableSpanBytesEncoder.create(encoding,
+        new ErrorParser(), "Favstar", "10.0.0.1", 8080);
+      ByteBuffer encoded = encoder.encode(context, span);
+      byte[] bytes = new byte[encoded.remaining()];
+      encoded.get(bytes);
+
+      Span decoded = encoding == Encoding.JSON
+        ? SpanBytesDecoder.JSON_V2.decodeOne(bytes)
+        : SpanBytesDecoder.PROTO3.decodeList(bytes).get(0);
+      assertThat(decoded).isEqualTo(expected);
+      // sizes are computed up front, so should match zipkin's, regardless of entry order
+      assertThat(bytes).hasSize(encoding == Encoding.JSON
+        ? SpanBytesEncoder.JSON_V2.sizeInBytes(expected)
+        : SpanBytesEncoder.PROTO3.encodeList(Collections.singletonList(expected)).length);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records what was forwarded to a delegate. Lists are guarded by this instance, as handlers which
+ * forward from another thread are tested, too.
+ */
+class RecordingFinishedSpanHandler extends FinishedSpanHandler {
+  final List<TraceContext> contexts = new ArrayList<>();
+  final List<MutableSpan> spans = new ArrayList<>();
+
+  @Override public boolean handle(TraceContext context, MutableSpan span) {
+    synchronized (this) {
+      contexts.add(context);
+      spans.add(span);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.Span.Kind;
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.handler.SpanCompaction;
+import brave.propagation.TraceContext;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpanCompactionHandlerTest {
+  TraceContext parent = TraceContext.newBuilder().traceId(1L).spanId(1L).sampled(true).build();
+
+  RecordingFinishedSpanHandler delegate = new RecordingFinishedSpanHandler();
+  List<TraceContext> contexts = delegate.contexts;
+  List<MutableSpan> handled = delegate.spans;
+
+  SpanCompaction config = SpanCompaction.newBuilder()
+    .addName(Kind.CLIENT, "query")
+    .exemplars(2)
+    .build();
+  SpanCompactionHandler handler = new SpanCompactionHandler(config, delegate);
+
+  @After public void close() {
+    handler.close();
+  }
+
+  @Test public void wrap_noopPassthrough() {
+    assertThat(SpanCompactionHandler.wrap(config, FinishedSpanHandler.NOOP))
+      .isSameAs(FinishedSpanHandler.NOOP);
+  }
+
+  @Test public void compactsSiblings_whenParentFinishes() {
+    handler.handle(child(2L), span("query", Kind.CLIENT, 10L, 110L));
+    handler.handle(child(3L), span("query", Kind.CLIENT, 120L, 130L));
+    handler.handle(child(4L), span("query", Kind.CLIENT, 140L, 190L));
+    assertThat(handled).isEmpty();
+
+    MutableSpan parentSpan = span("get", Kind.SERVER, 0L, 2000L);
+    handler.handle(parent, parentSpan);
+
+    assertThat(handled).hasSize(2).endsWith(parentSpan);
+    assertThat(contexts.get(0).spanId()).isEqualTo(2L);
+    MutableSpan compacted = handled.get(0);
+    assertThat(compacted.name()).isEqualTo("query");
+    assertThat(compacted.kind()).isEqualTo(Kind.CLIENT);
+    assertThat(compacted.startTimestamp()).isEqualTo(10L);
+    assertThat(compacted.finishTimestamp()).isEqualTo(190L);
+    assertThat(compacted.tag(SpanCompaction.TAG_COUNT)).isEqualTo("3");
+    assertThat(compacted.tag(SpanCompaction.TAG_DURATION_TOTAL)).isEqualTo("160");
+    assertThat(compacted.tag(SpanCompaction.TAG_DURATION_MIN)).isEqualTo("10");
+    assertThat(compacted.tag(SpanCompaction.TAG_DURATION_MAX)).isEqualTo("100");
+    assertThat(compacted.tag(SpanCompaction.TAG_EXEMPLARS))
+      .isEqualTo("0000000000000002,0000000000000003");
+    assertThat(config.compactedSpans()).isEqualTo(2L);
+  }
+
+  @Test public void singleSpan_forwardedAsIs() {
+    MutableSpan query = span("query", Kind.CLIENT, 10L, 110L);
+    handler.handle(child(2L), query);
+    handler.handle(parent, span("get", Kind.SERVER, 0L, 2000L));
+
+    assertThat(handled.get(0)).isSameAs(query);
+    assertThat(config.compactedSpans()).isZero();
+  }
+
+  @Test public void groupsByTrace() {
+    TraceContext otherTrace = child(3L).toBuilder().traceId(2L).build();
+    handler.handle(child(2L), span("query", Kind.CLIENT, 10L, 20L));
+    handler.handle(otherTrace, span("query", Kind.CLIENT, 30L, 40L));
+    handler.handle(parent, span("get", Kind.SERVER, 0L, 2000L));
+
+    assertThat(contexts).extracting(TraceContext::traceId).containsExactly(1L, 1L);
+    assertThat(config.compactedSpans()).isZero();
+  }
+
+  @Test public void unsampled_passesThrough() {
+    MutableSpan query = span("query", Kind.CLIENT, 10L, 20L);
+    handler.handle(child(2L).toBuilder().sampled(false).build(), query);
+
+    assertThat(handled).containsExactly(query);
+  }
+
+  @Test public void groupsByName() {
+    handler.close();
+    handler = new SpanCompactionHandler(SpanCompaction.newBuilder().addKind(Kind.CLIENT).build(),
+      delegate);
+    handler.handle(child(2L), span("query", Kind.CLIENT, 10L, 20L));
+    handler.handle(child(3L), span("update", Kind.CLIENT, 30L, 40L));
+    handler.handle(child(4L), span("query", Kind.CLIENT, 50L, 60L));
+    handler.close();
+
+    assertThat(handled).extracting(MutableSpan::name).containsExactly("query", "update");
+    assertThat(handled.get(0).tag(SpanCompaction.TAG_COUNT)).isEqualTo("2");
+    assertThat(handled.get(1).tag(SpanCompaction.TAG_COUNT)).isNull();
+  }
+
+  @Test public void close_joinsFlusher() {
+    handler.close();
+
+    assertThat(handler.flusher.isAlive()).isFalse();
+  }
+
+  @Test public void neverCompactsErrors() {
+    MutableSpan error = span("query", Kind.CLIENT, 10L, 20L);
+    error.tag("error", "timeout");
+    handler.handle(child(2L), error);
+
+    assertThat(handled).containsExactly(error);
+  }
+
+  @Test public void skipsUnmatchedOrSlowSpans() {
+    MutableSpan other = span("select", Kind.CLIENT, 10L, 20L);
+    MutableSpan slow = span("query", Kind.CLIENT, 10L, 10L + TimeUnit.SECONDS.toMicros(1));
+    MutableSpan root = span("query", Kind.CLIENT, 10L, 20L);
+    handler.handle(child(2L), other);
+    handler.handle(child(3L), slow);
+    handler.handle(parent, root); // no parent ID
+
+    assertThat(handled).containsExactly(other, slow, root);
+  }
+
+  @Test public void flushesAfterWindow() {
+    SpanCompactionHandler.Stripe stripe = handler.stripes[SpanCompactionHandler.stripeIndex(1L)];
+    MutableSpan query = span("query", Kind.CLIENT, 10L, 20L);
+    long now = System.nanoTime(); // relative to the real clock, which the flusher thread reads
+    assertThat(stripe.add(parentKey(1L), child(2L), query, now)).isNull();
+
+    long afterWindow = now + config.windowNanos();
+    assertThat(stripe.removeExpired(afterWindow - 1)).isNull();
+    assertThat(stripe.removeExpired(afterWindow))
+      .extracting(g -> g.first)
+      .containsExactly(query);
+  }
+
+  @Test public void flushesOldestParent_whenFull() {
+    SpanCompactionHandler.Stripe stripe = handler.stripes[SpanCompactionHandler.stripeIndex(1L)];
+    MutableSpan query = span("query", Kind.CLIENT, 10L, 20L);
+    long now = System.nanoTime(); // relative to the real clock, which the flusher thread reads
+    assertThat(stripe.add(parentKey(1L), child(2L), query, now)).isNull();
+    for (int i = 1; i < SpanCompactionHandler.MAX_PARENTS_PER_STRIPE; i++) {
+      long parentId = 1L + i * SpanCompactionHandler.STRIPE_COUNT; // same stripe
+      assertThat(stripe.add(parentKey(parentId), child(2L), span("query", Kind.CLIENT, 10L, 20L),
+        now)).isNull();
+    }
+
+    long parentId =
+      1L + SpanCompactionHandler.MAX_PARENTS_PER_STRIPE * SpanCompactionHandler.STRIPE_COUNT;
+    MutableSpan overflow = span("query", Kind.CLIENT, 10L, 20L);
+    assertThat(stripe.add(parentKey(parentId), child(2L), overflow, now))
+      .extracting(g -> g.first)
+      .containsExactly(query);
+    assertThat(stripe.parents).hasSize(SpanCompactionHandler.MAX_PARENTS_PER_STRIPE);
+  }
+
+  SpanCompactionHandler.ParentKey parentKey(long parentId) {
+    return new SpanCompactionHandler.ParentKey(parent.traceIdHigh(), parent.traceId(), parentId);
+  }
+
+  TraceContext child(long spanId) {
+    return parent.toBuilder().parentId(parent.spanId()).spanId(spanId).build();
+  }
+
+  static MutableSpan span(String name, Kind kind, long start, long finish) {
+    MutableSpan span = new MutableSpan();
+    span.name(name);
+    span.kind(kind);
+    span.startTimestamp(start);
+    span.finishTimestamp(finish);
+    return span;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.internal.handler;
+
+import brave.Tracer;
+import brave.Tracing;
+import brave.handler.FinishedSpanHandler;
+import brave.handler.MutableSpan;
+import brave.handler.TailSampling;
+import brave.propagation.TraceContext;
+import brave.sampler.Sampler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.reporter.Reporter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TailSamplingHandlerTest {
+  Tracing tracing = Tracing.newBuilder()
+    .sampler(Sampler.NEVER_SAMPLE).spanReporter(Reporter.NOOP).build();
+  Tracer tracer = tracing.tracer();
+  TraceContext root = tracer.newTrace().context();
+  TraceContext child = tracer.newChild(root).context();
+
+  RecordingFinishedSpanHandler delegate = new RecordingFinishedSpanHandler();
+  List<TraceContext> contexts = delegate.contexts;
+  List<MutableSpan> handled = delegate.spans;
+
+  TailSampling config = TailSampling.newBuilder().build();
+  TailSamplingHandler handler = new TailSamplingHandler(config, delegate);
+
+  @After public void close() {
+    tracing.close();
+  }
+
+  @Test public void wrap_noopPassthrough() {
+    assertThat(TailSamplingHandler.wrap(config, FinishedSpanHandler.NOOP))
+      .isSameAs(FinishedSpanHandler.NOOP);
+  }
+
+  @Test public void alwaysSampleLocal() {
+    assertThat(handler.alwaysSampleLocal()).isTrue();
+  }
+
+  @Test public void sampled_passesThrough() {
+    TraceContext sampled = root.toBuilder().sampled(true).build();
+    MutableSpan span = new MutableSpan();
+    handler.handle(sampled, span);
+
+    assertThat(handled).containsExactly(span);
+    assertThat(config.keptTraces()).isZero();
+  }
+
+  @Test public void waitsForLocalRoot_thenReportsAsSampled() {
+    MutableSpan childSpan = new MutableSpan(), rootSpan = new MutableSpan();
+    childSpan.error(new IllegalStateException());
+
+    handler.handle(child, childSpan);
+    assertThat(handled).isEmpty();
+
+    handler.handle(root, rootSpan);
+    assertThat(handled).containsExactly(childSpan, rootSpan);
+    assertThat(contexts).extracting(TraceContext::sampled).containsOnly(true);
+    assertThat(contexts).extracting(TraceContext::spanId)
+      .containsExactly(child.spanId(), root.spanId());
+    assertThat(config.keptTraces()).isEqualTo(1L);
+  }
+
+  @Test public void dropsWhenNotKept() {
+    handler.handle(child, new MutableSpan());
+    handler.handle(root, new MutableSpan());
+
+    assertThat(handled).isEmpty();
+    assertThat(config.droppedTraces()).isEqualTo(1L);
+  }
+
+  @Test public void lateSpansFollowDecision() {
+    MutableSpan rootSpan = new MutableSpan(), childSpan = new MutableSpan();
+    rootSpan.tag("error", "500");
+
+    handler.handle(root, rootSpan);
+    handler.handle(child, childSpan);
+
+    assertThat(handled).containsExactly(rootSpan, childSpan);
+    assertThat(config.keptTraces()).isEqualTo(1L);
+  }
+
+  @Test public void lateSpansFollowDecision_boundedMemory() {
+    TailSamplingHandler.Stripe stripe =
+      handler.stripes[TailSamplingHandler.stripeIndex(root.spanId())];
+    for (long i = 0; i < TailSamplingHandler.DECIDED_PER_STRIPE * 2; i++) {
+      long localRootId = root.spanId() + i * TailSamplingHandler.STRIPE_COUNT; // same stripe
+      stripe.add(localRootId, root.toBuilder().spanId(localRootId).build(), new MutableSpan(), 0L);
+    }
+
+    assertThat(stripe.traces).isEmpty();
+    assertThat(stripe.decided).hasSize(TailSamplingHandler.DECIDED_PER_STRIPE);
+    assertThat(stripe.bytes).isZero();
+  }
+
+  @Test public void noLocalRoot_groupsByTraceId() {
+    TraceContext manualRoot = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+    TraceContext manualChild = manualRoot.toBuilder().parentId(1L).spanId(2L).build();
+    MutableSpan childSpan = new MutableSpan(), rootSpan = new MutableSpan();
+    childSpan.error(new IllegalStateException());
+
+    handler.handle(manualChild, childSpan);
+    assertThat(handled).isEmpty();
+
+    handler.handle(manualRoot, rootSpan);
+    assertThat(handled).containsExactly(childSpan, rootSpan);
+  }
+
+  @Test public void evictsOverBudget_withPartialTrace() {
+    config = TailSampling.newBuilder()
+      .decision((localRoot, spans) -> localRoot == null) // keep only evicted
+      .maxBytes(1).build();
+    handler = new TailSamplingHandler(config, delegate);
+
+    MutableSpan childSpan = new MutableSpan();
+    handler.handle(child, childSpan);
+
+    assertThat(handled).containsExactly(childSpan);
+    assertThat(config.evictedTraces()).isEqualTo(1L);
+  }
+
+  @Test public void evictsByAge() {
+    config = TailSampling.newBuilder()
+      .decision((localRoot, spans) -> true)
+      .maxAge(1, TimeUnit.NANOSECONDS).build();
+    handler = new TailSamplingHandler(config, delegate);
+
+    MutableSpan childSpan = new MutableSpan();
+    TailSamplingHandler.Stripe stripe =
+      handler.stripes[TailSamplingHandler.stripeIndex(root.spanId())];
+    assertThat(stripe.add(root.spanId(), child, childSpan, 0L)).isNull();
+
+    // the next span into the same stripe evicts the expired trace
+    assertThat(stripe.add(root.spanId() + 1, root, new MutableSpan(), 10L))
+      .flatExtracting(t -> t.spans)
+      .containsExactly(childSpan);
+    assertThat(config.evictedTraces()).isEqualTo(1L);
+  }
+
+  @Test public void close_decidesWaitingTraces() {
+    config = TailSampling.newBuilder().decision((localRoot, spans) -> true).build();
+    handler = new TailSamplingHandler(config, delegate);
+
+    MutableSpan childSpan = new MutableSpan();
+    handler.handle(child, childSpan);
+    handler.close();
+
+    assertThat(handled).containsExactly(childSpan);
+    assertThat(config.evictedTraces()).isEqualTo(1L);
+  }
+
+  @Test public void decision_durationAtLeast() {
+    TailSampling.Decision decision = TailSampling.durationAtLeast(1, TimeUnit.MILLISECONDS);
+    MutableSpan span = new MutableSpan();
+    span.startTimestamp(1L);
+    span.finishTimestamp(1000L);
+    List<MutableSpan> spans = new ArrayList<>();
+    spans.add(span);
+
+    assertThat(decision.keep(span, spans)).isFalse();
+    span.finishTimestamp(1001L);
+    assertThat(decision.keep(span, spans)).isTrue();
+  }
+
+  @Test public void decision_anyOf() {
+    TailSampling.Decision decision =
+      TailSampling.anyOf(TailSampling.errors(), TailSampling.tagPresent("slow"));
+    MutableSpan span = new MutableSpan();
+    List<MutableSpan> spans = new ArrayList<>();
+    spans.add(span);
+
+    assertThat(decision.keep(span, spans)).isFalse();
+    span.tag("slow", "");
+    assertThat(decision.keep(span, spans)).isTrue();
+  }
+}
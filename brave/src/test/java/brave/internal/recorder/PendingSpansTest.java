@@ -63,6 +63,33 @@ public class PendingSpansTest {
     assertThat(span).isNotNull();
   }
 
+  @Test
+  public void recycle_reusesStorageWhenEnabled() {
+    pendingSpans = new PendingSpans(() -> clock.incrementAndGet() * 1000L,
+      FinishedSpanHandler.NOOP, false, true, new AtomicBoolean());
+    MutableSpan state = pendingSpans.getOrCreate(context, false).state();
+    state.tag("foo", "bar");
+    pendingSpans.remove(context);
+    pendingSpans.recycle(state);
+
+    TraceContext next = context.toBuilder().spanId(3L).build();
+    MutableSpan nextState = pendingSpans.getOrCreate(next, false).state();
+    assertThat(nextState).isSameAs(state);
+    assertThat(nextState.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void recycle_ignoredByDefault() {
+    MutableSpan state = pendingSpans.getOrCreate(context, false).state();
+    state.tag("foo", "bar");
+    pendingSpans.remove(context);
+    pendingSpans.recycle(state);
+
+    assertThat(state.tag("foo")).isEqualTo("bar");
+    TraceContext next = context.toBuilder().spanId(3L).build();
+    assertThat(pendingSpans.getOrCreate(next, false).state()).isNotSameAs(state);
+  }
+
   /** Ensure we use the same clock for traces that started in-process */
   @Test
   public void getOrCreate_reusesClockFromParent() {
@@ -115,7 +142,7 @@ public class PendingSpansTest {
     pendingSpans.getOrCreate(context, false);
     pendingSpans.remove(context);
 
-    assertThat(pendingSpans.delegate).isEmpty();
+    assertThat(pendingSpans.entries()).isEmpty();
     assertThat(pendingSpans.poll()).isNull();
   }
 
@@ -147,7 +174,7 @@ public class PendingSpansTest {
 
     pendingSpans.remove(context1);
 
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .containsOnly(context2);
   }
 
@@ -158,7 +185,7 @@ public class PendingSpansTest {
     pretendGCHappened();
     pendingSpans.remove(context);
 
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .hasSize(1)
       .containsNull();
   }
@@ -170,7 +197,7 @@ public class PendingSpansTest {
     pendingSpans.getOrCreate(context, false);
 
     // we'd expect two distinct entries.. the span would be reported twice, but merged zipkin-side
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .containsExactlyInAnyOrder(null, context);
   }
 
@@ -203,13 +230,13 @@ public class PendingSpansTest {
     GarbageCollectors.blockOnGC();
 
     // After GC, we expect that the weak references of context1 and context2 to be cleared
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .containsExactlyInAnyOrder(null, null, context3, context4, null);
 
     pendingSpans.reportOrphanedSpans();
 
     // After reporting, we expect no the weak references of null
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .containsExactlyInAnyOrder(context3, context4);
 
     // We also expect only the sampled span containing data to have been reported
@@ -240,13 +267,13 @@ public class PendingSpansTest {
     GarbageCollectors.blockOnGC();
 
     // After GC, we expect that the weak references of context1 and context2 to be cleared
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .containsExactlyInAnyOrder(null, null, context3, context4);
 
     pendingSpans.reportOrphanedSpans();
 
     // After reporting, we expect no the weak references of null
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .containsExactlyInAnyOrder(context3, context4);
 
     // since this is noop, we don't expect any spans to be reported
@@ -273,7 +300,7 @@ public class PendingSpansTest {
     GarbageCollectors.blockOnGC();
 
     // Sanity check that the referent trace context cleared due to GC
-    assertThat(pendingSpans.delegate.keySet()).extracting(o -> ((Reference) o).get())
+    assertThat(pendingSpans.entries()).extracting(Reference::get)
       .hasSize(1)
       .containsNull();
 
@@ -281,7 +308,7 @@ public class PendingSpansTest {
     pendingSpans.remove(this.context);
 
     // However, the reference queue has been cleared.
-    assertThat(pendingSpans.delegate.keySet())
+    assertThat(pendingSpans.entries())
       .isEmpty();
   }
 
@@ -302,14 +329,6 @@ public class PendingSpansTest {
       .isEqualTo("PendingSpans[ClearedReference()]");
   }
 
-  @Test
-  public void realKey_equalToItself() {
-    PendingSpans.RealKey key = new PendingSpans.RealKey(context, pendingSpans);
-    assertThat(key).isEqualTo(key);
-    key.clear();
-    assertThat(key).isEqualTo(key);
-  }
-
   @Test
   public void orphanContext_dropsExtra() {
     TraceContext context1 = context.toBuilder().extra(asList(1, true)).build();
@@ -360,53 +379,58 @@ public class PendingSpansTest {
   }
 
   @Test
-  public void lookupKey_hashCode() {
+  public void generateHashCode_matchesTraceContext() {
     TraceContext context1 = context;
     TraceContext context2 = context.toBuilder().shared(true).build();
 
-    assertThat(PendingSpans.LookupKey.generateHashCode(
+    assertThat(PendingSpans.generateHashCode(
       context1.traceIdHigh(), context1.traceId(), context1.spanId(), context1.shared()
     )).isEqualTo(context1.hashCode());
 
-    assertThat(PendingSpans.LookupKey.generateHashCode(
+    assertThat(PendingSpans.generateHashCode(
       context2.traceIdHigh(), context2.traceId(), context2.spanId(), context2.shared()
     )).isEqualTo(context2.hashCode());
   }
 
   @Test
-  public void realKey_equalToEquivalent() {
-    PendingSpans.RealKey key = new PendingSpans.RealKey(context, pendingSpans);
-    PendingSpans.RealKey key2 = new PendingSpans.RealKey(context, pendingSpans);
-    assertThat(key).isEqualTo(key2);
-    key.clear();
-    assertThat(key).isNotEqualTo(key2);
-    key2.clear();
-    assertThat(key).isEqualTo(key2);
-  }
-
-  @Test
-  public void lookupKey_equalToRealKey() {
-    PendingSpans.LookupKey lookupKey = new PendingSpans.LookupKey();
-    lookupKey.set(context);
-    PendingSpans.RealKey key = new PendingSpans.RealKey(context, pendingSpans);
-    assertThat(lookupKey.equals(key)).isTrue();
-    key.clear();
-    assertThat(lookupKey.equals(key)).isFalse();
+  public void getOrCreate_growsStripes() {
+    List<TraceContext> contexts = new ArrayList<>();
+    List<PendingSpan> created = new ArrayList<>();
+    for (int i = 1; i <= 1000; i++) {
+      TraceContext next = context.toBuilder().spanId(i).build();
+      contexts.add(next);
+      created.add(pendingSpans.getOrCreate(next, false));
+    }
+
+    assertThat(pendingSpans.entries()).hasSize(1000);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(pendingSpans.getOrCreate(contexts.get(i), false)).isSameAs(created.get(i));
+    }
   }
 
+  /** Ensures backward-shift deletion doesn't break probe sequences of remaining entries. */
   @Test
-  public void lookupKey_equalToRealKey_shared() {
-    context = context.toBuilder().shared(true).build();
-    PendingSpans.LookupKey lookupKey = new PendingSpans.LookupKey();
-    lookupKey.set(context);
-    PendingSpans.RealKey key = new PendingSpans.RealKey(context, pendingSpans);
-    assertThat(lookupKey.equals(key)).isTrue();
-    key = new PendingSpans.RealKey(context.toBuilder().shared(false).build(), pendingSpans);
-    assertThat(lookupKey.equals(key)).isFalse();
+  public void remove_retainsOtherEntries() {
+    List<TraceContext> contexts = new ArrayList<>();
+    List<PendingSpan> created = new ArrayList<>();
+    for (int i = 1; i <= 1000; i++) {
+      TraceContext next = context.toBuilder().spanId(i).build();
+      contexts.add(next);
+      created.add(pendingSpans.getOrCreate(next, false));
+    }
+
+    for (int i = 0; i < 1000; i += 2) {
+      assertThat(pendingSpans.remove(contexts.get(i))).isTrue();
+    }
+
+    assertThat(pendingSpans.entries()).hasSize(500);
+    for (int i = 1; i < 1000; i += 2) {
+      assertThat(pendingSpans.getOrCreate(contexts.get(i), false)).isSameAs(created.get(i));
+    }
   }
 
   /** In reality, this clears a reference even if it is strongly held by the test! */
   void pretendGCHappened() {
-    ((PendingSpans.RealKey) pendingSpans.delegate.keySet().iterator().next()).clear();
+    pendingSpans.entries().get(0).clear();
   }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.B3Propagation.Format;
+import brave.propagation.Propagation.BytesGetter;
+import brave.propagation.Propagation.BytesSetter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static brave.propagation.Propagation.KeyFactory.STRING;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BytesPropagationTest {
+  Map<String, byte[]> carrier = new LinkedHashMap<>();
+  BytesSetter<Map<String, byte[]>, String> setter = Map::put;
+  BytesGetter<Map<String, byte[]>, String> getter = Map::get;
+
+  TraceContext context = TraceContext.newBuilder()
+    .traceIdHigh(9L).traceId(1L).parentId(2L).spanId(3L).sampled(true).build();
+
+  @Test public void b3_multi_roundTrip() {
+    Propagation<String> propagation = B3Propagation.B3_STRING;
+    BytesPropagation.injector(propagation, setter).inject(context, carrier);
+
+    assertThat(carrier).containsOnlyKeys(
+      "X-B3-TraceId", "X-B3-SpanId", "X-B3-ParentSpanId", "X-B3-Sampled"
+    );
+    assertThat(carrier.get("X-B3-TraceId"))
+      .isEqualTo(context.traceIdString().getBytes(UTF_8));
+    assertThat(carrier.get("X-B3-ParentSpanId"))
+      .isEqualTo(context.parentIdString().getBytes(UTF_8));
+    assertThat(carrier.get("X-B3-Sampled")).containsExactly('1');
+
+    assertThat(BytesPropagation.extractor(propagation, getter).extract(carrier).context())
+      .isEqualTo(context);
+  }
+
+  @Test public void b3_multi_matchesStrings() {
+    Propagation<String> propagation = B3Propagation.B3_STRING;
+    Map<String, String> strings = new LinkedHashMap<>();
+    propagation.<Map<String, String>>injector(Map::put).inject(context.toBuilder().debug(true)
+      .build(), strings);
+    BytesPropagation.injector(propagation, setter).inject(context.toBuilder().debug(true)
+      .build(), carrier);
+
+    assertThat(carrier).hasSameSizeAs(strings);
+    strings.forEach((k, v) -> assertThat(carrier.get(k)).isEqualTo(v.getBytes(UTF_8)));
+  }
+
+  @Test public void b3_single_roundTrip() {
+    Propagation<String> propagation = B3Propagation.newFactoryBuilder()
+      .injectFormat(Format.SINGLE).build().create(STRING);
+    BytesPropagation.injector(propagation, setter).inject(context, carrier);
+
+    assertThat(carrier).containsOnlyKeys("b3");
+    assertThat(new String(carrier.get("b3"), UTF_8))
+      .isEqualTo(B3SingleFormat.writeB3SingleFormat(context));
+
+    assertThat(BytesPropagation.extractor(propagation, getter).extract(carrier).context())
+      .isEqualTo(context);
+  }
+
+  @Test public void b3_extract_sampledTrue() {
+    carrier.put("X-B3-Sampled", "TRUE".getBytes(UTF_8));
+
+    assertThat(BytesPropagation.extractor(B3Propagation.B3_STRING, getter).extract(carrier))
+      .isEqualTo(TraceContextOrSamplingFlags.SAMPLED);
+  }
+
+  @Test public void b3_extract_invalidHexIsEmpty() {
+    carrier.put("X-B3-TraceId", "000000000000000g".getBytes(UTF_8));
+    carrier.put("X-B3-SpanId", "0000000000000003".getBytes(UTF_8));
+
+    assertThat(BytesPropagation.extractor(B3Propagation.B3_STRING, getter).extract(carrier))
+      .isEqualTo(TraceContextOrSamplingFlags.EMPTY);
+  }
+
+  @Test public void w3c_roundTrip() {
+    Propagation<String> propagation = W3CPropagation.W3C_STRING;
+    TraceContext withState = context.toBuilder()
+      .extra(Collections.singletonList(new W3CPropagation.TraceState("congo=t61rcW")))
+      .build();
+    BytesPropagation.injector(propagation, setter).inject(withState, carrier);
+
+    assertThat(new String(carrier.get("traceparent"), UTF_8))
+      .isEqualTo(W3CFormat.writeTraceParent(context));
+    assertThat(new String(carrier.get("tracestate"), UTF_8)).isEqualTo("congo=t61rcW");
+
+    TraceContext extracted =
+      BytesPropagation.extractor(propagation, getter).extract(carrier).context();
+    assertThat(extracted).isEqualTo(context);
+    assertThat(extracted.findExtra(W3CPropagation.TraceState.class).value)
+      .isEqualTo("congo=t61rcW");
+  }
+
+  @Test public void extraFields_utf8() {
+    Propagation.Factory factory =
+      ExtraFieldPropagation.newFactory(B3Propagation.FACTORY, "country-code");
+    Propagation<String> propagation = factory.create(STRING);
+    TraceContext withExtra = factory.decorate(context);
+    ExtraFieldPropagation.set(withExtra, "country-code", "ÉTATS");
+    BytesPropagation.injector(propagation, setter).inject(withExtra, carrier);
+
+    assertThat(carrier.get("country-code")).isEqualTo("ÉTATS".getBytes(UTF_8));
+
+    TraceContextOrSamplingFlags extracted =
+      BytesPropagation.extractor(propagation, getter).extract(carrier);
+    assertThat(extracted.context()).isEqualTo(context);
+    assertThat(ExtraFieldPropagation.getAll(extracted)).containsEntry("country-code", "ÉTATS");
+  }
+
+  @Test public void extraFields_passedThroughWithoutDecoding() {
+    Propagation.Factory factory =
+      ExtraFieldPropagation.newFactory(B3Propagation.FACTORY, "country-code");
+    Propagation<String> propagation = factory.create(STRING);
+    BytesPropagation.injector(propagation, setter).inject(context, carrier);
+    byte[] countryCode = "FO".getBytes(UTF_8);
+    carrier.put("country-code", countryCode);
+
+    TraceContext extracted = factory.decorate(
+      BytesPropagation.extractor(propagation, getter).extract(carrier).context());
+    Map<String, byte[]> downstream = new LinkedHashMap<>();
+    BytesPropagation.injector(propagation, setter).inject(extracted, downstream);
+
+    assertThat(downstream.get("country-code")).isSameAs(countryCode);
+    assertThat(ExtraFieldPropagation.get(extracted, "country-code")).isEqualTo("FO");
+  }
+
+  /** Propagation implementations unaware of bytes still work, via string conversion. */
+  @Test public void fallsBackToStrings() {
+    Propagation<String> strings = new Propagation<String>() {
+      @Override public List<String> keys() {
+        return B3Propagation.B3_STRING.keys();
+      }
+
+      @Override public <C> TraceContext.Injector<C> injector(Setter<C, String> setter) {
+        return B3Propagation.B3_STRING.injector(setter);
+      }
+
+      @Override public <C> TraceContext.Extractor<C> extractor(Getter<C, String> getter) {
+        return B3Propagation.B3_STRING.extractor(getter);
+      }
+    };
+
+    BytesPropagation.injector(strings, setter).inject(context, carrier);
+    assertThat(carrier.get("X-B3-SpanId")).isEqualTo("0000000000000003".getBytes(UTF_8));
+
+    assertThat(BytesPropagation.extractor(strings, getter).extract(carrier).context())
+      .isEqualTo(context);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** The fallback to a thread local is tested in brave-tests. This tests carrier threads. */
+public class EventLoopCurrentTraceContextTest {
+  CurrentTraceContext currentTraceContext = EventLoopCurrentTraceContext.create();
+  TraceContext context1 = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  TraceContext context2 = TraceContext.newBuilder().traceId(1L).spanId(2L).build();
+
+  @Test public void reusesScope() throws Exception {
+    runOnCarrier(() -> {
+      Scope scope1 = currentTraceContext.newScope(context1);
+      assertThat(currentTraceContext.get()).isSameAs(context1);
+      scope1.close();
+      assertThat(currentTraceContext.get()).isNull();
+
+      try (Scope scope2 = currentTraceContext.newScope(context2)) {
+        assertThat(scope2).isSameAs(scope1);
+      }
+    });
+  }
+
+  @Test public void nestedScopes_restorePrevious() throws Exception {
+    runOnCarrier(() -> {
+      try (Scope outer = currentTraceContext.newScope(context1)) {
+        try (Scope clear = currentTraceContext.newScope(null)) {
+          assertThat(currentTraceContext.get()).isNull();
+          try (Scope inner = currentTraceContext.newScope(context2)) {
+            assertThat(currentTraceContext.get()).isSameAs(context2);
+          }
+          assertThat(currentTraceContext.get()).isNull();
+        }
+        assertThat(currentTraceContext.get()).isSameAs(context1);
+      }
+      assertThat(currentTraceContext.get()).isNull();
+    });
+  }
+
+  @Test public void deepNesting_growsSlot() throws Exception {
+    runOnCarrier(() -> {
+      List<Scope> scopes = new ArrayList<>();
+      for (int i = 1; i <= 10; i++) {
+        scopes.add(currentTraceContext.newScope(context1.toBuilder().spanId(i).build()));
+      }
+      for (int i = 10; i >= 1; i--) {
+        assertThat(currentTraceContext.get().spanId()).isEqualTo(i);
+        scopes.get(i - 1).close();
+      }
+      assertThat(currentTraceContext.get()).isNull();
+    });
+  }
+
+  @Test public void closeTwice_ignored() throws Exception {
+    runOnCarrier(() -> {
+      try (Scope outer = currentTraceContext.newScope(context1)) {
+        Scope scope = currentTraceContext.newScope(context1.toBuilder().spanId(2L).build());
+        scope.close();
+        scope.close();
+
+        assertThat(currentTraceContext.get()).isSameAs(context1);
+      }
+      assertThat(currentTraceContext.get()).isNull();
+    });
+  }
+
+  @Test public void decoratorsStillCalled() throws Exception {
+    List<TraceContext> decorated = new ArrayList<>();
+    currentTraceContext = EventLoopCurrentTraceContext.newBuilder()
+      .addScopeDecorator((context, scope) -> {
+        decorated.add(context);
+        return scope;
+      }).build();
+
+    runOnCarrier(() -> {
+      try (Scope scope = currentTraceContext.newScope(context1)) {
+        assertThat(currentTraceContext.get()).isSameAs(context1);
+      }
+    });
+    assertThat(decorated).containsExactly(context1);
+  }
+
+  @Test public void notVisibleToOtherThreads() throws Exception {
+    try (Scope scope = currentTraceContext.newScope(context1)) {
+      runOnCarrier(() -> assertThat(currentTraceContext.get()).isNull());
+    }
+  }
+
+  static void runOnCarrier(Runnable runnable) throws Exception {
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    CarrierThread thread = new CarrierThread(() -> {
+      try {
+        runnable.run();
+      } catch (Throwable t) {
+        error.set(t);
+      }
+    });
+    thread.start();
+    thread.join();
+    if (error.get() instanceof Error) throw (Error) error.get();
+    if (error.get() != null) throw new AssertionError(error.get());
+  }
+
+  static final class CarrierThread extends Thread implements EventLoopCurrentTraceContext.Carrier {
+    final EventLoopCurrentTraceContext.Slot slot = new EventLoopCurrentTraceContext.Slot();
+
+    CarrierThread(Runnable runnable) {
+      super(runnable);
+    }
+
+    @Override public EventLoopCurrentTraceContext.Slot traceContextSlot() {
+      return slot;
+    }
+  }
+}
@@ -101,6 +101,53 @@ public class ExtraFieldPropagationTest {
       .isNull();
   }
 
+  @Test public void get_ignoresCase() {
+    TraceContext context = extractWithAmazonTraceId();
+
+    assertThat(ExtraFieldPropagation.get(context, "X-Amzn-Trace-Id"))
+      .isEqualTo(awsTraceId);
+  }
+
+  @Test public void field() {
+    ExtraFieldPropagation.Field field = factory.field("X-Amzn-Trace-Id");
+    TraceContext context = extractWithAmazonTraceId();
+
+    assertThat(field.name()).isEqualTo("x-amzn-trace-id");
+    assertThat(field.getValue(context)).isEqualTo(awsTraceId);
+
+    field.setValue(context, "Root=1-67891233-abcdef012345678912345678");
+    assertThat(ExtraFieldPropagation.get(context, "x-amzn-trace-id"))
+      .isEqualTo("Root=1-67891233-abcdef012345678912345678");
+  }
+
+  @Test public void field_null_if_not_configured() {
+    assertThat(factory.field("country-code")).isNull();
+  }
+
+  @Test public void field_contextFromDifferentFactory() {
+    ExtraFieldPropagation.Factory otherFactory = ExtraFieldPropagation.newFactory(
+      B3SinglePropagation.FACTORY, "x-amzn-trace-id", "country-code"
+    );
+    TraceContext otherContext = otherFactory.decorate(context);
+    ExtraFieldPropagation.set(otherContext, "x-amzn-trace-id", awsTraceId);
+
+    ExtraFieldPropagation.Field field = factory.field("x-amzn-trace-id");
+    assertThat(field.getValue(otherContext)).isEqualTo(awsTraceId);
+    assertThat(factory.field("x-vcap-request-id").getValue(otherContext)).isNull();
+  }
+
+  @Test public void field_current() {
+    TraceContext context = extractWithAmazonTraceId();
+    ExtraFieldPropagation.Field field = factory.field("x-amzn-trace-id");
+
+    try (Tracing t = Tracing.newBuilder().propagationFactory(factory).build();
+         CurrentTraceContext.Scope scope = t.currentTraceContext().newScope(context)) {
+      assertThat(field.getValue()).isEqualTo(awsTraceId);
+      field.setValue(uuid);
+      assertThat(field.getValue()).isEqualTo(uuid);
+    }
+  }
+
   @Test public void current_get() {
     TraceContext context = extractWithAmazonTraceId();
 
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.propagation.CurrentTraceContext.Scope;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PooledTaskExecutorTest {
+  CurrentTraceContext currentTraceContext = ThreadLocalCurrentTraceContext.create();
+  TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  List<Runnable> queue = new ArrayList<>();
+  Executor executor = currentTraceContext.pooledExecutor(queue::add);
+
+  @Test public void attachesContextWhenRun() {
+    List<TraceContext> seen = new ArrayList<>();
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      executor.execute(() -> seen.add(currentTraceContext.get()));
+    }
+    executor.execute(() -> seen.add(currentTraceContext.get()));
+
+    queue.forEach(Runnable::run);
+
+    assertThat(seen).containsExactly(context, null);
+    assertThat(currentTraceContext.get()).isNull();
+  }
+
+  @Test public void reusesWrapperAfterRun() {
+    executor.execute(() -> {
+    });
+    Runnable first = queue.remove(0);
+    first.run();
+
+    executor.execute(() -> {
+    });
+    assertThat(queue).containsExactly(first);
+  }
+
+  @Test public void doesntReuseWrapperBeforeRun() {
+    executor.execute(() -> {
+    });
+    executor.execute(() -> {
+    });
+
+    assertThat(queue.get(0)).isNotSameAs(queue.get(1));
+  }
+
+  @Test public void releasesWrapperWhenTaskThrows() {
+    executor.execute(() -> {
+      throw new IllegalStateException("boom");
+    });
+    Runnable first = queue.remove(0);
+    assertThatThrownBy(first::run).hasMessage("boom");
+
+    executor.execute(() -> {
+    });
+    assertThat(queue).containsExactly(first);
+  }
+
+  @Test public void rejectedTaskPropagatesException() {
+    Executor rejecting = currentTraceContext.pooledExecutor(task -> {
+      throw new RejectedExecutionException();
+    });
+
+    assertThatThrownBy(() -> rejecting.execute(() -> {
+    })).isInstanceOf(RejectedExecutionException.class);
+  }
+}
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import static brave.internal.InternalPropagation.FLAG_SAMPLED_SET;
 import static brave.internal.InternalPropagation.FLAG_SHARED;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -413,4 +414,41 @@ public class TraceContextTest {
     assertThat(context.spanIdString)
       .isEqualTo("0000000000000002");
   }
+
+  @Test public void idStringBytes_cache() {
+    TraceContext context = TraceContext.newBuilder()
+      .traceIdHigh(1L).traceId(2L).parentId(3L).spanId(4L).build();
+
+    assertThat(context.traceIdStringBytes())
+      .isSameAs(context.traceIdStringBytes())
+      .isEqualTo(context.traceIdString().getBytes(UTF_8));
+    assertThat(context.spanIdStringBytes())
+      .isSameAs(context.spanIdStringBytes())
+      .isEqualTo(context.spanIdString().getBytes(UTF_8));
+    assertThat(context.parentIdStringBytes())
+      .isSameAs(context.parentIdStringBytes())
+      .isEqualTo(context.parentIdString().getBytes(UTF_8));
+  }
+
+  @Test public void parentIdStringBytes_doesNotCacheNull() {
+    TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(3L).build();
+
+    assertThat(context.parentIdStringBytes()).isNull();
+    assertThat(context.parentIdStringBytes).isNull();
+  }
+
+  @Test public void formatBytes_cache() {
+    TraceContext context = TraceContext.newBuilder()
+      .traceId(1L).parentId(2L).spanId(3L).sampled(true).build();
+
+    assertThat(context.b3SingleFormatBytes())
+      .isSameAs(context.b3SingleFormatBytes())
+      .isEqualTo(B3SingleFormat.writeB3SingleFormatAsBytes(context));
+    assertThat(context.b3SingleFormatWithoutParentIdBytes())
+      .isSameAs(context.b3SingleFormatWithoutParentIdBytes())
+      .isEqualTo(B3SingleFormat.writeB3SingleFormatWithoutParentIdAsBytes(context));
+    assertThat(context.traceParentBytes())
+      .isSameAs(context.traceParentBytes())
+      .isEqualTo(W3CFormat.writeTraceParentAsBytes(context));
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Platform;
+import brave.propagation.CurrentTraceContext.Scope;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+/** These tests only run on JRE 21+ with {@code -Psoak}, as they take several seconds. */
+public class VirtualThreadCurrentTraceContextSoakTest {
+  static final int THREAD_COUNT = 1_000_000;
+
+  CurrentTraceContext currentTraceContext = VirtualThreadCurrentTraceContext.create();
+  TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  TraceContext child = context.toBuilder().parentId(1L).spanId(2L).build();
+
+  @Before public void virtualThreadsSupported() {
+    assumeThat(Platform.get().newScopedValue()).isNotNull();
+  }
+
+  @Test public void millionVirtualThreads_seeSubmittingContext() throws Exception {
+    AtomicInteger mismatches = new AtomicInteger();
+    ExecutorService executor =
+      ((VirtualThreadCurrentTraceContext) currentTraceContext).newVirtualThreadPerTaskExecutor();
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        executor.execute(() -> {
+          if (currentTraceContext.get() != context) mismatches.incrementAndGet();
+          try (Scope childScope = currentTraceContext.newScope(child)) {
+            if (currentTraceContext.get() != child) mismatches.incrementAndGet();
+          }
+          if (currentTraceContext.get() != context) mismatches.incrementAndGet();
+        });
+      }
+    }
+    assertThat(currentTraceContext.get()).isNull();
+
+    executor.shutdown();
+    assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+    assertThat(mismatches.get()).isZero();
+  }
+
+  @Test public void millionVirtualThreads_distinctContexts() throws Exception {
+    AtomicInteger mismatches = new AtomicInteger();
+    ExecutorService executor =
+      ((VirtualThreadCurrentTraceContext) currentTraceContext).newVirtualThreadPerTaskExecutor();
+
+    for (int i = 1; i <= THREAD_COUNT; i++) {
+      TraceContext next = context.toBuilder().spanId(i).build();
+      try (Scope scope = currentTraceContext.newScope(next)) {
+        executor.execute(() -> {
+          Thread.yield(); // encourage interleaving on carrier threads
+          if (currentTraceContext.get() != next) mismatches.incrementAndGet();
+        });
+      }
+    }
+
+    executor.shutdown();
+    assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+    assertThat(mismatches.get()).isZero();
+  }
+
+  @Test public void structuredTaskScope_forkSeesParentContext() throws Exception {
+    ExecutorService executor =
+      ((VirtualThreadCurrentTraceContext) currentTraceContext).newVirtualThreadPerTaskExecutor();
+
+    Callable<TraceContext> forkedContext = currentTraceContext.wrap(() -> {
+      try (Scope scope = currentTraceContext.newScope(child)) {
+        return forkAndJoin(currentTraceContext::get);
+      }
+    });
+
+    try (Scope scope = currentTraceContext.newScope(context)) {
+      assertThat(executor.submit(forkedContext).get()).isSameAs(child);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Uses reflection as StructuredTaskScope is a preview API in JRE 21. */
+  static <T> T forkAndJoin(Callable<T> task) throws Exception {
+    Class<?> type = Class.forName("java.util.concurrent.StructuredTaskScope");
+    Object scope = type.getConstructor().newInstance();
+    try {
+      Object subtask = type.getMethod("fork", Callable.class).invoke(scope, task);
+      type.getMethod("join").invoke(scope);
+      Class<?> subtaskType = Class.forName("java.util.concurrent.StructuredTaskScope$Subtask");
+      return (T) subtaskType.getMethod("get").invoke(subtask);
+    } finally {
+      type.getMethod("close").invoke(scope);
+    }
+  }
+}
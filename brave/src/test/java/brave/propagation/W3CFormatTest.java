@@ -17,6 +17,7 @@ import org.junit.Test;
 
 import static brave.propagation.W3CFormat.parseTraceParent;
 import static brave.propagation.W3CFormat.writeTraceParent;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class W3CFormatTest {
@@ -82,4 +83,87 @@ public class W3CFormatTest {
     assertThat(context.spanIdString()).isEqualTo(spanId);
     assertThat(context.sampled()).isFalse();
   }
+
+  @Test
+  public void writeTraceParentAsBytes() {
+    TraceContext context = TraceContext.newBuilder()
+      .traceIdHigh(1).traceId(2).spanId(4).sampled(true)
+      .build();
+    assertThat(new String(W3CFormat.writeTraceParentAsBytes(context), UTF_8))
+      .isEqualTo(writeTraceParent(context));
+  }
+
+  @Test
+  public void parseTraceParent_null() {
+    assertThat(parseTraceParent(null)).isNull();
+  }
+
+  @Test
+  public void parseTraceParent_charSequence() {
+    String traceParent = "00-c68aa450c565e733c2fd05bd52771467-391a0978a417ac9b-01";
+    assertThat(parseTraceParent(new StringBuilder(traceParent)))
+      .isEqualTo(parseTraceParent(traceParent));
+  }
+
+  @Test
+  public void parseTraceParent_offsets() {
+    String traceParent = "00-" + traceId + "-" + spanId + "-01";
+
+    TraceContext context = parseTraceParent(" " + traceParent + " ", 1, traceParent.length() + 1);
+
+    assertThat(context.traceIdString()).isEqualTo(traceId);
+    assertThat(context.spanIdString()).isEqualTo(spanId);
+    assertThat(context.sampled()).isTrue();
+  }
+
+  @Test
+  public void parseTraceParent_64BitTraceId() {
+    String traceParent = "00-0000000000000000" + "0000000000000002-" + spanId + "-01";
+
+    TraceContext context = parseTraceParent(traceParent);
+
+    assertThat(context.traceIdHigh()).isZero();
+    assertThat(context.traceId()).isEqualTo(2L);
+  }
+
+  @Test
+  public void parseTraceParent_lowerTraceIdZero() {
+    String traceParent = "00-0000000000000001" + "0000000000000000-" + spanId + "-01";
+
+    TraceContext context = parseTraceParent(traceParent);
+
+    assertThat(context.traceIdHigh()).isEqualTo(1L);
+    assertThat(context.traceId()).isZero();
+  }
+
+  @Test
+  public void parseTraceParent_roundTrip() {
+    TraceContext context = TraceContext.newBuilder()
+      .traceIdHigh(0x67891233abcdef01L).traceId(0x2345678912345678L).spanId(0x463ac35c9f6413adL)
+      .sampled(true)
+      .build();
+
+    assertThat(parseTraceParent(writeTraceParent(context)))
+      .isEqualTo(context);
+  }
+
+  @Test
+  public void parseTraceParent_malformed() {
+    String zeros = "00000000000000000000000000000000";
+    assertThat(parseTraceParent("")).isNull();
+    assertThat(parseTraceParent("00-" + zeros + "-" + spanId + "-01")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-0000000000000000-01")).isNull();
+    assertThat(parseTraceParent("00-C68AA450C565E733C2FD05BD52771467-" + spanId + "-01")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-" + spanId.replace('4', 'g') + "-01"))
+      .isNull();
+    assertThat(parseTraceParent("00-00000000000000g0" + "0000000000000002-" + spanId + "-01"))
+      .isNull();
+    assertThat(parseTraceParent("00_" + traceId + "-" + spanId + "-01")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "_" + spanId + "-01")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-" + spanId + "_01")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-" + spanId + "-01-")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-" + spanId + "-1")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-" + spanId + "-11")).isNull();
+    assertThat(parseTraceParent("00-" + traceId + "-" + spanId + "-\u0101")).isNull();
+  }
 }
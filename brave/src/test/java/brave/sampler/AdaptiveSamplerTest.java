@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.sampler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static brave.sampler.AdaptiveSampler.RECONCILE_INTERVAL_NANOS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class AdaptiveSamplerTest {
+  static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  AdaptiveSampler sampler = new AdaptiveSampler(10, 0L);
+
+  @Test public void zeroIsNeverSample() {
+    assertThat(AdaptiveSampler.create(0)).isSameAs(Sampler.NEVER_SAMPLE);
+  }
+
+  @Test public void negativeIsInvalid() {
+    assertThatThrownBy(() -> AdaptiveSampler.create(-1))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void samplesAllUntilReconciled() {
+    avoidReconcilingOnRealClock();
+    for (int i = 0; i < 100; i++) {
+      assertThat(sampler.isSampled(0L)).isTrue();
+    }
+    assertThat(sampler.probability()).isEqualTo(1.0f);
+  }
+
+  @Test public void reconcilesAfterInterval_evenWithLowTraffic() {
+    long start = System.nanoTime() - 2 * RECONCILE_INTERVAL_NANOS;
+    sampler = new AdaptiveSampler(10, start);
+    sampler.threshold = 0L; // as if a burst was previously observed
+
+    sampler.isSampled(0L); // a single decision is enough to notice the interval elapsed
+
+    assertThat(sampler.nextReconcile.get() - start).isGreaterThan(2 * RECONCILE_INTERVAL_NANOS);
+    assertThat(sampler.probability()).isEqualTo(1.0f);
+  }
+
+  @Test public void readsClockOnlyWhenStripeCountdownExpires() {
+    long start = System.nanoTime() - 2 * RECONCILE_INTERVAL_NANOS;
+    sampler = new AdaptiveSampler(10, start);
+    for (int i = 0; i < AdaptiveSampler.STRIPE_COUNT; i++) {
+      sampler.stripes.set(i * AdaptiveSampler.PADDING + AdaptiveSampler.NEXT_CLOCK_READ, 2L);
+    }
+
+    sampler.isSampled(0L); // first decision on the stripe: the countdown hasn't expired
+    assertThat(sampler.nextReconcile.get()).isEqualTo(start + RECONCILE_INTERVAL_NANOS);
+
+    sampler.isSampled(0L);
+    assertThat(sampler.nextReconcile.get() - start).isGreaterThan(2 * RECONCILE_INTERVAL_NANOS);
+  }
+
+  @Test public void decisionsUntilClockRead() {
+    long interval = AdaptiveSampler.CLOCK_READ_INTERVAL_NANOS;
+    // quiet stripes read the clock on each decision
+    assertThat(AdaptiveSampler.decisionsUntilClockRead(1, interval * 10)).isEqualTo(1L);
+    assertThat(AdaptiveSampler.decisionsUntilClockRead(8, interval / 2)).isEqualTo(16L);
+    assertThat(AdaptiveSampler.decisionsUntilClockRead(1000, interval))
+      .isEqualTo(AdaptiveSampler.MAX_DECISIONS_PER_CLOCK_READ);
+    // first read, or the clock didn't move
+    assertThat(AdaptiveSampler.decisionsUntilClockRead(1, 0L)).isEqualTo(1L);
+    assertThat(AdaptiveSampler.decisionsUntilClockRead(1, -1L)).isEqualTo(1L);
+  }
+
+  @Test public void lowTraffic_samplesAll() {
+    recordDecisions(5);
+    sampler.reconcile(NANOS_PER_SECOND);
+
+    assertThat(sampler.probability()).isEqualTo(1.0f);
+  }
+
+  @Test public void highTraffic_adaptsProbabilityToTarget() {
+    recordDecisions(1000);
+    sampler.reconcile(NANOS_PER_SECOND);
+
+    assertThat(sampler.probability()).isCloseTo(0.01f, within(0.0001f));
+
+    // Traffic halves: the average moves half way
+    recordDecisions(500);
+    sampler.reconcile(2 * NANOS_PER_SECOND);
+
+    assertThat(sampler.ratePerSecond).isEqualTo(750.0);
+  }
+
+  @Test public void maybeReconcile_onlyAfterInterval() {
+    recordDecisions(1000);
+    sampler.maybeReconcile(RECONCILE_INTERVAL_NANOS - 1);
+    assertThat(sampler.probability()).isEqualTo(1.0f);
+
+    sampler.maybeReconcile(RECONCILE_INTERVAL_NANOS);
+    assertThat(sampler.probability()).isLessThan(1.0f);
+    assertThat(sampler.nextReconcile.get()).isEqualTo(2 * RECONCILE_INTERVAL_NANOS);
+  }
+
+  @Test public void probabilityIsHonored() {
+    recordDecisions(1000);
+    sampler.reconcile(NANOS_PER_SECOND); // probability is now 1%
+    avoidReconcilingOnRealClock();
+
+    int sampled = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (sampler.isSampled(0L)) sampled++;
+    }
+    assertThat(sampled).isBetween(1, 40);
+  }
+
+  @Test public void countsDecisionsAcrossThreads() throws Exception {
+    avoidReconcilingOnRealClock();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    AtomicInteger decisions = new AtomicInteger();
+    for (int i = 0; i < 4; i++) {
+      executor.execute(() -> {
+        for (int j = 0; j < 1000; j++) {
+          sampler.isSampled(0L);
+          decisions.incrementAndGet();
+        }
+      });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    long count = 0L;
+    for (int i = 0; i < AdaptiveSampler.STRIPE_COUNT; i++) {
+      count += sampler.stripes.get(i * AdaptiveSampler.PADDING);
+    }
+    assertThat(count).isEqualTo(decisions.get());
+  }
+
+  @Test public void stripeCount() {
+    assertThat(AdaptiveSampler.stripeCount(1)).isEqualTo(1);
+    assertThat(AdaptiveSampler.stripeCount(6)).isEqualTo(8);
+    assertThat(AdaptiveSampler.stripeCount(64)).isEqualTo(64);
+    assertThat(AdaptiveSampler.stripeCount(96)).isEqualTo(64);
+  }
+
+  /** The sampler is created at time zero, so defer reconciling relative to the real clock. */
+  void avoidReconcilingOnRealClock() {
+    sampler.nextReconcile.set(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+  }
+
+  /** Adds decisions without the chance of reconciling based on the real clock */
+  void recordDecisions(int count) {
+    sampler.stripes.addAndGet(0, count);
+  }
+}
@@ -42,6 +42,16 @@ public class DeclarativeSamplerTest {
       .isEqualTo(SamplingFlags.NOT_SAMPLED);
   }
 
+  @Test public void honorsAdaptiveRate() {
+    declarativeSampler = DeclarativeSampler.createWithAdaptiveRate(Traced::sampleRate);
+
+    assertThat(declarativeSampler.sample(traced(0.0f, 1, true)))
+      .isEqualTo(SamplingFlags.SAMPLED);
+
+    assertThat(declarativeSampler.sample(traced(0.0f, 0, true)))
+      .isEqualTo(SamplingFlags.NOT_SAMPLED);
+  }
+
   @Test public void honorsSampleProbability() {
     declarativeSampler = DeclarativeSampler.createWithProbability(Traced::sampleProbability);
 
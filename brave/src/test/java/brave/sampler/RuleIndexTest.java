@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.sampler;
+
+import brave.internal.PropertyMatcher;
+import brave.sampler.ParameterizedSampler.R;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static brave.sampler.Matchers.and;
+import static brave.sampler.Matchers.or;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RuleIndexTest {
+  static final class PropertyEquals extends PropertyMatcher<Map<String, String>> {
+    PropertyEquals(String name, String value, boolean prefix) {
+      super(name, value, prefix);
+    }
+
+    @Override public String property(Map<String, String> parameters) {
+      return parameters.get(propertyName());
+    }
+
+    @Override public String toString() {
+      return propertyName() + (isPrefix() ? " startsWith " : " = ") + value();
+    }
+  }
+
+  static Matcher<Map<String, String>> methodEquals(String method) {
+    return new PropertyEquals("method", method, false);
+  }
+
+  static Matcher<Map<String, String>> pathStartsWith(String pathPrefix) {
+    return new PropertyEquals("path", pathPrefix, true);
+  }
+
+  static Matcher<Map<String, String>> pathEquals(String path) {
+    return new PropertyEquals("path", path, false);
+  }
+
+  List<R<Map<String, String>>> rules = new ArrayList<>();
+
+  @Test public void create_nullWithoutPropertyMatchers() {
+    rule(p -> true);
+    rule(or(methodEquals("GET"), pathStartsWith("/foo")));
+
+    assertThat(RuleIndex.create(rules())).isNull();
+  }
+
+  @Test public void firstMatch_earlierShorterPrefixWins() {
+    rule(pathStartsWith("/foo"));
+    rule(and(methodEquals("GET"), pathStartsWith("/foo/bar")));
+
+    assertFirstMatch(request("GET", "/foo/bar/baz"), 0);
+  }
+
+  @Test public void firstMatch_laterShorterPrefix() {
+    rule(and(methodEquals("GET"), pathStartsWith("/foo/bar")));
+    rule(pathStartsWith("/foo"));
+
+    assertFirstMatch(request("GET", "/foo/bar/baz"), 0);
+    assertFirstMatch(request("POST", "/foo/bar/baz"), 1);
+    assertFirstMatch(request("GET", "/foo/baz"), 1);
+    assertFirstMatch(request("GET", "/fo"), -1);
+  }
+
+  @Test public void firstMatch_exact() {
+    rule(pathEquals("/foo"));
+    rule(pathStartsWith("/foo"));
+
+    assertFirstMatch(request("GET", "/foo"), 0);
+    assertFirstMatch(request("GET", "/foo/bar"), 1);
+  }
+
+  @Test public void firstMatch_customMatchersKeepOrder() {
+    rule(and(methodEquals("GET"), pathStartsWith("/api")));
+    rule(p -> p.get("path") != null && p.get("path").endsWith(".ico"));
+    rule(pathStartsWith("/"));
+
+    assertFirstMatch(request("GET", "/api/favicon.ico"), 0);
+    assertFirstMatch(request("POST", "/api/favicon.ico"), 1);
+    assertFirstMatch(request("POST", "/api"), 2);
+  }
+
+  @Test public void firstMatch_partiallyIndexedRuleStillVerified() {
+    rule(and(methodEquals("GET"), p -> "internal".equals(p.get("host"))));
+    rule(methodEquals("GET"));
+
+    Map<String, String> request = request("GET", "/");
+    assertFirstMatch(request, 1);
+    request.put("host", "internal");
+    assertFirstMatch(request, 0);
+  }
+
+  @Test public void firstMatch_nullProperties() {
+    rule(and(methodEquals("GET"), pathStartsWith("/foo")));
+    rule(pathStartsWith("/foo"));
+    rule(methodEquals("GET"));
+    rule(Matchers.alwaysMatch());
+
+    assertFirstMatch(request(null, "/foo"), 1);
+    assertFirstMatch(request("GET", null), 2);
+    assertFirstMatch(request(null, null), 3);
+  }
+
+  /** Rules and requests are random, so that no combination is left out by accident. */
+  @Test public void firstMatch_sameAsLinearScan() {
+    Random random = new Random(1L);
+    String[] methods = {"GET", "POST", "PUT"};
+    String[] paths = {"/", "/a", "/ab", "/abc", "/b", "/ba", "/a/b", "/a/c"};
+    for (int run = 0; run < 100; run++) {
+      rules.clear();
+      for (int i = 0, count = 1 + random.nextInt(30); i < count; i++) {
+        List<Matcher<Map<String, String>>> and = new ArrayList<>();
+        if (random.nextBoolean()) and.add(methodEquals(methods[random.nextInt(methods.length)]));
+        switch (random.nextInt(4)) {
+          case 0:
+            and.add(pathStartsWith(paths[random.nextInt(paths.length)]));
+            break;
+          case 1:
+            and.add(pathEquals(paths[random.nextInt(paths.length)]));
+            break;
+          case 2:
+            String suffix = paths[random.nextInt(paths.length)];
+            and.add(p -> p.get("path") != null && p.get("path").endsWith(suffix));
+            break;
+          default:
+        }
+        rule(and.isEmpty() ? Matchers.alwaysMatch() : and(and));
+      }
+      if (RuleIndex.create(rules()) == null) continue; // only custom matchers
+
+      for (int i = 0; i < 100; i++) {
+        String method = random.nextInt(10) == 0 ? null : methods[random.nextInt(methods.length)];
+        String path = random.nextInt(10) == 0 ? null
+          : paths[random.nextInt(paths.length)] + (random.nextBoolean() ? "" : "/c");
+        Map<String, String> request = request(method, path);
+        assertFirstMatch(request, linearScan(request));
+      }
+    }
+  }
+
+  void rule(Matcher<Map<String, String>> matcher) {
+    rules.add(new R<>(matcher, Sampler.ALWAYS_SAMPLE));
+  }
+
+  R<Map<String, String>>[] rules() {
+    return rules.toArray(new R[0]);
+  }
+
+  int linearScan(Map<String, String> request) {
+    for (int i = 0; i < rules.size(); i++) {
+      if (rules.get(i).matcher.matches(request)) return i;
+    }
+    return -1;
+  }
+
+  void assertFirstMatch(Map<String, String> request, int expected) {
+    RuleIndex<Map<String, String>> index = RuleIndex.create(rules());
+    assertThat(index.firstMatch(request))
+      .as("%s in %s", request, rules)
+      .isSameAs(expected != -1 ? index.rules[expected] : null);
+  }
+
+  static Map<String, String> request(String method, String path) {
+    Map<String, String> result = new LinkedHashMap<>();
+    if (method != null) result.put("method", method);
+    if (path != null) result.put("path", path);
+    return result;
+  }
+}
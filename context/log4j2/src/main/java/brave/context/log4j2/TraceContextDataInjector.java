@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.log4j2;
+
+import brave.Tracing;
+import brave.internal.Nullable;
+import brave.propagation.TraceContext;
+import java.util.List;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.ContextDataInjector;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.impl.ThreadContextDataInjector;
+import org.apache.logging.log4j.spi.CopyOnWrite;
+import org.apache.logging.log4j.spi.DefaultThreadContextMap;
+import org.apache.logging.log4j.spi.ReadOnlyThreadContextMap;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringMap;
+
+/**
+ * Adds "traceId", "parentId", "spanId" and "sampled" to the context data of each log event, when a
+ * span is current in {@link Tracing#current()}. This is an alternative to {@link
+ * ThreadContextScopeDecorator}: instead of updating the {@link ThreadContext} each time a scope
+ * opens or closes, the current span is only read when a log event is created.
+ *
+ * <p>To enable this, set the system property "log4j2.ContextDataInjector" to the name of this
+ * class, before Log4J is initialized. Don't also add {@link ThreadContextScopeDecorator}.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * -Dlog4j2.ContextDataInjector=brave.context.log4j2.TraceContextDataInjector
+ * }</pre>
+ *
+ * <p>Other context data, such as {@link ThreadContext} properties, is added as usual. Note that
+ * trace fields aren't in the {@link ThreadContext} itself, so they aren't visible to code that
+ * reads it directly, such as {@code ${ctx:traceId}} lookups.
+ */
+public final class TraceContextDataInjector implements ContextDataInjector {
+  final ContextDataInjector delegate;
+
+  /** Log4J instantiates this by class name. */
+  public TraceContextDataInjector() {
+    this(createDefaultInjector());
+  }
+
+  TraceContextDataInjector(ContextDataInjector delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override public StringMap injectContextData(List<Property> properties, StringMap reusable) {
+    StringMap result = delegate.injectContextData(properties, reusable);
+    TraceContext context = currentTraceContext();
+    if (context == null) return result;
+
+    if (result.isFrozen()) { // ex. the thread context map itself, when it is copy-on-write
+      reusable.clear();
+      reusable.putAll(result);
+      result = reusable;
+    }
+    result.putValue("traceId", context.traceIdString());
+    String parentId = context.parentIdString();
+    if (parentId != null) result.putValue("parentId", parentId);
+    result.putValue("spanId", context.spanIdString());
+    Boolean sampled = context.sampled();
+    if (sampled != null) result.putValue("sampled", sampled.toString());
+    return result;
+  }
+
+  @Override public ReadOnlyStringMap rawContextData() {
+    return delegate.rawContextData();
+  }
+
+  @Nullable static TraceContext currentTraceContext() {
+    Tracing tracing = Tracing.current();
+    return tracing != null ? tracing.currentTraceContext().get() : null;
+  }
+
+  /** Same choice as {@code ContextDataInjectorFactory} makes when no injector is configured. */
+  static ContextDataInjector createDefaultInjector() {
+    ReadOnlyThreadContextMap threadContextMap = ThreadContext.getThreadContextMap();
+    if (threadContextMap == null || threadContextMap instanceof DefaultThreadContextMap) {
+      return new ThreadContextDataInjector.ForDefaultThreadContextMap();
+    }
+    if (threadContextMap instanceof CopyOnWrite) {
+      return new ThreadContextDataInjector.ForCopyOnWriteThreadContextMap();
+    }
+    return new ThreadContextDataInjector.ForGarbageFreeThreadContextMap();
+  }
+}
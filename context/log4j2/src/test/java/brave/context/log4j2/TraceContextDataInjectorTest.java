@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.context.log4j2;
+
+import brave.Tracing;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import java.util.List;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.ContextDataInjector;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class TraceContextDataInjectorTest {
+  Tracing tracing = Tracing.newBuilder().build();
+  TraceContextDataInjector injector = new TraceContextDataInjector();
+  TraceContext context =
+    TraceContext.newBuilder().traceId(1L).parentId(2L).spanId(3L).sampled(true).build();
+
+  @After public void close() {
+    tracing.close();
+    ThreadContext.clearMap();
+  }
+
+  @Test public void noCurrentSpan() {
+    ThreadContext.put("userId", "bob");
+
+    assertThat(inject().toMap())
+      .containsOnly(entry("userId", "bob"));
+  }
+
+  @Test public void addsTraceFields() {
+    ThreadContext.put("userId", "bob");
+
+    try (Scope scope = tracing.currentTraceContext().newScope(context)) {
+      assertThat(inject().toMap()).containsOnly(
+        entry("userId", "bob"),
+        entry("traceId", "0000000000000001"),
+        entry("parentId", "0000000000000002"),
+        entry("spanId", "0000000000000003"),
+        entry("sampled", "true")
+      );
+    }
+
+    // the thread context wasn't modified
+    assertThat(ThreadContext.getContext())
+      .containsOnly(entry("userId", "bob"));
+  }
+
+  @Test public void omitsAbsentFields() {
+    TraceContext root = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+
+    try (Scope scope = tracing.currentTraceContext().newScope(root)) {
+      assertThat(inject().toMap()).containsOnly(
+        entry("traceId", "0000000000000001"),
+        entry("spanId", "0000000000000001")
+      );
+    }
+  }
+
+  @Test public void noTracing() {
+    tracing.close();
+
+    assertThat(inject().toMap()).isEmpty();
+  }
+
+  @Test public void copiesFrozenResult() {
+    SortedArrayStringMap frozen = new SortedArrayStringMap();
+    frozen.putValue("userId", "bob");
+    frozen.freeze();
+    injector = new TraceContextDataInjector(new ContextDataInjector() {
+      @Override public StringMap injectContextData(List<Property> properties, StringMap reusable) {
+        return frozen;
+      }
+
+      @Override public ReadOnlyStringMap rawContextData() {
+        return frozen;
+      }
+    });
+
+    try (Scope scope = tracing.currentTraceContext().newScope(context)) {
+      StringMap reusable = new SortedArrayStringMap();
+      assertThat(injector.injectContextData(null, reusable)).isSameAs(reusable);
+      assertThat(reusable.toMap())
+        .containsEntry("userId", "bob")
+        .containsEntry("traceId", "0000000000000001");
+    }
+  }
+
+  StringMap inject() {
+    return injector.injectContextData(null, new SortedArrayStringMap());
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs benchmarks of span lifecycle, propagation formats, scope churn and span handling with the GC
+ * profiler, then compares allocation per operation against a baseline. Nothing leaves the process:
+ * the benchmarks included report to no-op reporters or senders.
+ *
+ * <p>Results are written to "allocation-results.txt" and "allocation-results.json" in the output
+ * directory. The text file has the same format as the baseline: one line per benchmark with its
+ * bytes/op and ops/s, separated by tabs. To update the baseline, copy the text file over {@code
+ * src/main/resources/allocation-baseline.txt}.
+ *
+ * <p>The process exits with status 1 when bytes/op of any benchmark in the baseline increased more
+ * than the threshold. Throughput isn't compared by default, as it depends on the machine the
+ * baseline was recorded on.
+ *
+ * <p>Ex. from the project directory:
+ * <pre>{@code
+ * $ java -cp instrumentation/benchmarks/target/benchmarks.jar brave.AllocationRegressionCheck
+ * }</pre>
+ *
+ * <p>These system properties change the defaults:
+ * <pre><ul>
+ *   <li>allocation.baseline - path to a baseline file instead of the one in this jar</li>
+ *   <li>allocation.outputDir - where to write results. Defaults to "target"</li>
+ *   <li>allocation.threshold - allowed increase in bytes/op. Defaults to 0.1 (10%)</li>
+ *   <li>allocation.throughputThreshold - allowed decrease in ops/s. Defaults to off</li>
+ *   <li>allocation.include - regular expression of benchmarks to run instead of the suite</li>
+ * </ul></pre>
+ */
+public final class AllocationRegressionCheck {
+  static final String SUITE = "brave\\.("
+    + "TracerBenchmarks" // span lifecycle
+    + "|propagation\\.(B3|B3Single|W3C|ExtraField)PropagationBenchmarks" // extract and inject
+    + "|grpc\\.GrpcPropagationBenchmarks"
+    + "|propagation\\.CurrentTraceContextBenchmarks" // scope churn
+    + "|handler\\.MutableSpanBenchmarks" // span handling
+    + "|internal\\.handler\\.(MutableSpanConverter|NoopAwareFinishedSpanHandler)Benchmarks"
+    + ")\\..*";
+
+  /**
+   * Allocation measured by the GC profiler varies by a few bytes between runs, so increases below
+   * this are ignored regardless of the threshold. This matters for benchmarks that don't allocate.
+   */
+  static final double NOISE_BYTES = 16;
+
+  public static void main(String[] args) throws RunnerException, IOException {
+    File outputDir = new File(System.getProperty("allocation.outputDir", "target"));
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("couldn't create " + outputDir);
+    }
+    double threshold = Double.parseDouble(System.getProperty("allocation.threshold", "0.1"));
+    double throughputThreshold =
+      Double.parseDouble(System.getProperty("allocation.throughputThreshold", "-1"));
+
+    Options opt = new OptionsBuilder()
+      .include(System.getProperty("allocation.include", SUITE))
+      .mode(Mode.Throughput)
+      .timeUnit(TimeUnit.SECONDS)
+      .threads(1) // allocation per operation is easier to compare without contention
+      .forks(1)
+      .warmupIterations(5)
+      .warmupTime(TimeValue.seconds(1))
+      .measurementIterations(3)
+      .measurementTime(TimeValue.seconds(1))
+      .addProfiler(GCProfiler.class)
+      .resultFormat(ResultFormatType.JSON)
+      .result(new File(outputDir, "allocation-results.json").getPath())
+      .build();
+
+    Map<String, double[]> results = toBytesAndOpsPerSecond(new Runner(opt).run());
+    write(results, new File(outputDir, "allocation-results.txt"));
+
+    Map<String, double[]> baseline = readBaseline(System.getProperty("allocation.baseline"));
+    int regressions = 0;
+    for (Map.Entry<String, double[]> entry : results.entrySet()) {
+      double[] expected = baseline.get(entry.getKey()), actual = entry.getValue();
+      if (expected == null) {
+        System.out.println("NEW " + entry.getKey() + ": " + format(actual));
+        continue;
+      }
+      boolean allocates = actual[0] - expected[0] > NOISE_BYTES
+        && actual[0] > expected[0] * (1 + threshold);
+      boolean slower = throughputThreshold >= 0
+        && actual[1] < expected[1] * (1 - throughputThreshold);
+      if (allocates || slower) {
+        regressions++;
+        System.out.println("REGRESSED " + entry.getKey() + ": "
+          + format(actual) + " vs baseline " + format(expected));
+      }
+    }
+    if (regressions > 0) {
+      System.out.println(regressions + " benchmarks regressed");
+      System.exit(1);
+    }
+    System.out.println("No regressions in " + results.size() + " benchmarks");
+  }
+
+  /** Keys are the benchmark name followed by any parameters, ex. "brave.FooBenchmarks.bar:x=1" */
+  static Map<String, double[]> toBytesAndOpsPerSecond(Collection<RunResult> runResults) {
+    Map<String, double[]> result = new LinkedHashMap<>();
+    for (RunResult runResult : runResults) {
+      BenchmarkParams params = runResult.getParams();
+      StringBuilder key = new StringBuilder(params.getBenchmark());
+      for (String param : params.getParamsKeys()) {
+        key.append(':').append(param).append('=').append(params.getParam(param));
+      }
+      double bytesPerOp = Double.NaN;
+      for (Map.Entry<String, Result> secondary : runResult.getSecondaryResults().entrySet()) {
+        if (secondary.getKey().endsWith("gc.alloc.rate.norm")) {
+          bytesPerOp = secondary.getValue().getScore();
+        }
+      }
+      double opsPerSecond = runResult.getPrimaryResult().getScore();
+      result.put(key.toString(), new double[] {bytesPerOp, opsPerSecond});
+    }
+    return result;
+  }
+
+  static void write(Map<String, double[]> results, File file) throws IOException {
+    try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+      writer.println("# benchmark\tbytes/op\tops/s");
+      for (Map.Entry<String, double[]> entry : results.entrySet()) {
+        double[] value = entry.getValue();
+        writer.println(String.format(Locale.ROOT, "%s\t%.1f\t%.0f", entry.getKey(), value[0],
+          value[1]));
+      }
+    }
+  }
+
+  static Map<String, double[]> readBaseline(String path) throws IOException {
+    InputStream stream = path != null
+      ? new FileInputStream(path)
+      : AllocationRegressionCheck.class.getResourceAsStream("/allocation-baseline.txt");
+    if (stream == null) throw new IOException("allocation-baseline.txt not in classpath");
+    Map<String, double[]> result = new LinkedHashMap<>();
+    try (BufferedReader reader =
+           new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) continue;
+        String[] fields = line.split("\t");
+        if (fields.length != 3) throw new IOException("malformed baseline line: " + line);
+        result.put(fields[0],
+          new double[] {Double.parseDouble(fields[1]), Double.parseDouble(fields[2])});
+      }
+    }
+    return result;
+  }
+
+  static String format(double[] bytesAndOpsPerSecond) {
+    return String.format(Locale.ROOT, "%.1f bytes/op, %.0f ops/s", bytesAndOpsPerSecond[0],
+      bytesAndOpsPerSecond[1]);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.http;
+
+import brave.sampler.Matcher;
+import brave.sampler.Sampler;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static brave.http.HttpRequestMatchers.methodEquals;
+import static brave.http.HttpRequestMatchers.pathStartsWith;
+import static brave.sampler.Matchers.and;
+
+/**
+ * Compares sampling with one rule per API route, when rules use built-in matchers (indexed) vs
+ * custom ones (evaluated in order). The request matches the last route, which is the worst case
+ * for evaluating rules in order.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class HttpRuleSamplerBenchmarks {
+  @Param({"10", "500"}) int routeCount;
+
+  HttpRuleSampler indexed, linear;
+  HttpServerRequest request;
+
+  @Setup public void setup() {
+    HttpRuleSampler.Builder indexedBuilder = HttpRuleSampler.newBuilder();
+    HttpRuleSampler.Builder linearBuilder = HttpRuleSampler.newBuilder();
+    for (int i = 0; i < routeCount; i++) {
+      String method = i % 2 == 0 ? "GET" : "POST";
+      Matcher<HttpRequest> matcher = and(methodEquals(method), pathStartsWith("/api/v1/" + i + "/"));
+      indexedBuilder.putRule(matcher, Sampler.ALWAYS_SAMPLE);
+      linearBuilder.putRule(matcher::matches, Sampler.ALWAYS_SAMPLE); // hides the built-in type
+    }
+    indexed = indexedBuilder.build();
+    linear = linearBuilder.build();
+    int last = routeCount - 1;
+    request = new FakeRequest(last % 2 == 0 ? "GET" : "POST", "/api/v1/" + last + "/items");
+  }
+
+  @Benchmark public Boolean trySample_indexed() {
+    return indexed.trySample(request);
+  }
+
+  @Benchmark public Boolean trySample_linear() {
+    return linear.trySample(request);
+  }
+
+  static final class FakeRequest extends HttpServerRequest {
+    final String method, path;
+
+    FakeRequest(String method, String path) {
+      this.method = method;
+      this.path = path;
+    }
+
+    @Override public Object unwrap() {
+      return this;
+    }
+
+    @Override public String method() {
+      return method;
+    }
+
+    @Override public String path() {
+      return path;
+    }
+
+    @Override public String url() {
+      return null;
+    }
+
+    @Override public String header(String name) {
+      return null;
+    }
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + HttpRuleSamplerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -15,6 +15,8 @@ package brave.internal.handler;
 
 import brave.ErrorParser;
 import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
@@ -31,6 +33,8 @@ import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesEncoder;
 
 import static brave.handler.MutableSpanBenchmarks.newBigClientMutableSpan;
 import static brave.handler.MutableSpanBenchmarks.newServerMutableSpan;
@@ -47,6 +51,12 @@ public class MutableSpanConverterBenchmarks {
     new MutableSpanConverter(new ErrorParser(), "unknown", "127.0.0.1", 0);
   final MutableSpan serverMutableSpan = newServerMutableSpan();
   final MutableSpan bigClientMutableSpan = newBigClientMutableSpan();
+  final TraceContext context = TraceContext.newBuilder()
+    .traceIdHigh(333L).traceId(444L).parentId(555L).spanId(666L).sampled(true).build();
+  final MutableSpanBytesEncoder jsonEncoder = MutableSpanBytesEncoder.create(
+    Encoding.JSON, new ErrorParser(), "unknown", "127.0.0.1", 0);
+  final MutableSpanBytesEncoder proto3Encoder = MutableSpanBytesEncoder.create(
+    Encoding.PROTO3, new ErrorParser(), "unknown", "127.0.0.1", 0);
 
   /**
    * Tests converting into a builder type. This isolates the performance of walking over the mutable
@@ -64,6 +74,48 @@ public class MutableSpanConverterBenchmarks {
     return builder;
   }
 
+  /** Compare with {@link #encodeServerSpan_json()}, which skips the intermediate span. */
+  @Benchmark public byte[] convertAndEncodeServerSpan_json() {
+    return SpanBytesEncoder.JSON_V2.encode(convert(serverMutableSpan));
+  }
+
+  @Benchmark public byte[] convertAndEncodeServerSpan_proto3() {
+    return SpanBytesEncoder.PROTO3.encode(convert(serverMutableSpan));
+  }
+
+  @Benchmark public byte[] convertAndEncodeBigClientSpan_json() {
+    return SpanBytesEncoder.JSON_V2.encode(convert(bigClientMutableSpan));
+  }
+
+  @Benchmark public byte[] convertAndEncodeBigClientSpan_proto3() {
+    return SpanBytesEncoder.PROTO3.encode(convert(bigClientMutableSpan));
+  }
+
+  @Benchmark public ByteBuffer encodeServerSpan_json() {
+    return jsonEncoder.encode(context, serverMutableSpan);
+  }
+
+  @Benchmark public ByteBuffer encodeServerSpan_proto3() {
+    return proto3Encoder.encode(context, serverMutableSpan);
+  }
+
+  @Benchmark public ByteBuffer encodeBigClientSpan_json() {
+    return jsonEncoder.encode(context, bigClientMutableSpan);
+  }
+
+  @Benchmark public ByteBuffer encodeBigClientSpan_proto3() {
+    return proto3Encoder.encode(context, bigClientMutableSpan);
+  }
+
+  Span convert(MutableSpan span) {
+    Span.Builder builder = Span.newBuilder()
+      .traceId(context.traceIdString())
+      .parentId(context.parentIdString())
+      .id(context.spanIdString());
+    converter.convert(span, builder);
+    return builder.build();
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
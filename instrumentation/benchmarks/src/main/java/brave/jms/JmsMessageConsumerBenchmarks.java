@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.jms;
+
+import brave.Tracing;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.reporter.Reporter;
+
+/**
+ * Sends and receives a message with many properties through an embedded broker. The difference
+ * between the traced and base case is mostly the cost of removing propagation properties.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class JmsMessageConsumerBenchmarks {
+  BrokerService broker;
+  Connection connection;
+  Session session;
+  TextMessage message;
+  MessageProducer producer, tracingProducer, retainingProducer;
+  MessageConsumer consumer, tracingConsumer, retainingConsumer;
+
+  @Setup(Level.Trial) public void init() throws Exception {
+    broker = new BrokerService();
+    broker.setBrokerName(getClass().getSimpleName());
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.start();
+    broker.waitUntilStarted();
+
+    Tracing tracing = Tracing.newBuilder().spanReporter(Reporter.NOOP).build();
+    connection = new ActiveMQConnectionFactory("vm://" + broker.getBrokerName()).createConnection();
+    connection.start();
+    session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+    message = session.createTextMessage("value");
+    for (int i = 0; i < 30; i++) {
+      message.setStringProperty("property" + i, "value" + i);
+    }
+    message.setStringProperty("b3", "463ac35c9f6413ad-463ac35c9f6413ad-1");
+
+    // Each consumer has its own queue, so that the broker doesn't dispatch to an idle one
+    Queue queue = session.createQueue("baseCase");
+    producer = session.createProducer(queue);
+    consumer = session.createConsumer(queue);
+
+    queue = session.createQueue("traced");
+    tracingProducer = session.createProducer(queue);
+    tracingConsumer =
+      TracingMessageConsumer.create(session.createConsumer(queue), JmsTracing.create(tracing));
+
+    queue = session.createQueue("retained");
+    retainingProducer = session.createProducer(queue);
+    retainingConsumer = TracingMessageConsumer.create(session.createConsumer(queue),
+      JmsTracing.newBuilder(tracing).clearPropagationProperties(false).build());
+  }
+
+  @TearDown(Level.Trial) public void close() throws Exception {
+    connection.close();
+    broker.stop();
+    Tracing.current().close();
+  }
+
+  @Benchmark public Message receive_baseCase() throws JMSException {
+    producer.send(message);
+    return consumer.receive();
+  }
+
+  @Benchmark public Message receive_traced() throws JMSException {
+    tracingProducer.send(message);
+    return tracingConsumer.receive();
+  }
+
+  @Benchmark public Message receive_traced_retainPropagationProperties() throws JMSException {
+    retainingProducer.send(message);
+    return retainingConsumer.receive();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + JmsMessageConsumerBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
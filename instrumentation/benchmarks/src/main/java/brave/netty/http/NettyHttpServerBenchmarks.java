@@ -33,9 +33,19 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.util.AttributeKey;
 import io.undertow.servlet.api.DeploymentInfo;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
@@ -51,29 +61,35 @@ public class NettyHttpServerBenchmarks extends HttpServerBenchmarks {
   @Override protected void init(DeploymentInfo servletBuilder) {
   }
 
+  static final NettyHttpTracing UNSAMPLED = NettyHttpTracing.create(
+    Tracing.newBuilder().sampler(Sampler.NEVER_SAMPLE).spanReporter(Reporter.NOOP).build()
+  );
+  static final NettyHttpTracing TRACED = NettyHttpTracing.create(
+    Tracing.newBuilder()
+      .propagationFactory(ExtraFieldPropagation.newFactoryBuilder(B3Propagation.FACTORY)
+        .addField("x-vcap-request-id")
+        .addPrefixedFields("baggage-", Arrays.asList("country-code", "user-id"))
+        .build()
+      )
+      .spanReporter(Reporter.NOOP)
+      .build()
+  );
+  static final NettyHttpTracing TRACED_EXTRA = NettyHttpTracing.create(
+    Tracing.newBuilder().spanReporter(Reporter.NOOP).build()
+  );
+  static final NettyHttpTracing TRACED_128 = NettyHttpTracing.create(
+    Tracing.newBuilder().traceId128Bit(true).spanReporter(Reporter.NOOP).build()
+  );
+
   // NOTE: if the tracing server handler starts to override more methods, this needs to be updated
   static class TracingDispatchHandler extends ChannelDuplexHandler {
     static final AttributeKey<String> URI_ATTRIBUTE = AttributeKey.valueOf("uri");
 
-    final ChannelDuplexHandler unsampled = NettyHttpTracing.create(
-      Tracing.newBuilder().sampler(Sampler.NEVER_SAMPLE).spanReporter(Reporter.NOOP).build()
-    ).serverHandler();
-    final ChannelDuplexHandler traced = NettyHttpTracing.create(
-      Tracing.newBuilder()
-        .propagationFactory(ExtraFieldPropagation.newFactoryBuilder(B3Propagation.FACTORY)
-          .addField("x-vcap-request-id")
-          .addPrefixedFields("baggage-", Arrays.asList("country-code", "user-id"))
-          .build()
-        )
-        .spanReporter(Reporter.NOOP)
-        .build()
-    ).serverHandler();
-    final ChannelDuplexHandler tracedExtra = NettyHttpTracing.create(
-      Tracing.newBuilder().spanReporter(Reporter.NOOP).build()
-    ).serverHandler();
-    final ChannelDuplexHandler traced128 = NettyHttpTracing.create(
-      Tracing.newBuilder().traceId128Bit(true).spanReporter(Reporter.NOOP).build()
-    ).serverHandler();
+    // Server handlers track requests in flight, so are created per channel
+    final ChannelDuplexHandler unsampled = UNSAMPLED.serverHandler();
+    final ChannelDuplexHandler traced = TRACED.serverHandler();
+    final ChannelDuplexHandler tracedExtra = TRACED_EXTRA.serverHandler();
+    final ChannelDuplexHandler traced128 = TRACED_128.serverHandler();
 
     @Override public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
       if (!(msg instanceof HttpRequest)) {
@@ -110,6 +126,8 @@ public class NettyHttpServerBenchmarks extends HttpServerBenchmarks {
         unsampled.write(ctx, msg, prm);
       } else if ("/traced".equals(uri)) {
         traced.write(ctx, msg, prm);
+      } else if ("/tracedextra".equals(uri)) {
+        tracedExtra.write(ctx, msg, prm);
       } else if ("/traced128".equals(uri)) {
         traced128.write(ctx, msg, prm);
       } else {
@@ -118,6 +136,67 @@ public class NettyHttpServerBenchmarks extends HttpServerBenchmarks {
     }
   }
 
+  /**
+   * Sends {@link #PIPELINE_DEPTH} requests on one connection before reading any response. The
+   * client above cannot pipeline, so this uses a socket directly.
+   */
+  @State(Scope.Thread)
+  public static class PipelinedClient {
+    static final int PIPELINE_DEPTH = 16;
+    static final byte[] RESPONSE_END = HelloWorldHandler.HELLO_WORLD;
+
+    Socket socket;
+    final byte[] readBuffer = new byte[8192];
+
+    @Setup(Level.Trial) public void connect(NettyHttpServerBenchmarks server) throws Exception {
+      URI baseUrl = URI.create(server.baseUrl());
+      socket = new Socket(baseUrl.getHost(), baseUrl.getPort());
+      socket.setTcpNoDelay(true);
+    }
+
+    @TearDown(Level.Trial) public void disconnect() throws IOException {
+      if (socket != null) socket.close();
+    }
+
+    void getPipelined(String path) throws IOException {
+      byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n")
+        .getBytes(StandardCharsets.US_ASCII);
+      byte[] requests = new byte[request.length * PIPELINE_DEPTH];
+      for (int i = 0; i < PIPELINE_DEPTH; i++) {
+        System.arraycopy(request, 0, requests, i * request.length, request.length);
+      }
+      socket.getOutputStream().write(requests);
+
+      // Each response ends with the same body, so count those to know when all arrived
+      InputStream in = socket.getInputStream();
+      int responses = 0, matched = 0;
+      while (responses < PIPELINE_DEPTH) {
+        int read = in.read(readBuffer);
+        if (read == -1) throw new EOFException("read " + responses + " responses");
+        for (int i = 0; i < read; i++) {
+          matched = readBuffer[i] == RESPONSE_END[matched] ? matched + 1
+            : readBuffer[i] == RESPONSE_END[0] ? 1 : 0;
+          if (matched == RESPONSE_END.length) {
+            responses++;
+            matched = 0;
+          }
+        }
+      }
+    }
+  }
+
+  @Benchmark public void server_get_pipelined(PipelinedClient client) throws Exception {
+    client.getPipelined("/nottraced");
+  }
+
+  @Benchmark public void unsampledServer_get_pipelined(PipelinedClient client) throws Exception {
+    client.getPipelined("/unsampled");
+  }
+
+  @Benchmark public void tracedServer_get_pipelined(PipelinedClient client) throws Exception {
+    client.getPipelined("/traced");
+  }
+
   @Override protected int initServer() throws InterruptedException {
     bossGroup = new NioEventLoopGroup(1);
     workerGroup = new NioEventLoopGroup();
@@ -69,6 +69,20 @@ public class B3SinglePropagationBenchmarks {
 
   static final Map<String, String> nothingIncoming = Collections.emptyMap();
 
+  static final String b3Single = B3SingleFormat.writeB3SingleFormat(context);
+
+  @Benchmark public String writeB3SingleFormat() {
+    return B3SingleFormat.writeB3SingleFormat(context);
+  }
+
+  @Benchmark public byte[] writeB3SingleFormatAsBytes() {
+    return B3SingleFormat.writeB3SingleFormatAsBytes(context);
+  }
+
+  @Benchmark public TraceContextOrSamplingFlags parseB3SingleFormat() {
+    return B3SingleFormat.parseB3SingleFormat(b3Single);
+  }
+
   @Benchmark public void inject() {
     Map<String, String> carrier = new LinkedHashMap<>();
     b3Injector.inject(context, carrier);
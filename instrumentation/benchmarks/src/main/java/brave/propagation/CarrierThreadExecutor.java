@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Used via the "jmh.executor.class" property to run benchmarks on threads which implement {@link
+ * EventLoopCurrentTraceContext.Carrier}, like an event loop would.
+ */
+public final class CarrierThreadExecutor extends ThreadPoolExecutor {
+  public CarrierThreadExecutor(int maxThreads, String prefix) {
+    super(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+      new CarrierThreadFactory(prefix));
+  }
+
+  static final class CarrierThreadFactory implements ThreadFactory {
+    final String prefix;
+    final AtomicInteger count = new AtomicInteger();
+
+    CarrierThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override public Thread newThread(Runnable runnable) {
+      CarrierThread result = new CarrierThread(runnable, prefix + "-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+
+  static final class CarrierThread extends Thread implements EventLoopCurrentTraceContext.Carrier {
+    final EventLoopCurrentTraceContext.Slot slot = new EventLoopCurrentTraceContext.Slot();
+
+    CarrierThread(Runnable runnable, String name) {
+      super(runnable, name);
+    }
+
+    @Override public EventLoopCurrentTraceContext.Slot traceContextSlot() {
+      return slot;
+    }
+  }
+}
@@ -41,6 +41,11 @@ public class CurrentTraceContextBenchmarks {
   static final CurrentTraceContext log4j2 = ThreadLocalCurrentTraceContext.newBuilder()
     .addScopeDecorator(ThreadContextScopeDecorator.create())
     .build();
+  static final CurrentTraceContext stack = StackCurrentTraceContext.create();
+  static final CurrentTraceContext eventLoop = EventLoopCurrentTraceContext.create();
+  static final CurrentTraceContext eventLoopLog4j2 = EventLoopCurrentTraceContext.newBuilder()
+    .addScopeDecorator(ThreadContextScopeDecorator.create())
+    .build();
 
   static final TraceContext context = TraceContext.newBuilder()
     .traceIdHigh(HexCodec.lowerHexToUnsignedLong("67891233abcdef012345678912345678"))
@@ -119,6 +124,81 @@ public class CurrentTraceContextBenchmarks {
     }
   }
 
+  @Benchmark public void newScope_stack() {
+    try (CurrentTraceContext.Scope ws = stack.newScope(contextWithParent)) {
+    }
+  }
+
+  @Benchmark public void newScope_nested_default() {
+    try (CurrentTraceContext.Scope ws = base.newScope(context)) {
+      try (CurrentTraceContext.Scope ws2 = base.newScope(contextWithParent)) {
+        try (CurrentTraceContext.Scope ws3 = base.newScope(null)) {
+        }
+      }
+    }
+  }
+
+  @Benchmark public void newScope_nested_stack() {
+    try (CurrentTraceContext.Scope ws = stack.newScope(context)) {
+      try (CurrentTraceContext.Scope ws2 = stack.newScope(contextWithParent)) {
+        try (CurrentTraceContext.Scope ws3 = stack.newScope(null)) {
+        }
+      }
+    }
+  }
+
+  @Benchmark public void maybeScope_stack() {
+    try (CurrentTraceContext.Scope ws = stack.maybeScope(contextWithParent)) {
+    }
+  }
+
+  // Event loop benchmarks fork with an executor whose threads carry the trace context in a field
+  @Benchmark @Fork(value = 3, jvmArgsAppend = {
+    "-Djmh.executor=CUSTOM", "-Djmh.executor.class=brave.propagation.CarrierThreadExecutor"
+  })
+  public void newScope_eventLoop() {
+    try (CurrentTraceContext.Scope ws = eventLoop.newScope(contextWithParent)) {
+    }
+  }
+
+  @Benchmark @Fork(value = 3, jvmArgsAppend = {
+    "-Djmh.executor=CUSTOM", "-Djmh.executor.class=brave.propagation.CarrierThreadExecutor"
+  })
+  public void newScope_log4j2_eventLoop() {
+    try (CurrentTraceContext.Scope ws = eventLoopLog4j2.newScope(contextWithParent)) {
+    }
+  }
+
+  @Benchmark @Fork(value = 3, jvmArgsAppend = {
+    "-Djmh.executor=CUSTOM", "-Djmh.executor.class=brave.propagation.CarrierThreadExecutor"
+  })
+  public void newScope_clear_eventLoop() {
+    try (CurrentTraceContext.Scope ws = eventLoop.newScope(null)) {
+    }
+  }
+
+  @Benchmark @Fork(value = 3, jvmArgsAppend = {
+    "-Djmh.executor=CUSTOM", "-Djmh.executor.class=brave.propagation.CarrierThreadExecutor"
+  })
+  public void maybeScope_eventLoop() {
+    try (CurrentTraceContext.Scope ws = eventLoop.maybeScope(contextWithParent)) {
+    }
+  }
+
+  @Benchmark @Fork(value = 3, jvmArgsAppend = {
+    "-Djmh.executor=CUSTOM", "-Djmh.executor.class=brave.propagation.CarrierThreadExecutor"
+  })
+  public void maybeScope_redundant_eventLoop() {
+    try (CurrentTraceContext.Scope ws = eventLoop.maybeScope(context)) {
+    }
+  }
+
+  /** Runs on a normal thread, so uses a thread local like the default implementation. */
+  @Benchmark public void newScope_eventLoop_fallback() {
+    try (CurrentTraceContext.Scope ws = eventLoop.newScope(contextWithParent)) {
+    }
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws Exception {
     Options opt = new OptionsBuilder()
@@ -16,6 +16,7 @@ package brave.propagation;
 import brave.internal.HexCodec;
 import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -69,6 +70,32 @@ public class ExtraFieldPropagationBenchmarks {
 
   static final Map<String, String> nothingIncoming = Collections.emptyMap();
 
+  static final ExtraFieldPropagation.Factory factory15 =
+    ExtraFieldPropagation.newFactory(B3Propagation.FACTORY, "x-vcap-request-id", "x-amzn-trace-id",
+      "country-code", "user-id", "session-id", "tenant-id", "region", "zone", "device-type",
+      "app-version", "experiment", "locale", "channel", "partner-id", "request-priority");
+  static final TraceContext context15 = factory15.decorate(context);
+  static final ExtraFieldPropagation.Field lastField15 = factory15.field("request-priority");
+
+  static final Propagation<String> extra15 = factory15.create(Propagation.KeyFactory.STRING);
+  static final Injector<Map<String, byte[]>> bytesInjector15 =
+    BytesPropagation.injector(extra15, Map::put);
+  static final Extractor<Map<String, byte[]>> bytesExtractor15 =
+    BytesPropagation.extractor(extra15, Map::get);
+  static final Map<String, byte[]> incomingBytes15 = new LinkedHashMap<>();
+
+  static {
+    ExtraFieldPropagation.set(context15, "request-priority", "high");
+
+    // about 2KiB of baggage which is passed through, but not read
+    char[] value = new char[128];
+    Arrays.fill(value, 'a');
+    for (String field : factory15.fieldNames) {
+      ExtraFieldPropagation.set(context15, field, new String(value));
+    }
+    bytesInjector15.inject(context15, incomingBytes15);
+  }
+
   @Benchmark public void inject() {
     Map<String, String> carrier = new LinkedHashMap<>();
     extraInjector.inject(context, carrier);
@@ -103,6 +130,33 @@ public class ExtraFieldPropagationBenchmarks {
     return redactedExtractor.extract(incomingNoExtra);
   }
 
+  @Benchmark public String get_lastOf15Fields() {
+    return ExtraFieldPropagation.get(context15, "request-priority");
+  }
+
+  @Benchmark public String get_lastOf15Fields_mixedCase() {
+    return ExtraFieldPropagation.get(context15, "Request-Priority");
+  }
+
+  @Benchmark public String get_lastOf15Fields_field() {
+    return lastField15.getValue(context15);
+  }
+
+  @Benchmark public void set_lastOf15Fields_field() {
+    lastField15.setValue(context15, "high");
+  }
+
+  @Benchmark public TraceContextOrSamplingFlags extract_bytes_15Fields() {
+    return bytesExtractor15.extract(incomingBytes15);
+  }
+
+  @Benchmark public Map<String, byte[]> passThrough_bytes_15Fields() {
+    TraceContext context = factory15.decorate(bytesExtractor15.extract(incomingBytes15).context());
+    Map<String, byte[]> outgoing = new LinkedHashMap<>();
+    bytesInjector15.inject(context, outgoing);
+    return outgoing;
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.propagation;
+
+import brave.internal.Platform;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures submitting tasks which open a nested scope to a virtual thread per task executor. This
+ * requires JRE 21+.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class VirtualThreadBenchmarks {
+  static final int TASK_COUNT = 1000;
+
+  static final CurrentTraceContext threadLocal = ThreadLocalCurrentTraceContext.create();
+  static final CurrentTraceContext inheritable = CurrentTraceContext.Default.inheritable();
+  static final CurrentTraceContext virtualThread = VirtualThreadCurrentTraceContext.create();
+
+  static final TraceContext context = TraceContext.newBuilder().traceId(1L).spanId(1L).build();
+  static final TraceContext child = context.toBuilder().parentId(1L).spanId(2L).build();
+
+  ExecutorService unwrapped, threadLocalExecutor, inheritableExecutor, virtualThreadExecutor;
+
+  @Setup public void setup() {
+    unwrapped = Platform.get().newVirtualThreadPerTaskExecutor();
+    if (unwrapped == null) throw new IllegalStateException("virtual threads require JRE 21+");
+    threadLocalExecutor = threadLocal.executorService(unwrapped);
+    inheritableExecutor = inheritable.executorService(unwrapped);
+    virtualThreadExecutor = virtualThread.executorService(unwrapped);
+  }
+
+  @TearDown public void shutdown() {
+    unwrapped.shutdown();
+  }
+
+  @Benchmark public void submit_unwrapped() throws InterruptedException {
+    submit(threadLocal, unwrapped);
+  }
+
+  @Benchmark public void submit_threadLocal() throws InterruptedException {
+    submit(threadLocal, threadLocalExecutor);
+  }
+
+  @Benchmark public void submit_inheritable() throws InterruptedException {
+    submit(inheritable, inheritableExecutor);
+  }
+
+  @Benchmark public void submit_virtualThread() throws InterruptedException {
+    submit(virtualThread, virtualThreadExecutor);
+  }
+
+  static void submit(CurrentTraceContext current, ExecutorService executor)
+    throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(TASK_COUNT);
+    Runnable task = () -> {
+      try (CurrentTraceContext.Scope scope = current.newScope(child)) {
+        latch.countDown();
+      }
+    };
+    try (CurrentTraceContext.Scope scope = current.newScope(context)) {
+      for (int i = 0; i < TASK_COUNT; i++) executor.execute(task);
+    }
+    latch.await();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws Exception {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + VirtualThreadBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
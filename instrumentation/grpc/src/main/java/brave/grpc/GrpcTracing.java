@@ -42,7 +42,7 @@ public final class GrpcTracing {
     final RpcTracing rpcTracing;
     GrpcClientParser clientParser;
     GrpcServerParser serverParser;
-    boolean grpcPropagationFormatEnabled = false;
+    boolean grpcPropagationFormatEnabled = false, streamingModeEnabled = false;
 
     Builder(RpcTracing rpcTracing) {
       if (rpcTracing == null) throw new NullPointerException("rpcTracing == null");
@@ -90,6 +90,27 @@ public final class GrpcTracing {
       return this;
     }
 
+    /**
+     * When true, spans summarize the messages of a call, instead of only what the parser adds.
+     * This is intended for long-lived streams, where a call can carry millions of messages. Default
+     * is false.
+     *
+     * <p>When the call closes, the following tags are added, with a "grpc.sent." or
+     * "grpc.received." prefix:
+     * <ul>
+     *   <li>"messages": count of messages</li>
+     *   <li>"bytes": total serialized size, when all messages are protobuf messages</li>
+     *   <li>"interval_us.p50", "interval_us.p99" and "interval_us.max": time between messages in
+     *   microseconds, when there were at least two. Percentiles are approximate.</li>
+     * </ul>
+     *
+     * <p>This adds no work per message on unsampled calls.
+     */
+    public Builder streamingModeEnabled(boolean streamingModeEnabled) {
+      this.streamingModeEnabled = streamingModeEnabled;
+      return this;
+    }
+
     public GrpcTracing build() {
       return new GrpcTracing(this);
     }
@@ -99,11 +120,12 @@ public final class GrpcTracing {
   final Propagation<Metadata.Key<String>> propagation;
   final GrpcClientParser clientParser;
   final GrpcServerParser serverParser;
-  final boolean grpcPropagationFormatEnabled;
+  final boolean grpcPropagationFormatEnabled, streamingModeEnabled;
 
   GrpcTracing(Builder builder) { // intentionally hidden constructor
     rpcTracing = builder.rpcTracing;
     grpcPropagationFormatEnabled = builder.grpcPropagationFormatEnabled;
+    streamingModeEnabled = builder.streamingModeEnabled;
     Propagation.Factory propagationFactory = rpcTracing.tracing().propagationFactory();
     if (grpcPropagationFormatEnabled) {
       propagationFactory = GrpcPropagation.newFactory(propagationFactory);
@@ -116,7 +138,9 @@ public final class GrpcTracing {
   public Builder toBuilder() {
     return new Builder(rpcTracing)
       .clientParser(clientParser)
-      .serverParser(serverParser);
+      .serverParser(serverParser)
+      .grpcPropagationFormatEnabled(grpcPropagationFormatEnabled)
+      .streamingModeEnabled(streamingModeEnabled);
   }
 
   /** This interceptor traces outbound calls */
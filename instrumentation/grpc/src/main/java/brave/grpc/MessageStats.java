@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.grpc;
+
+import brave.SpanCustomizer;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Summarizes the messages sent or received on a call, so that long-lived streams are represented
+ * by a few tags added when the call closes.
+ *
+ * <p>This has a single writer. gRPC doesn't call a {@link io.grpc.ServerCall} or {@link
+ * io.grpc.ServerCall.Listener} (or their client counterparts) concurrently, so each direction of a
+ * call has its own instance. However, the call closes on a different thread than the one recording
+ * messages in the other direction. Hence, {@link #record} publishes by writing {@link #count} last,
+ * and {@link #tag} reads it first.
+ */
+final class MessageStats {
+  static final boolean PROTOBUF = hasProtobuf();
+  static final int BUCKET_COUNT = 32; // enough for 2^31 microseconds, or over half an hour
+
+  final String prefix;
+  volatile long count;
+  long bytes, lastNanos, maxIntervalNanos;
+  boolean bytesUnknown;
+  // index is the count of bits needed to represent the interval in microseconds
+  final long[] intervalBuckets = new long[BUCKET_COUNT];
+
+  /** @param prefix such as "grpc.sent." */
+  MessageStats(String prefix) {
+    this.prefix = prefix;
+  }
+
+  void record(Object message, long nanoTime) {
+    long count = this.count;
+    if (count > 0) {
+      long intervalNanos = nanoTime - lastNanos;
+      if (intervalNanos > maxIntervalNanos) maxIntervalNanos = intervalNanos;
+      int bucket = 64 - Long.numberOfLeadingZeros(intervalNanos / 1000);
+      intervalBuckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+    }
+    lastNanos = nanoTime;
+
+    int size = PROTOBUF ? protobufSize(message) : -1;
+    if (size == -1) {
+      bytesUnknown = true;
+    } else {
+      bytes += size;
+    }
+    this.count = count + 1; // publishes the above writes
+  }
+
+  /**
+   * Adds "messages", and when known "bytes". When there are at least two messages, this also adds
+   * the median, 99th percentile and maximum interval between them in microseconds. Percentiles are
+   * the upper bound of the power of two range that includes them, so are approximate.
+   */
+  void tag(SpanCustomizer span) {
+    long count = this.count; // read first, so that the writes before it are visible
+    span.tag(prefix + "messages", String.valueOf(count));
+    if (count > 0 && !bytesUnknown) span.tag(prefix + "bytes", String.valueOf(bytes));
+    if (count < 2) return;
+    long intervals = count - 1;
+    span.tag(prefix + "interval_us.p50", String.valueOf(percentileMicros(intervals, 0.5)));
+    span.tag(prefix + "interval_us.p99", String.valueOf(percentileMicros(intervals, 0.99)));
+    span.tag(prefix + "interval_us.max", String.valueOf(maxIntervalNanos / 1000));
+  }
+
+  long percentileMicros(long intervals, double percentile) {
+    long rank = (long) Math.ceil(intervals * percentile), seen = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      seen += intervalBuckets[bucket];
+      if (seen >= rank) return Math.min((1L << bucket) - 1, maxIntervalNanos / 1000);
+    }
+    return maxIntervalNanos / 1000;
+  }
+
+  /** Returns the serialized size of a protobuf message, or -1 if it isn't one. */
+  static int protobufSize(Object message) {
+    if (!(message instanceof MessageLite)) return -1;
+    return ((MessageLite) message).getSerializedSize(); // memoized, as the marshaller uses it
+  }
+
+  static boolean hasProtobuf() {
+    try {
+      Class.forName("com.google.protobuf.MessageLite");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package brave.grpc;
 
 import brave.Span;
+import brave.SpanCustomizer;
 import brave.Tracer;
 import brave.internal.Nullable;
 import brave.propagation.CurrentTraceContext;
@@ -42,6 +43,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
   final SamplerFunction<RpcRequest> sampler;
   final Injector<GrpcClientRequest> injector;
   final GrpcClientParser parser;
+  final boolean streamingModeEnabled;
 
   TracingClientInterceptor(GrpcTracing grpcTracing) {
     tracer = grpcTracing.rpcTracing.tracing().tracer();
@@ -49,6 +51,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
     sampler = grpcTracing.rpcTracing.clientSampler();
     injector = grpcTracing.propagation.injector(SETTER);
     parser = grpcTracing.clientParser;
+    streamingModeEnabled = grpcTracing.streamingModeEnabled;
   }
 
   /**
@@ -63,6 +66,14 @@ final class TracingClientInterceptor implements ClientInterceptor {
     TraceContext invocationContext = currentTraceContext.get();
     GrpcClientRequest request = new GrpcClientRequest(method);
     Span span = tracer.nextSpanWithParent(sampler, request, invocationContext);
+    SpanCustomizer customizer = span.customizer(); // once per call, not per message
+    MessageStats sent, received;
+    if (streamingModeEnabled && !span.isNoop()) {
+      sent = new MessageStats("grpc.sent.");
+      received = new MessageStats("grpc.received.");
+    } else {
+      sent = received = null;
+    }
 
     Throwable error = null;
     try (Scope scope = currentTraceContext.maybeScope(span.context())) {
@@ -72,7 +83,7 @@ final class TracingClientInterceptor implements ClientInterceptor {
           injector.inject(span.context(), request);
           span.kind(Span.Kind.CLIENT).start();
           try (Scope scope = currentTraceContext.maybeScope(span.context())) {
-            parser.onStart(method, callOptions, headers, span.customizer());
+            parser.onStart(method, callOptions, headers, customizer);
 
             // Ensures callbacks execute on the invocation context. For example, if a user has code
             // to invoke a producer once headers are received, this ensures the producer is a child
@@ -83,14 +94,16 @@ final class TracingClientInterceptor implements ClientInterceptor {
               invocationContext
             );
 
-            super.start(new TracingClientCallListener<>(responseListener, span), headers);
+            super.start(new TracingClientCallListener<>(
+              responseListener, span, customizer, sent, received), headers);
           }
         }
 
         @Override public void sendMessage(ReqT message) {
           try (Scope scope = currentTraceContext.maybeScope(span.context())) {
             super.sendMessage(message);
-            parser.onMessageSent(message, span.customizer());
+            if (sent != null) sent.record(message, System.nanoTime());
+            parser.onMessageSent(message, customizer);
           }
         }
       };
@@ -144,15 +157,23 @@ final class TracingClientInterceptor implements ClientInterceptor {
 
   final class TracingClientCallListener<RespT> extends SimpleForwardingClientCallListener<RespT> {
     final Span span;
+    final SpanCustomizer customizer;
+    @Nullable final MessageStats sent, received; // null unless in streaming mode
 
-    TracingClientCallListener(Listener<RespT> responseListener, Span span) {
+    TracingClientCallListener(Listener<RespT> responseListener, Span span,
+      SpanCustomizer customizer, @Nullable MessageStats sent, @Nullable MessageStats received) {
       super(responseListener);
       this.span = span;
+      this.customizer = customizer;
+      this.sent = sent;
+      this.received = received;
     }
 
     @Override public void onMessage(RespT message) {
+      // maybeScope doesn't re-scope when the span is already current, as is usual in a stream
       try (Scope scope = currentTraceContext.maybeScope(span.context())) {
-        parser.onMessageReceived(message, span.customizer());
+        if (received != null) received.record(message, System.nanoTime());
+        parser.onMessageReceived(message, customizer);
         delegate().onMessage(message);
       }
     }
@@ -160,7 +181,11 @@ final class TracingClientInterceptor implements ClientInterceptor {
     @Override public void onClose(Status status, Metadata trailers) {
       try (Scope scope = currentTraceContext.maybeScope(span.context())) {
         super.onClose(status, trailers);
-        parser.onClose(status, trailers, span.customizer());
+        parser.onClose(status, trailers, customizer);
+        if (sent != null) {
+          sent.tag(customizer);
+          received.tag(customizer);
+        }
       } finally {
         span.finish();
       }
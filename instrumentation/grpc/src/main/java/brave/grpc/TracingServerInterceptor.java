@@ -14,7 +14,9 @@
 package brave.grpc;
 
 import brave.Span;
+import brave.SpanCustomizer;
 import brave.Tracer;
+import brave.internal.Nullable;
 import brave.propagation.CurrentTraceContext;
 import brave.propagation.CurrentTraceContext.Scope;
 import brave.propagation.TraceContext.Extractor;
@@ -39,7 +41,7 @@ final class TracingServerInterceptor implements ServerInterceptor {
   final Extractor<GrpcServerRequest> extractor;
   final SamplerFunction<RpcRequest> sampler;
   final GrpcServerParser parser;
-  final boolean grpcPropagationFormatEnabled;
+  final boolean grpcPropagationFormatEnabled, streamingModeEnabled;
 
   TracingServerInterceptor(GrpcTracing grpcTracing) {
     tracer = grpcTracing.rpcTracing.tracing().tracer();
@@ -48,6 +50,7 @@ final class TracingServerInterceptor implements ServerInterceptor {
     sampler = grpcTracing.rpcTracing.serverSampler();
     parser = grpcTracing.serverParser;
     grpcPropagationFormatEnabled = grpcTracing.grpcPropagationFormatEnabled;
+    streamingModeEnabled = grpcTracing.streamingModeEnabled;
   }
 
   @Override
@@ -56,12 +59,19 @@ final class TracingServerInterceptor implements ServerInterceptor {
     GrpcServerRequest request = new GrpcServerRequest(call.getMethodDescriptor(), headers);
     TraceContextOrSamplingFlags extracted = extractor.extract(request);
     Span span = nextSpan(extracted, request).kind(Span.Kind.SERVER);
-    parser.onStart(call, headers, span.customizer());
+    SpanCustomizer customizer = span.customizer(); // once per call, not per message
+    parser.onStart(call, headers, customizer);
+    MessageStats sent = null, received = null;
+    if (streamingModeEnabled && !span.isNoop()) {
+      sent = new MessageStats("grpc.sent.");
+      received = new MessageStats("grpc.received.");
+    }
     // startCall invokes user interceptors, so we place the span in scope here
     Listener<ReqT> result;
     Throwable error = null;
     try (Scope scope = currentTraceContext.maybeScope(span.context())) {
-      result = next.startCall(new TracingServerCall<>(span, call), headers);
+      result = next.startCall(
+        new TracingServerCall<>(span, customizer, call, sent, received), headers);
     } catch (Throwable e) {
       error = e;
       throw e;
@@ -70,7 +80,8 @@ final class TracingServerInterceptor implements ServerInterceptor {
     }
 
     // This ensures the server implementation can see the span in scope
-    return new TracingServerCallListener<>(result, currentTraceContext, parser, span);
+    return new TracingServerCallListener<>(
+      result, currentTraceContext, parser, span, customizer, received);
   }
 
   /** Creates a potentially noop span representing this request */
@@ -89,10 +100,16 @@ final class TracingServerInterceptor implements ServerInterceptor {
 
   final class TracingServerCall<ReqT, RespT> extends SimpleForwardingServerCall<ReqT, RespT> {
     final Span span;
+    final SpanCustomizer customizer;
+    @Nullable final MessageStats sent, received; // null unless in streaming mode
 
-    TracingServerCall(Span span, ServerCall<ReqT, RespT> call) {
+    TracingServerCall(Span span, SpanCustomizer customizer, ServerCall<ReqT, RespT> call,
+      @Nullable MessageStats sent, @Nullable MessageStats received) {
       super(call);
       this.span = span;
+      this.customizer = customizer;
+      this.sent = sent;
+      this.received = received;
     }
 
     @Override public void request(int numMessages) {
@@ -111,14 +128,19 @@ final class TracingServerInterceptor implements ServerInterceptor {
     @Override public void sendMessage(RespT message) {
       try (Scope scope = currentTraceContext.maybeScope(span.context())) {
         super.sendMessage(message);
-        parser.onMessageSent(message, span.customizer());
+        if (sent != null) sent.record(message, System.nanoTime());
+        parser.onMessageSent(message, customizer);
       }
     }
 
     @Override public void close(Status status, Metadata trailers) {
       try (Scope scope = currentTraceContext.maybeScope(span.context())) {
         super.close(status, trailers);
-        parser.onClose(status, trailers, span.customizer());
+        parser.onClose(status, trailers, customizer);
+        if (sent != null) {
+          sent.tag(customizer);
+          received.tag(customizer);
+        }
       } catch (Throwable e) {
         span.error(e);
         throw e;
@@ -132,19 +154,26 @@ final class TracingServerInterceptor implements ServerInterceptor {
     extends SimpleForwardingServerCallListener<ReqT> {
     final CurrentTraceContext currentTraceContext;
     final Span span;
+    final SpanCustomizer customizer;
     final GrpcServerParser parser;
+    @Nullable final MessageStats received; // null unless in streaming mode
 
     TracingServerCallListener(Listener<ReqT> delegate, CurrentTraceContext currentTraceContext,
-      GrpcServerParser parser, Span span) {
+      GrpcServerParser parser, Span span, SpanCustomizer customizer,
+      @Nullable MessageStats received) {
       super(delegate);
       this.currentTraceContext = currentTraceContext;
       this.span = span;
+      this.customizer = customizer;
       this.parser = parser;
+      this.received = received;
     }
 
     @Override public void onMessage(ReqT message) {
+      // maybeScope doesn't re-scope when the span is already current, as is usual in a stream
       try (Scope scope = currentTraceContext.maybeScope(span.context())) {
-        parser.onMessageReceived(message, span.customizer());
+        if (received != null) received.record(message, System.nanoTime());
+        parser.onMessageReceived(message, customizer);
         delegate().onMessage(message);
       }
     }
@@ -349,6 +349,25 @@ public abstract class BaseITTracingClientInterceptor {
     assertThat(span.tags()).hasSize(10);
   }
 
+  @Test public void streamingMode_tagsMessageStatistics() throws Exception {
+    closeClient(client);
+    grpcTracing = grpcTracing.toBuilder().streamingModeEnabled(true).build();
+    client = newClient();
+
+    Iterator<HelloReply> replies = GreeterGrpc.newBlockingStub(client)
+      .sayHelloWithManyReplies(HELLO_REQUEST);
+    assertThat(replies).toIterable().hasSize(10);
+
+    Span span = takeSpan();
+    assertThat(span.tags())
+      .containsEntry("grpc.sent.messages", "1")
+      .containsEntry("grpc.sent.bytes", String.valueOf(HELLO_REQUEST.getSerializedSize()))
+      .containsEntry("grpc.received.messages", "10")
+      .containsKeys("grpc.received.bytes", "grpc.received.interval_us.p50",
+        "grpc.received.interval_us.p99", "grpc.received.interval_us.max")
+      .doesNotContainKey("grpc.sent.interval_us.p50");
+  }
+
   @Test public void customSampler() throws Exception {
     closeClient(client);
 
@@ -332,6 +332,35 @@ public abstract class BaseITTracingServerInterceptor {
     assertThat(span.tags()).hasSize(10);
   }
 
+  @Test public void streamingMode_tagsMessageStatistics() throws Exception {
+    grpcTracing = grpcTracing.toBuilder().streamingModeEnabled(true).build();
+    init();
+
+    Iterator<HelloReply> replies = GreeterGrpc.newBlockingStub(client)
+      .sayHelloWithManyReplies(HELLO_REQUEST);
+    assertThat(replies).toIterable().hasSize(10);
+
+    Span span = takeSpan();
+    assertThat(span.tags())
+      .containsEntry("grpc.received.messages", "1")
+      .containsEntry("grpc.received.bytes", String.valueOf(HELLO_REQUEST.getSerializedSize()))
+      .containsEntry("grpc.sent.messages", "10")
+      .containsKeys("grpc.sent.bytes", "grpc.sent.interval_us.p50",
+        "grpc.sent.interval_us.p99", "grpc.sent.interval_us.max")
+      .doesNotContainKey("grpc.received.interval_us.p50");
+  }
+
+  @Test public void streamingMode_unsampled() throws Exception {
+    grpcTracing = GrpcTracing.newBuilder(tracingBuilder(NEVER_SAMPLE).build())
+      .streamingModeEnabled(true).build();
+    init();
+
+    Iterator<HelloReply> replies = GreeterGrpc.newBlockingStub(client)
+      .sayHelloWithManyReplies(HELLO_REQUEST);
+    assertThat(replies).toIterable().hasSize(10);
+    // @After will check that nothing is reported
+  }
+
   @Test public void customSampler() throws Exception {
     RpcTracing rpcTracing = RpcTracing.newBuilder(tracing).serverSampler(RpcRuleSampler.newBuilder()
       .putRule(methodEquals("SayHelloWithManyReplies"), NEVER_SAMPLE)
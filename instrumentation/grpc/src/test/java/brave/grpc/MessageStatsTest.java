@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.grpc;
+
+import brave.SpanCustomizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static brave.grpc.GreeterImpl.HELLO_REQUEST;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class MessageStatsTest {
+  MessageStats stats = new MessageStats("grpc.sent.");
+  Map<String, String> tags = new LinkedHashMap<>();
+  SpanCustomizer customizer = new SpanCustomizer() {
+    @Override public SpanCustomizer name(String name) {
+      return this;
+    }
+
+    @Override public SpanCustomizer tag(String key, String value) {
+      tags.put(key, value);
+      return this;
+    }
+
+    @Override public SpanCustomizer annotate(String value) {
+      return this;
+    }
+  };
+
+  @Test public void noMessages() {
+    stats.tag(customizer);
+
+    assertThat(tags).containsOnly(entry("grpc.sent.messages", "0"));
+  }
+
+  @Test public void oneMessage() {
+    stats.record(HELLO_REQUEST, 0L);
+    stats.tag(customizer);
+
+    assertThat(tags).containsOnly(
+      entry("grpc.sent.messages", "1"),
+      entry("grpc.sent.bytes", String.valueOf(HELLO_REQUEST.getSerializedSize()))
+    );
+  }
+
+  @Test public void intervals() {
+    long nanos = 0L;
+    stats.record(HELLO_REQUEST, nanos);
+    for (int i = 0; i < 198; i++) {
+      stats.record(HELLO_REQUEST, nanos += MICROSECONDS.toNanos(100));
+    }
+    stats.record(HELLO_REQUEST, nanos + MICROSECONDS.toNanos(5000));
+    stats.tag(customizer);
+
+    assertThat(tags).containsOnly(
+      entry("grpc.sent.messages", "200"),
+      entry("grpc.sent.bytes", String.valueOf(200 * HELLO_REQUEST.getSerializedSize())),
+      entry("grpc.sent.interval_us.p50", "127"), // upper bound of 64-127
+      entry("grpc.sent.interval_us.p99", "127"), // 198 of 199 intervals were 100us
+      entry("grpc.sent.interval_us.max", "5000")
+    );
+  }
+
+  @Test public void percentileNotOverMax() {
+    stats.record(HELLO_REQUEST, 0L);
+    stats.record(HELLO_REQUEST, MICROSECONDS.toNanos(100));
+    stats.tag(customizer);
+
+    assertThat(tags)
+      .containsEntry("grpc.sent.interval_us.p50", "100")
+      .containsEntry("grpc.sent.interval_us.max", "100");
+  }
+
+  @Test public void bytesUnknown_whenNotProtobuf() {
+    stats.record(HELLO_REQUEST, 0L);
+    stats.record("hello", 1L);
+    stats.tag(customizer);
+
+    assertThat(tags).doesNotContainKey("grpc.sent.bytes");
+  }
+}
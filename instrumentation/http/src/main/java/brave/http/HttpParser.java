@@ -114,7 +114,7 @@ import static brave.http.HttpResponseParser.Default.catchAllName;
   /** The intent of this is to by default add "http.status_code", when not a success code */
   @Nullable String maybeStatusAsString(int statusCode, int upperRange) {
     if (statusCode != 0 && (statusCode < 200 || statusCode > upperRange)) {
-      return String.valueOf(statusCode);
+      return HttpStringCache.INSTANCE.statusCode(statusCode);
     }
     return null;
   }
@@ -124,7 +124,7 @@ import static brave.http.HttpResponseParser.Default.catchAllName;
     if (method == null) return null; // don't undo a valid name elsewhere
     String route = adapter.route(res);
     if (route == null) return null; // don't undo a valid name elsewhere
-    if (!"".equals(route)) return method + " " + route;
+    if (!"".equals(route)) return HttpStringCache.INSTANCE.spanName(method, route);
     return catchAllName(method, statusCode);
   }
 
@@ -160,7 +160,7 @@ import static brave.http.HttpResponseParser.Default.catchAllName;
     // 1xx, 2xx, and 3xx codes are not all valid, but the math is good enough vs drift and opinion
     // about individual codes in the range.
     if (httpStatusInt < 100 || httpStatusInt > 399) {
-      customizer.tag("error", String.valueOf(httpStatusInt));
+      customizer.tag("error", HttpStringCache.INSTANCE.statusCode(httpStatusInt));
     }
   }
 }
@@ -13,6 +13,7 @@
  */
 package brave.http;
 
+import brave.internal.PropertyMatcher;
 import brave.sampler.Matcher;
 import brave.sampler.Matchers;
 
@@ -31,15 +32,16 @@ public final class HttpRequestMatchers {
     return new MethodEquals(method);
   }
 
-  static final class MethodEquals implements Matcher<HttpRequest> {
+  static final class MethodEquals extends PropertyMatcher<HttpRequest> {
     final String method;
 
     MethodEquals(String method) {
+      super("http.method", method, false);
       this.method = method;
     }
 
-    @Override public boolean matches(HttpRequest request) {
-      return method.equals(request.method());
+    @Override public String property(HttpRequest request) {
+      return request.method();
     }
 
     @Override public boolean equals(Object o) {
@@ -64,16 +66,16 @@ public final class HttpRequestMatchers {
     return new PathStartsWith(pathPrefix);
   }
 
-  static final class PathStartsWith implements Matcher<HttpRequest> {
+  static final class PathStartsWith extends PropertyMatcher<HttpRequest> {
     final String pathPrefix;
 
     PathStartsWith(String pathPrefix) {
+      super("http.path", pathPrefix, true);
       this.pathPrefix = pathPrefix;
     }
 
-    @Override public boolean matches(HttpRequest request) {
-      String requestPath = request.path();
-      return requestPath != null && requestPath.startsWith(pathPrefix);
+    @Override public String property(HttpRequest request) {
+      return request.path();
     }
 
     @Override public boolean equals(Object o) {
@@ -87,7 +87,7 @@ public interface HttpResponseParser {
     /** The intent of this is to by default add "http.status_code", when not a success code */
     @Nullable String maybeStatusAsString(int statusCode, int upperRange) {
       if (statusCode != 0 && (statusCode < 200 || statusCode > upperRange)) {
-        return String.valueOf(statusCode);
+        return HttpStringCache.INSTANCE.statusCode(statusCode);
       }
       return null;
     }
@@ -97,7 +97,7 @@ public interface HttpResponseParser {
       if (method == null) return null; // don't undo a valid name elsewhere
       String route = response.route();
       if (route == null) return null; // don't undo a valid name elsewhere
-      if (!"".equals(route)) return method + " " + route;
+      if (!"".equals(route)) return HttpStringCache.INSTANCE.spanName(method, route);
       return catchAllName(method, statusCode);
     }
 
@@ -124,7 +124,7 @@ public interface HttpResponseParser {
       // success range. 1xx-3xx are not errors. It is endpoint-specific if client codes like 404 are
       // in fact errors. That's why this is overridable.
       if (httpStatus < 100 || httpStatus > 399) {
-        span.tag("error", String.valueOf(httpStatus));
+        span.tag("error", HttpStringCache.INSTANCE.statusCode(httpStatus));
       }
     }
 
@@ -138,9 +138,9 @@ public interface HttpResponseParser {
         case 305:
         case 306:
         case 307:
-          return method + " redirected";
+          return HttpStringCache.INSTANCE.spanName(method, "redirected");
         case 404:
-          return method + " not_found";
+          return HttpStringCache.INSTANCE.spanName(method, "not_found");
         default:
           return null;
       }
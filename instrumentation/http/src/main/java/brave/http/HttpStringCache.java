@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Returns canonical instances of strings added to every HTTP span, such as the route-based span
+ * name "GET /users/{userId}" and the status code "404". The same few combinations are repeated for
+ * the life of the process, so this avoids concatenating or formatting them per span.
+ *
+ * <p>Status codes are cached in an array indexed by code. Span names are cached by method, then
+ * route, so that a lookup doesn't allocate a composite key. As routes are supplied by frameworks,
+ * their cardinality isn't under our control: when {@link #maxSpanNames} is reached, all span names
+ * are evicted. Frequently used names are quickly re-added, so this is cheaper than tracking usage.
+ */
+final class HttpStringCache {
+  static final HttpStringCache INSTANCE = new HttpStringCache(1024);
+
+  final int maxSpanNames;
+  final AtomicReferenceArray<String> statusCodes = new AtomicReferenceArray<String>(1000);
+  final ConcurrentMap<String, ConcurrentMap<String, String>> spanNames =
+    new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+  final AtomicInteger spanNameCount = new AtomicInteger();
+
+  HttpStringCache(int maxSpanNames) {
+    this.maxSpanNames = maxSpanNames;
+  }
+
+  /** Returns the status code as a string, which is the same instance for codes under 1000. */
+  String statusCode(int statusCode) {
+    if (statusCode < 0 || statusCode >= statusCodes.length()) return String.valueOf(statusCode);
+    String result = statusCodes.get(statusCode);
+    if (result == null) {
+      result = String.valueOf(statusCode);
+      // Racing threads may create equivalent strings, but only one is retained.
+      if (!statusCodes.compareAndSet(statusCode, null, result)) result = statusCodes.get(statusCode);
+    }
+    return result;
+  }
+
+  /** Returns {@code method + " " + route}, which is the same instance while it remains cached. */
+  String spanName(String method, String route) {
+    ConcurrentMap<String, String> byRoute = spanNames.get(method);
+    if (byRoute != null) {
+      String result = byRoute.get(route);
+      if (result != null) return result;
+    }
+
+    String result = method + " " + route;
+    if (byRoute == null) {
+      byRoute = new ConcurrentHashMap<String, String>();
+      ConcurrentMap<String, String> existing = spanNames.putIfAbsent(method, byRoute);
+      if (existing != null) byRoute = existing;
+    }
+    String existing = byRoute.putIfAbsent(route, result);
+    if (existing != null) return existing; // lost a race to add the same name
+
+    // Only the thread which resets the count evicts, so racing threads don't clear repeatedly.
+    int count = spanNameCount.incrementAndGet();
+    if (count > maxSpanNames && spanNameCount.compareAndSet(count, 0)) {
+      spanNames.clear(); // evict all, as we don't track which names are hot
+    }
+    return result;
+  }
+}
@@ -99,6 +99,31 @@ public class HttpRuleSamplerTest {
       .isNull();
   }
 
+  @Test public void manyRoutes_firstMatchWins() {
+    HttpRuleSampler.Builder builder = HttpRuleSampler.newBuilder()
+      .putRule(pathStartsWith("/health"), Sampler.NEVER_SAMPLE);
+    for (int i = 0; i < 200; i++) {
+      builder.putRule(and(methodEquals("GET"), pathStartsWith("/api/" + i)), Sampler.NEVER_SAMPLE);
+    }
+    HttpRuleSampler ruleSampler = builder
+      .putRule(and(methodEquals("GET"), pathStartsWith("/api/1")), Sampler.ALWAYS_SAMPLE)
+      .putRule(pathStartsWith("/api"), Sampler.ALWAYS_SAMPLE)
+      .build();
+
+    when(httpServerRequest.method()).thenReturn("GET");
+    when(httpServerRequest.path()).thenReturn("/api/199/users");
+    assertThat(ruleSampler.trySample(httpServerRequest))
+      .isFalse(); // the first "/api/1" rule precedes those for "/api/19" and "/api/199"
+
+    when(httpServerRequest.method()).thenReturn("POST");
+    assertThat(ruleSampler.trySample(httpServerRequest))
+      .isTrue();
+
+    when(httpServerRequest.path()).thenReturn("/health");
+    assertThat(ruleSampler.trySample(httpServerRequest))
+      .isFalse();
+  }
+
   @Test public void exampleCustomMatcher() {
     Matcher<HttpRequest> playInTheUSA = request -> {
       if (!"/play".equals(request.path())) return false;
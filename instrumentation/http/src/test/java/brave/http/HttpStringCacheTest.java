@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.http;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpStringCacheTest {
+  HttpStringCache cache = new HttpStringCache(3);
+
+  @Test public void statusCode_canonicalInstance() {
+    String first = cache.statusCode(404);
+    assertThat(first).isEqualTo("404");
+    assertThat(cache.statusCode(404)).isSameAs(first);
+  }
+
+  @Test public void statusCode_outOfRange() {
+    assertThat(cache.statusCode(-1)).isEqualTo("-1");
+    assertThat(cache.statusCode(1000)).isEqualTo("1000");
+  }
+
+  @Test public void spanName_canonicalInstance() {
+    String first = cache.spanName("GET", "/users/{userId}");
+    assertThat(first).isEqualTo("GET /users/{userId}");
+    assertThat(cache.spanName("GET", new String("/users/{userId}"))).isSameAs(first);
+    assertThat(cache.spanName("POST", "/users/{userId}")).isEqualTo("POST /users/{userId}");
+  }
+
+  @Test public void spanName_evictsWhenFull() {
+    String first = cache.spanName("GET", "/a");
+    cache.spanName("GET", "/b");
+    cache.spanName("GET", "/c");
+    assertThat(cache.spanName("GET", "/a")).isSameAs(first);
+
+    cache.spanName("GET", "/d"); // exceeds the maximum
+
+    assertThat(cache.spanNameCount.get()).isZero();
+    assertThat(cache.spanNames).isEmpty();
+    assertThat(cache.spanName("GET", "/a")).isEqualTo(first).isNotSameAs(first);
+    assertThat(cache.spanNameCount.get()).isEqualTo(1);
+  }
+
+  @Test public void spanName_countsOnlyNewNames() {
+    for (int i = 0; i < 10; i++) cache.spanName("GET", "/a");
+
+    assertThat(cache.spanNameCount.get()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.jms;
+
+import brave.internal.Nullable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.jms.Message;
+
+import static brave.internal.Throwables.propagateIfFatal;
+import static brave.jms.JmsTracing.log;
+
+/**
+ * Removes properties from a received message in place, for vendor message types that allow it.
+ * This avoids the copy, {@link Message#clearProperties()} and re-set of every other property that
+ * {@link PropertyFilter} otherwise needs to make the message writable.
+ *
+ * <p>Vendor types are looked up reflectively, as they are optional. When a type isn't present, or
+ * an in-place removal fails, the caller falls back to copying properties.
+ */
+abstract class InPlacePropertyFilter {
+  // Use nested class to ensure we only check once per classloader
+  private static final class Vendors {
+    static final InPlacePropertyFilter[] FILTERS = detect();
+
+    static InPlacePropertyFilter[] detect() {
+      List<InPlacePropertyFilter> result = new ArrayList<>();
+      InPlacePropertyFilter activeMQ = ActiveMQ.detect();
+      if (activeMQ != null) result.add(activeMQ);
+      InPlacePropertyFilter artemis = Artemis.detect();
+      if (artemis != null) result.add(artemis);
+      return result.toArray(new InPlacePropertyFilter[0]);
+    }
+  }
+
+  /** Returns a filter for the type of this message or null if its properties must be copied. */
+  @Nullable static InPlacePropertyFilter forMessage(Message message) {
+    for (InPlacePropertyFilter filter : Vendors.FILTERS) {
+      if (filter.messageType.isInstance(message)) return filter;
+    }
+    return null;
+  }
+
+  final Class<?> messageType;
+
+  InPlacePropertyFilter(Class<?> messageType) {
+    this.messageType = messageType;
+  }
+
+  /**
+   * Removes the given properties and makes the message's properties writable.
+   *
+   * @return false if the caller should fall back to copying properties
+   */
+  boolean filterProperties(Message message, Set<String> namesToClear) {
+    try {
+      doFilterProperties(message, namesToClear);
+      return true;
+    } catch (Throwable t) {
+      propagateIfFatal(t);
+      log(t, "error removing properties from {0}", message, null);
+      return false;
+    }
+  }
+
+  abstract void doFilterProperties(Message message, Set<String> namesToClear) throws Exception;
+
+  /** ActiveMQ 5.x allows removing a property and resetting the read-only flag. */
+  static final class ActiveMQ extends InPlacePropertyFilter {
+    @Nullable static InPlacePropertyFilter detect() {
+      try {
+        Class<?> type = Class.forName("org.apache.activemq.command.Message");
+        return new ActiveMQ(type,
+          type.getMethod("removeProperty", String.class),
+          type.getMethod("setReadOnlyProperties", boolean.class));
+      } catch (Throwable t) {
+        propagateIfFatal(t);
+        return null;
+      }
+    }
+
+    final Method removeProperty, setReadOnlyProperties;
+
+    ActiveMQ(Class<?> messageType, Method removeProperty, Method setReadOnlyProperties) {
+      super(messageType);
+      this.removeProperty = removeProperty;
+      this.setReadOnlyProperties = setReadOnlyProperties;
+    }
+
+    @Override void doFilterProperties(Message message, Set<String> namesToClear)
+      throws Exception {
+      for (String name : namesToClear) {
+        removeProperty.invoke(message, name);
+      }
+      setReadOnlyProperties.invoke(message, false);
+    }
+  }
+
+  /**
+   * Artemis stores JMS properties in its core message, which allows removing a property. The JMS
+   * message has no setter for its read-only flag, so the field is written directly.
+   */
+  static final class Artemis extends InPlacePropertyFilter {
+    @Nullable static InPlacePropertyFilter detect() {
+      try {
+        Class<?> type = Class.forName("org.apache.activemq.artemis.jms.client.ActiveMQMessage");
+        Class<?> coreType = Class.forName("org.apache.activemq.artemis.api.core.Message");
+        Field propertiesReadOnly = type.getDeclaredField("propertiesReadOnly");
+        propertiesReadOnly.setAccessible(true);
+        return new Artemis(type,
+          type.getMethod("getCoreMessage"),
+          coreType.getMethod("removeProperty", String.class),
+          propertiesReadOnly);
+      } catch (Throwable t) {
+        propagateIfFatal(t);
+        return null;
+      }
+    }
+
+    final Method getCoreMessage, removeProperty;
+    final Field propertiesReadOnly;
+
+    Artemis(Class<?> messageType, Method getCoreMessage, Method removeProperty,
+      Field propertiesReadOnly) {
+      super(messageType);
+      this.getCoreMessage = getCoreMessage;
+      this.removeProperty = removeProperty;
+      this.propertiesReadOnly = propertiesReadOnly;
+    }
+
+    @Override void doFilterProperties(Message message, Set<String> namesToClear)
+      throws Exception {
+      Object coreMessage = getCoreMessage.invoke(message);
+      for (String name : namesToClear) {
+        removeProperty.invoke(coreMessage, name);
+      }
+      propertiesReadOnly.setBoolean(message, false);
+    }
+  }
+}
@@ -18,14 +18,18 @@ import brave.SpanCustomizer;
 import brave.Tracer;
 import brave.Tracing;
 import brave.internal.Nullable;
+import brave.internal.WeakIdentityMap;
+import brave.messaging.BatchTraceIds;
 import brave.messaging.MessagingRequest;
 import brave.messaging.MessagingTracing;
 import brave.propagation.Propagation;
+import brave.propagation.TraceContext;
 import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
 import brave.propagation.TraceContextOrSamplingFlags;
 import brave.sampler.SamplerFunction;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -51,6 +55,7 @@ import static brave.jms.MessagePropagation.GETTER;
 public final class JmsTracing {
   static final String JMS_QUEUE = "jms.queue";
   static final String JMS_TOPIC = "jms.topic";
+  static final String JMS_BATCH_TRACE_IDS = "jms.batch_trace_ids";
 
   // Use nested class to ensure logger isn't initialized unless it is accessed once.
   private static final class LoggerHolder {
@@ -93,6 +98,7 @@ public final class JmsTracing {
   public static final class Builder {
     final MessagingTracing messagingTracing;
     String remoteServiceName = "jms";
+    boolean clearPropagationProperties = true;
 
     Builder(MessagingTracing messagingTracing) {
       if (messagingTracing == null) throw new NullPointerException("messagingTracing == null");
@@ -107,6 +113,22 @@ public final class JmsTracing {
       return this;
     }
 
+    /**
+     * When true, propagation properties such as "b3" are removed from received messages, and the
+     * consumer span's context is written back. Defaults to true.
+     *
+     * <p>JMS only allows writing properties of a received message after clearing all of them, so
+     * for most message types this copies and re-sets every other property. Set this to false to
+     * leave the properties intact instead. The message is then marked consumed in memory, so that
+     * {@link #nextSpan(Message)} continues from the consumer span, not the producer's.
+     *
+     * @since 5.11
+     */
+    public Builder clearPropagationProperties(boolean clearPropagationProperties) {
+      this.clearPropagationProperties = clearPropagationProperties;
+      return this;
+    }
+
     public JmsTracing build() {
       return new JmsTracing(this);
     }
@@ -122,6 +144,8 @@ public final class JmsTracing {
   final SamplerFunction<MessagingRequest> producerSampler, consumerSampler;
   final String remoteServiceName;
   final Set<String> propagationKeys;
+  /** Consumer span contexts of received messages, when propagation properties are retained. */
+  @Nullable final WeakIdentityMap<Message, TraceContext> consumedMessages;
 
   // raw types to avoid accessing JMS 2.0 types unless we are sure they are present
   // Caching here instead of deferring further as there is overhead creating extractors and
@@ -149,6 +173,8 @@ public final class JmsTracing {
     this.consumerSampler = builder.messagingTracing.consumerSampler();
     this.remoteServiceName = builder.remoteServiceName;
     this.propagationKeys = new LinkedHashSet<>(tracing.propagation().keys());
+    this.consumedMessages = builder.clearPropagationProperties ? null
+      : new WeakIdentityMap<Message, TraceContext>();
   }
 
   public Connection connection(Connection connection) {
@@ -234,9 +260,78 @@ public final class JmsTracing {
     return result;
   }
 
+  /**
+   * Use this to create a span for processing a batch of messages, received from a consumer that
+   * isn't traced. Like {@link #nextSpan(Message)}, the result has no name and is not started.
+   *
+   * <p>Instead of a consumer span per message, this completes one consumer span for the batch,
+   * which is the parent of the result. Messages with a sampled upstream context also get a
+   * consumer span in their own trace, and the batch span is tagged "jms.batch_trace_ids" with the
+   * IDs of these traces, up to {@link BatchTraceIds#MAX_TRACE_IDS}. This is similar to
+   * "singleRootSpanOnReceiveBatch" in Kafka.
+   *
+   * <p>Each message is marked consumed like a message received from a traced consumer, so that
+   * {@link #nextSpan(Message)} continues from its consumer span, or the batch span if it has none.
+   *
+   * @since 5.11
+   */
+  public Span nextBatchSpan(List<? extends Message> messages) {
+    if (messages == null) throw new NullPointerException("messages == null");
+    if (messages.isEmpty()) return tracer.nextSpan();
+
+    Span batchSpan = null;
+    long timestamp = 0L;
+    BatchTraceIds traceIds = null; // lazy as most messages in a batch are often untraced
+    for (int i = 0, length = messages.size(); i < length; i++) {
+      Message message = messages.get(i);
+      MessageConsumerRequest request = new MessageConsumerRequest(message, destination(message));
+      TraceContextOrSamplingFlags extracted =
+        extractAndClearProperties(messageConsumerExtractor, request, message);
+
+      if (batchSpan == null) {
+        batchSpan = nextMessagingSpan(consumerSampler, request, TraceContextOrSamplingFlags.EMPTY);
+        timestamp = tracing.clock(batchSpan.context()).currentTimeMicroseconds();
+        if (!batchSpan.isNoop()) {
+          setConsumerSpan(request, batchSpan);
+          batchSpan.start(timestamp);
+        }
+      }
+
+      // Only continue upstream traces that will be recorded
+      TraceContext upstream = extracted.context();
+      if (upstream == null || !Boolean.TRUE.equals(upstream.sampled())) {
+        markConsumed(messageConsumerInjector, request, batchSpan.context());
+        continue;
+      }
+
+      Span span = tracer.nextSpan(extracted);
+      setConsumerSpan(request, span);
+      span.start(timestamp).finish(timestamp);
+      markConsumed(messageConsumerInjector, request, span.context());
+      if (batchSpan.isNoop()) continue;
+      if (traceIds == null) traceIds = new BatchTraceIds();
+      traceIds.add(upstream);
+    }
+
+    if (traceIds != null) batchSpan.tag(JMS_BATCH_TRACE_IDS, traceIds.toString());
+    batchSpan.finish(timestamp + 1L); // save a clock reading
+    return tracer.newChild(batchSpan.context());
+  }
+
+  void setConsumerSpan(MessagingRequest request, Span span) {
+    span.name("receive").kind(Span.Kind.CONSUMER);
+    tagQueueOrTopic(request, span);
+    if (remoteServiceName != null) span.remoteServiceName(remoteServiceName);
+  }
+
   <R> TraceContextOrSamplingFlags extractAndClearProperties(
     Extractor<R> extractor, R request, Message message
   ) {
+    if (consumedMessages != null) {
+      TraceContext consumed = consumedMessages.get(message);
+      if (consumed != null) return TraceContextOrSamplingFlags.create(consumed);
+      return extractor.extract(request);
+    }
     TraceContextOrSamplingFlags extracted = extractor.extract(request);
     // Clear propagation regardless of extraction as JMS requires clearing as a means to make the
     // message writable
@@ -244,6 +339,20 @@ public final class JmsTracing {
     return extracted;
   }
 
+  /**
+   * Makes the consumer span's context visible to {@link #nextSpan(Message)}, by injecting it into
+   * the message or marking the message consumed.
+   */
+  void markConsumed(
+    Injector<MessageConsumerRequest> injector, MessageConsumerRequest request, TraceContext context
+  ) {
+    if (consumedMessages != null) {
+      consumedMessages.put(request.delegate, context);
+    } else {
+      injector.inject(context, request);
+    }
+  }
+
   /** Creates a potentially noop remote span representing this request */
   Span nextMessagingSpan(
     SamplerFunction<MessagingRequest> sampler,
@@ -29,8 +29,13 @@ final class PropertyFilter {
    * receipt until {@link Message#clearProperties()} has been called.
    *
    * <p> See https://docs.oracle.com/javaee/6/api/javax/jms/Message.html
+   *
+   * <p>Vendor message types known to {@link InPlacePropertyFilter} skip the copy.
    */
   static void filterProperties(Message message, Set<String> namesToClear) {
+    InPlacePropertyFilter inPlace = InPlacePropertyFilter.forMessage(message);
+    if (inPlace != null && inPlace.filterProperties(message, namesToClear)) return;
+
     ArrayList<Object> retainedProperties = messagePropertiesBuffer();
     try {
       filterProperties(message, namesToClear, retainedProperties);
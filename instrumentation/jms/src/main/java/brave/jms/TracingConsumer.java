@@ -61,7 +61,7 @@ abstract class TracingConsumer<C> {
       long timestamp = tracing.clock(span.context()).currentTimeMicroseconds();
       span.start(timestamp).finish(timestamp);
     }
-    injector.inject(span.context(), request);
+    jmsTracing.markConsumed(injector, request, span.context());
   }
 
   abstract @Nullable Destination destination(Message message);
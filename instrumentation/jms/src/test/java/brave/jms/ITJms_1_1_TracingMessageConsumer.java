@@ -275,6 +275,31 @@ public class ITJms_1_1_TracingMessageConsumer extends JmsTest {
       .isEqualTo(parentId + "-" + consumerSpan.id() + "-1");
   }
 
+  @Test public void receive_retainsPropagationProperties() throws Exception {
+    queueReceiver.close();
+    tracedQueueSession.close();
+
+    JmsTracing jmsTracing = JmsTracing.newBuilder(tracing)
+      .clearPropagationProperties(false)
+      .build();
+    tracedQueueSession = jmsTracing.queueConnection(jms.queueConnection)
+      .createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+    queueReceiver = tracedQueueSession.createReceiver(jms.queue);
+
+    String parentId = resetB3PropertyToIncludeParentId(jms);
+    queueSender.send(message);
+
+    Message received = queueReceiver.receive();
+    Span consumerSpan = takeSpan();
+    assertThat(consumerSpan.parentId()).isEqualTo(parentId);
+    assertThat(received.getStringProperty("b3"))
+      .isEqualTo(parentId + "-" + parentId + "-1"); // left intact
+
+    // the message was marked consumed, so processing continues from the consumer span
+    jmsTracing.nextSpan(received).name("process").start().finish();
+    assertThat(takeSpan().parentId()).isEqualTo(consumerSpan.id());
+  }
+
   @Test public void receive_customSampler() throws Exception {
     queueReceiver.close();
     tracedSession.close();
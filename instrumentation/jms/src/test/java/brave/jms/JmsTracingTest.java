@@ -14,9 +14,12 @@
 package brave.jms;
 
 import brave.Span;
+import brave.messaging.BatchTraceIds;
 import brave.propagation.CurrentTraceContext.Scope;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.MessageListener;
@@ -252,6 +255,78 @@ public class JmsTracingTest extends JmsTest {
     assertThat(JmsTest.propertiesToMap(message)).isEmpty();
   }
 
+  @Test public void nextBatchSpan_oneConsumerSpanForUntracedMessages() throws Exception {
+    ActiveMQTextMessage message2 = new ActiveMQTextMessage();
+    message.setDestination(createDestination("foo", QUEUE_TYPE));
+    message2.setDestination(createDestination("foo", QUEUE_TYPE));
+
+    jmsTracing.nextBatchSpan(asList(message, message2)).name("process").start().finish();
+
+    zipkin2.Span batchSpan = takeSpan(), processSpan = takeSpan();
+    assertThat(batchSpan.name()).isEqualTo("receive");
+    assertThat(batchSpan.kind()).isEqualTo(zipkin2.Span.Kind.CONSUMER);
+    assertThat(batchSpan.parentId()).isNull();
+    assertThat(batchSpan.tags()).containsOnly(entry("jms.queue", "foo"));
+    assertThat(processSpan.parentId()).isEqualTo(batchSpan.id());
+  }
+
+  @Test public void nextBatchSpan_continuesOnlySampledUpstreamTraces() throws Exception {
+    ActiveMQTextMessage unsampled = new ActiveMQTextMessage(), untraced = new ActiveMQTextMessage();
+    SETTER.put(message, "b3", "0000000000000001-0000000000000002-1");
+    SETTER.put(unsampled, "b3", "0000000000000003-0000000000000004-0");
+
+    jmsTracing.nextBatchSpan(asList(message, unsampled, untraced)).start().finish();
+
+    zipkin2.Span messageSpan = takeSpan(), batchSpan = takeSpan(), processSpan = takeSpan();
+    assertThat(messageSpan.traceId()).isEqualTo("0000000000000001");
+    assertThat(messageSpan.parentId()).isEqualTo("0000000000000002");
+    assertThat(messageSpan.kind()).isEqualTo(zipkin2.Span.Kind.CONSUMER);
+    assertThat(batchSpan.tags())
+      .containsOnly(entry("jms.batch_trace_ids", "0000000000000001"));
+    assertThat(processSpan.parentId()).isEqualTo(batchSpan.id());
+
+    // Like a traced consumer, messages carry their consumer span, or the batch span if they have none
+    assertThat(JmsTest.propertiesToMap(message))
+      .containsOnly(entry("b3", "0000000000000001-" + messageSpan.id() + "-1"));
+    assertThat(JmsTest.propertiesToMap(unsampled))
+      .containsOnly(entry("b3", batchSpan.traceId() + "-" + batchSpan.id() + "-1"));
+  }
+
+  @Test public void nextBatchSpan_retainsPropagationProperties() throws Exception {
+    jmsTracing = JmsTracing.newBuilder(tracing).clearPropagationProperties(false).build();
+    ActiveMQTextMessage untraced = new ActiveMQTextMessage();
+    SETTER.put(message, "b3", "0000000000000001-0000000000000002-1");
+
+    jmsTracing.nextBatchSpan(asList(message, untraced)).start().finish();
+
+    zipkin2.Span messageSpan = takeSpan(), batchSpan = takeSpan();
+    takeSpan(); // process span
+    assertThat(JmsTest.propertiesToMap(message))
+      .containsOnly(entry("b3", "0000000000000001-0000000000000002-1"));
+    assertThat(JmsTest.propertiesToMap(untraced)).isEmpty();
+
+    // Processing continues from the consumer spans
+    assertThat(jmsTracing.nextSpan(message).context().parentIdString())
+      .isEqualTo(messageSpan.id());
+    assertThat(jmsTracing.nextSpan(untraced).context().parentIdString())
+      .isEqualTo(batchSpan.id());
+  }
+
+  @Test public void nextBatchSpan_truncatesTraceIds() throws Exception {
+    List<ActiveMQTextMessage> messages = new ArrayList<>();
+    for (int i = 1; i <= BatchTraceIds.MAX_TRACE_IDS + 1; i++) {
+      ActiveMQTextMessage traced = new ActiveMQTextMessage();
+      SETTER.put(traced, "b3", String.format("%016x-0000000000000002-1", i));
+      messages.add(traced);
+    }
+
+    jmsTracing.nextBatchSpan(messages).start().finish();
+
+    for (int i = 0; i < messages.size(); i++) takeSpan(); // message spans
+    assertThat(takeSpan().tags().get("jms.batch_trace_ids")).endsWith(",...");
+    takeSpan(); // process span
+  }
+
   @Test public void nextSpan_should_not_clear_other_headers() throws Exception {
     message.setIntProperty("foo", 1);
 
@@ -52,6 +52,30 @@ public class PropertyFilterTest {
     assertThat(message).isEqualToIgnoringGivenFields(newMessageWithAllTypes(), "processAsExpired");
   }
 
+  @Test public void filterProperties_message_readOnlyInPlace() throws Exception {
+    ActiveMQTextMessage message = (ActiveMQTextMessage) newMessageWithAllTypes();
+    message.setStringProperty("b3", "00f067aa0ba902b7-00f067aa0ba902b7-1");
+    message.setReadOnlyProperties(true);
+    Object object = message.getObjectProperty("object");
+
+    PropertyFilter.filterProperties(message, Collections.singleton("b3"));
+
+    assertThat(message.propertyExists("b3")).isFalse();
+    assertThat(message.getObjectProperty("object")).isSameAs(object); // not copied
+    assertThat(message.isReadOnlyProperties()).isFalse();
+    message.setStringProperty("b3", "00f067aa0ba902b7-00f067aa0ba902b8-1");
+  }
+
+  @Test public void inPlacePropertyFilter_vendorTypes() {
+    assertThat(InPlacePropertyFilter.forMessage(new ActiveMQTextMessage()))
+      .isInstanceOf(InPlacePropertyFilter.ActiveMQ.class);
+    assertThat(InPlacePropertyFilter.forMessage(
+      mock(org.apache.activemq.artemis.jms.client.ActiveMQTextMessage.class)))
+      .isInstanceOf(InPlacePropertyFilter.Artemis.class);
+    assertThat(InPlacePropertyFilter.forMessage(mock(Message.class)))
+      .isNull();
+  }
+
   // When brave-instrumentation-jms is wrapped around an AWS SQSConnectionFactory, PropertyFilter.filterProperties()
   // attempts to re-set properties on the received SQSMessage object. Doing so fails because SQSMessage throws an
   // IllegalArgumentException if either the property name or value are empty. (Even though the properties came from
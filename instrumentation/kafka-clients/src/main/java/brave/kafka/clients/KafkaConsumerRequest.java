@@ -18,12 +18,14 @@ import brave.internal.Nullable;
 import brave.messaging.ConsumerRequest;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 
+import static brave.kafka.clients.KafkaPropagation.BYTES_GETTER;
+import static brave.kafka.clients.KafkaPropagation.BYTES_SETTER;
 import static brave.kafka.clients.KafkaPropagation.GETTER;
 import static brave.kafka.clients.KafkaPropagation.SETTER;
 
 // intentionally not yet public until we add tag parsing functionality
 final class KafkaConsumerRequest extends ConsumerRequest {
-  final ConsumerRecord<?, ?> delegate;
+  ConsumerRecord<?, ?> delegate; // mutable so that TracingConsumer can reuse this per poll
 
   KafkaConsumerRequest(ConsumerRecord<?, ?> delegate) {
     if (delegate == null) throw new NullPointerException("delegate == null");
@@ -57,4 +59,12 @@ final class KafkaConsumerRequest extends ConsumerRequest {
   void setHeader(String key, String value) {
     SETTER.put(delegate.headers(), key, value);
   }
+
+  @Nullable byte[] getHeaderBytes(String key) {
+    return BYTES_GETTER.get(delegate.headers(), key);
+  }
+
+  void setHeaderBytes(String key, byte[] value) {
+    BYTES_SETTER.put(delegate.headers(), key, value);
+  }
 }
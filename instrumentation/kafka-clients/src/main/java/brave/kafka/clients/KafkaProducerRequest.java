@@ -18,6 +18,8 @@ import brave.internal.Nullable;
 import brave.messaging.ProducerRequest;
 import org.apache.kafka.clients.producer.ProducerRecord;
 
+import static brave.kafka.clients.KafkaPropagation.BYTES_GETTER;
+import static brave.kafka.clients.KafkaPropagation.BYTES_SETTER;
 import static brave.kafka.clients.KafkaPropagation.GETTER;
 import static brave.kafka.clients.KafkaPropagation.SETTER;
 
@@ -57,4 +59,12 @@ final class KafkaProducerRequest extends ProducerRequest {
   void setHeader(String key, String value) {
     SETTER.put(delegate.headers(), key, value);
   }
+
+  @Nullable byte[] getHeaderBytes(String key) {
+    return BYTES_GETTER.get(delegate.headers(), key);
+  }
+
+  void setHeaderBytes(String key, byte[] value) {
+    BYTES_SETTER.put(delegate.headers(), key, value);
+  }
 }
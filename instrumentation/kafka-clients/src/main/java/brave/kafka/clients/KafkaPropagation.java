@@ -13,6 +13,8 @@
  */
 package brave.kafka.clients;
 
+import brave.propagation.Propagation.BytesGetter;
+import brave.propagation.Propagation.BytesSetter;
 import brave.propagation.Propagation.Getter;
 import brave.propagation.Propagation.Setter;
 import org.apache.kafka.common.header.Header;
@@ -32,6 +34,17 @@ final class KafkaPropagation {
     return new String(header.value(), UTF_8);
   };
 
+  /** Used by tracing, so that trace identifiers are parsed without decoding a string. */
+  static final BytesSetter<Headers, String> BYTES_SETTER = (carrier, key, value) -> {
+    carrier.remove(key);
+    carrier.add(key, value);
+  };
+
+  static final BytesGetter<Headers, String> BYTES_GETTER = (carrier, key) -> {
+    Header header = carrier.lastHeader(key);
+    return header != null ? header.value() : null;
+  };
+
   KafkaPropagation() {
   }
 }
@@ -20,6 +20,7 @@ import brave.Tracing;
 import brave.messaging.MessagingRequest;
 import brave.messaging.MessagingTracing;
 import brave.propagation.B3Propagation;
+import brave.propagation.BytesPropagation;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
@@ -120,23 +121,37 @@ public final class KafkaTracing {
   final Injector<KafkaConsumerRequest> consumerInjector;
   final SamplerFunction<MessagingRequest> producerSampler, consumerSampler;
   final Set<String> propagationKeys;
+  final String[] propagationKeyArray; // iterated without allocating
   final String remoteServiceName;
   final boolean singleRootSpanOnReceiveBatch;
+  final boolean emptyHeadersExtractNothing;
 
   KafkaTracing(Builder builder) { // intentionally hidden constructor
     this.messagingTracing = builder.messagingTracing;
     this.tracer = builder.messagingTracing.tracing().tracer();
     Propagation<String> propagation = messagingTracing.tracing().propagation();
-    this.producerExtractor = propagation.extractor(KafkaProducerRequest::getHeader);
-    this.consumerExtractor = propagation.extractor(KafkaConsumerRequest::getHeader);
-    this.processorExtractor = propagation.extractor(KafkaPropagation.GETTER);
-    this.producerInjector = propagation.injector(KafkaProducerRequest::setHeader);
-    this.consumerInjector = propagation.injector(KafkaConsumerRequest::setHeader);
+    // Headers are bytes, so avoid decoding and encoding strings when the propagation supports it
+    this.producerExtractor =
+      BytesPropagation.extractor(propagation, KafkaProducerRequest::getHeaderBytes);
+    this.consumerExtractor =
+      BytesPropagation.extractor(propagation, KafkaConsumerRequest::getHeaderBytes);
+    this.processorExtractor =
+      BytesPropagation.extractor(propagation, KafkaPropagation.BYTES_GETTER);
+    this.producerInjector =
+      BytesPropagation.injector(propagation, KafkaProducerRequest::setHeaderBytes);
+    this.consumerInjector =
+      BytesPropagation.injector(propagation, KafkaConsumerRequest::setHeaderBytes);
     this.producerSampler = messagingTracing.producerSampler();
     this.consumerSampler = messagingTracing.consumerSampler();
     this.propagationKeys = new LinkedHashSet<>(propagation.keys());
+    this.propagationKeyArray = propagationKeys.toArray(new String[0]);
     this.remoteServiceName = builder.remoteServiceName;
     this.singleRootSpanOnReceiveBatch = builder.singleRootSpanOnReceiveBatch;
+    // Most formats extract nothing from a record without propagation headers. Learning this once
+    // allows extraction of such records to be skipped. Formats with extra fields extract something.
+    this.emptyHeadersExtractNothing = consumerExtractor.extract(
+      new KafkaConsumerRequest(new ConsumerRecord<>("", 0, 0L, null, null))
+    ).equals(TraceContextOrSamplingFlags.EMPTY);
   }
 
   /** @since 5.9 exposed for Kafka Streams tracing. */
@@ -182,6 +197,9 @@ public final class KafkaTracing {
   <R> TraceContextOrSamplingFlags extractAndClearHeaders(
     Extractor<R> extractor, R request, Headers headers
   ) {
+    if (emptyHeadersExtractNothing && !hasPropagationHeader(headers)) {
+      return TraceContextOrSamplingFlags.EMPTY;
+    }
     TraceContextOrSamplingFlags extracted = extractor.extract(request);
     // Clear any propagation keys present in the headers
     if (!extracted.equals(TraceContextOrSamplingFlags.EMPTY)) {
@@ -190,6 +208,14 @@ public final class KafkaTracing {
     return extracted;
   }
 
+  /** Unlike {@link Headers#toArray()} or {@link Headers#iterator()}, this doesn't allocate. */
+  boolean hasPropagationHeader(Headers headers) {
+    for (String key : propagationKeyArray) {
+      if (headers.lastHeader(key) != null) return true;
+    }
+    return false;
+  }
+
   /** Creates a potentially noop remote span representing this request */
   Span nextMessagingSpan(
     SamplerFunction<MessagingRequest> sampler,
@@ -80,39 +80,58 @@ final class TracingConsumer<K, V> implements Consumer<K, V> {
     return poll(timeout.toMillis());
   }
 
-  /** This uses a single timestamp for all records polled, to reduce overhead. */
+  /**
+   * This processes each poll as a batch, so that tracing overhead is mostly per poll as opposed to
+   * per record: a single timestamp is used for all records, one request wrapper is reused and
+   * records without propagation headers skip extraction when that would result in nothing.
+   */
   // Do not use @Override annotation to avoid compatibility on deprecated methods
   public ConsumerRecords<K, V> poll(long timeout) {
     ConsumerRecords<K, V> records = delegate.poll(timeout);
     if (records.isEmpty() || tracing.isNoop()) return records;
     long timestamp = 0L;
-    Map<String, Span> consumerSpansForTopic = new LinkedHashMap<>();
+    // Only allocated when a poll includes records of more than one topic
+    Map<String, Span> consumerSpansForTopic = null;
+    String lastTopic = null;
+    Span consumerSpan = null; // the shared span for the last topic
+    // Samplers and injectors don't retain the request, so one instance is reused for all records
+    KafkaConsumerRequest request = null;
     for (TopicPartition partition : records.partitions()) {
       String topic = partition.topic();
+      if (!topic.equals(lastTopic)) { // look up the shared span once per partition, not record
+        if (lastTopic != null && consumerSpan != null) {
+          if (consumerSpansForTopic == null) consumerSpansForTopic = new LinkedHashMap<>();
+          consumerSpansForTopic.put(lastTopic, consumerSpan);
+        }
+        consumerSpan = consumerSpansForTopic != null ? consumerSpansForTopic.get(topic) : null;
+        lastTopic = topic;
+      }
       List<ConsumerRecord<K, V>> recordsInPartition = records.records(partition);
       for (int i = 0, length = recordsInPartition.size(); i < length; i++) {
         ConsumerRecord<K, V> record = recordsInPartition.get(i);
-        KafkaConsumerRequest request = new KafkaConsumerRequest(record);
+        if (request == null) {
+          request = new KafkaConsumerRequest(record);
+        } else {
+          request.delegate = record;
+        }
         TraceContextOrSamplingFlags extracted =
           kafkaTracing.extractAndClearHeaders(extractor, request, record.headers());
 
         // If we extracted neither a trace context, nor request-scoped data (extra),
         // and sharing trace is enabled make or reuse a span for this topic
         if (extracted.equals(TraceContextOrSamplingFlags.EMPTY) && singleRootSpanOnReceiveBatch) {
-          Span span = consumerSpansForTopic.get(topic);
-          if (span == null) {
-            span = kafkaTracing.nextMessagingSpan(sampler, request, extracted);
-            if (!span.isNoop()) {
-              setConsumerSpan(topic, span);
+          if (consumerSpan == null) {
+            consumerSpan = kafkaTracing.nextMessagingSpan(sampler, request, extracted);
+            if (!consumerSpan.isNoop()) {
+              setConsumerSpan(topic, consumerSpan);
               // incur timestamp overhead only once
               if (timestamp == 0L) {
-                timestamp = tracing.clock(span.context()).currentTimeMicroseconds();
+                timestamp = tracing.clock(consumerSpan.context()).currentTimeMicroseconds();
               }
-              span.start(timestamp);
+              consumerSpan.start(timestamp);
             }
-            consumerSpansForTopic.put(topic, span);
           }
-          injector.inject(span.context(), request);
+          injector.inject(consumerSpan.context(), request);
         } else { // we extracted request-scoped data, so cannot share a consumer span.
           Span span = kafkaTracing.nextMessagingSpan(sampler, request, extracted);
           if (!span.isNoop()) {
@@ -127,7 +146,12 @@ final class TracingConsumer<K, V> implements Consumer<K, V> {
         }
       }
     }
-    for (Span span : consumerSpansForTopic.values()) span.finish(timestamp);
+    if (consumerSpansForTopic != null) {
+      if (consumerSpan != null) consumerSpansForTopic.put(lastTopic, consumerSpan);
+      for (Span span : consumerSpansForTopic.values()) span.finish(timestamp);
+    } else if (consumerSpan != null) {
+      consumerSpan.finish(timestamp);
+    }
     return records;
   }
 
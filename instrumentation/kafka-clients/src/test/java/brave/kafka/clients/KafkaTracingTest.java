@@ -121,4 +121,12 @@ public class KafkaTracingTest extends BaseTracingTest {
     kafkaTracing.nextSpan(fakeRecord);
     assertThat(fakeRecord.headers().headers("foo")).isNotEmpty();
   }
+
+  @Test public void hasPropagationHeader() {
+    fakeRecord.headers().add("foo", new byte[0]);
+    assertThat(kafkaTracing.hasPropagationHeader(fakeRecord.headers())).isFalse();
+
+    fakeRecord.headers().add("b3", "0000000000000001-0000000000000002-1".getBytes(UTF_8));
+    assertThat(kafkaTracing.hasPropagationHeader(fakeRecord.headers())).isTrue();
+  }
 }
@@ -25,6 +25,7 @@ import org.junit.Before;
 import org.junit.Test;
 import zipkin2.Span;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
@@ -176,4 +177,56 @@ public class TracingConsumerTest extends BaseTracingTest {
         .flatExtracting(s -> s.tags().entrySet())
         .containsOnly(entry("kafka.topic", "myTopic"));
   }
+
+  @Test
+  public void should_create_one_consumer_span_per_topic_acrossPartitions() {
+    Map<TopicPartition, Long> offsets = new HashMap<>();
+    // partitions of two topics, which can be returned in any order
+    offsets.put(new TopicPartition(TEST_TOPIC, 0), 0L);
+    offsets.put(new TopicPartition("otherTopic", 0), 0L);
+    offsets.put(new TopicPartition(TEST_TOPIC, 1), 0L);
+
+    consumer.updateBeginningOffsets(offsets);
+    consumer.assign(offsets.keySet());
+
+    for (int i = 0; i < 10; i++) {
+      consumer.addRecord(new ConsumerRecord<>(TEST_TOPIC, 0, i, TEST_KEY, TEST_VALUE));
+      consumer.addRecord(new ConsumerRecord<>("otherTopic", 0, i, TEST_KEY, TEST_VALUE));
+      consumer.addRecord(new ConsumerRecord<>(TEST_TOPIC, 1, i, TEST_KEY, TEST_VALUE));
+    }
+
+    Consumer<String, String> tracingConsumer = kafkaTracing.consumer(consumer);
+    tracingConsumer.poll(10);
+
+    assertThat(spans)
+      .flatExtracting(s -> s.tags().entrySet())
+      .containsExactlyInAnyOrder(
+        entry("kafka.topic", "myTopic"),
+        entry("kafka.topic", "otherTopic")
+      );
+  }
+
+  @Test
+  public void should_createChildOfTraceHeaders_amongRecordsWithoutHeaders() {
+    ConsumerRecord<String, String> withHeaders =
+      new ConsumerRecord<>(TEST_TOPIC, 0, 2L, TEST_KEY, TEST_VALUE);
+    addB3MultiHeaders(withHeaders);
+    consumer.addRecord(fakeRecord);
+    consumer.addRecord(withHeaders);
+    consumer.addRecord(new ConsumerRecord<>(TEST_TOPIC, 0, 3L, TEST_KEY, TEST_VALUE));
+
+    Consumer<String, String> tracingConsumer = kafkaTracing.consumer(consumer);
+    ConsumerRecords<String, String> poll = tracingConsumer.poll(10);
+
+    // one span shared by records without headers, and a child of the one with headers
+    assertThat(spans).hasSize(2);
+    assertThat(spans).filteredOn(s -> TRACE_ID.equals(s.traceId())).hasSize(1);
+    String sharedTraceId = spans.stream()
+      .filter(s -> !TRACE_ID.equals(s.traceId())).findFirst().get().traceId();
+
+    assertThat(poll)
+      .extracting(r -> new String(r.headers().lastHeader("b3").value(), UTF_8))
+      .extracting(b3 -> b3.substring(0, b3.indexOf('-')))
+      .containsExactly(sharedTraceId, TRACE_ID, sharedTraceId);
+  }
 }
@@ -13,23 +13,20 @@
  */
 package brave.kafka.streams;
 
-import brave.propagation.Propagation.Getter;
-import brave.propagation.Propagation.Setter;
+import brave.propagation.Propagation.BytesGetter;
+import brave.propagation.Propagation.BytesSetter;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 final class KafkaStreamsPropagation {
-  static final Getter<Headers, String> GETTER = (carrier, key) -> {
+  static final BytesGetter<Headers, String> GETTER = (carrier, key) -> {
     Header header = carrier.lastHeader(key);
-    if (header == null) return null;
-    return new String(header.value(), UTF_8);
+    return header != null ? header.value() : null;
   };
 
-  static final Setter<Headers, String> SETTER = (carrier, key, value) -> {
+  static final BytesSetter<Headers, String> SETTER = (carrier, key, value) -> {
     carrier.remove(key);
-    carrier.add(key, value.getBytes(UTF_8));
+    carrier.add(key, value);
   };
 
   KafkaStreamsPropagation() {
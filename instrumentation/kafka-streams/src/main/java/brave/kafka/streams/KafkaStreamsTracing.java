@@ -19,6 +19,7 @@ import brave.Tracer;
 import brave.Tracing;
 import brave.kafka.clients.KafkaTracing;
 import brave.messaging.MessagingTracing;
+import brave.propagation.BytesPropagation;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
 import brave.propagation.TraceContextOrSamplingFlags;
@@ -62,8 +63,8 @@ public final class KafkaStreamsTracing {
     this.tracer = kafkaTracing.messagingTracing().tracing().tracer();
     Propagation<String> propagation = kafkaTracing.messagingTracing().tracing().propagation();
     this.propagationKeys = new LinkedHashSet<>(propagation.keys());
-    this.extractor = propagation.extractor(KafkaStreamsPropagation.GETTER);
-    this.injector = propagation.injector(KafkaStreamsPropagation.SETTER);
+    this.extractor = BytesPropagation.extractor(propagation, KafkaStreamsPropagation.GETTER);
+    this.injector = BytesPropagation.injector(propagation, KafkaStreamsPropagation.SETTER);
   }
 
   public static KafkaStreamsTracing create(Tracing tracing) {
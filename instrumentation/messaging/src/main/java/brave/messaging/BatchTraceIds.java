@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.messaging;
+
+import brave.propagation.TraceContext;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the IDs of upstream traces continued while consuming a batch of messages, so that they
+ * can be tagged on the batch's consumer span. For example, "jms.batch_trace_ids".
+ *
+ * <p>At most {@link #MAX_TRACE_IDS} distinct IDs are kept, so that a large batch doesn't result in
+ * a huge tag. When more were added, the {@link #toString() tag value} ends with ",...".
+ *
+ * @since 5.11
+ */
+public final class BatchTraceIds {
+  /** @since 5.11 */
+  public static final int MAX_TRACE_IDS = 32;
+
+  final Set<String> traceIds = new LinkedHashSet<>();
+  boolean truncated;
+
+  /** Adds the trace ID of the context, unless it was already added. */
+  public void add(TraceContext context) {
+    if (context == null) throw new NullPointerException("context == null");
+    if (truncated) return;
+    String traceId = context.traceIdString();
+    if (traceIds.size() < MAX_TRACE_IDS) {
+      traceIds.add(traceId);
+    } else if (!traceIds.contains(traceId)) {
+      truncated = true;
+    }
+  }
+
+  /** Returns the comma-separated trace IDs, ending with ",..." if any were dropped. */
+  @Override public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (Iterator<String> i = traceIds.iterator(); i.hasNext(); ) {
+      result.append(i.next());
+      if (i.hasNext()) result.append(',');
+    }
+    if (truncated) result.append(",...");
+    return result.toString();
+  }
+}
@@ -13,6 +13,7 @@
  */
 package brave.messaging;
 
+import brave.internal.PropertyMatcher;
 import brave.sampler.Matcher;
 import brave.sampler.Matchers;
 
@@ -37,15 +38,16 @@ public final class MessagingRequestMatchers {
   }
 
   static final class MessagingOperationEquals<Req extends MessagingRequest>
-    implements Matcher<Req> {
+    extends PropertyMatcher<Req> {
     final String operation;
 
     MessagingOperationEquals(String operation) {
+      super("messaging.operation", operation, false);
       this.operation = operation;
     }
 
-    @Override public boolean matches(Req request) {
-      return operation.equals(request.operation());
+    @Override public String property(Req request) {
+      return request.operation();
     }
 
     @Override public boolean equals(Object o) {
@@ -77,15 +79,16 @@ public final class MessagingRequestMatchers {
   }
 
   static final class MessagingChannelKindEquals<Req extends MessagingRequest>
-    implements Matcher<Req> {
+    extends PropertyMatcher<Req> {
     final String channelKind;
 
     MessagingChannelKindEquals(String channelKind) {
+      super("messaging.channel_kind", channelKind, false);
       this.channelKind = channelKind;
     }
 
-    @Override public boolean matches(Req request) {
-      return channelKind.equals(request.channelKind());
+    @Override public String property(Req request) {
+      return request.channelKind();
     }
 
     @Override public boolean equals(Object o) {
@@ -117,15 +120,16 @@ public final class MessagingRequestMatchers {
   }
 
   static final class MessagingChannelNameEquals<Req extends MessagingRequest>
-    implements Matcher<Req> {
+    extends PropertyMatcher<Req> {
     final String channelName;
 
     MessagingChannelNameEquals(String channelName) {
+      super("messaging.channel_name", channelName, false);
       this.channelName = channelName;
     }
 
-    @Override public boolean matches(Req request) {
-      return channelName.equals(request.channelName());
+    @Override public String property(Req request) {
+      return request.channelName();
     }
 
     @Override public boolean equals(Object o) {
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.messaging;
+
+import brave.propagation.TraceContext;
+import org.junit.Test;
+
+import static brave.messaging.BatchTraceIds.MAX_TRACE_IDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchTraceIdsTest {
+  BatchTraceIds traceIds = new BatchTraceIds();
+
+  @Test public void toString_empty() {
+    assertThat(traceIds).hasToString("");
+  }
+
+  @Test public void toString_joinsDistinctIds() {
+    traceIds.add(context(1L));
+    traceIds.add(context(2L));
+    traceIds.add(context(1L));
+
+    assertThat(traceIds).hasToString("0000000000000001,0000000000000002");
+  }
+
+  @Test public void toString_notesTruncation() {
+    for (long i = 1; i <= MAX_TRACE_IDS + 1; i++) traceIds.add(context(i));
+
+    assertThat(traceIds.toString())
+      .startsWith("0000000000000001,")
+      .endsWith(String.format(",%016x,...", MAX_TRACE_IDS))
+      .doesNotContain(String.format("%016x", MAX_TRACE_IDS + 1));
+  }
+
+  @Test public void toString_notTruncatedByDuplicates() {
+    for (long i = 1; i <= MAX_TRACE_IDS; i++) traceIds.add(context(i));
+    traceIds.add(context(1L));
+
+    assertThat(traceIds.toString()).doesNotEndWith(",...");
+  }
+
+  static TraceContext context(long traceId) {
+    return TraceContext.newBuilder().traceId(traceId).spanId(1L).build();
+  }
+}
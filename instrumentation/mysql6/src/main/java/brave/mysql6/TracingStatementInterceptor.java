@@ -26,6 +26,8 @@ import java.net.URI;
 import java.sql.SQLException;
 import java.util.Properties;
 
+import static brave.internal.SqlStatements.spanName;
+
 /**
  * A MySQL statement interceptor that will report to Zipkin how long each statement takes.
  *
@@ -54,8 +56,7 @@ public class TracingStatementInterceptor implements StatementInterceptor {
     if (interceptedStatement instanceof PreparedStatement) {
       sql = ((PreparedStatement) interceptedStatement).getPreparedSql();
     }
-    int spaceIndex = sql.indexOf(' '); // Allow span names of single-word statements like COMMIT
-    span.kind(Span.Kind.CLIENT).name(spaceIndex == -1 ? sql : sql.substring(0, spaceIndex));
+    span.kind(Span.Kind.CLIENT).name(spanName(sql));
     span.tag("sql.query", sql);
     parseServerIpAndPort(connection, span);
     span.start();
@@ -79,29 +80,66 @@ public class TracingStatementInterceptor implements StatementInterceptor {
     return null;
   }
 
+  /**
+   * Resolved on the first query, as interceptors are created per connection, and again when the
+   * catalog changes.
+   */
+  private RemoteEndpoint remoteEndpoint;
+
   /**
    * MySQL exposes the host connecting to, but not the port. This attempts to get the port from the
    * JDBC URL. Ex. 5555 from {@code jdbc:mysql://localhost:5555/database}, or 3306 if absent.
+   *
+   * <p>The result is cached, and only resolved again when the catalog, which is the default remote
+   * service name, changes. For example, after a USE statement or {@code setCatalog}, whether or not
+   * those were traced. Connector/J caches the catalog, so reading it doesn't query the server.
    */
-  static void parseServerIpAndPort(MysqlConnection connection, Span span) {
+  void parseServerIpAndPort(MysqlConnection connection, Span span) {
     try {
+      RemoteEndpoint endpoint = remoteEndpoint;
+      if (endpoint == null || !endpoint.isValidFor(connection)) {
+        remoteEndpoint = endpoint = RemoteEndpoint.resolve(connection);
+      }
+      span.remoteServiceName(endpoint.remoteServiceName);
+      if (endpoint.host != null) span.remoteIpAndPort(endpoint.host, endpoint.port);
+    } catch (Exception e) {
+      // remote address is optional
+    }
+  }
+
+  static final class RemoteEndpoint {
+    static RemoteEndpoint resolve(MysqlConnection connection) throws SQLException {
       URI url = URI.create(connection.getURL().substring(5)); // strip "jdbc:"
       String remoteServiceName = connection.getProperties().getProperty("zipkinServiceName");
+      String catalog = getDatabaseName(connection);
       if (remoteServiceName == null || "".equals(remoteServiceName)) {
-        String databaseName = getDatabaseName(connection);
-        if (databaseName != null && !databaseName.isEmpty()) {
-          remoteServiceName = "mysql-" + databaseName;
+        if (catalog != null && !catalog.isEmpty()) {
+          remoteServiceName = "mysql-" + catalog;
         } else {
           remoteServiceName = "mysql";
         }
       }
-      span.remoteServiceName(remoteServiceName);
-      String host = getHost(connection);
-      if (host != null) {
-        span.remoteIpAndPort(host, url.getPort() == -1 ? 3306 : url.getPort());
-      }
-    } catch (Exception e) {
-      // remote address is optional
+      int port = url.getPort() == -1 ? 3306 : url.getPort();
+      return new RemoteEndpoint(connection, catalog, remoteServiceName, getHost(connection), port);
+    }
+
+    final MysqlConnection connection;
+    final String catalog, remoteServiceName, host;
+    final int port;
+
+    RemoteEndpoint(MysqlConnection connection, String catalog, String remoteServiceName,
+      String host, int port) {
+      this.connection = connection;
+      this.catalog = catalog;
+      this.remoteServiceName = remoteServiceName;
+      this.host = host;
+      this.port = port;
+    }
+
+    boolean isValidFor(MysqlConnection connection) throws SQLException {
+      if (this.connection != connection) return false;
+      String catalog = getDatabaseName(connection);
+      return this.catalog == null ? catalog == null : this.catalog.equals(catalog);
     }
   }
 
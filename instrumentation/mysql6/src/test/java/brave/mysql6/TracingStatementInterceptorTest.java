@@ -14,14 +14,22 @@
 package brave.mysql6;
 
 import brave.Span;
+import brave.Tracing;
+import brave.sampler.Sampler;
 import com.mysql.cj.api.jdbc.JdbcConnection;
+import com.mysql.cj.api.log.Log;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -32,11 +40,12 @@ public class TracingStatementInterceptorTest {
 
   @Mock Span span;
   String url = "jdbc:mysql://myhost:5555/mydatabase";
+  TracingStatementInterceptor interceptor = new TracingStatementInterceptor();
 
   @Test public void parseServerIpAndPort_ipFromHost_portFromUrl() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4");
 
-    TracingStatementInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("mysql");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -46,7 +55,7 @@ public class TracingStatementInterceptorTest {
     setupAndReturnPropertiesForHost("1.2.3.4");
     when(connection.getCatalog()).thenReturn("mydatabase");
 
-    TracingStatementInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("mysql-mydatabase");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -55,7 +64,7 @@ public class TracingStatementInterceptorTest {
   @Test public void parseServerIpAndPort_propertiesOverrideServiceName() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4").setProperty("zipkinServiceName", "foo");
 
-    TracingStatementInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("foo");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -64,7 +73,7 @@ public class TracingStatementInterceptorTest {
   @Test public void parseServerIpAndPort_emptyZipkinServiceNameIgnored() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4").setProperty("zipkinServiceName", "");
 
-    TracingStatementInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("mysql");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -73,11 +82,56 @@ public class TracingStatementInterceptorTest {
   @Test public void parseServerIpAndPort_doesntCrash() {
     when(connection.getURL()).thenThrow(new RuntimeException());
 
-    TracingStatementInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verifyNoMoreInteractions(span);
   }
 
+  @Test public void parseServerIpAndPort_cachedForConnection() throws SQLException {
+    setupAndReturnPropertiesForHost("1.2.3.4").setProperty("zipkinServiceName", "foo");
+
+    interceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
+
+    verify(connection).getURL();
+    verify(span, times(2)).remoteServiceName("foo");
+    verify(span, times(2)).remoteIpAndPort("1.2.3.4", 5555);
+  }
+
+  @Test public void preProcess_resolvesServiceNameAgainWhenCatalogChanges() throws SQLException {
+    setupAndReturnPropertiesForHost("1.2.3.4");
+    when(connection.getCatalog()).thenReturn("mydatabase");
+    TracingStatementInterceptor interceptor = (TracingStatementInterceptor)
+      this.interceptor.init(connection, new Properties(), mock(Log.class));
+
+    List<zipkin2.Span> spans = new ArrayList<>();
+    try (Tracing tracing = Tracing.newBuilder().sampler(sampler).spanReporter(spans::add).build()) {
+      execute(interceptor, "select 1");
+      sampled = false;
+      execute(interceptor, "USE otherdatabase");
+      when(connection.getCatalog()).thenReturn("otherdatabase");
+      sampled = true;
+      execute(interceptor, "select 1");
+      execute(interceptor, "select 1");
+    }
+
+    assertThat(spans).extracting(zipkin2.Span::remoteServiceName).containsExactly(
+      "mysql-mydatabase", "mysql-otherdatabase", "mysql-otherdatabase");
+    verify(connection, times(2)).getURL(); // only resolved again when the catalog changed
+  }
+
+  boolean sampled = true;
+  Sampler sampler = new Sampler() {
+    @Override public boolean isSampled(long traceId) {
+      return sampled;
+    }
+  };
+
+  void execute(TracingStatementInterceptor interceptor, String sql) {
+    interceptor.preProcess(sql, null);
+    interceptor.postProcess(sql, null, null, 0, false, false, null);
+  }
+
   Properties setupAndReturnPropertiesForHost(String host) {
     when(connection.getURL()).thenReturn(url);
     Properties properties = new Properties();
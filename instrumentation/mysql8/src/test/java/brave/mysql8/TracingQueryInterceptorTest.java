@@ -14,14 +14,22 @@
 package brave.mysql8;
 
 import brave.Span;
+import brave.Tracing;
+import brave.sampler.Sampler;
 import com.mysql.cj.jdbc.JdbcConnection;
+import com.mysql.cj.log.Log;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -31,11 +39,12 @@ public class TracingQueryInterceptorTest {
   @Mock JdbcConnection connection;
   @Mock Span span;
   String url = "jdbc:mysql://myhost:5555/mydatabase";
+  TracingQueryInterceptor interceptor = new TracingQueryInterceptor();
 
   @Test public void parseServerIpAndPort_ipFromHost_portFromUrl() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4");
 
-    TracingQueryInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("mysql");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -45,7 +54,7 @@ public class TracingQueryInterceptorTest {
     setupAndReturnPropertiesForHost("1.2.3.4");
     when(connection.getCatalog()).thenReturn("mydatabase");
 
-    TracingQueryInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("mysql-mydatabase");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -54,7 +63,7 @@ public class TracingQueryInterceptorTest {
   @Test public void parseServerIpAndPort_propertiesOverrideServiceName() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4").setProperty("zipkinServiceName", "foo");
 
-    TracingQueryInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("foo");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -63,7 +72,7 @@ public class TracingQueryInterceptorTest {
   @Test public void parseServerIpAndPort_emptyZipkinServiceNameIgnored() throws SQLException {
     setupAndReturnPropertiesForHost("1.2.3.4").setProperty("zipkinServiceName", "");
 
-    TracingQueryInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verify(span).remoteServiceName("mysql");
     verify(span).remoteIpAndPort("1.2.3.4", 5555);
@@ -72,11 +81,56 @@ public class TracingQueryInterceptorTest {
   @Test public void parseServerIpAndPort_doesntCrash() {
     when(connection.getURL()).thenThrow(new RuntimeException());
 
-    TracingQueryInterceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
 
     verifyNoMoreInteractions(span);
   }
 
+  @Test public void parseServerIpAndPort_cachedForConnection() throws SQLException {
+    setupAndReturnPropertiesForHost("1.2.3.4").setProperty("zipkinServiceName", "foo");
+
+    interceptor.parseServerIpAndPort(connection, span);
+    interceptor.parseServerIpAndPort(connection, span);
+
+    verify(connection).getURL();
+    verify(span, times(2)).remoteServiceName("foo");
+    verify(span, times(2)).remoteIpAndPort("1.2.3.4", 5555);
+  }
+
+  @Test public void preProcess_resolvesServiceNameAgainWhenCatalogChanges() throws SQLException {
+    setupAndReturnPropertiesForHost("1.2.3.4");
+    when(connection.getCatalog()).thenReturn("mydatabase");
+    TracingQueryInterceptor interceptor = (TracingQueryInterceptor)
+      this.interceptor.init(connection, new Properties(), mock(Log.class));
+
+    List<zipkin2.Span> spans = new ArrayList<>();
+    try (Tracing tracing = Tracing.newBuilder().sampler(sampler).spanReporter(spans::add).build()) {
+      execute(interceptor, "select 1");
+      sampled = false;
+      execute(interceptor, "USE otherdatabase");
+      when(connection.getCatalog()).thenReturn("otherdatabase");
+      sampled = true;
+      execute(interceptor, "select 1");
+      execute(interceptor, "select 1");
+    }
+
+    assertThat(spans).extracting(zipkin2.Span::remoteServiceName).containsExactly(
+      "mysql-mydatabase", "mysql-otherdatabase", "mysql-otherdatabase");
+    verify(connection, times(2)).getURL(); // only resolved again when the catalog changed
+  }
+
+  boolean sampled = true;
+  Sampler sampler = new Sampler() {
+    @Override public boolean isSampled(long traceId) {
+      return sampled;
+    }
+  };
+
+  void execute(TracingQueryInterceptor interceptor, String sql) {
+    interceptor.preProcess(() -> sql, null);
+    interceptor.postProcess(() -> sql, null, null, null);
+  }
+
   Properties setupAndReturnPropertiesForHost(String host) {
     when(connection.getURL()).thenReturn(url);
     Properties properties = new Properties();
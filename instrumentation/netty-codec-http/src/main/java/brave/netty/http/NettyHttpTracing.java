@@ -13,21 +13,15 @@
  */
 package brave.netty.http;
 
-import brave.Span;
-import brave.Tracer.SpanInScope;
+import brave.Tracer;
 import brave.Tracing;
+import brave.http.HttpServerHandler;
 import brave.http.HttpServerRequest;
+import brave.http.HttpServerResponse;
 import brave.http.HttpTracing;
 import io.netty.channel.ChannelDuplexHandler;
-import io.netty.util.AttributeKey;
 
 public final class NettyHttpTracing {
-  static final AttributeKey<HttpServerRequest> REQUEST_ATTRIBUTE =
-    AttributeKey.valueOf(HttpServerRequest.class.getName());
-  static final AttributeKey<Span> SPAN_ATTRIBUTE = AttributeKey.valueOf(Span.class.getName());
-  static final AttributeKey<SpanInScope> SPAN_IN_SCOPE_ATTRIBUTE =
-    AttributeKey.valueOf(SpanInScope.class.getName());
-
   public static NettyHttpTracing create(Tracing tracing) {
     return new NettyHttpTracing(HttpTracing.create(tracing));
   }
@@ -36,16 +30,21 @@ public final class NettyHttpTracing {
     return new NettyHttpTracing(httpTracing);
   }
 
-  final ChannelDuplexHandler serverHandler;
+  final HttpServerHandler<HttpServerRequest, HttpServerResponse> handler;
+  final Tracer tracer;
 
   NettyHttpTracing(HttpTracing httpTracing) { // intentionally hidden constructor
-    serverHandler = new TracingHttpServerHandler(httpTracing);
+    tracer = httpTracing.tracing().tracer();
+    handler = HttpServerHandler.create(httpTracing);
   }
 
   /**
    * Returns a duplex handler that traces {@link io.netty.handler.codec.http.HttpRequest} messages.
+   *
+   * <p>The result tracks requests in flight on its channel, including pipelined ones. So, call
+   * this for each channel, as opposed to sharing the result.
    */
   public ChannelDuplexHandler serverHandler() {
-    return serverHandler;
+    return new TracingHttpServerHandler(handler, tracer);
   }
 }
@@ -19,7 +19,6 @@ import brave.Tracer.SpanInScope;
 import brave.http.HttpServerHandler;
 import brave.http.HttpServerRequest;
 import brave.http.HttpServerResponse;
-import brave.http.HttpTracing;
 import brave.internal.Nullable;
 import brave.internal.Platform;
 import io.netty.channel.ChannelDuplexHandler;
@@ -28,16 +27,38 @@ import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
+/**
+ * Traces HTTP requests on one channel. This holds the spans of requests in flight, so must be
+ * created per channel.
+ *
+ * <p>HTTP/1.1 responses are written in the same order as requests were read, even when requests
+ * are pipelined. So, each response is matched to the oldest request in flight. When HTTP/2
+ * streams are adapted to HTTP/1.1 messages, the request is matched on the stream ID header
+ * instead. State is only accessed on the channel's event loop, so it is not synchronized.
+ *
+ * <p>Requests still in flight when the channel closes will never get a response, so their spans
+ * are finished with an error. If this handler is removed from an open channel, responses can't be
+ * matched anymore, so the spans of requests in flight are abandoned instead.
+ */
 final class TracingHttpServerHandler extends ChannelDuplexHandler {
+  /** Added by {@code HttpConversionUtil} when HTTP/2 frames are converted to HTTP/1.1 messages */
+  static final String STREAM_ID_HEADER = "x-http2-stream-id";
+
   final HttpServerHandler<HttpServerRequest, HttpServerResponse> handler;
   final Tracer tracer;
+  final ArrayDeque<InFlight> inFlight = new ArrayDeque<>(4);
 
-  TracingHttpServerHandler(HttpTracing httpTracing) {
-    tracer = httpTracing.tracing().tracer();
-    handler = HttpServerHandler.create(httpTracing);
+  TracingHttpServerHandler(HttpServerHandler<HttpServerRequest, HttpServerResponse> handler,
+    Tracer tracer) {
+    this.handler = handler;
+    this.tracer = tracer;
   }
 
   @Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
@@ -46,16 +67,16 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
       return;
     }
 
-    HttpRequestWrapper request =
-      new HttpRequestWrapper((HttpRequest) msg, (InetSocketAddress) ctx.channel().remoteAddress());
-
-    ctx.channel().attr(NettyHttpTracing.REQUEST_ATTRIBUTE).set(request);
-    Span span = handler.handleReceive(request);
-    ctx.channel().attr(NettyHttpTracing.SPAN_ATTRIBUTE).set(span);
-    SpanInScope spanInScope = tracer.withSpanInScope(span);
-    ctx.channel().attr(NettyHttpTracing.SPAN_IN_SCOPE_ATTRIBUTE).set(spanInScope);
+    HttpRequest request = (HttpRequest) msg;
+    SocketAddress remoteAddress = ctx.channel().remoteAddress();
+    HttpRequestWrapper wrapper = new HttpRequestWrapper(request,
+      remoteAddress instanceof InetSocketAddress ? (InetSocketAddress) remoteAddress : null);
+    Span span = handler.handleReceive(wrapper);
+    InFlight current = new InFlight(wrapper, span, request.headers().get(STREAM_ID_HEADER));
+    inFlight.addLast(current);
 
     // Place the span in scope so that downstream code can read trace IDs
+    SpanInScope spanInScope = tracer.withSpanInScope(span);
     Throwable error = null;
     try {
       ctx.fireChannelRead(msg);
@@ -63,23 +84,25 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
       error = e;
       throw e;
     } finally {
-      if (error != null) span.error(error).finish();
+      if (error != null && inFlight.removeLastOccurrence(current)) span.error(error).finish();
       spanInScope.close();
     }
   }
 
   @Override public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise prm) {
-    Span span = ctx.channel().attr(NettyHttpTracing.SPAN_ATTRIBUTE).get();
-    if (span == null || !(msg instanceof HttpResponse)) {
+    if (!(msg instanceof HttpResponse) || inFlight.isEmpty()) {
       ctx.write(msg, prm);
       return;
     }
 
     HttpResponse response = (HttpResponse) msg;
+    InFlight current = remove(response);
+    if (current == null) {
+      ctx.write(msg, prm);
+      return;
+    }
 
-    // Guard re-scoping the same span
-    SpanInScope spanInScope = ctx.channel().attr(NettyHttpTracing.SPAN_IN_SCOPE_ATTRIBUTE).get();
-    if (spanInScope == null) spanInScope = tracer.withSpanInScope(span);
+    SpanInScope spanInScope = tracer.withSpanInScope(current.span);
     Throwable error = null;
     try {
       ctx.write(msg, prm);
@@ -87,17 +110,62 @@ final class TracingHttpServerHandler extends ChannelDuplexHandler {
       error = t;
       throw t;
     } finally {
-      HttpServerRequest request = ctx.channel().attr(NettyHttpTracing.REQUEST_ATTRIBUTE).get();
-      handler.handleSend(new HttpResponseWrapper(request, response, error), error, span);
+      handler.handleSend(new HttpResponseWrapper(current.request, response, error), error,
+        current.span);
       spanInScope.close();
     }
   }
 
+  @Override public void channelInactive(ChannelHandlerContext ctx) {
+    for (InFlight next; (next = inFlight.pollFirst()) != null; ) {
+      next.span.tag("error", "channel closed").finish();
+    }
+    ctx.fireChannelInactive();
+  }
+
+  @Override public void handlerRemoved(ChannelHandlerContext ctx) {
+    for (InFlight next; (next = inFlight.pollFirst()) != null; ) {
+      next.span.abandon();
+    }
+  }
+
+  /** Returns the request this response completes, or null if it is informational or unmatched. */
+  @Nullable InFlight remove(HttpResponse response) {
+    HttpResponseStatus status = response.status();
+    if (status != null && status.codeClass() == HttpStatusClass.INFORMATIONAL
+      && status.code() != HttpResponseStatus.SWITCHING_PROTOCOLS.code()) {
+      return null; // ex. 100-continue precedes the final response
+    }
+
+    String streamId = response.headers().get(STREAM_ID_HEADER);
+    if (streamId == null) return inFlight.pollFirst();
+    for (Iterator<InFlight> i = inFlight.iterator(); i.hasNext(); ) {
+      InFlight next = i.next();
+      if (streamId.equals(next.streamId)) {
+        i.remove();
+        return next;
+      }
+    }
+    return null;
+  }
+
+  static final class InFlight {
+    final HttpServerRequest request;
+    final Span span;
+    @Nullable final String streamId;
+
+    InFlight(HttpServerRequest request, Span span, @Nullable String streamId) {
+      this.request = request;
+      this.span = span;
+      this.streamId = streamId;
+    }
+  }
+
   static final class HttpRequestWrapper extends HttpServerRequest {
     final HttpRequest request;
     @Nullable final InetSocketAddress remoteAddress;
 
-    HttpRequestWrapper(HttpRequest request, InetSocketAddress remoteAddress) {
+    HttpRequestWrapper(HttpRequest request, @Nullable InetSocketAddress remoteAddress) {
       this.request = request;
       this.remoteAddress = remoteAddress;
     }
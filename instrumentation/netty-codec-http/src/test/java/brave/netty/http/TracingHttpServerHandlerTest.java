@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package brave.netty.http;
+
+import brave.Tracing;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Span;
+
+import static brave.netty.http.TracingHttpServerHandler.STREAM_ID_HEADER;
+import static io.netty.handler.codec.http.HttpResponseStatus.CONTINUE;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TracingHttpServerHandlerTest {
+  List<Span> spans = new ArrayList<>();
+  Tracing tracing = Tracing.newBuilder().spanReporter(spans::add).build();
+  EmbeddedChannel channel = new EmbeddedChannel(NettyHttpTracing.create(tracing).serverHandler());
+
+  @After public void close() {
+    channel.finishAndReleaseAll();
+    tracing.close();
+  }
+
+  @Test public void serverHandler_newInstancePerCall() {
+    NettyHttpTracing nettyHttpTracing = NettyHttpTracing.create(tracing);
+
+    assertThat(nettyHttpTracing.serverHandler()).isNotSameAs(nettyHttpTracing.serverHandler());
+  }
+
+  @Test public void pipelinedResponsesMatchRequestsInOrder() {
+    channel.writeInbound(request("/foo"), request("/bar"));
+    assertThat(spans).isEmpty();
+
+    channel.writeOutbound(response(OK));
+    channel.writeOutbound(response(NOT_FOUND));
+
+    assertThat(spans).extracting(s -> s.tags().get("http.path"))
+      .containsExactly("/foo", "/bar");
+    assertThat(spans.get(1).tags()).containsEntry("http.status_code", "404");
+  }
+
+  @Test public void informationalResponseDoesntFinishSpan() {
+    channel.writeInbound(request("/foo"));
+
+    channel.writeOutbound(response(CONTINUE));
+    assertThat(spans).isEmpty();
+
+    channel.writeOutbound(response(OK));
+    assertThat(spans).hasSize(1);
+  }
+
+  @Test public void http2_matchesOnStreamId() {
+    FullHttpRequest first = request("/foo"), second = request("/bar");
+    first.headers().set(STREAM_ID_HEADER, "3");
+    second.headers().set(STREAM_ID_HEADER, "5");
+    channel.writeInbound(first, second);
+
+    FullHttpResponse secondResponse = response(OK), firstResponse = response(NOT_FOUND);
+    secondResponse.headers().set(STREAM_ID_HEADER, "5");
+    firstResponse.headers().set(STREAM_ID_HEADER, "3");
+    channel.writeOutbound(secondResponse);
+    channel.writeOutbound(firstResponse);
+
+    assertThat(spans).extracting(s -> s.tags().get("http.path"))
+      .containsExactly("/bar", "/foo");
+    assertThat(spans.get(1).tags()).containsEntry("http.status_code", "404");
+  }
+
+  @Test public void unmatchedResponsePassesThrough() {
+    channel.writeOutbound(response(OK));
+
+    assertThat(spans).isEmpty();
+    assertThat((Object) channel.readOutbound()).isInstanceOf(FullHttpResponse.class);
+  }
+
+  @Test public void channelClose_finishesRequestsInFlight() {
+    channel.writeInbound(request("/foo"), request("/bar"));
+
+    channel.close();
+
+    assertThat(spans).extracting(s -> s.tags().get("http.path"))
+      .containsExactly("/foo", "/bar");
+    assertThat(spans).extracting(s -> s.tags().get("error"))
+      .containsExactly("channel closed", "channel closed");
+  }
+
+  @Test public void handlerRemoved_abandonsRequestsInFlight() {
+    channel.writeInbound(request("/foo"));
+
+    channel.pipeline().remove(TracingHttpServerHandler.class);
+    channel.writeOutbound(response(OK));
+    channel.close();
+
+    assertThat(spans).isEmpty();
+  }
+
+  static FullHttpRequest request(String path) {
+    return new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.GET, path);
+  }
+
+  static FullHttpResponse response(HttpResponseStatus status) {
+    return new DefaultFullHttpResponse(HTTP_1_1, status);
+  }
+}
@@ -15,7 +15,9 @@ package brave.p6spy;
 
 import brave.Span;
 import brave.internal.Nullable;
+import brave.internal.WeakIdentityMap;
 import brave.propagation.ThreadLocalSpan;
+import com.p6spy.engine.common.ConnectionInformation;
 import com.p6spy.engine.common.StatementInformation;
 import com.p6spy.engine.event.SimpleJdbcEventListener;
 import com.p6spy.engine.logging.P6LogLoadableOptions;
@@ -25,6 +27,9 @@ import java.sql.SQLException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static brave.internal.SqlStatements.changesCatalog;
+import static brave.internal.SqlStatements.spanName;
+
 final class TracingJdbcEventListener extends SimpleJdbcEventListener {
 
   private static final Pattern URL_SERVICE_NAME_FINDER =
@@ -33,6 +38,12 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
   @Nullable final String remoteServiceName;
   final boolean includeParameterValues;
   final P6LogLoadableOptions logOptions;
+  /**
+   * Remote endpoints by connection. This is by identity, as pooled connections can delegate equals
+   * to the physical connection. Keys are weak, so that connections closed by a pool can be
+   * collected.
+   */
+  final WeakIdentityMap<Connection, RemoteEndpoint> remoteEndpoints = new WeakIdentityMap<>();
 
   TracingJdbcEventListener(@Nullable String remoteServiceName, boolean includeParameterValues,
     P6LogLoadableOptions logOptions) {
@@ -52,13 +63,21 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
     String sql = includeParameterValues ? info.getSqlWithValues() : info.getSql();
     if (!isLoggable(sql)) return;
 
+    String name = spanName(sql);
     // Gets the next span (and places it in scope) so code between here and postProcess can read it
     Span span = ThreadLocalSpan.CURRENT_TRACER.next();
-    if (span == null || span.isNoop()) return;
+    if (span == null || span.isNoop()) {
+      if (changesCatalog(name)) { // resolve the service name again, even if this isn't traced
+        remoteEndpoints.remove(info.getConnectionInformation().getConnection());
+      }
+      return;
+    }
 
-    span.kind(Span.Kind.CLIENT).name(sql.substring(0, sql.indexOf(' ')));
+    span.kind(Span.Kind.CLIENT).name(name);
     span.tag("sql.query", sql);
-    parseServerIpAndPort(info.getConnectionInformation().getConnection(), span);
+    Connection connection = info.getConnectionInformation().getConnection();
+    parseServerIpAndPort(connection, span);
+    if (changesCatalog(name)) remoteEndpoints.remove(connection); // resolve the service name again
     span.start();
   }
 
@@ -72,6 +91,11 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
     span.finish();
   }
 
+  /** Connections can be reused by a pool after closing, with a different catalog. */
+  @Override public void onAfterConnectionClose(ConnectionInformation info, SQLException e) {
+    remoteEndpoints.remove(info.getConnection());
+  }
+
   boolean isLoggable(String sql) {
     // don't start a span unless there is SQL as we cannot choose a relevant name without it
     // empty batches and connection commits/rollbacks
@@ -92,32 +116,56 @@ final class TracingJdbcEventListener extends SimpleJdbcEventListener {
   /**
    * This attempts to get the ip and port from the JDBC URL. Ex. localhost and 5555 from {@code
    * jdbc:mysql://localhost:5555/mydatabase}.
+   *
+   * <p>The result is cached per connection, as reading the catalog can be a remote call. It is
+   * resolved again after a USE statement, whether or not it was sampled, or the connection closes.
+   * P6Spy doesn't notify listeners of {@link Connection#setCatalog(String)}, so set
+   * "zipkinServiceName" when using that to switch catalogs on a connection.
    */
   void parseServerIpAndPort(Connection connection, Span span) {
     try {
-      String urlAsString = connection.getMetaData().getURL().substring(5); // strip "jdbc:"
-      URI url =
-        URI.create(urlAsString.replace(" ", "")); // Remove all white space according to RFC 2396
-      String defaultRemoteServiceName = remoteServiceName;
-      Matcher matcher = URL_SERVICE_NAME_FINDER.matcher(url.toString());
-      if (matcher.find() && matcher.groupCount() == 1) {
-        String parsedServiceName = matcher.group(1);
-        if (parsedServiceName != null
-          && !parsedServiceName.isEmpty()) { // Do not override global service name if parsed service name is invalid
-          defaultRemoteServiceName = parsedServiceName;
-        }
-      }
-      if (defaultRemoteServiceName == null || "".equals(defaultRemoteServiceName)) {
-        String databaseName = connection.getCatalog();
-        if (databaseName != null && !databaseName.isEmpty()) {
-          span.remoteServiceName(databaseName);
-        }
-      } else {
-        span.remoteServiceName(defaultRemoteServiceName);
+      RemoteEndpoint endpoint = remoteEndpoints.get(connection);
+      if (endpoint == null) {
+        endpoint = resolveRemoteEndpoint(connection);
+        remoteEndpoints.put(connection, endpoint);
       }
-      span.remoteIpAndPort(url.getHost(), url.getPort());
+      if (endpoint.remoteServiceName != null) span.remoteServiceName(endpoint.remoteServiceName);
+      span.remoteIpAndPort(endpoint.host, endpoint.port);
     } catch (Exception e) {
       // remote address is optional
     }
   }
+
+  RemoteEndpoint resolveRemoteEndpoint(Connection connection) throws SQLException {
+    String urlAsString = connection.getMetaData().getURL().substring(5); // strip "jdbc:"
+    URI url =
+      URI.create(urlAsString.replace(" ", "")); // Remove all white space according to RFC 2396
+    String defaultRemoteServiceName = remoteServiceName;
+    Matcher matcher = URL_SERVICE_NAME_FINDER.matcher(url.toString());
+    if (matcher.find() && matcher.groupCount() == 1) {
+      String parsedServiceName = matcher.group(1);
+      if (parsedServiceName != null
+        && !parsedServiceName.isEmpty()) { // Do not override global service name if parsed service name is invalid
+        defaultRemoteServiceName = parsedServiceName;
+      }
+    }
+    if (defaultRemoteServiceName == null || "".equals(defaultRemoteServiceName)) {
+      String catalog = connection.getCatalog();
+      if (catalog != null && !catalog.isEmpty()) defaultRemoteServiceName = catalog;
+      else defaultRemoteServiceName = null;
+    }
+    return new RemoteEndpoint(defaultRemoteServiceName, url.getHost(), url.getPort());
+  }
+
+  static final class RemoteEndpoint {
+    @Nullable final String remoteServiceName;
+    final String host;
+    final int port;
+
+    RemoteEndpoint(@Nullable String remoteServiceName, String host, int port) {
+      this.remoteServiceName = remoteServiceName;
+      this.host = host;
+      this.port = port;
+    }
+  }
 }
@@ -32,7 +32,9 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import static brave.p6spy.ITTracingP6Factory.tracingBuilder;
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -128,6 +130,82 @@ public class TracingJdbcEventListenerTest {
     verify(span).remoteServiceName("foo");
   }
 
+  @Test public void parseServerIpAndPort_cachedForConnection() throws SQLException {
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(metaData.getURL()).thenReturn(url);
+
+    TracingJdbcEventListener listener = new TracingJdbcEventListener("foo", false, logOptions);
+    listener.parseServerIpAndPort(connection, span);
+    listener.parseServerIpAndPort(connection, span);
+
+    verify(connection).getMetaData();
+    verify(span, times(2)).remoteServiceName("foo");
+    verify(span, times(2)).remoteIpAndPort("1.2.3.4", 5555);
+  }
+
+  @Test public void resolvesServiceNameAgainAfterUse() throws SQLException {
+    when(statementInformation.getConnectionInformation()).thenReturn(connectionInformation);
+    when(connectionInformation.getConnection()).thenReturn(connection);
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(metaData.getURL()).thenReturn(url);
+    when(connection.getCatalog()).thenReturn("mydatabase", "otherdatabase");
+
+    ArrayList<zipkin2.Span> spans = new ArrayList<>();
+    try (Tracing tracing = tracingBuilder(Sampler.ALWAYS_SAMPLE, spans).build()) {
+      TracingJdbcEventListener listener = new TracingJdbcEventListener("", false, logOptions);
+      for (String sql : asList("select 1", "use otherdatabase", "select 1", "select 1")) {
+        when(statementInformation.getSql()).thenReturn(sql);
+        listener.onBeforeAnyExecute(statementInformation);
+        listener.onAfterAnyExecute(statementInformation, 1, null);
+      }
+    }
+
+    assertThat(spans).extracting(zipkin2.Span::remoteServiceName).containsExactly(
+      "mydatabase", "mydatabase", "otherdatabase", "otherdatabase");
+    verify(connection, times(2)).getCatalog(); // not read for each statement
+  }
+
+  @Test public void resolvesServiceNameAgainAfterUnsampledUse() throws SQLException {
+    when(statementInformation.getConnectionInformation()).thenReturn(connectionInformation);
+    when(connectionInformation.getConnection()).thenReturn(connection);
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(metaData.getURL()).thenReturn(url);
+    when(connection.getCatalog()).thenReturn("mydatabase", "otherdatabase");
+
+    ArrayList<zipkin2.Span> spans = new ArrayList<>();
+    Sampler sampler = new Sampler() {
+      @Override public boolean isSampled(long traceId) {
+        return !"use otherdatabase".equals(statementInformation.getSql());
+      }
+    };
+    try (Tracing tracing = tracingBuilder(sampler, spans).build()) {
+      TracingJdbcEventListener listener = new TracingJdbcEventListener("", false, logOptions);
+      for (String sql : asList("select 1", "use otherdatabase", "select 1")) {
+        when(statementInformation.getSql()).thenReturn(sql);
+        listener.onBeforeAnyExecute(statementInformation);
+        listener.onAfterAnyExecute(statementInformation, 1, null);
+      }
+    }
+
+    assertThat(spans).extracting(zipkin2.Span::remoteServiceName).containsExactly(
+      "mydatabase", "otherdatabase");
+  }
+
+  @Test public void resolvesServiceNameAgainAfterConnectionClose() throws SQLException {
+    when(connectionInformation.getConnection()).thenReturn(connection);
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(metaData.getURL()).thenReturn(url);
+    when(connection.getCatalog()).thenReturn("mydatabase", "otherdatabase");
+
+    TracingJdbcEventListener listener = new TracingJdbcEventListener("", false, logOptions);
+    listener.parseServerIpAndPort(connection, span);
+    listener.onAfterConnectionClose(connectionInformation, null);
+    listener.parseServerIpAndPort(connection, span);
+
+    verify(span).remoteServiceName("mydatabase");
+    verify(span).remoteServiceName("otherdatabase");
+  }
+
   @Test public void shouldFilterSqlExclusion() throws SQLException {
     ArrayList<zipkin2.Span> spans = new ArrayList<>();
     try (Tracing tracing = tracingBuilder(Sampler.ALWAYS_SAMPLE, spans).build()) {
@@ -13,6 +13,7 @@
  */
 package brave.rpc;
 
+import brave.internal.PropertyMatcher;
 import brave.sampler.Matcher;
 import brave.sampler.Matchers;
 
@@ -36,15 +37,16 @@ public final class RpcRequestMatchers {
     return new RpcMethodEquals<>(method);
   }
 
-  static final class RpcMethodEquals<Req extends RpcRequest> implements Matcher<Req> {
+  static final class RpcMethodEquals<Req extends RpcRequest> extends PropertyMatcher<Req> {
     final String method;
 
     RpcMethodEquals(String method) {
+      super("rpc.method", method, false);
       this.method = method;
     }
 
-    @Override public boolean matches(Req request) {
-      return method.equals(request.method());
+    @Override public String property(Req request) {
+      return request.method();
     }
 
     @Override public boolean equals(Object o) {
@@ -75,15 +77,16 @@ public final class RpcRequestMatchers {
     return new RpcServiceEquals<>(service);
   }
 
-  static final class RpcServiceEquals<Req extends RpcRequest> implements Matcher<Req> {
+  static final class RpcServiceEquals<Req extends RpcRequest> extends PropertyMatcher<Req> {
     final String service;
 
     RpcServiceEquals(String service) {
+      super("rpc.service", service, false);
       this.service = service;
     }
 
-    @Override public boolean matches(Req request) {
-      return service.equals(request.service());
+    @Override public String property(Req request) {
+      return request.service();
     }
 
     @Override public boolean equals(Object o) {
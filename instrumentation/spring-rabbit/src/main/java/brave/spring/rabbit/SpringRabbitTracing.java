@@ -45,7 +45,8 @@ public final class SpringRabbitTracing {
   static final String
     RABBIT_EXCHANGE = "rabbit.exchange",
     RABBIT_ROUTING_KEY = "rabbit.routing_key",
-    RABBIT_QUEUE = "rabbit.queue";
+    RABBIT_QUEUE = "rabbit.queue",
+    RABBIT_BATCH_TRACE_IDS = "rabbit.batch_trace_ids";
 
   public static SpringRabbitTracing create(Tracing tracing) {
     return newBuilder(tracing).build();
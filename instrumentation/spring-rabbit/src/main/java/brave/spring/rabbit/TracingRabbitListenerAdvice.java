@@ -17,12 +17,15 @@ import brave.Span;
 import brave.Tracer;
 import brave.Tracing;
 import brave.internal.Nullable;
+import brave.messaging.BatchTraceIds;
 import brave.messaging.MessagingRequest;
+import brave.propagation.TraceContext;
 import brave.propagation.TraceContext.Extractor;
 import brave.propagation.TraceContext.Injector;
 import brave.propagation.TraceContextOrSamplingFlags;
 import brave.sampler.SamplerFunction;
 import com.rabbitmq.client.Channel;
+import java.util.List;
 import org.aopalliance.aop.Advice;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
@@ -32,6 +35,7 @@ import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 
 import static brave.Span.Kind.CONSUMER;
+import static brave.spring.rabbit.SpringRabbitTracing.RABBIT_BATCH_TRACE_IDS;
 import static brave.spring.rabbit.SpringRabbitTracing.RABBIT_EXCHANGE;
 import static brave.spring.rabbit.SpringRabbitTracing.RABBIT_QUEUE;
 import static brave.spring.rabbit.SpringRabbitTracing.RABBIT_ROUTING_KEY;
@@ -46,6 +50,10 @@ import static brave.spring.rabbit.SpringRabbitTracing.RABBIT_ROUTING_KEY;
  *
  * The spans are modeled as a duration 1 {@link Span.Kind#CONSUMER} span to represent consuming the
  * message from the rabbit broker with a child span representing the processing of the message.
+ *
+ * <p>Batch listeners get one consumer span for the batch instead, similar to
+ * "singleRootSpanOnReceiveBatch" in Kafka. Messages with a sampled upstream context also get a
+ * consumer span in their own trace, and the batch span is tagged with the IDs of these traces.
  */
 final class TracingRabbitListenerAdvice implements MethodInterceptor {
 
@@ -69,10 +77,13 @@ final class TracingRabbitListenerAdvice implements MethodInterceptor {
 
   /**
    * MethodInterceptor for {@link SimpleMessageListenerContainer.ContainerDelegate#invokeListener(Channel,
-   * Message)}
+   * Object)}, where the data is a message or a batch of them.
    */
   @Override public Object invoke(MethodInvocation methodInvocation) throws Throwable {
-    Message message = (Message) methodInvocation.getArguments()[1];
+    Object data = methodInvocation.getArguments()[1];
+    if (data instanceof List) return invokeBatch(methodInvocation, (List<Message>) data);
+
+    Message message = (Message) data;
     MessageConsumerRequest request = new MessageConsumerRequest(message);
 
     TraceContextOrSamplingFlags extracted =
@@ -95,6 +106,54 @@ final class TracingRabbitListenerAdvice implements MethodInterceptor {
       listenerSpan.name("on-message").start(consumerFinish);
     }
 
+    return proceed(methodInvocation, listenerSpan);
+  }
+
+  Object invokeBatch(MethodInvocation methodInvocation, List<Message> messages) throws Throwable {
+    if (messages.isEmpty()) return methodInvocation.proceed();
+
+    Span batchSpan = null;
+    long timestamp = 0L;
+    BatchTraceIds traceIds = null; // lazy as most messages in a batch are often untraced
+    for (int i = 0, length = messages.size(); i < length; i++) {
+      Message message = messages.get(i);
+      MessageConsumerRequest request = new MessageConsumerRequest(message);
+      TraceContextOrSamplingFlags extracted =
+        springRabbitTracing.extractAndClearHeaders(extractor, request, message);
+
+      if (batchSpan == null) {
+        batchSpan = springRabbitTracing.nextMessagingSpan(
+          sampler, request, TraceContextOrSamplingFlags.EMPTY);
+        timestamp = tracing.clock(batchSpan.context()).currentTimeMicroseconds();
+        if (!batchSpan.isNoop()) {
+          setConsumerSpan(batchSpan, message.getMessageProperties());
+          batchSpan.start(timestamp);
+        }
+      }
+
+      // Only continue upstream traces that will be recorded
+      TraceContext upstream = extracted.context();
+      if (upstream == null || !Boolean.TRUE.equals(upstream.sampled())) continue;
+
+      Span span = tracer.nextSpan(extracted);
+      setConsumerSpan(span, message.getMessageProperties());
+      span.start(timestamp).finish(timestamp);
+      if (batchSpan.isNoop()) continue;
+      if (traceIds == null) traceIds = new BatchTraceIds();
+      traceIds.add(upstream);
+    }
+
+    Span listenerSpan = tracer.newChild(batchSpan.context());
+    if (!batchSpan.isNoop()) {
+      if (traceIds != null) batchSpan.tag(RABBIT_BATCH_TRACE_IDS, traceIds.toString());
+      long consumerFinish = timestamp + 1L; // save a clock reading
+      batchSpan.finish(consumerFinish);
+      listenerSpan.name("on-message").start(consumerFinish);
+    }
+    return proceed(methodInvocation, listenerSpan);
+  }
+
+  Object proceed(MethodInvocation methodInvocation, Span listenerSpan) throws Throwable {
     Tracer.SpanInScope ws = tracer.withSpanInScope(listenerSpan);
     Throwable error = null;
     try {
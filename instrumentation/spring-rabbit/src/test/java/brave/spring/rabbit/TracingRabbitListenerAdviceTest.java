@@ -25,6 +25,7 @@ import org.springframework.amqp.core.MessageBuilder;
 import org.springframework.amqp.core.MessageProperties;
 import zipkin2.Span;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
 import static org.junit.Assert.fail;
@@ -173,7 +174,51 @@ public class TracingRabbitListenerAdviceTest {
       .contains("RuntimeException");
   }
 
-  void onMessageConsumed(Message message) throws Throwable {
+  @Test public void batch_oneConsumerSpanForUntracedMessages() throws Throwable {
+    MessageProperties properties = new MessageProperties();
+    properties.setConsumerQueue("foo");
+    Message message = MessageBuilder.withBody(new byte[0]).andProperties(properties).build();
+    Message message2 = MessageBuilder.withBody(new byte[0]).andProperties(properties).build();
+    onMessageConsumed(asList(message, message2));
+
+    assertThat(spans)
+      .extracting(Span::name)
+      .containsExactly("next-message", "on-message");
+    assertThat(spans.get(0).tags())
+      .containsExactly(entry("rabbit.queue", "foo"));
+    assertThat(spans.get(1).parentId())
+      .isEqualTo(spans.get(0).id());
+  }
+
+  @Test public void batch_continuesOnlySampledUpstreamTraces() throws Throwable {
+    MessageProperties sampled = new MessageProperties();
+    sampled.setHeader("b3", TRACE_ID + "-" + SPAN_ID + "-" + SAMPLED);
+    MessageProperties unsampled = new MessageProperties();
+    unsampled.setHeader("b3", PARENT_ID + "-" + SPAN_ID + "-0");
+
+    List<Message> messages = asList(
+      MessageBuilder.withBody(new byte[0]).andProperties(sampled).build(),
+      MessageBuilder.withBody(new byte[0]).andProperties(unsampled).build(),
+      MessageBuilder.withBody(new byte[0]).build()
+    );
+    onMessageConsumed(messages);
+
+    assertThat(spans)
+      .extracting(Span::kind)
+      .containsExactly(CONSUMER, CONSUMER, null);
+    assertThat(spans.get(0).parentId())
+      .isEqualTo(SPAN_ID);
+    assertThat(spans.get(1).tags())
+      .containsExactly(entry("rabbit.batch_trace_ids", TRACE_ID));
+    assertThat(spans.get(2).parentId())
+      .isEqualTo(spans.get(1).id());
+
+    // cleared the headers to later work doesn't try to use the old parent
+    assertThat(messages)
+      .allSatisfy(m -> assertThat(m.getMessageProperties().getHeaders()).isEmpty());
+  }
+
+  void onMessageConsumed(Object message) throws Throwable {
     when(methodInvocation.getArguments()).thenReturn(new Object[] {
       null, // AMQPChannel - doesn't matter
       message